@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import pixelitor.utils.ConsoleMessageHandler;
+import pixelitor.utils.Messages;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static pixelitor.utils.ImageUtils.getPixelsAsArray;
+
+/**
+ * Shared setup code for the benchmarks
+ */
+final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Prepares the headless running of code that
+     * normally reports progress in the GUI
+     */
+    static void initHeadless() {
+        Messages.setMsgHandler(new ConsoleMessageHandler());
+    }
+
+    /**
+     * Creates a reproducible image with smooth gradients, edges and noise,
+     * so that the filters and the compression don't take shortcuts
+     * which would be unrealistic for photos.
+     */
+    static BufferedImage createImage(int width, int height, long seed) {
+        BufferedImage img = new BufferedImage(width, height, TYPE_INT_ARGB);
+        int[] pixels = getPixelsAsArray(img);
+        var random = new SplittableRandom(seed);
+        int blockSize = Math.max(8, width / 16);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int block = ((x / blockSize) + (y / blockSize)) % 2 == 0 ? 40 : 0;
+                int noise = random.nextInt(24);
+                int r = clamp(x * 255 / width + block + noise);
+                int g = clamp(y * 255 / height + noise);
+                int b = clamp((x + y) * 127 / (width + height) + block + noise);
+                pixels[y * width + x] = 0xFF_00_00_00 | r << 16 | g << 8 | b;
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Creates an image with partially transparent pixels,
+     * used as an upper layer in the blending benchmarks
+     */
+    static BufferedImage createTranslucentImage(int width, int height, long seed) {
+        BufferedImage img = createImage(width, height, seed);
+        int[] pixels = getPixelsAsArray(img);
+        for (int i = 0; i < pixels.length; i++) {
+            int alpha = (i % width) * 255 / width;
+            pixels[i] = (pixels[i] & 0x00_FF_FF_FF) | alpha << 24;
+        }
+        return img;
+    }
+
+    private static int clamp(int value) {
+        return Math.min(255, value);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pixelitor.layers.BlendingMode;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the composites of the blending modes,
+ * drawing a translucent layer image on an opaque one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlendingModeBenchmark {
+    // all the blending modes
+    @Param
+    public BlendingMode mode;
+
+    @Param({"512", "2048"})
+    public int size;
+
+    @Param({"1.0", "0.6"})
+    public float opacity;
+
+    private BufferedImage background;
+    private BufferedImage layer;
+    private BufferedImage dst;
+    private Composite composite;
+
+    @Setup
+    public void setup() {
+        background = BenchmarkSupport.createImage(size, size, 1);
+        layer = BenchmarkSupport.createTranslucentImage(size, size, 2);
+        dst = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        composite = mode.getComposite(opacity);
+    }
+
+    @Benchmark
+    public BufferedImage blend() {
+        Graphics2D g = dst.createGraphics();
+
+        // start from the same background each time
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(background, 0, 0, null);
+
+        g.setComposite(composite);
+        g.drawImage(layer, 0, 0, null);
+        g.dispose();
+        return dst;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pixelitor.Composition;
+import pixelitor.ImageMode;
+import pixelitor.layers.BlendingMode;
+import pixelitor.layers.ImageLayer;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import static pixelitor.Composition.UpdateActions.INVALIDATE_CACHE;
+import static pixelitor.layers.BlendingMode.*;
+
+/**
+ * Benchmarks the calculation of the composite image of a
+ * multi-layer composition, both from scratch and after
+ * a small region of the top layer changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompositionBenchmark {
+    private static final BlendingMode[] LAYER_MODES = {
+        NORMAL, MULTIPLY, SCREEN, OVERLAY, SOFT_LIGHT, DIFFERENCE, COLOR};
+
+    @Param({"512", "2048"})
+    public int size;
+
+    @Param({"2", "8"})
+    public int numLayers;
+
+    private Composition comp;
+    private ImageLayer topLayer;
+    private Rectangle brushArea;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.initHeadless();
+        comp = createComp(size, numLayers);
+        topLayer = (ImageLayer) comp.getLayer(numLayers - 1);
+        brushArea = new Rectangle(size / 2, size / 2, 50, 50);
+    }
+
+    /**
+     * Creates a composition with translucent layers in various blending modes.
+     * The layers don't get a GUI, so this works without a running application.
+     */
+    static Composition createComp(int size, int numLayers) {
+        var comp = Composition.createEmpty(size, size, ImageMode.RGB);
+        comp.setName("Benchmark");
+        for (int i = 0; i < numLayers; i++) {
+            BufferedImage img = i == 0
+                ? BenchmarkSupport.createImage(size, size, i)
+                : BenchmarkSupport.createTranslucentImage(size, size, i);
+            var layer = new ImageLayer(comp, img, "layer " + (i + 1));
+            if (i > 0) {
+                layer.setBlendingMode(LAYER_MODES[i % LAYER_MODES.length], false);
+                layer.setOpacity(0.8f, false);
+            }
+            comp.addLayerInInitMode(layer);
+        }
+        return comp;
+    }
+
+    @Benchmark
+    public BufferedImage fullComposite() {
+        comp.update(INVALIDATE_CACHE);
+        return comp.getCompositeImage();
+    }
+
+    @Benchmark
+    public BufferedImage dirtyRegion() {
+        comp.update(topLayer, brushArea, INVALIDATE_CACHE);
+        return comp.getCompositeImage();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import com.jhlabs.image.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+/**
+ * Benchmarks representative filters of the com.jhlabs.image package:
+ * convolution, whole-image, FFT-based and transform-based filters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+    @Param({"gaussian", "median", "lensBlur", "kaleidoscope", "polar", "swim"})
+    public String filter;
+
+    @Param({"512", "2048"})
+    public int size;
+
+    private BufferedImage src;
+    private AbstractBufferedImageOp op;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.initHeadless();
+        src = BenchmarkSupport.createImage(size, size, 1);
+        op = createFilter(filter);
+
+        // also prevents the creation of status bar progress trackers
+        op.setProgressTracker(NULL_TRACKER);
+    }
+
+    private static AbstractBufferedImageOp createFilter(String name) {
+        return switch (name) {
+            case "gaussian" -> new GaussianFilter(10, name);
+            case "median" -> new MedianFilter(name);
+            case "lensBlur" -> {
+                var f = new LensBlurFilter(name);
+                f.setRadius(10);
+                f.setSides(6);
+                yield f;
+            }
+            case "kaleidoscope" -> {
+                var f = new KaleidoscopeFilter(name);
+                f.setSides(5);
+                yield f;
+            }
+            case "polar" -> new PolarFilter(name);
+            case "swim" -> new SwimFilter(name);
+            default -> throw new IllegalStateException("Unexpected value: " + name);
+        };
+    }
+
+    @Benchmark
+    public BufferedImage filter() {
+        return op.filter(src, null);
+    }
+}
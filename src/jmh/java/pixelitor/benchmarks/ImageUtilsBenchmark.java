@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the image conversions and scalings
+ * of {@link ImageUtils} that are used when opening,
+ * saving and displaying images.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageUtilsBenchmark {
+    @Param({"toARGB", "toARGB_PRE", "toRGB", "toInterleavedRGBA",
+        "toSysCompatible", "copy", "halfSize", "thumbnail"})
+    public String conversion;
+
+    @Param({"512", "2048"})
+    public int size;
+
+    private BufferedImage argbImage;
+    private BufferedImage rgbImage;
+
+    @Setup
+    public void setup() {
+        argbImage = BenchmarkSupport.createTranslucentImage(size, size, 1);
+        rgbImage = ImageUtils.convertToRGB(argbImage);
+    }
+
+    @Benchmark
+    public BufferedImage convert() {
+        return switch (conversion) {
+            // the RGB to ARGB conversion happens when opening files
+            case "toARGB" -> ImageUtils.convertToARGB(rgbImage, false);
+            case "toARGB_PRE" -> ImageUtils.convertToARGB_PRE(argbImage, false);
+            // the conversions needed before saving
+            case "toRGB" -> ImageUtils.convertToRGB(argbImage, false);
+            case "toInterleavedRGBA" -> ImageUtils.convertToInterleavedRGBA(argbImage);
+            case "toSysCompatible" -> ImageUtils.toSysCompatibleImage(rgbImage);
+            case "copy" -> ImageUtils.copyImage(argbImage);
+            case "halfSize" -> ImageUtils.resizeInBox(argbImage, size / 2, size / 2);
+            case "thumbnail" -> ImageUtils.resizeInBox(argbImage, 100, 100);
+            default -> throw new IllegalStateException("Unexpected value: " + conversion);
+        };
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pixelitor.Composition;
+import pixelitor.io.BadPxcFormatException;
+import pixelitor.io.PXCFormat;
+import pixelitor.layers.ImageLayer;
+import pixelitor.layers.Layer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks writing and reading multi-layer pxc files.
+ * Reading includes the decoding of all layer images,
+ * even if the format would load them lazily.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PXCFormatBenchmark {
+    @Param({"512", "2048"})
+    public int size;
+
+    @Param({"1", "8"})
+    public int numLayers;
+
+    private Composition comp;
+    private File writtenFile;
+    private File readFile;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkSupport.initHeadless();
+        comp = CompositionBenchmark.createComp(size, numLayers);
+
+        writtenFile = Files.createTempFile("pxc-write", ".pxc").toFile();
+        readFile = Files.createTempFile("pxc-read", ".pxc").toFile();
+        PXCFormat.write(comp, readFile);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(writtenFile.toPath());
+        Files.deleteIfExists(readFile.toPath());
+    }
+
+    @Benchmark
+    public long write() {
+        PXCFormat.write(comp, writtenFile);
+        return writtenFile.length();
+    }
+
+    @Benchmark
+    public void read(Blackhole bh) throws BadPxcFormatException {
+        Composition readComp = PXCFormat.read(readFile);
+        for (Layer layer : readComp.getLayers()) {
+            if (layer instanceof ImageLayer imageLayer) {
+                bh.consume(imageLayer.getImage());
+            }
+        }
+    }
+}
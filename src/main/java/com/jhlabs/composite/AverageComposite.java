@@ -29,36 +29,15 @@ public final class AverageComposite extends RGBComposite {
         return new Context(extraAlpha, srcColorModel, dstColorModel);
     }
 
-    static class Context extends RGBCompositeContext {
+    static class Context extends SeparableContext {
         public Context(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
             super(alpha, srcColorModel, dstColorModel);
         }
 
         @Override
-        public void composeRGB(int[] src, int[] dst, float alpha) {
-            int w = src.length;
-
-            for (int i = 0; i < w; i += 4) {
-                int sr = src[i];
-                int dir = dst[i];
-                int sg = src[i + 1];
-                int dig = dst[i + 1];
-                int sb = src[i + 2];
-                int dib = dst[i + 2];
-                int sa = src[i + 3];
-                int dia = dst[i + 3];
-
-                int dor = (dir + sr) / 2;
-                int dog = (dig + sg) / 2;
-                int dob = (dib + sb) / 2;
-
-                float a = alpha * sa / 255.0f;
-                float ac = 1 - a;
-
-                dst[i] = (int) (a * dor + ac * dir);
-                dst[i + 1] = (int) (a * dog + ac * dig);
-                dst[i + 2] = (int) (a * dob + ac * dib);
-                dst[i + 3] = (int) (sa * alpha + dia * ac);
+        protected void blendChannel(int[] s, int[] d, int[] out, int length) {
+            for (int i = 0; i < length; i++) {
+                out[i] = (d[i] + s[i]) >> 1;
             }
         }
     }
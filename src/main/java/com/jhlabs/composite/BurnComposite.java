@@ -29,53 +29,17 @@ public final class BurnComposite extends RGBComposite {
         return new Context(extraAlpha, srcColorModel, dstColorModel);
     }
 
-    static class Context extends RGBCompositeContext {
+    static class Context extends SeparableContext {
         public Context(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
             super(alpha, srcColorModel, dstColorModel);
         }
 
         @Override
-        public void composeRGB(int[] src, int[] dst, float alpha) {
-            int w = src.length;
-
-            for (int i = 0; i < w; i += 4) {
-                int sr = src[i];
-                int dir = dst[i];
-                int sg = src[i + 1];
-                int dig = dst[i + 1];
-                int sb = src[i + 2];
-                int dib = dst[i + 2];
-                int sa = src[i + 3];
-                int dia = dst[i + 3];
-
-                int dor;
-                if (dir != 255) {
-                    dor = clamp(255 - (((255 - sr) << 8) / (dir + 1)));
-                } else {
-                    dor = sr;
-                }
-
-                int dog;
-                if (dig != 255) {
-                    dog = clamp(255 - (((255 - sg) << 8) / (dig + 1)));
-                } else {
-                    dog = sg;
-                }
-
-                int dob;
-                if (dib != 255) {
-                    dob = clamp(255 - (((255 - sb) << 8) / (dib + 1)));
-                } else {
-                    dob = sb;
-                }
-
-                float a = alpha * sa / 255.0f;
-                float ac = 1 - a;
-
-                dst[i] = (int) (a * dor + ac * dir);
-                dst[i + 1] = (int) (a * dog + ac * dig);
-                dst[i + 2] = (int) (a * dob + ac * dib);
-                dst[i + 3] = (int) (sa * alpha + dia * ac);
+        protected void blendChannel(int[] s, int[] d, int[] out, int length) {
+            for (int i = 0; i < length; i++) {
+                int di = d[i];
+                int burned = clamp(255 - (((255 - s[i]) << 8) / (di + 1)));
+                out[i] = di == 255 ? s[i] : burned;
             }
         }
     }
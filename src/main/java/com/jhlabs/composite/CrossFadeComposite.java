@@ -24,22 +24,24 @@ public class CrossFadeComposite extends RGBComposite {
         }
 
         @Override
-        public void composeRGB(int[] src, int[] dst, float alpha) {
-            int w = src.length;
-
-            for (int i = 0; i < w; i += 4) {
-                int sr = src[i];
-                int sg = src[i + 1];
-                int sb = src[i + 2];
-                int sa = src[i + 3];
-
-                float a = alpha * sa / 255.0f;
-//                float ac = 1 - a;
-
-                dst[i] = (int) (a * sr);
-                dst[i + 1] = (int) (a * sg);
-                dst[i + 2] = (int) (a * sb);
-                dst[i + 3] = (int) (sa * alpha);
+        protected void blend(PixelRow src, PixelRow dst, PixelRow result, int length) {
+            // the source replaces the destination
+        }
+
+        @Override
+        protected void mix(PixelRow src, PixelRow dst, PixelRow blended, int length, float alpha) {
+            // the same 16.16 fixed point weights as in the superclass
+            int colorFactor = Math.round(alpha * (65536 * 256 / 255.0f));
+            int alphaFactor = Math.round(alpha * 65536);
+
+            for (int i = 0; i < length; i++) {
+                int sa = src.a[i];
+                int a = (sa * colorFactor + 128) >> 8;
+
+                dst.r[i] = (a * src.r[i]) >> 16;
+                dst.g[i] = (a * src.g[i]) >> 16;
+                dst.b[i] = (a * src.b[i]) >> 16;
+                dst.a[i] = (sa * alphaFactor) >> 16;
             }
         }
     }
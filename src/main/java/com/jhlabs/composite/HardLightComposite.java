@@ -29,53 +29,19 @@ public final class HardLightComposite extends RGBComposite {
         return new Context(extraAlpha, srcColorModel, dstColorModel);
     }
 
-    static class Context extends RGBCompositeContext {
+    static class Context extends SeparableContext {
         public Context(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
             super(alpha, srcColorModel, dstColorModel);
         }
 
         @Override
-        public void composeRGB(int[] src, int[] dst, float alpha) {
-            int w = src.length;
-
-            for (int i = 0; i < w; i += 4) {
-                int sr = src[i];
-                int dir = dst[i];
-                int sg = src[i + 1];
-                int dig = dst[i + 1];
-                int sb = src[i + 2];
-                int dib = dst[i + 2];
-                int sa = src[i + 3];
-                int dia = dst[i + 3];
-
-                int dor;
-                if (sr > 127) {
-                    dor = 255 - 2 * multiply255(255 - sr, 255 - dir);
-                } else {
-                    dor = 2 * multiply255(sr, dir);
-                }
-
-                int dog;
-                if (sg > 127) {
-                    dog = 255 - 2 * multiply255(255 - sg, 255 - dig);
-                } else {
-                    dog = 2 * multiply255(sg, dig);
-                }
-
-                int dob;
-                if (sb > 127) {
-                    dob = 255 - 2 * multiply255(255 - sb, 255 - dib);
-                } else {
-                    dob = 2 * multiply255(sb, dib);
-                }
-
-                float a = alpha * sa / 255.0f;
-                float ac = 1 - a;
-
-                dst[i] = (int) (a * dor + ac * dir);
-                dst[i + 1] = (int) (a * dog + ac * dig);
-                dst[i + 2] = (int) (a * dob + ac * dib);
-                dst[i + 3] = (int) (sa * alpha + dia * ac);
+        protected void blendChannel(int[] s, int[] d, int[] out, int length) {
+            for (int i = 0; i < length; i++) {
+                int si = s[i];
+                int di = d[i];
+                int screened = 255 - 2 * multiply255(255 - si, 255 - di);
+                int multiplied = 2 * multiply255(si, di);
+                out[i] = si > 127 ? screened : multiplied;
             }
         }
     }
@@ -38,36 +38,17 @@ public final class HueComposite extends RGBComposite {
         }
 
         @Override
-        public void composeRGB(int[] src, int[] dst, float alpha) {
-            int w = src.length;
-
-            for (int i = 0; i < w; i += 4) {
-                int sr = src[i];
-                int dir = dst[i];
-                int sg = src[i + 1];
-                int dig = dst[i + 1];
-                int sb = src[i + 2];
-                int dib = dst[i + 2];
-                int sa = src[i + 3];
-                int dia = dst[i + 3];
-
-                Color.RGBtoHSB(sr, sg, sb, sHSB);
-                Color.RGBtoHSB(dir, dig, dib, dHSB);
+        protected void blend(PixelRow src, PixelRow dst, PixelRow result, int length) {
+            for (int i = 0; i < length; i++) {
+                Color.RGBtoHSB(src.r[i], src.g[i], src.b[i], sHSB);
+                Color.RGBtoHSB(dst.r[i], dst.g[i], dst.b[i], dHSB);
 
                 dHSB[0] = sHSB[0];
 
-                int doRGB = Color.HSBtoRGB(dHSB[0], dHSB[1], dHSB[2]);
-                int dor = (doRGB & 0xff0000) >> 16;
-                int dog = (doRGB & 0xff00) >> 8;
-                int dob = (doRGB & 0xff);
-
-                float a = alpha * sa / 255.0f;
-                float ac = 1 - a;
-
-                dst[i] = (int) (a * dor + ac * dir);
-                dst[i + 1] = (int) (a * dog + ac * dig);
-                dst[i + 2] = (int) (a * dob + ac * dib);
-                dst[i + 3] = (int) (sa * alpha + dia * ac);
+                int rgb = Color.HSBtoRGB(dHSB[0], dHSB[1], dHSB[2]);
+                result.r[i] = (rgb >>> 16) & 0xFF;
+                result.g[i] = (rgb >>> 8) & 0xFF;
+                result.b[i] = rgb & 0xFF;
             }
         }
     }
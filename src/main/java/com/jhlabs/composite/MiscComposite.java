@@ -143,7 +143,8 @@ public final class MiscComposite implements Composite {
 
     @Override
     public CompositeContext createContext(ColorModel srcColorModel, ColorModel dstColorModel, RenderingHints hints) {
-        return new MiscCompositeContext(rule, extraAlpha, srcColorModel, dstColorModel);
+        // the rules are implemented by the composites of the blend modes
+        return getInstance(rule, extraAlpha).createContext(srcColorModel, dstColorModel, hints);
     }
 
     public float getAlpha() {
@@ -29,72 +29,22 @@ public final class OverlayComposite extends RGBComposite {
         return new Context(extraAlpha, srcColorModel, dstColorModel);
     }
 
-    static class Context extends RGBCompositeContext {
+    static class Context extends SeparableContext {
         public Context(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
             super(alpha, srcColorModel, dstColorModel);
         }
 
         @Override
-        public void composeRGB(int[] src, int[] dst, float alpha) {
-            int w = src.length;
-
-            for (int i = 0; i < w; i += 4) {
-                int sr = src[i];
-                int dir = dst[i];
-                int sg = src[i + 1];
-                int dig = dst[i + 1];
-                int sb = src[i + 2];
-                int dib = dst[i + 2];
-                int sa = src[i + 3];
-                int dia = dst[i + 3];
-
-                int dor;
-                int t;
-                if (dir < 128) {
-                    t = dir * sr + 0x80;
-                    dor = 2 * (((t >> 8) + t) >> 8);
-                } else {
-                    t = (255 - dir) * (255 - sr) + 0x80;
-                    dor = 2 * (255 - (((t >> 8) + t) >> 8));
-                }
-
-                int dog;
-                if (dig < 128) {
-                    t = dig * sg + 0x80;
-                    dog = 2 * (((t >> 8) + t) >> 8);
-                } else {
-                    t = (255 - dig) * (255 - sg) + 0x80;
-                    dog = 2 * (255 - (((t >> 8) + t) >> 8));
-                }
-
-                int dob;
-                if (dib < 128) {
-                    t = dib * sb + 0x80;
-                    dob = 2 * (((t >> 8) + t) >> 8);
-                } else {
-                    t = (255 - dib) * (255 - sb) + 0x80;
-                    dob = 2 * (255 - (((t >> 8) + t) >> 8));
-                }
-
-                float a = alpha * sa / 255.0f;
-                float ac = 1 - a;
-
-                int newRed = (int) (a * dor + ac * dir);
-                int newGreen = (int) (a * dog + ac * dig);
-                int newBlue = (int) (a * dob + ac * dib);
-                int newAlpha = (int) (sa * alpha + dia * ac);
-
-//                if(alpha == 1.0f) {
-                dst[i] = newRed;
-                dst[i + 1] = newGreen;
-                dst[i + 2] = newBlue;
-                dst[i + 3] = newAlpha;
-//                } else {
-//                    dst[i] = PixelUtils.clamp(newRed);
-//                    dst[i + 1] = PixelUtils.clamp(newGreen);
-//                    dst[i + 2] = PixelUtils.clamp(newBlue);
-//                    dst[i + 3] = PixelUtils.clamp(newAlpha);
-//                }
+        protected void blendChannel(int[] s, int[] d, int[] out, int length) {
+            for (int i = 0; i < length; i++) {
+                int si = s[i];
+                int di = d[i];
+                int multiplied = 2 * multiply255(di, si);
+                // The original formula was 2 * (255 - m), which overflowed,
+                // and was truncated to 8 bits only for opaque sources.
+                // This gives the same (in range) values for any alpha.
+                int screened = 254 - 2 * multiply255(255 - di, 255 - si);
+                out[i] = di < 128 ? multiplied : screened;
             }
         }
     }
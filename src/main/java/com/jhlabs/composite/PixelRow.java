@@ -0,0 +1,124 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.composite;
+
+/**
+ * The channels of a row of pixels in separate arrays, with
+ * non-premultiplied values in the range 0..255.
+ *
+ * The blend kernels work on these planar arrays, because
+ * simple loops without branches over a single array can
+ * be vectorized by the JIT compiler.
+ */
+public final class PixelRow {
+    public final int[] r;
+    public final int[] g;
+    public final int[] b;
+    public final int[] a;
+
+    public PixelRow(int length) {
+        r = new int[length];
+        g = new int[length];
+        b = new int[length];
+        a = new int[length];
+    }
+
+    /**
+     * Reads the given number of packed ARGB pixels starting at the given offset.
+     */
+    public void unpack(int[] data, int offset, int length, boolean premultiplied) {
+        for (int i = 0; i < length; i++) {
+            int argb = data[offset + i];
+            a[i] = argb >>> 24;
+            r[i] = (argb >>> 16) & 0xFF;
+            g[i] = (argb >>> 8) & 0xFF;
+            b[i] = argb & 0xFF;
+        }
+        if (premultiplied) {
+            unpremultiply(length);
+        }
+    }
+
+    /**
+     * Writes the given number of pixels as packed ARGB values
+     * starting at the given offset. The channel values are
+     * truncated to 8 bits, as the raster sample models do.
+     */
+    public void pack(int[] data, int offset, int length, boolean premultiplied) {
+        if (premultiplied) {
+            premultiply(length);
+        }
+        for (int i = 0; i < length; i++) {
+            data[offset + i] = (a[i] & 0xFF) << 24
+                               | (r[i] & 0xFF) << 16
+                               | (g[i] & 0xFF) << 8
+                               | (b[i] & 0xFF);
+        }
+    }
+
+    /**
+     * Reads the pixels from the interleaved RGBA samples
+     * returned by {@link java.awt.image.Raster#getPixels}.
+     */
+    public void unpackSamples(int[] samples, int length, boolean premultiplied) {
+        for (int i = 0; i < length; i++) {
+            r[i] = samples[4 * i];
+            g[i] = samples[4 * i + 1];
+            b[i] = samples[4 * i + 2];
+            a[i] = samples[4 * i + 3];
+        }
+        if (premultiplied) {
+            unpremultiply(length);
+        }
+    }
+
+    /**
+     * Writes the pixels as interleaved RGBA samples for
+     * {@link java.awt.image.WritableRaster#setPixels}.
+     */
+    public void packSamples(int[] samples, int length, boolean premultiplied) {
+        if (premultiplied) {
+            premultiply(length);
+        }
+        for (int i = 0; i < length; i++) {
+            samples[4 * i] = r[i];
+            samples[4 * i + 1] = g[i];
+            samples[4 * i + 2] = b[i];
+            samples[4 * i + 3] = a[i];
+        }
+    }
+
+    private void unpremultiply(int length) {
+        for (int i = 0; i < length; i++) {
+            // the colors of the fully transparent pixels are 0 anyway
+            float f = 255.0f / Math.max(a[i], 1);
+            r[i] = Math.min(255, (int) (r[i] * f + 0.5f));
+            g[i] = Math.min(255, (int) (g[i] * f + 0.5f));
+            b[i] = Math.min(255, (int) (b[i] * f + 0.5f));
+        }
+    }
+
+    private void premultiply(int length) {
+        for (int i = 0; i < length; i++) {
+            int alpha = a[i] & 0xFF;
+            r[i] = RGBComposite.RGBCompositeContext.multiply255(r[i] & 0xFF, alpha);
+            g[i] = RGBComposite.RGBCompositeContext.multiply255(g[i] & 0xFF, alpha);
+            b[i] = RGBComposite.RGBCompositeContext.multiply255(b[i] & 0xFF, alpha);
+        }
+    }
+}
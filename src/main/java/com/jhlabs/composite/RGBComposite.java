@@ -19,7 +19,9 @@ package com.jhlabs.composite;
 import java.awt.Composite;
 import java.awt.CompositeContext;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 
 public abstract class RGBComposite implements Composite {
@@ -59,15 +61,21 @@ public abstract class RGBComposite implements Composite {
         return extraAlpha == c.extraAlpha;
     }
 
+    /**
+     * The base class of the blend mode contexts. The rows of the rasters
+     * are converted into planar {@link PixelRow}s, and the blend kernels
+     * of the subclasses calculate whole rows in simple per-mode loops.
+     * The packed int rasters of the images are accessed directly.
+     */
     public abstract static class RGBCompositeContext implements CompositeContext {
         private final float alpha;
-//        private final ColorModel srcColorModel;
-//        private final ColorModel dstColorModel;
+        private final boolean srcPremultiplied;
+        private final boolean dstPremultiplied;
 
         protected RGBCompositeContext(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
             this.alpha = alpha;
-//            this.srcColorModel = srcColorModel;
-//            this.dstColorModel = dstColorModel;
+            srcPremultiplied = srcColorModel != null && srcColorModel.isAlphaPremultiplied();
+            dstPremultiplied = dstColorModel != null && dstColorModel.isAlphaPremultiplied();
         }
 
         @Override
@@ -84,32 +92,122 @@ public abstract class RGBComposite implements Composite {
             return a < 0 ? 0 : a > 255 ? 255 : a;
         }
 
-        public abstract void composeRGB(int[] src, int[] dst, float alpha);
+        /**
+         * Calculates the blended colors (but not the alpha)
+         * of the source and destination pixels into the result.
+         */
+        protected abstract void blend(PixelRow src, PixelRow dst, PixelRow result, int length);
+
+        /**
+         * Mixes the blended colors into the destination
+         * according to the source alpha and the extra alpha.
+         */
+        protected void mix(PixelRow src, PixelRow dst, PixelRow blended, int length, float alpha) {
+            // The weights are 16.16 fixed point numbers, because the
+            // float to int conversions would prevent the vectorization.
+            // The source weight is (alpha * sa / 255) * 65536, and it
+            // must be exactly 65536 for opaque source pixels.
+            int colorFactor = Math.round(alpha * (65536 * 256 / 255.0f));
+            int alphaFactor = Math.round(alpha * 65536);
+
+            int[] sa = src.a;
+            int[] dr = dst.r;
+            int[] dg = dst.g;
+            int[] db = dst.b;
+            int[] da = dst.a;
+            int[] br = blended.r;
+            int[] bg = blended.g;
+            int[] bb = blended.b;
+            for (int i = 0; i < length; i++) {
+                int a = (sa[i] * colorFactor + 128) >> 8;
+                int ac = 65536 - a;
+                dr[i] = (a * br[i] + ac * dr[i]) >> 16;
+                dg[i] = (a * bg[i] + ac * dg[i]) >> 16;
+                db[i] = (a * bb[i] + ac * db[i]) >> 16;
+                da[i] = (sa[i] * alphaFactor + ac * da[i]) >> 16;
+            }
+        }
 
         @Override
         public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
-            float alpha = this.alpha;
-
-            int[] srcPix = null;
-            int[] dstPix = null;
-
             int x = dstOut.getMinX();
             int w = dstOut.getWidth();
             int y0 = dstOut.getMinY();
             int y1 = y0 + dstOut.getHeight();
 
+            PixelRow srcRow = new PixelRow(w);
+            PixelRow dstRow = new PixelRow(w);
+            PixelRow blended = new PixelRow(w);
+
+            if (isPackedARGB(src) && isPackedARGB(dstIn) && isPackedARGB(dstOut)) {
+                int[] srcData = ((DataBufferInt) src.getDataBuffer()).getData();
+                int[] dstInData = ((DataBufferInt) dstIn.getDataBuffer()).getData();
+                int[] dstOutData = ((DataBufferInt) dstOut.getDataBuffer()).getData();
+                for (int y = y0; y < y1; y++) {
+                    srcRow.unpack(srcData, dataOffset(src, x, y), w, srcPremultiplied);
+                    dstRow.unpack(dstInData, dataOffset(dstIn, x, y), w, dstPremultiplied);
+                    blend(srcRow, dstRow, blended, w);
+                    mix(srcRow, dstRow, blended, w, alpha);
+                    dstRow.pack(dstOutData, dataOffset(dstOut, x, y), w, dstPremultiplied);
+                }
+                return;
+            }
+
+            int[] srcPix = null;
+            int[] dstPix = null;
             for (int y = y0; y < y1; y++) {
                 srcPix = src.getPixels(x, y, w, 1, srcPix);
                 dstPix = dstIn.getPixels(x, y, w, 1, dstPix);
-//                int srclength = srcPix.length;
-//                int dstlength = dstPix.length;
-//                if(srclength > dstlength) {
-//                    continue;
-//                }
-                // System.out.println("RGBComposite$RGBCompositeContext.compose dstlength = " + dstlength + ", srclength = " + srclength);
-                composeRGB(srcPix, dstPix, alpha);
+                srcRow.unpackSamples(srcPix, w, srcPremultiplied);
+                dstRow.unpackSamples(dstPix, w, dstPremultiplied);
+                blend(srcRow, dstRow, blended, w);
+                mix(srcRow, dstRow, blended, w, alpha);
+                dstRow.packSamples(dstPix, w, dstPremultiplied);
                 dstOut.setPixels(x, y, w, 1, dstPix);
             }
         }
+
+        // returns true if the pixels are stored as one ARGB int per pixel
+        private static boolean isPackedARGB(Raster raster) {
+            if (!(raster.getDataBuffer() instanceof DataBufferInt)
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm)) {
+                return false;
+            }
+            int[] masks = sm.getBitMasks();
+            return masks.length == 4
+                   && masks[0] == 0xFF_00_00 && masks[1] == 0xFF_00
+                   && masks[2] == 0xFF && masks[3] == 0xFF_00_00_00;
+        }
+
+        // the index of the given pixel in the data array of the raster
+        private static int dataOffset(Raster raster, int x, int y) {
+            var sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            return raster.getDataBuffer().getOffset() + sm.getOffset(
+                x - raster.getSampleModelTranslateX(),
+                y - raster.getSampleModelTranslateY());
+        }
+    }
+
+    /**
+     * The base class of the contexts of the blend modes
+     * that calculate each color channel independently.
+     */
+    public abstract static class SeparableContext extends RGBCompositeContext {
+        protected SeparableContext(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
+            super(alpha, srcColorModel, dstColorModel);
+        }
+
+        @Override
+        protected void blend(PixelRow src, PixelRow dst, PixelRow result, int length) {
+            blendChannel(src.r, dst.r, result.r, length);
+            blendChannel(src.g, dst.g, result.g, length);
+            blendChannel(src.b, dst.b, result.b, length);
+        }
+
+        /**
+         * Calculates the blended values of a color channel. The implementations
+         * avoid branches in the loop, so that the JIT compiler can vectorize it.
+         */
+        protected abstract void blendChannel(int[] s, int[] d, int[] out, int length);
     }
 }
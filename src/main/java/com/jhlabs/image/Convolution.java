@@ -0,0 +1,502 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import com.jhlabs.math.FFT;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.Kernel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.jhlabs.image.ConvolveFilter.CLAMP_EDGES;
+import static com.jhlabs.image.ConvolveFilter.WRAP_EDGES;
+
+/**
+ * Convolves packed ARGB pixels with a kernel, using the fastest method for the kernel:
+ * separable (rank 1) kernels are applied as a horizontal and a vertical pass, large
+ * non-separable kernels are multiplied with the image in frequency space, and small
+ * kernels are applied directly. In all cases the image is processed in parallel tiles.
+ *
+ * As in {@link ConvolveFilter}, the output at (x, y) is the sum of
+ * kernel(col, row) * input(x + col - cols / 2, y + row - rows / 2).
+ */
+public class Convolution {
+    private enum Method {DIRECT, SEPARABLE, FFT}
+
+    // the non-separable kernels with at least this many
+    // elements are applied in frequency space
+    private static final int FFT_MIN_KERNEL_AREA = 121;
+
+    // relative to the largest element of the kernel
+    private static final float SEPARABILITY_TOLERANCE = 1.0e-5f;
+
+    private static final int MIN_TILE_WIDTH = 256;
+    private static final int MIN_TILE_HEIGHT = 64;
+    private static final int MIN_FFT_SIZE = 128;
+
+    // the kernel spectra of the recent FFT convolutions, shared by
+    // all instances, because the filters create a new instance for
+    // each run, but the kernel doesn't change between previews
+    private static final int MAX_CACHED_SPECTRA = 8;
+    private static final Map<SpectrumKey, float[][]> spectra =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SpectrumKey, float[][]> eldest) {
+                return size() > MAX_CACHED_SPECTRA;
+            }
+        };
+
+    private final float[] matrix;
+    private final int cols;
+    private final int rows;
+    private final int haloX;
+    private final int haloY;
+
+    private final Method method;
+
+    // the factors of a separable kernel: kernel(col, row) = rowFactors[col] * colFactors[row]
+    private float[] rowFactors;
+    private float[] colFactors;
+
+    private int edgeAction = CLAMP_EDGES;
+    private boolean useAlpha = false;
+
+    // maps the red, green and blue values before the convolution
+    private float[] inputLookup = createIdentityLookup();
+
+    public Convolution(Kernel kernel) {
+        matrix = kernel.getKernelData(null);
+        cols = kernel.getWidth();
+        rows = kernel.getHeight();
+        haloX = cols / 2;
+        haloY = rows / 2;
+
+        if (findFactors()) {
+            method = Method.SEPARABLE;
+        } else if (cols * rows >= FFT_MIN_KERNEL_AREA) {
+            method = Method.FFT;
+        } else {
+            method = Method.DIRECT;
+        }
+    }
+
+    private Convolution(float[] rowFactors, float[] colFactors) {
+        this.rowFactors = rowFactors;
+        this.colFactors = colFactors;
+        cols = rowFactors.length;
+        rows = colFactors.length;
+        haloX = cols / 2;
+        haloY = rows / 2;
+        method = Method.SEPARABLE;
+
+        matrix = new float[cols * rows];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                matrix[row * cols + col] = colFactors[row] * rowFactors[col];
+            }
+        }
+    }
+
+    /**
+     * Creates a convolution with the separable kernel that is the
+     * product of the given horizontal and vertical kernel vectors.
+     */
+    public static Convolution separable(float[] rowFactors, float[] colFactors) {
+        return new Convolution(rowFactors, colFactors);
+    }
+
+    /**
+     * Set the action to perform for pixels off the image edges.
+     *
+     * @param edgeAction one of the edge actions of {@link ConvolveFilter}
+     */
+    public void setEdgeAction(int edgeAction) {
+        this.edgeAction = edgeAction;
+    }
+
+    /**
+     * Set whether to convolve the alpha channel. If not, the
+     * output pixels keep the alpha of the input pixels.
+     */
+    public void setUseAlpha(boolean useAlpha) {
+        this.useAlpha = useAlpha;
+    }
+
+    /**
+     * Set the values that replace the red, green and blue
+     * values (0-255) of the input pixels during the convolution.
+     */
+    public void setInputLookup(float[] inputLookup) {
+        assert inputLookup.length == 256;
+        this.inputLookup = inputLookup;
+    }
+
+    public boolean isSeparable() {
+        return method == Method.SEPARABLE;
+    }
+
+    public boolean usesFFT() {
+        return method == Method.FFT;
+    }
+
+    /**
+     * Checks whether the kernel is the outer product of a row and a column
+     * vector, and if yes, then finds them: the row and the column that
+     * contain the largest element are proportional to the vectors.
+     */
+    private boolean findFactors() {
+        int maxIndex = 0;
+        for (int i = 1; i < matrix.length; i++) {
+            if (Math.abs(matrix[i]) > Math.abs(matrix[maxIndex])) {
+                maxIndex = i;
+            }
+        }
+        float max = matrix[maxIndex];
+        if (max == 0) {
+            return false;
+        }
+        int maxRow = maxIndex / cols;
+        int maxCol = maxIndex % cols;
+
+        float[] rowF = new float[cols];
+        float[] colF = new float[rows];
+        for (int col = 0; col < cols; col++) {
+            rowF[col] = matrix[maxRow * cols + col] / max;
+        }
+        for (int row = 0; row < rows; row++) {
+            colF[row] = matrix[row * cols + maxCol];
+        }
+
+        float tolerance = SEPARABILITY_TOLERANCE * Math.abs(max);
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                if (Math.abs(matrix[row * cols + col] - colF[row] * rowF[col]) > tolerance) {
+                    return false;
+                }
+            }
+        }
+        rowFactors = rowF;
+        colFactors = colF;
+        return true;
+    }
+
+    /**
+     * Convolves the input pixels into the output pixels, reporting one progress unit per line
+     */
+    public void convolve(int[] inPixels, int[] outPixels, int width, int height, ProgressTracker pt) {
+        switch (method) {
+            case DIRECT -> convolveDirectly(inPixels, outPixels, width, height, pt);
+            case SEPARABLE -> convolveSeparably(inPixels, outPixels, width, height, pt);
+            case FFT -> convolveWithFFT(inPixels, outPixels, width, height, pt);
+        }
+    }
+
+    private void convolveDirectly(int[] inPixels, int[] outPixels, int width, int height, ProgressTracker pt) {
+        int tileWidth = Math.min(width, Math.max(MIN_TILE_WIDTH, 8 * haloX));
+        int tileHeight = Math.min(height, Math.max(MIN_TILE_HEIGHT, 8 * haloY));
+        float[] lookup = inputLookup;
+
+        ParallelTiles.run(width, height, tileWidth, tileHeight, () -> null, (tile, scratch) -> {
+            int[] xMap = mapCoordinates(tile.x - haloX, tile.width + 2 * haloX, width);
+            int[] yMap = mapCoordinates(tile.y - haloY, tile.height + 2 * haloY, height);
+            for (int y = 0; y < tile.height; y++) {
+                for (int x = 0; x < tile.width; x++) {
+                    float a = 0, r = 0, g = 0, b = 0;
+                    for (int row = 0; row < rows; row++) {
+                        int iy = yMap[y + row];
+                        if (iy < 0) {
+                            continue;
+                        }
+                        int offset = iy * width;
+                        int mOffset = row * cols;
+                        for (int col = 0; col < cols; col++) {
+                            float f = matrix[mOffset + col];
+                            int ix = xMap[x + col];
+                            if (f != 0 && ix >= 0) {
+                                int rgb = inPixels[offset + ix];
+                                a += f * (rgb >>> 24);
+                                r += f * lookup[(rgb >> 16) & 0xff];
+                                g += f * lookup[(rgb >> 8) & 0xff];
+                                b += f * lookup[rgb & 0xff];
+                            }
+                        }
+                    }
+                    int index = (tile.y + y) * width + tile.x + x;
+                    outPixels[index] = toARGB(a, r, g, b, inPixels[index]);
+                }
+            }
+        }, pt);
+    }
+
+    private void convolveSeparably(int[] inPixels, int[] outPixels, int width, int height, ProgressTracker pt) {
+        int tileWidth = Math.min(width, Math.max(MIN_TILE_WIDTH, 8 * haloX));
+        int tileHeight = Math.min(height, Math.max(MIN_TILE_HEIGHT, 8 * haloY));
+        int bufferSize = tileWidth * (tileHeight + 2 * haloY);
+        float[] lookup = inputLookup;
+
+        // the scratch holds the result of the horizontal pass for
+        // the lines of the tile and the halo lines in four channels
+        ParallelTiles.run(width, height, tileWidth, tileHeight, () -> new float[4][bufferSize], (tile, buffer) -> {
+            int[] xMap = mapCoordinates(tile.x - haloX, tile.width + 2 * haloX, width);
+            int[] yMap = mapCoordinates(tile.y - haloY, tile.height + 2 * haloY, height);
+            float[] as = buffer[0];
+            float[] rs = buffer[1];
+            float[] gs = buffer[2];
+            float[] bs = buffer[3];
+
+            int numLines = tile.height + 2 * haloY;
+            for (int line = 0; line < numLines; line++) {
+                int iy = yMap[line];
+                int bufferOffset = line * tile.width;
+                if (iy < 0) {
+                    // a zero line off the image edge
+                    Arrays.fill(as, bufferOffset, bufferOffset + tile.width, 0);
+                    Arrays.fill(rs, bufferOffset, bufferOffset + tile.width, 0);
+                    Arrays.fill(gs, bufferOffset, bufferOffset + tile.width, 0);
+                    Arrays.fill(bs, bufferOffset, bufferOffset + tile.width, 0);
+                    continue;
+                }
+                int offset = iy * width;
+                for (int x = 0; x < tile.width; x++) {
+                    float a = 0, r = 0, g = 0, b = 0;
+                    for (int col = 0; col < cols; col++) {
+                        float f = rowFactors[col];
+                        int ix = xMap[x + col];
+                        if (f != 0 && ix >= 0) {
+                            int rgb = inPixels[offset + ix];
+                            a += f * (rgb >>> 24);
+                            r += f * lookup[(rgb >> 16) & 0xff];
+                            g += f * lookup[(rgb >> 8) & 0xff];
+                            b += f * lookup[rgb & 0xff];
+                        }
+                    }
+                    as[bufferOffset + x] = a;
+                    rs[bufferOffset + x] = r;
+                    gs[bufferOffset + x] = g;
+                    bs[bufferOffset + x] = b;
+                }
+            }
+
+            for (int y = 0; y < tile.height; y++) {
+                for (int x = 0; x < tile.width; x++) {
+                    float a = 0, r = 0, g = 0, b = 0;
+                    int bufferIndex = y * tile.width + x;
+                    for (int row = 0; row < rows; row++) {
+                        float f = colFactors[row];
+                        if (f != 0) {
+                            a += f * as[bufferIndex];
+                            r += f * rs[bufferIndex];
+                            g += f * gs[bufferIndex];
+                            b += f * bs[bufferIndex];
+                        }
+                        bufferIndex += tile.width;
+                    }
+                    int index = (tile.y + y) * width + tile.x + x;
+                    outPixels[index] = toARGB(a, r, g, b, inPixels[index]);
+                }
+            }
+        }, pt);
+    }
+
+    /**
+     * Convolves by overlap-save: each tile is transformed together with its halo,
+     * multiplied with the kernel spectrum and transformed back, and the part that
+     * isn't affected by the wrap-around of the circular convolution is kept.
+     * Two channels are transformed together as the real and imaginary parts
+     * of a complex signal, which works because the kernel is real.
+     */
+    private void convolveWithFFT(int[] inPixels, int[] outPixels, int width, int height, ProgressTracker pt) {
+        int fftWidth = calcFFTSize(haloX, width);
+        int fftHeight = calcFFTSize(haloY, height);
+        int fftArea = fftWidth * fftHeight;
+        float[][] spectrum = getSpectrum(fftWidth, fftHeight);
+        float[] kRe = spectrum[0];
+        float[] kIm = spectrum[1];
+        FFT fft = new FFT(Math.max(log2(fftWidth), log2(fftHeight)));
+        float[] lookup = inputLookup;
+
+        int tileWidth = fftWidth - 2 * haloX;
+        int tileHeight = fftHeight - 2 * haloY;
+
+        // alpha + i * red and green + i * blue
+        ParallelTiles.run(width, height, tileWidth, tileHeight, () -> new float[4][fftArea], (tile, buffer) -> {
+            float[] ar = buffer[0];
+            float[] ai = buffer[1];
+            float[] gr = buffer[2];
+            float[] gi = buffer[3];
+
+            int[] xMap = mapCoordinates(tile.x - haloX, fftWidth, width);
+            int[] yMap = mapCoordinates(tile.y - haloY, fftHeight, height);
+            int i = 0;
+            for (int y = 0; y < fftHeight; y++) {
+                int iy = yMap[y];
+                for (int x = 0; x < fftWidth; x++) {
+                    int ix = xMap[x];
+                    if (iy < 0 || ix < 0) {
+                        ar[i] = ai[i] = gr[i] = gi[i] = 0;
+                    } else {
+                        int rgb = inPixels[iy * width + ix];
+                        ar[i] = rgb >>> 24;
+                        ai[i] = lookup[(rgb >> 16) & 0xff];
+                        gr[i] = lookup[(rgb >> 8) & 0xff];
+                        gi[i] = lookup[rgb & 0xff];
+                    }
+                    i++;
+                }
+            }
+
+            fft.transform2D(ar, ai, fftWidth, fftHeight, true);
+            fft.transform2D(gr, gi, fftWidth, fftHeight, true);
+            for (i = 0; i < fftArea; i++) {
+                float re = ar[i];
+                float im = ai[i];
+                ar[i] = re * kRe[i] - im * kIm[i];
+                ai[i] = re * kIm[i] + im * kRe[i];
+
+                re = gr[i];
+                im = gi[i];
+                gr[i] = re * kRe[i] - im * kIm[i];
+                gi[i] = re * kIm[i] + im * kRe[i];
+            }
+            fft.transform2D(ar, ai, fftWidth, fftHeight, false);
+            fft.transform2D(gr, gi, fftWidth, fftHeight, false);
+
+            for (int y = 0; y < tile.height; y++) {
+                int bufferOffset = (y + haloY) * fftWidth + haloX;
+                int offset = (tile.y + y) * width + tile.x;
+                for (int x = 0; x < tile.width; x++) {
+                    int b = bufferOffset + x;
+                    outPixels[offset + x] = toARGB(ar[b], ai[b], gr[b], gi[b], inPixels[offset + x]);
+                }
+            }
+        }, pt);
+    }
+
+    /**
+     * Returns the power of two size of the transformed tiles in one dimension:
+     * large enough so that the halo is not a big part of it, but not much
+     * larger than the image, and at least twice as large as the halo.
+     */
+    private static int calcFFTSize(int halo, int imageSize) {
+        int size = Math.max(MIN_FFT_SIZE, nextPowerOfTwo(4 * (2 * halo + 1)));
+        int fullSize = nextPowerOfTwo(imageSize + 2 * halo);
+        return Math.min(size, fullSize);
+    }
+
+    /**
+     * Returns the spectrum of the kernel placed so that
+     * the circular convolution calculates the kernel sums
+     */
+    private float[][] getSpectrum(int fftWidth, int fftHeight) {
+        SpectrumKey key = new SpectrumKey(matrix, cols, fftWidth, fftHeight);
+        synchronized (spectra) {
+            float[][] cached = spectra.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // the output at p is the sum of kernel[k] * input[p + k], which is
+        // the circular convolution of the input with kernel[-k]
+        float[] re = new float[fftWidth * fftHeight];
+        float[] im = new float[fftWidth * fftHeight];
+        for (int row = 0; row < rows; row++) {
+            int y = Math.floorMod(haloY - row, fftHeight);
+            for (int col = 0; col < cols; col++) {
+                int x = Math.floorMod(haloX - col, fftWidth);
+                re[y * fftWidth + x] += matrix[row * cols + col];
+            }
+        }
+        new FFT(Math.max(log2(fftWidth), log2(fftHeight)))
+            .transform2D(re, im, fftWidth, fftHeight, true);
+
+        float[][] spectrum = {re, im};
+        synchronized (spectra) {
+            spectra.put(key, spectrum);
+        }
+        return spectrum;
+    }
+
+    /**
+     * Returns the image coordinates that are read for the given range
+     * of coordinates, which can extend beyond the image edges.
+     * The coordinates that are read as zero are mapped to -1.
+     */
+    private int[] mapCoordinates(int start, int length, int size) {
+        int[] map = new int[length];
+        for (int i = 0; i < length; i++) {
+            int c = start + i;
+            if (c >= 0 && c < size) {
+                map[i] = c;
+            } else if (edgeAction == CLAMP_EDGES) {
+                map[i] = c < 0 ? 0 : size - 1;
+            } else if (edgeAction == WRAP_EDGES) {
+                map[i] = Math.floorMod(c, size);
+            } else {
+                map[i] = -1;
+            }
+        }
+        return map;
+    }
+
+    private int toARGB(float a, float r, float g, float b, int origPixel) {
+        int ia = useAlpha ? PixelUtils.clamp((int) (a + 0.5f)) : origPixel >>> 24;
+        int ir = PixelUtils.clamp((int) (r + 0.5f));
+        int ig = PixelUtils.clamp((int) (g + 0.5f));
+        int ib = PixelUtils.clamp((int) (b + 0.5f));
+        return (ia << 24) | (ir << 16) | (ig << 8) | ib;
+    }
+
+    private static float[] createIdentityLookup() {
+        float[] lookup = new float[256];
+        for (int i = 0; i < lookup.length; i++) {
+            lookup[i] = i;
+        }
+        return lookup;
+    }
+
+    private static int nextPowerOfTwo(int n) {
+        int result = 1;
+        while (result < n) {
+            result *= 2;
+        }
+        return result;
+    }
+
+    private static int log2(int powerOfTwo) {
+        return Integer.numberOfTrailingZeros(powerOfTwo);
+    }
+
+    private record SpectrumKey(float[] matrix, int cols, int fftWidth, int fftHeight) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SpectrumKey other
+                   && cols == other.cols
+                   && fftWidth == other.fftWidth
+                   && fftHeight == other.fftHeight
+                   && Arrays.equals(matrix, other.matrix);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * Arrays.hashCode(matrix) + cols) + fftWidth) + fftHeight;
+        }
+    }
+}
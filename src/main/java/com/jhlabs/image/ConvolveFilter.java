@@ -211,215 +211,26 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
     }
 
     /**
-     * Convolve a block of pixels.
+     * Convolve a block of pixels. The fastest method for the kernel is chosen
+     * by {@link Convolution}: separable kernels are applied in two passes,
+     * and large kernels with FFT.
      *
      * @param kernel     the kernel
      * @param inPixels   the input pixels
      * @param outPixels  the output pixels
      * @param width      the width
      * @param height     the height
-     * @param alpha      include alpha channel
      * @param edgeAction what to do at the edges
      */
     public void convolve(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, int edgeAction) {
-        if (kernel.getHeight() == 1) {
-            convolveH(kernel, inPixels, outPixels, width, height, edgeAction);
-        } else if (kernel.getWidth() == 1) {
-            convolveV(kernel, inPixels, outPixels, width, height, edgeAction);
-        } else {
-            convolveHV(kernel, inPixels, outPixels, width, height, edgeAction);
-        }
-    }
-
-    /**
-     * Convolve with a 2D kernel.
-     *
-     * @param kernel     the kernel
-     * @param inPixels   the input pixels
-     * @param outPixels  the output pixels
-     * @param width      the width
-     * @param height     the height
-     * @param edgeAction what to do at the edges
-     */
-    public void convolveHV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, int edgeAction) {
-        int index = 0;
-        float[] matrix = kernel.getKernelData(null);
-        int rows = kernel.getHeight();
-        int cols = kernel.getWidth();
-        int rows2 = rows / 2;
-        int cols2 = cols / 2;
+        var convolution = new Convolution(kernel);
+        convolution.setEdgeAction(edgeAction);
 
         pt = createProgressTracker(height);
-
-        for (int y = 0; y < height; y++) {
-            int offset = y * width;
-            for (int x = 0; x < width; x++) {
-                float r = 0, g = 0, b = 0, a = 0;
-                int origPacked = inPixels[offset + x];
-                int origAlpha = (origPacked >> 24) & 0xff;
-
-                for (int row = -rows2; row <= rows2; row++) {
-                    int iy = y + row;
-                    int ioffset;
-                    if (0 <= iy && iy < height) {
-                        ioffset = iy * width;
-                    } else if (edgeAction == CLAMP_EDGES) {
-                        ioffset = y * width;
-                    } else if (edgeAction == WRAP_EDGES) {
-                        ioffset = ((iy + height) % height) * width;
-                    } else {
-                        continue;
-                    }
-                    int moffset = cols * (row + rows2) + cols2;
-                    for (int col = -cols2; col <= cols2; col++) {
-                        float f = matrix[moffset + col];
-
-                        if (f != 0) {
-                            int ix = x + col;
-                            if (!(0 <= ix && ix < width)) {
-                                if (edgeAction == CLAMP_EDGES) {
-                                    ix = x;
-                                } else if (edgeAction == WRAP_EDGES) {
-                                    ix = (x + width) % width;
-                                } else {
-                                    continue;
-                                }
-                            }
-                            int rgb = inPixels[ioffset + ix];
-                            r += f * ((rgb >> 16) & 0xff);
-                            g += f * ((rgb >> 8) & 0xff);
-                            b += f * (rgb & 0xff);
-                        }
-                    }
-                }
-                int ir = PixelUtils.clamp((int) (r + 0.5));
-                int ig = PixelUtils.clamp((int) (g + 0.5));
-                int ib = PixelUtils.clamp((int) (b + 0.5));
-                outPixels[index++] = (origAlpha << 24) | (ir << 16) | (ig << 8) | ib;
-            }
-            pt.unitDone();
-        }
+        convolution.convolve(inPixels, outPixels, width, height, pt);
         finishProgressTracker();
     }
 
-    /**
-     * Convolve with a kernel consisting of one row.
-     *
-     * @param kernel     the kernel
-     * @param inPixels   the input pixels
-     * @param outPixels  the output pixels
-     * @param width      the width
-     * @param height     the height
-     * @param edgeAction what to do at the edges
-     */
-    public static void convolveH(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, int edgeAction) {
-        int index = 0;
-        float[] matrix = kernel.getKernelData(null);
-        int cols = kernel.getWidth();
-        int cols2 = cols / 2;
-
-        for (int y = 0; y < height; y++) {
-            int ioffset = y * width;
-            for (int x = 0; x < width; x++) {
-                int origPacked = inPixels[ioffset + x];
-                int origAlpha = (origPacked >> 24) & 0xff;
-                float r = 0, g = 0, b = 0;
-                int moffset = cols2;
-                for (int col = -cols2; col <= cols2; col++) {
-                    float f = matrix[moffset + col];
-
-                    if (f != 0) {
-                        int ix = x + col;
-                        if (ix < 0) {
-                            if (edgeAction == CLAMP_EDGES) {
-                                ix = 0;
-                            } else if (edgeAction == WRAP_EDGES) {
-                                ix = (x + width) % width;
-                            }
-                        } else if (ix >= width) {
-                            if (edgeAction == CLAMP_EDGES) {
-                                ix = width - 1;
-                            } else if (edgeAction == WRAP_EDGES) {
-                                ix = (x + width) % width;
-                            }
-                        }
-                        int rgb = inPixels[ioffset + ix];
-                        r += f * ((rgb >> 16) & 0xff);
-                        g += f * ((rgb >> 8) & 0xff);
-                        b += f * (rgb & 0xff);
-                    }
-                }
-                int ir = PixelUtils.clamp((int) (r + 0.5));
-                int ig = PixelUtils.clamp((int) (g + 0.5));
-                int ib = PixelUtils.clamp((int) (b + 0.5));
-                outPixels[index++] = (origAlpha << 24) | (ir << 16) | (ig << 8) | ib;
-            }
-        }
-    }
-
-    /**
-     * Convolve with a kernel consisting of one column.
-     *
-     * @param kernel     the kernel
-     * @param inPixels   the input pixels
-     * @param outPixels  the output pixels
-     * @param width      the width
-     * @param height     the height
-     * @param edgeAction what to do at the edges
-     */
-    public static void convolveV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, int edgeAction) {
-        int index = 0;
-        float[] matrix = kernel.getKernelData(null);
-        int rows = kernel.getHeight();
-        int rows2 = rows / 2;
-
-        for (int y = 0; y < height; y++) {
-            int offset = y * width;
-            for (int x = 0; x < width; x++) {
-                float r = 0, g = 0, b = 0;
-                int origPacked = inPixels[offset + x];
-                int origAlpha = (origPacked >> 24) & 0xff;
-
-                for (int row = -rows2; row <= rows2; row++) {
-                    int iy = y + row;
-                    int ioffset;
-                    if (iy < 0) {
-                        if (edgeAction == CLAMP_EDGES) {
-                            ioffset = 0;
-                        } else if (edgeAction == WRAP_EDGES) {
-                            ioffset = ((y + height) % height) * width;
-                        } else {
-                            ioffset = iy * width;
-                        }
-                    } else if (iy >= height) {
-                        if (edgeAction == CLAMP_EDGES) {
-                            ioffset = (height - 1) * width;
-                        } else if (edgeAction == WRAP_EDGES) {
-                            ioffset = ((y + height) % height) * width;
-                        } else {
-                            ioffset = iy * width;
-                        }
-                    } else {
-                        ioffset = iy * width;
-                    }
-
-                    float f = matrix[row + rows2];
-
-                    if (f != 0) {
-                        int rgb = inPixels[ioffset + x];
-                        r += f * ((rgb >> 16) & 0xff);
-                        g += f * ((rgb >> 8) & 0xff);
-                        b += f * (rgb & 0xff);
-                    }
-                }
-                int ir = PixelUtils.clamp((int) (r + 0.5));
-                int ig = PixelUtils.clamp((int) (g + 0.5));
-                int ib = PixelUtils.clamp((int) (b + 0.5));
-                outPixels[index++] = (origAlpha << 24) | (ir << 16) | (ig << 8) | ib;
-            }
-        }
-    }
-
     @Override
     public String toString() {
         return "Blur/Convolve...";
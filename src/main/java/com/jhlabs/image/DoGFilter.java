@@ -103,7 +103,7 @@ public class DoGFilter extends AbstractBufferedImageOp {
         int height = src.getHeight();
         BufferedImage image1;
 
-        int singleBlurUnit = 3 * (width + height);
+        int singleBlurUnit = width + height;
         int workUnits = 0;
         if (radius1 > 0.0f) {
             workUnits += singleBlurUnit;
@@ -118,7 +118,7 @@ public class DoGFilter extends AbstractBufferedImageOp {
         pt = createProgressTracker(workUnits);
 
         if (radius1 > 0.0f) {
-            BoxBlurFilter blur = new BoxBlurFilter(radius1, radius1, 3, filterName);
+            GaussianFilter blur = GaussianFilter.likeBoxBlur(radius1, 3, filterName);
             blur.setProgressTracker(pt);
             image1 = blur.filter(src, null);
         } else {
@@ -126,7 +126,7 @@ public class DoGFilter extends AbstractBufferedImageOp {
         }
 //        BufferedImage image2;
         if (radius2 > 0.0f) {
-            BoxBlurFilter blur = new BoxBlurFilter(radius2, radius2, 3, filterName);
+            GaussianFilter blur = GaussianFilter.likeBoxBlur(radius2, 3, filterName);
             blur.setProgressTracker(pt);
             dst = blur.filter(src, null);
         } else {
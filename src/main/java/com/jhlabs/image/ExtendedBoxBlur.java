@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
+/**
+ * A one-dimensional Gaussian blur approximated by repeated extended
+ * box filters (Gwosdek et al., "Theoretical Foundations of Gaussian
+ * Convolution by Extended Box Filtering"). An extended box is a box
+ * with fractional weights at its two ends, so its variance can be set
+ * exactly, and with running sums each pass costs the same for any radius.
+ *
+ * The lines are blurred in parallel, and the results are written
+ * transposed, so that calling it twice blurs in both directions.
+ */
+final class ExtendedBoxBlur {
+    private static final int NUM_PASSES = 3;
+
+    // the number of lines which are blurred before they are
+    // written out together, so that the transposed writes
+    // fill whole cache lines instead of single pixels
+    private static final int BLOCK_LINES = 16;
+
+    private final int boxRadius;
+    private final float innerWeight;
+    private final float outerWeight;
+
+    /**
+     * Creates a blur with the given standard deviation
+     */
+    ExtendedBoxBlur(float sigma) {
+        double passVariance = sigma * sigma / (double) NUM_PASSES;
+
+        // the largest integer box that is not wider than needed
+        int r = (int) Math.floor(0.5 * Math.sqrt(12 * passVariance + 1) - 0.5);
+        // the weight of the two extra pixels relative to the inner ones
+        double alpha = (2 * r + 1) * (r * (r + 1) - 3 * passVariance)
+                       / (6 * (passVariance - (r + 1) * (r + 1)));
+        double norm = 2 * r + 1 + 2 * alpha;
+
+        boxRadius = r;
+        innerWeight = (float) (1 / norm);
+        outerWeight = (float) (alpha / norm);
+    }
+
+    /**
+     * Blurs the lines of the input pixels, and writes them transposed
+     * into the output, which will have height pixels in a line.
+     *
+     * @param alpha         whether to blur the alpha channel
+     * @param premultiply   whether to premultiply the input colors
+     * @param unpremultiply whether to unpremultiply the output colors
+     */
+    void blurAndTranspose(int[] inPixels, int[] outPixels, int width, int height,
+                          boolean alpha, boolean premultiply, boolean unpremultiply,
+                          ProgressTracker pt) {
+        ThreadPool.runInStrips(height, width, (startY, endY) -> {
+            // the channels of the blurred lines, and a buffer for the passes
+            float[][] lines = new float[4][BLOCK_LINES * width];
+            float[] tmp = new float[width];
+            int[] block = new int[BLOCK_LINES * width];
+
+            for (int blockY = startY; blockY < endY; blockY += BLOCK_LINES) {
+                int numLines = Math.min(BLOCK_LINES, endY - blockY);
+                for (int i = 0; i < numLines; i++) {
+                    int offset = i * width;
+                    unpack(inPixels, (blockY + i) * width, lines, offset, width, premultiply);
+                    for (int ch = alpha ? 0 : 1; ch < 4; ch++) {
+                        blurLine(lines[ch], offset, width, tmp);
+                    }
+                    pack(lines, offset, width, inPixels, (blockY + i) * width,
+                        block, offset, alpha, unpremultiply);
+                }
+
+                // each column of the block becomes a contiguous run in the output
+                for (int x = 0; x < width; x++) {
+                    int outIndex = x * height + blockY;
+                    for (int i = 0; i < numLines; i++) {
+                        outPixels[outIndex + i] = block[i * width + x];
+                    }
+                }
+            }
+        }, pt);
+    }
+
+    private static void unpack(int[] pixels, int pixelsOffset,
+                               float[][] lines, int offset,
+                               int width, boolean premultiply) {
+        float[] a = lines[0];
+        float[] r = lines[1];
+        float[] g = lines[2];
+        float[] b = lines[3];
+        for (int x = 0; x < width; x++) {
+            int rgb = pixels[pixelsOffset + x];
+            int pa = (rgb >>> 24) & 0xFF;
+            float f = premultiply ? pa * (1.0f / 255.0f) : 1.0f;
+            a[offset + x] = pa;
+            r[offset + x] = ((rgb >>> 16) & 0xFF) * f;
+            g[offset + x] = ((rgb >>> 8) & 0xFF) * f;
+            b[offset + x] = (rgb & 0xFF) * f;
+        }
+    }
+
+    private static void pack(float[][] lines, int offset, int width,
+                             int[] origPixels, int origOffset,
+                             int[] out, int outOffset,
+                             boolean alpha, boolean unpremultiply) {
+        float[] a = lines[0];
+        float[] r = lines[1];
+        float[] g = lines[2];
+        float[] b = lines[3];
+        for (int x = 0; x < width; x++) {
+            float fa = a[offset + x];
+            float fr = r[offset + x];
+            float fg = g[offset + x];
+            float fb = b[offset + x];
+            if (unpremultiply && fa != 0 && fa != 255) {
+                float f = 255.0f / fa;
+                fr *= f;
+                fg *= f;
+                fb *= f;
+            }
+            int ia = alpha
+                ? PixelUtils.clamp((int) (fa + 0.5f))
+                : origPixels[origOffset + x] >>> 24;
+            int ir = PixelUtils.clamp((int) (fr + 0.5f));
+            int ig = PixelUtils.clamp((int) (fg + 0.5f));
+            int ib = PixelUtils.clamp((int) (fb + 0.5f));
+            out[outOffset + x] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+        }
+    }
+
+    /**
+     * Blurs the given part of the channel in place, with
+     * the edge pixels repeated outside the line.
+     */
+    private void blurLine(float[] channel, int offset, int length, float[] tmp) {
+        int r = boxRadius;
+        int last = length - 1;
+        float[] src = channel;
+        int srcOffset = offset;
+        float[] dst = tmp;
+        int dstOffset = 0;
+
+        for (int pass = 0; pass < NUM_PASSES; pass++) {
+            // the sum of the inner box around the first pixel
+            double sum = 0;
+            for (int i = -r; i <= r; i++) {
+                sum += src[srcOffset + clamp(i, last)];
+            }
+            for (int x = 0; x < length; x++) {
+                float outer = src[srcOffset + clamp(x - r - 1, last)]
+                              + src[srcOffset + clamp(x + r + 1, last)];
+                dst[dstOffset + x] = (float) (innerWeight * sum + outerWeight * outer);
+
+                // slide the inner box to the next pixel
+                sum += src[srcOffset + clamp(x + r + 1, last)]
+                       - src[srcOffset + clamp(x - r, last)];
+            }
+
+            // ping-pong between the line and the buffer
+            float[] swap = src;
+            src = dst;
+            dst = swap;
+            int swapOffset = srcOffset;
+            srcOffset = dstOffset;
+            dstOffset = swapOffset;
+        }
+
+        if (src != channel) {
+            System.arraycopy(src, srcOffset, channel, offset, length);
+        }
+    }
+
+    private static int clamp(int index, int last) {
+        if (index < 0) {
+            return 0;
+        }
+        return Math.min(index, last);
+    }
+}
@@ -21,7 +21,6 @@ import pixelitor.utils.ProgressTracker;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.Kernel;
-import java.util.concurrent.Future;
 
 /**
  * A filter which applies Gaussian blur to an image. This is a subclass of ConvolveFilter
@@ -40,6 +39,11 @@ public class GaussianFilter extends ConvolveFilter {
      */
     protected boolean alpha = true;
 
+    /**
+     * Whether to approximate the Gaussian with extended box filters.
+     */
+    private boolean boxApproximation = false;
+
     /**
      * Construct a Gaussian filter.
      */
@@ -77,6 +81,28 @@ public class GaussianFilter extends ConvolveFilter {
         return alpha;
     }
 
+    /**
+     * Set whether to approximate the Gaussian with repeated extended box filters.
+     * The approximation takes the same time for any radius, which makes
+     * it much faster for large radii, and it is visually very close.
+     *
+     * @param boxApproximation true to use the approximation
+     * @see #getUseBoxApproximation
+     */
+    public void setUseBoxApproximation(boolean boxApproximation) {
+        this.boxApproximation = boxApproximation;
+    }
+
+    /**
+     * Get whether the Gaussian is approximated with repeated extended box filters.
+     *
+     * @return true if the approximation is used
+     * @see #setUseBoxApproximation
+     */
+    public boolean getUseBoxApproximation() {
+        return boxApproximation;
+    }
+
     /**
      * Set the radius of the kernel, and hence the amount of blur. The bigger the radius, the longer this filter will take.
      *
@@ -117,7 +143,12 @@ public class GaussianFilter extends ConvolveFilter {
 //        int[] inPixels = ImageUtils.getPixelsAsArray( src);
         getRGB(src, 0, 0, width, height, inPixels);
 
-        if (radius > 0) {
+        if (radius > 0 && boxApproximation) {
+            int[] outPixels = new int[width * height];
+            var blur = new ExtendedBoxBlur(radius / 3);
+            blur.blurAndTranspose(inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, pt);
+            blur.blurAndTranspose(outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, pt);
+        } else if (radius > 0) {
             int[] outPixels = new int[width * height];
             convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, CLAMP_EDGES, pt);
             convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, CLAMP_EDGES, pt);
@@ -148,14 +179,11 @@ public class GaussianFilter extends ConvolveFilter {
         int cols = kernel.getWidth();
         int cols2 = cols / 2;
 
-        Future<?>[] resultLines = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable lineTask = () -> convolveAndTransposeLine(inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, edgeAction, matrix, cols2, finalY);
-            resultLines[y] = ThreadPool.submit(lineTask);
-        }
-
-        ThreadPool.waitFor(resultLines, pt);
+        ThreadPool.runInStrips(height, width, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                convolveAndTransposeLine(inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, edgeAction, matrix, cols2, y);
+            }
+        }, pt);
     }
 
     private static void convolveAndTransposeLine(int[] inPixels, int[] outPixels, int width, int height, boolean alpha, boolean premultiply, boolean unpremultiply, int edgeAction, float[] matrix, int cols2, int y) {
@@ -257,6 +285,18 @@ public class GaussianFilter extends ConvolveFilter {
         return new Kernel(rows, 1, matrix);
     }
 
+    /**
+     * Creates a fast Gaussian filter that blurs as much as
+     * the given number of iterations of a box blur with the given radius.
+     */
+    public static GaussianFilter likeBoxBlur(float boxRadius, int iterations, String filterName) {
+        // the variance of a box with a width of 2r+1 is r(r+1)/3
+        double variance = iterations * boxRadius * (boxRadius + 1) / 3.0;
+        var filter = new GaussianFilter((float) (3 * Math.sqrt(variance)), filterName);
+        filter.setUseBoxApproximation(true);
+        return filter;
+    }
+
     @Override
     public String toString() {
         return "Blur/Gaussian Blur...";
@@ -79,8 +79,8 @@ public class GlowFilter extends AbstractBufferedImageOp {
 
 
         if (radius > 0) {
-            BoxBlurFilter boxBlur = new BoxBlurFilter(radius, radius, 3, filterName);
-            srcCopy = boxBlur.filter(srcCopy, srcCopy);
+            GaussianFilter blur = GaussianFilter.likeBoxBlur(radius, 3, filterName);
+            srcCopy = blur.filter(srcCopy, srcCopy);
         }
 
         int[] outPixels = ImageUtils.getPixelsAsArray(srcCopy);
@@ -17,98 +17,231 @@ limitations under the License.
 package com.jhlabs.image;
 
 import java.awt.Rectangle;
+import java.util.Arrays;
 
 /**
- * A filter which performs a 3x3 median operation. Useful for removing dust and noise.
+ * A filter which performs a median operation. Useful for removing dust and noise.
+ *
+ * Laszlo: the original filter calculated a vector median in a fixed 3x3 area.
+ * Now the median is calculated separately in each channel, with the
+ * constant-time histogram algorithm from "Median Filtering in Constant Time"
+ * by Perreault and Hebert, so that larger radii are also possible.
+ * At the edges only the pixels inside the image are considered.
  */
-public class MedianFilter extends WholeImageFilter {
+public class MedianFilter extends NeighbourhoodFilter<MedianFilter.Histograms> {
+    private static final int NUM_CHANNELS = 4;
+    private static final int[] SHIFTS = {24, 16, 8, 0};
+
+    // each channel value belongs to one of the 16 coarse bins,
+    // and within that to one of the 16 fine bins
+    private static final int NUM_COARSE_BINS = 16;
+    private static final int NUM_FINE_BINS = 256;
+
+    private int radius = 1;
+
     public MedianFilter(String filterName) {
         super(filterName);
     }
 
-//    private static int median(int[] array) {
-//        int max, maxIndex;
-//
-//        for (int i = 0; i < 4; i++) {
-//            max = 0;
-//            maxIndex = 0;
-//            for (int j = 0; j < 9; j++) {
-//                if (array[j] > max) {
-//                    max = array[j];
-//                    maxIndex = j;
-//                }
-//            }
-//            array[maxIndex] = 0;
-//        }
-//        max = 0;
-//        for (int i = 0; i < 9; i++) {
-//            if (array[i] > max) {
-//                max = array[i];
-//            }
-//        }
-//        return max;
-//    }
-
-    private static int rgbMedian(int[] r, int[] g, int[] b) {
-        int sum, index = 0, min = Integer.MAX_VALUE;
-
-        for (int i = 0; i < 9; i++) {
-            sum = 0;
-            for (int j = 0; j < 9; j++) {
-                sum += Math.abs(r[i] - r[j]);
-                sum += Math.abs(g[i] - g[j]);
-                sum += Math.abs(b[i] - b[j]);
-            }
-            if (sum < min) {
-                min = sum;
-                index = i;
-            }
-        }
-        return index;
+    /**
+     * Set the radius of the effect.
+     *
+     * @param radius the radius
+     * @min-value 0
+     * @see #getRadius
+     */
+    public void setRadius(int radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * Get the radius of the effect.
+     *
+     * @return the radius
+     * @see #setRadius
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    @Override
+    protected int getHaloX() {
+        return radius;
+    }
+
+    @Override
+    protected int getHaloY() {
+        return radius;
     }
 
     @Override
-    protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-        int index = 0;
-        int[] argb = new int[9];
-        int[] r = new int[9];
-        int[] g = new int[9];
-        int[] b = new int[9];
-        int[] outPixels = new int[width * height];
-
-        pt = createProgressTracker(height);
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int k = 0;
-                for (int dy = -1; dy <= 1; dy++) {
-                    int iy = y + dy;
-                    if (0 <= iy && iy < height) {
-                        int ioffset = iy * width;
-                        for (int dx = -1; dx <= 1; dx++) {
-                            int ix = x + dx;
-                            if (0 <= ix && ix < width) {
-                                int rgb = inPixels[ioffset + ix];
-                                argb[k] = rgb;
-                                r[k] = (rgb >> 16) & 0xff;
-                                g[k] = (rgb >> 8) & 0xff;
-                                b[k] = rgb & 0xff;
-                                k++;
-                            }
+    protected Histograms createScratch(int maxTileWidth, int maxTileHeight) {
+        return new Histograms(maxTileWidth + 2 * radius);
+    }
+
+    @Override
+    protected void filterTile(int[] inPixels, int width, int height,
+                              Rectangle tile, int[] outPixels, Histograms h) {
+        int r = radius;
+        Rectangle halo = haloBounds(tile, r, r, width, height);
+        int firstCol = halo.x;
+        int numCols = halo.width;
+
+        // the column histograms cover the window rows of the first tile line
+        for (int ch = 0; ch < NUM_CHANNELS; ch++) {
+            Arrays.fill(h.colCoarse[ch], 0, numCols * NUM_COARSE_BINS, 0);
+            Arrays.fill(h.colFine[ch], 0, numCols * NUM_FINE_BINS, 0);
+        }
+        int lastRow = Math.min(height - 1, tile.y + r);
+        for (int y = Math.max(0, tile.y - r); y <= lastRow; y++) {
+            updateColumns(h, inPixels, y * width + firstCol, numCols, 1);
+        }
+
+        int outIndex = 0;
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            if (y > tile.y) {
+                // slide the column histograms down by one line
+                int removedRow = y - r - 1;
+                if (removedRow >= 0) {
+                    updateColumns(h, inPixels, removedRow * width + firstCol, numCols, -1);
+                }
+                int addedRow = y + r;
+                if (addedRow < height) {
+                    updateColumns(h, inPixels, addedRow * width + firstCol, numCols, 1);
+                }
+            }
+            int numRows = Math.min(height - 1, y + r) - Math.max(0, y - r) + 1;
+
+            // the coarse kernel histograms of the first pixel in the line
+            for (int ch = 0; ch < NUM_CHANNELS; ch++) {
+                int[] coarse = h.coarse[ch];
+                int[] colCoarse = h.colCoarse[ch];
+                Arrays.fill(coarse, 0);
+                Arrays.fill(h.lastUpdatedCol[ch], Integer.MIN_VALUE);
+                int lastCol = Math.min(width - 1, tile.x + r);
+                for (int col = Math.max(0, tile.x - r); col <= lastCol; col++) {
+                    addBins(coarse, 0, colCoarse, (col - firstCol) * NUM_COARSE_BINS,
+                        NUM_COARSE_BINS, 1);
+                }
+            }
+
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                if (x > tile.x) {
+                    // slide the coarse kernel histograms right by one pixel
+                    int addedCol = x + r;
+                    int removedCol = x - r - 1;
+                    for (int ch = 0; ch < NUM_CHANNELS; ch++) {
+                        if (addedCol < width) {
+                            addBins(h.coarse[ch], 0, h.colCoarse[ch],
+                                (addedCol - firstCol) * NUM_COARSE_BINS, NUM_COARSE_BINS, 1);
+                        }
+                        if (removedCol >= 0) {
+                            addBins(h.coarse[ch], 0, h.colCoarse[ch],
+                                (removedCol - firstCol) * NUM_COARSE_BINS, NUM_COARSE_BINS, -1);
                         }
                     }
                 }
-                while (k < 9) {
-                    argb[k] = 0xff000000;
-                    r[k] = g[k] = b[k] = 0;
-                    k++;
+                int numPixels = numRows * (Math.min(width - 1, x + r) - Math.max(0, x - r) + 1);
+                int rank = (numPixels - 1) / 2;
+
+                int argb = 0;
+                for (int ch = 0; ch < NUM_CHANNELS; ch++) {
+                    argb |= findMedian(h, ch, x, rank, width, firstCol) << SHIFTS[ch];
                 }
-                outPixels[index++] = argb[rgbMedian(r, g, b)];
+                outPixels[outIndex++] = argb;
             }
-            pt.unitDone();
         }
-        finishProgressTracker();
-        return outPixels;
+    }
+
+    /**
+     * Adds (sign = 1) or removes (sign = -1) the pixels of
+     * a line segment to/from the column histograms.
+     */
+    private static void updateColumns(Histograms h, int[] inPixels, int offset, int numCols, int sign) {
+        for (int col = 0; col < numCols; col++) {
+            int rgb = inPixels[offset + col];
+            for (int ch = 0; ch < NUM_CHANNELS; ch++) {
+                int v = (rgb >>> SHIFTS[ch]) & 0xFF;
+                h.colCoarse[ch][col * NUM_COARSE_BINS + (v >> 4)] += sign;
+                h.colFine[ch][col * NUM_FINE_BINS + v] += sign;
+            }
+        }
+    }
+
+    private int findMedian(Histograms h, int ch, int x, int rank, int width, int firstCol) {
+        int r = radius;
+
+        // find the coarse bin of the median
+        int[] coarse = h.coarse[ch];
+        int count = 0;
+        int k = 0;
+        while (count + coarse[k] <= rank) {
+            count += coarse[k];
+            k++;
+        }
+
+        // The fine bins within the coarse bin are updated only now, and only
+        // with the columns that were added since their last use. In smooth
+        // areas the same few coarse bins are used again and again.
+        int[] fine = h.fine[ch];
+        int[] colFine = h.colFine[ch];
+        int[] lastUpdatedCol = h.lastUpdatedCol[ch];
+        int segment = k * NUM_COARSE_BINS;
+        int lastCol = Math.min(width - 1, x + r);
+        if (lastUpdatedCol[k] <= x - r) {
+            // nothing can be reused
+            Arrays.fill(fine, segment, segment + NUM_COARSE_BINS, 0);
+            for (int col = Math.max(0, x - r); col <= lastCol; col++) {
+                addBins(fine, segment, colFine, (col - firstCol) * NUM_FINE_BINS + segment,
+                    NUM_COARSE_BINS, 1);
+            }
+        } else {
+            for (int col = lastUpdatedCol[k]; col <= x + r; col++) {
+                if (col < width) {
+                    addBins(fine, segment, colFine, (col - firstCol) * NUM_FINE_BINS + segment,
+                        NUM_COARSE_BINS, 1);
+                }
+                int removedCol = col - 2 * r - 1;
+                if (removedCol >= 0) {
+                    addBins(fine, segment, colFine, (removedCol - firstCol) * NUM_FINE_BINS + segment,
+                        NUM_COARSE_BINS, -1);
+                }
+            }
+        }
+        lastUpdatedCol[k] = x + r + 1;
+
+        int bin = segment;
+        while (count + fine[bin] <= rank) {
+            count += fine[bin];
+            bin++;
+        }
+        return bin;
+    }
+
+    private static void addBins(int[] to, int toOffset, int[] from, int fromOffset, int length, int sign) {
+        for (int i = 0; i < length; i++) {
+            to[toOffset + i] += sign * from[fromOffset + i];
+        }
+    }
+
+    /**
+     * The scratch buffers of a thread: the histograms of the columns in
+     * the tile halo, and the histograms of the current kernel
+     */
+    static final class Histograms {
+        private final int[][] colCoarse;
+        private final int[][] colFine;
+        private final int[][] coarse = new int[NUM_CHANNELS][NUM_COARSE_BINS];
+        private final int[][] fine = new int[NUM_CHANNELS][NUM_FINE_BINS];
+
+        // for each coarse bin, the column after the last
+        // column that was added to its fine bins
+        private final int[][] lastUpdatedCol = new int[NUM_CHANNELS][NUM_COARSE_BINS];
+
+        private Histograms(int maxCols) {
+            colCoarse = new int[NUM_CHANNELS][maxCols * NUM_COARSE_BINS];
+            colFine = new int[NUM_CHANNELS][maxCols * NUM_FINE_BINS];
+        }
     }
 
     @Override
@@ -116,4 +249,3 @@ public class MedianFilter extends WholeImageFilter {
         return "Blur/Median";
     }
 }
-
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.*;
+
+/**
+ * A superclass for the filters that calculate each output pixel from
+ * a rectangular neighbourhood of the input pixel at the same position.
+ *
+ * The output is split into tiles that are calculated in parallel. A tile
+ * reads the input pixels in its halo (the tile extended by the neighbourhood
+ * radii), and the tiles are made large enough so that the halo is only a small
+ * fraction of the work. Each thread gets its own scratch object (created by
+ * {@link #createScratch(int, int)}) and tile output buffer, which are reused
+ * for all the tiles the thread calculates.
+ *
+ * @param <S> the type of the scratch buffers
+ */
+public abstract class NeighbourhoodFilter<S> extends WholeImageFilter {
+    private static final int MIN_TILE_WIDTH = 256;
+    private static final int MIN_TILE_HEIGHT = 64;
+
+    // the tile sides are at least this many times the neighbourhood radius
+    private static final int HALO_FACTOR = 8;
+
+    protected NeighbourhoodFilter(String filterName) {
+        super(filterName);
+    }
+
+    /**
+     * Returns the horizontal radius of the neighbourhood
+     */
+    protected abstract int getHaloX();
+
+    /**
+     * Returns the vertical radius of the neighbourhood
+     */
+    protected abstract int getHaloY();
+
+    /**
+     * Creates the scratch buffers of a thread, which must be
+     * sufficient for any tile with at most the given size.
+     */
+    protected abstract S createScratch(int maxTileWidth, int maxTileHeight);
+
+    /**
+     * Calculates the output pixels of the given tile.
+     *
+     * @param inPixels  the pixels of the whole input image
+     * @param width     the image width
+     * @param height    the image height
+     * @param tile      the calculated area of the image
+     * @param outPixels the output of the tile, with tile.width pixels per line
+     * @param scratch   the scratch buffers of the current thread
+     */
+    protected abstract void filterTile(int[] inPixels, int width, int height,
+                                       Rectangle tile, int[] outPixels, S scratch);
+
+    @Override
+    public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+
+        if (dst == null) {
+            dst = createCompatibleDestImage(src, null);
+        }
+        int type = dst.getType();
+        if (type != TYPE_INT_ARGB && type != TYPE_INT_ARGB_PRE && type != TYPE_INT_RGB) {
+            // the other image types can have multiple pixels
+            // in a data element, so they are written at once
+            setRGB(dst, 0, 0, width, height, filterPixels(width, height,
+                getRGB(src, 0, 0, width, height, null), null));
+            return dst;
+        }
+
+        int[] inPixels = getRGB(src, 0, 0, width, height, null);
+        BufferedImage out = dst;
+
+        pt = createProgressTracker(height);
+        runTiles(inPixels, width, height, (tile, tilePixels) ->
+            setRGB(out, tile.x, tile.y, tile.width, tile.height, tilePixels));
+        finishProgressTracker();
+
+        return dst;
+    }
+
+    @Override
+    protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
+        int[] outPixels = new int[width * height];
+
+        pt = createProgressTracker(height);
+        runTiles(inPixels, width, height, (tile, tilePixels) -> {
+            for (int y = 0; y < tile.height; y++) {
+                System.arraycopy(tilePixels, y * tile.width,
+                    outPixels, (tile.y + y) * width + tile.x, tile.width);
+            }
+        });
+        finishProgressTracker();
+
+        return outPixels;
+    }
+
+    private void runTiles(int[] inPixels, int width, int height, TileConsumer consumer) {
+        int tileWidth = Math.min(width, Math.max(MIN_TILE_WIDTH, HALO_FACTOR * getHaloX()));
+        int tileHeight = Math.min(height, Math.max(MIN_TILE_HEIGHT, HALO_FACTOR * getHaloY()));
+
+        ParallelTiles.run(width, height, tileWidth, tileHeight,
+            () -> new Worker(new int[tileWidth * tileHeight], createScratch(tileWidth, tileHeight)),
+            (tile, worker) -> {
+                filterTile(inPixels, width, height, tile, worker.tilePixels, worker.scratch);
+                consumer.accept(tile, worker.tilePixels);
+            }, pt);
+    }
+
+    /**
+     * Returns the tile extended by the given radii, clipped to the image
+     */
+    protected static Rectangle haloBounds(Rectangle tile, int haloX, int haloY,
+                                          int width, int height) {
+        int minX = Math.max(0, tile.x - haloX);
+        int minY = Math.max(0, tile.y - haloY);
+        int maxX = Math.min(width, tile.x + tile.width + haloX);
+        int maxY = Math.min(height, tile.y + tile.height + haloY);
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    // the reused buffers of a thread
+    private final class Worker {
+        private final int[] tilePixels;
+        private final S scratch;
+
+        private Worker(int[] tilePixels, S scratch) {
+            this.tilePixels = tilePixels;
+            this.scratch = scratch;
+        }
+    }
+
+    @FunctionalInterface
+    private interface TileConsumer {
+        void accept(Rectangle tile, int[] tilePixels);
+    }
+}
@@ -16,10 +16,8 @@ limitations under the License.
 
 package com.jhlabs.image;
 
-import pixelitor.ThreadPool;
-
-import java.awt.*;
-import java.util.concurrent.Future;
+import java.awt.Rectangle;
+import java.util.Arrays;
 
 /**
  * A filter which produces a "oil-painting" effect.
@@ -28,8 +26,10 @@ import java.util.concurrent.Future;
  * but this led to strange artifacts, so I changed it according to
  * http://supercomputingblog.com/graphics/oil-painting-algorithm/
  * to use only one intensity-histogram.
+ * The histograms are not recalculated for each pixel, instead
+ * they slide along the lines, updated by the entering and leaving columns.
  */
-public class OilFilter extends WholeImageFilter {
+public class OilFilter extends NeighbourhoodFilter<OilFilter.Histograms> {
     private int rangeX = 3;
     private int rangeY = 3;
     private int levels = 256;
@@ -67,89 +67,119 @@ public class OilFilter extends WholeImageFilter {
     }
 
     @Override
-    protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-        int[] outPixels = new int[width * height];
-
-        pt = createProgressTracker(height);
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable lineTask = () -> calculateLine(width, height, inPixels, outPixels, finalY);
-            futures[y] = ThreadPool.submit(lineTask);
-        }
+    protected int getHaloX() {
+        return rangeX;
+    }
 
-        ThreadPool.waitFor(futures, pt);
-        finishProgressTracker();
+    @Override
+    protected int getHaloY() {
+        return rangeY;
+    }
 
-        return outPixels;
+    @Override
+    protected Histograms createScratch(int maxTileWidth, int maxTileHeight) {
+        return new Histograms(levels);
     }
 
-    private void calculateLine(int width, int height, int[] inPixels, int[] outPixels, int y) {
-        int index = y * width;
-        int[] rTotal = new int[levels];
-        int[] gTotal = new int[levels];
-        int[] bTotal = new int[levels];
-        int[] histogram = new int[levels];
-        for (int x = 0; x < width; x++) {
-            // The idea is that for each pixel the most frequently occuring
-            // intensity value in its neighborhood is found, and this will determine
-            // new value of the pixel
-            for (int i = 0; i < levels; i++) {
-                histogram[i] = rTotal[i] = gTotal[i] = bTotal[i] = 0;
+    @Override
+    protected void filterTile(int[] inPixels, int width, int height,
+                              Rectangle tile, int[] outPixels, Histograms h) {
+        int outIndex = 0;
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            // For each pixel, all pixels within the brush size will have to be examined.
+            int minY = Math.max(0, y - rangeY);
+            int maxY = Math.min(height - 1, y + rangeY);
+
+            h.clear();
+            int maxX = Math.min(width - 1, tile.x + rangeX);
+            for (int col = Math.max(0, tile.x - rangeX); col <= maxX; col++) {
+                updateColumn(h, inPixels, width, col, minY, maxY, 1);
             }
 
-            // For each pixel, all pixels within the brush size will have to be examined.
-            for (int row = -rangeY; row <= rangeY; row++) {
-                int iy = y + row;
-                if (0 <= iy && iy < height) {
-                    int ioffset = iy * width;
-                    for (int col = -rangeX; col <= rangeX; col++) {
-                        int ix = x + col;
-                        if (0 <= ix && ix < width) {
-                            // examining each neighbor pixel which is within brush size
-                            int rgb = inPixels[ioffset + ix];
-                            int r = (rgb >> 16) & 0xff;
-                            int g = (rgb >> 8) & 0xff;
-
-                            int b = rgb & 0xff;
-                            int intensity = (r + g + b) / 3;
-                            // For each sub-pixel, calculate the intensity, and determine
-                            // which intensity bin that intensity number falls into
-                            int intensityI = intensity * levels / 256;
-                            histogram[intensityI]++;
-
-                            // Also maintain the total red, green, and blue values for each bin,
-                            // later these may be used to determine the final value of the pixel.
-                            rTotal[intensityI] += r;
-                            gTotal[intensityI] += g;
-                            bTotal[intensityI] += b;
-                        }
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                if (x > tile.x) {
+                    int removedCol = x - rangeX - 1;
+                    if (removedCol >= 0) {
+                        updateColumn(h, inPixels, width, removedCol, minY, maxY, -1);
+                    }
+                    int addedCol = x + rangeX;
+                    if (addedCol < width) {
+                        updateColumn(h, inPixels, width, addedCol, minY, maxY, 1);
                     }
                 }
-            }
 
-            // Determine which intensity bin has the most number of pixels in it.
-            int maxIndex = 0;
-            int curMax = 0;
-            for (int i = 0; i < levels; i++) {
-                if (histogram[i] > curMax) {
-                    curMax = histogram[i];
-                    maxIndex = i;
+                // The idea is that for each pixel the most frequently occuring
+                // intensity value in its neighborhood is found, and this will determine
+                // new value of the pixel
+                int[] histogram = h.histogram;
+                int maxIndex = 0;
+                int curMax = 0;
+                for (int i = 0; i < levels; i++) {
+                    if (histogram[i] > curMax) {
+                        curMax = histogram[i];
+                        maxIndex = i;
+                    }
                 }
+
+                // The final color of the pixel is the average of the colors
+                // in the bin with the highest number of pixels
+                int r = h.rTotal[maxIndex] / curMax;
+                int g = h.gTotal[maxIndex] / curMax;
+                int b = h.bTotal[maxIndex] / curMax;
+
+                outPixels[outIndex++] = (inPixels[y * width + x] & 0xff000000) | (r << 16) | (g << 8) | b;
             }
+        }
+    }
 
-            // The final color of the pixel is the average of the colors
-            // in the bin with the highest number of pixels
-            int r = rTotal[maxIndex] / curMax;
-            int g = gTotal[maxIndex] / curMax;
-            int b = bTotal[maxIndex] / curMax;
+    /**
+     * Adds (sign = 1) or removes (sign = -1) the pixels
+     * of a column segment to/from the histograms.
+     */
+    private void updateColumn(Histograms h, int[] inPixels, int width,
+                              int col, int minY, int maxY, int sign) {
+        for (int iy = minY; iy <= maxY; iy++) {
+            int rgb = inPixels[iy * width + col];
+            int r = (rgb >> 16) & 0xff;
+            int g = (rgb >> 8) & 0xff;
+            int b = rgb & 0xff;
+
+            // For each sub-pixel, calculate the intensity, and determine
+            // which intensity bin that intensity number falls into
+            int intensity = (r + g + b) / 3;
+            int intensityI = intensity * levels / 256;
+            h.histogram[intensityI] += sign;
+
+            // Also maintain the total red, green, and blue values for each bin,
+            // later these may be used to determine the final value of the pixel.
+            h.rTotal[intensityI] += sign * r;
+            h.gTotal[intensityI] += sign * g;
+            h.bTotal[intensityI] += sign * b;
+        }
+    }
 
-//                r = PixelUtils.clamp(r);
-//                g = PixelUtils.clamp(g);
-//                b = PixelUtils.clamp(b);
+    /**
+     * The intensity histogram and the color totals of the
+     * intensity bins, reused by a thread for all its pixels
+     */
+    static final class Histograms {
+        private final int[] histogram;
+        private final int[] rTotal;
+        private final int[] gTotal;
+        private final int[] bTotal;
+
+        private Histograms(int levels) {
+            histogram = new int[levels];
+            rTotal = new int[levels];
+            gTotal = new int[levels];
+            bTotal = new int[levels];
+        }
 
-            outPixels[index] = (inPixels[index] & 0xff000000) | (r << 16) | (g << 8) | b;
-            index++;
+        private void clear() {
+            Arrays.fill(histogram, 0);
+            Arrays.fill(rTotal, 0);
+            Arrays.fill(gTotal, 0);
+            Arrays.fill(bTotal, 0);
         }
     }
 
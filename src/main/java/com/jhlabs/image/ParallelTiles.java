@@ -0,0 +1,124 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Runs a calculation over the rectangular tiles of an image on the
+ * {@link ThreadPool}, giving each thread its own reused scratch object
+ * (if the scratch factory returns null, no scratch objects are used).
+ */
+final class ParallelTiles {
+    private ParallelTiles() {
+        // do not instantiate
+    }
+
+    /**
+     * Processes the tiles of the given size (the last ones in a row or column
+     * can be smaller) in parallel, and waits for them. The progress tracker
+     * receives one unit per image line, as the filters are expected to report.
+     *
+     * If it's called on a thread of the pool (for example from a background
+     * task or while recalculating a smart filter), the tiles are processed
+     * on the calling thread, because waiting for the other threads of the
+     * fixed-size pool could deadlock, just like in {@link ThreadPool#runInStrips}.
+     */
+    static <S> void run(int width, int height, int tileWidth, int tileHeight,
+                        Supplier<S> scratchFactory, TileTask<S> task, ProgressTracker pt) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        if (ThreadPool.isPoolThread()) {
+            S scratch = scratchFactory.get();
+            for (int y = 0; y < height; y += tileHeight) {
+                for (int x = 0; x < width; x += tileWidth) {
+                    task.run(new Rectangle(x, y,
+                        Math.min(tileWidth, width - x), Math.min(tileHeight, height - y)), scratch);
+                }
+                pt.unitsDone(Math.min(tileHeight, height - y));
+            }
+            return;
+        }
+
+        // the scratch objects of the threads that finished a tile
+        Queue<S> idleScratches = new ConcurrentLinkedQueue<>();
+
+        List<Rectangle> tiles = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int y = 0; y < height; y += tileHeight) {
+            for (int x = 0; x < width; x += tileWidth) {
+                Rectangle tile = new Rectangle(x, y,
+                    Math.min(tileWidth, width - x), Math.min(tileHeight, height - y));
+                tiles.add(tile);
+                futures.add(ThreadPool.submit(() -> {
+                    S scratch = idleScratches.poll();
+                    if (scratch == null) {
+                        scratch = scratchFactory.get();
+                    }
+                    task.run(tile, scratch);
+                    if (scratch != null) {
+                        idleScratches.add(scratch);
+                    }
+                }));
+            }
+        }
+
+        long pixelsDone = 0;
+        int linesReported = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                for (Future<?> future : futures) {
+                    future.cancel(false);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            Rectangle tile = tiles.get(i);
+            pixelsDone += (long) tile.width * tile.height;
+            int lines = (int) (pixelsDone / width);
+            if (lines > linesReported) {
+                pt.unitsDone(lines - linesReported);
+                linesReported = lines;
+            }
+        }
+    }
+
+    /**
+     * The calculation of a tile
+     */
+    @FunctionalInterface
+    interface TileTask<S> {
+        void run(Rectangle tile, S scratch);
+    }
+}
@@ -22,7 +22,7 @@ import java.awt.Rectangle;
  * A filter which performs reduces noise by looking at each pixel's 8 neighbours, and if it's a minimum or maximum,
  * replacing it by the next minimum or maximum of the neighbours.
  */
-public class ReduceNoiseFilter extends WholeImageFilter {
+public class ReduceNoiseFilter extends NeighbourhoodFilter<int[][]> {
     public ReduceNoiseFilter(String filterName) {
         super(filterName);
     }
@@ -52,17 +52,32 @@ public class ReduceNoiseFilter extends WholeImageFilter {
     }
 
     @Override
-    protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-        int index = 0;
-        int[] r = new int[9];
-        int[] g = new int[9];
-        int[] b = new int[9];
-        int[] outPixels = new int[width * height];
+    protected int getHaloX() {
+        return 1;
+    }
+
+    @Override
+    protected int getHaloY() {
+        return 1;
+    }
+
+    @Override
+    protected int[][] createScratch(int maxTileWidth, int maxTileHeight) {
+        // the red, green and blue values of the 3x3 neighbourhood
+        return new int[3][9];
+    }
 
-        pt = createProgressTracker(height);
+    @Override
+    protected void filterTile(int[] inPixels, int width, int height,
+                              Rectangle tile, int[] outPixels, int[][] scratch) {
+        int[] r = scratch[0];
+        int[] g = scratch[1];
+        int[] b = scratch[2];
+        int outIndex = 0;
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                int index = y * width + x;
                 int k = 0;
                 int irgb = inPixels[index];
                 int ir = (irgb >> 16) & 0xff;
@@ -95,15 +110,9 @@ public class ReduceNoiseFilter extends WholeImageFilter {
                         }
                     }
                 }
-                outPixels[index] = (inPixels[index] & 0xff000000) | (smooth(r) << 16) | (smooth(g) << 8) | smooth(b);
-                index++;
+                outPixels[outIndex++] = (irgb & 0xff000000) | (smooth(r) << 16) | (smooth(g) << 8) | smooth(b);
             }
-            pt.unitDone();
         }
-
-        finishProgressTracker();
-
-        return outPixels;
     }
 
     @Override
@@ -251,8 +251,7 @@ public class ShadowFilter extends AbstractBufferedImageOp {
         };
         BufferedImage shadow = new BufferedImage(width, height, TYPE_INT_ARGB);
         new BandCombineOp(extractAlpha, null).filter(src.getRaster(), shadow.getRaster());
-//        shadow = new GaussianFilter(radius, filterName).filter(shadow, null);
-        shadow = new BoxBlurFilter(radius, radius, 3, filterName).filter(shadow, null);
+        shadow = GaussianFilter.likeBoxBlur(radius, 3, filterName).filter(shadow, null);
 
         Graphics2D g = dst.createGraphics();
         g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
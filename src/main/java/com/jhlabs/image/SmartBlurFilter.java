@@ -16,121 +16,136 @@ limitations under the License.
 
 package com.jhlabs.image;
 
-import pixelitor.utils.ProgressTracker;
-
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.Kernel;
 
 /**
  * A filter which performs a "smart blur". i.e. a blur which blurs smotth parts of the image while preserving edges.
+ *
+ * The horizontal and the vertical passes are done tile by tile: the horizontal pass
+ * also covers the halo lines above and below the tile, and the vertical pass reads them.
  */
-public class SmartBlurFilter extends AbstractBufferedImageOp {
+public class SmartBlurFilter extends NeighbourhoodFilter<int[]> {
     private int hRadius = 5;
     private int vRadius = 5;
     private int threshold = 10;
 
+    // the kernel data of the current run
+    private float[] matrix;
+
     public SmartBlurFilter(String filterName) {
         super(filterName);
     }
 
     @Override
     public BufferedImage filter(BufferedImage src, BufferedImage dst) {
-        int width = src.getWidth();
-        int height = src.getHeight();
-
-        pt = createProgressTracker(width + height);
+        // both passes use the horizontal radius
+        matrix = GaussianFilter.makeKernel(hRadius).getKernelData(null);
 
-        if (dst == null) {
-            dst = createCompatibleDestImage(src, null);
-        }
+        return super.filter(src, dst);
+    }
 
-        int[] inPixels = new int[width * height];
-        int[] outPixels = new int[width * height];
-        getRGB(src, 0, 0, width, height, inPixels);
+    @Override
+    protected int getHaloX() {
+        return matrix.length / 2;
+    }
 
-        Kernel kernel = GaussianFilter.makeKernel(hRadius);
-        thresholdBlur(kernel, inPixels, outPixels, width, height, true, pt);
-        thresholdBlur(kernel, outPixels, inPixels, height, width, true, pt);
+    @Override
+    protected int getHaloY() {
+        return matrix.length / 2;
+    }
 
-        setRGB(dst, 0, 0, width, height, inPixels);
+    @Override
+    protected int[] createScratch(int maxTileWidth, int maxTileHeight) {
+        // the horizontally blurred tile with the halo lines
+        return new int[maxTileWidth * (maxTileHeight + 2 * getHaloY())];
+    }
 
-        finishProgressTracker();
+    @Override
+    protected void filterTile(int[] inPixels, int width, int height,
+                              Rectangle tile, int[] outPixels, int[] blurred) {
+        Rectangle lines = haloBounds(tile, 0, getHaloY(), width, height);
+        int tileWidth = tile.width;
+
+        int index = 0;
+        for (int y = lines.y; y < lines.y + lines.height; y++) {
+            for (int x = tile.x; x < tile.x + tileWidth; x++) {
+                blurred[index++] = thresholdBlur(inPixels, y * width, 1, x, width);
+            }
+        }
 
-        return dst;
+        index = 0;
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            for (int x = 0; x < tileWidth; x++) {
+                // the line y of the image is the line (y - lines.y) in the buffer
+                outPixels[index++] = thresholdBlur(blurred, x - lines.y * tileWidth, tileWidth, y, height);
+            }
+        }
     }
 
     /**
-     * Convolve with a kernel consisting of one row
+     * Convolves a pixel with a kernel consisting of one row, along a line
+     * of the given length, which starts at the base index and has the given
+     * stride between the pixels. Only the pixels which are similar to
+     * the center pixel contribute.
      */
-    private void thresholdBlur(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, ProgressTracker pt) {
-//		int index = 0;
-        float[] matrix = kernel.getKernelData(null);
-        int cols = kernel.getWidth();
-        int cols2 = cols / 2;
-
-        for (int y = 0; y < height; y++) {
-            int ioffset = y * width;
-            int outIndex = y;
-            for (int x = 0; x < width; x++) {
-                float r = 0, g = 0, b = 0, a = 0;
-                int moffset = cols2;
-
-                int rgb1 = inPixels[ioffset + x];
-                int a1 = (rgb1 >> 24) & 0xff;
-                int r1 = (rgb1 >> 16) & 0xff;
-                int g1 = (rgb1 >> 8) & 0xff;
-                int b1 = rgb1 & 0xff;
-                float af = 0, rf = 0, gf = 0, bf = 0;
-                for (int col = -cols2; col <= cols2; col++) {
-                    float f = matrix[moffset + col];
-
-                    if (f != 0) {
-                        int ix = x + col;
-                        if (!(0 <= ix && ix < width)) {
-                            ix = x;
-                        }
-                        int rgb2 = inPixels[ioffset + ix];
-                        int a2 = (rgb2 >> 24) & 0xff;
-                        int r2 = (rgb2 >> 16) & 0xff;
-                        int g2 = (rgb2 >> 8) & 0xff;
-                        int b2 = rgb2 & 0xff;
-
-                        int d;
-                        d = a1 - a2;
-                        if (d >= -threshold && d <= threshold) {
-                            a += f * a2;
-                            af += f;
-                        }
-                        d = r1 - r2;
-                        if (d >= -threshold && d <= threshold) {
-                            r += f * r2;
-                            rf += f;
-                        }
-                        d = g1 - g2;
-                        if (d >= -threshold && d <= threshold) {
-                            g += f * g2;
-                            gf += f;
-                        }
-                        d = b1 - b2;
-                        if (d >= -threshold && d <= threshold) {
-                            b += f * b2;
-                            bf += f;
-                        }
-                    }
+    private int thresholdBlur(int[] pixels, int base, int stride, int pos, int length) {
+        int cols2 = matrix.length / 2;
+
+        float r = 0, g = 0, b = 0, a = 0;
+
+        int rgb1 = pixels[base + pos * stride];
+        int a1 = (rgb1 >> 24) & 0xff;
+        int r1 = (rgb1 >> 16) & 0xff;
+        int g1 = (rgb1 >> 8) & 0xff;
+        int b1 = rgb1 & 0xff;
+        float af = 0, rf = 0, gf = 0, bf = 0;
+        for (int col = -cols2; col <= cols2; col++) {
+            float f = matrix[cols2 + col];
+
+            if (f != 0) {
+                int i = pos + col;
+                if (!(0 <= i && i < length)) {
+                    i = pos;
+                }
+                int rgb2 = pixels[base + i * stride];
+                int a2 = (rgb2 >> 24) & 0xff;
+                int r2 = (rgb2 >> 16) & 0xff;
+                int g2 = (rgb2 >> 8) & 0xff;
+                int b2 = rgb2 & 0xff;
+
+                int d;
+                d = a1 - a2;
+                if (d >= -threshold && d <= threshold) {
+                    a += f * a2;
+                    af += f;
+                }
+                d = r1 - r2;
+                if (d >= -threshold && d <= threshold) {
+                    r += f * r2;
+                    rf += f;
+                }
+                d = g1 - g2;
+                if (d >= -threshold && d <= threshold) {
+                    g += f * g2;
+                    gf += f;
+                }
+                d = b1 - b2;
+                if (d >= -threshold && d <= threshold) {
+                    b += f * b2;
+                    bf += f;
                 }
-                a = af == 0 ? a1 : a / af;
-                r = rf == 0 ? r1 : r / rf;
-                g = gf == 0 ? g1 : g / gf;
-                b = bf == 0 ? b1 : b / bf;
-                int ia = alpha ? PixelUtils.clamp((int) (a + 0.5)) : 0xff;
-                int ir = PixelUtils.clamp((int) (r + 0.5));
-                int ig = PixelUtils.clamp((int) (g + 0.5));
-                int ib = PixelUtils.clamp((int) (b + 0.5));
-                outPixels[outIndex] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
-                outIndex += height;
             }
-            pt.unitDone();
         }
+        a = af == 0 ? a1 : a / af;
+        r = rf == 0 ? r1 : r / rf;
+        g = gf == 0 ? g1 : g / gf;
+        b = bf == 0 ? b1 : b / bf;
+        int ia = PixelUtils.clamp((int) (a + 0.5));
+        int ir = PixelUtils.clamp((int) (r + 0.5));
+        int ig = PixelUtils.clamp((int) (g + 0.5));
+        int ib = PixelUtils.clamp((int) (b + 0.5));
+        return (ia << 24) | (ir << 16) | (ig << 8) | ib;
     }
 
     /**
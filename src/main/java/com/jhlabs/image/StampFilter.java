@@ -144,11 +144,7 @@ public class StampFilter extends PointFilter {
     @Override
     public BufferedImage filter(BufferedImage src, BufferedImage dst) {
         if (blurMethod == BOX3_BLUR) {
-            if ((src.getWidth() == 1) || (src.getHeight() == 1)) {
-                // otherwise we get ArrayIndexOutOfBoundsException in BoxBlurFilter
-                return src;
-            }
-            dst = new BoxBlurFilter(radius, radius, 3, filterName).filter(src, null);
+            dst = GaussianFilter.likeBoxBlur(radius, 3, filterName).filter(src, null);
         } else if (blurMethod == GAUSSIAN_BLUR) {
             dst = new GaussianFilter(radius, filterName).filter(src, null);
         } else {
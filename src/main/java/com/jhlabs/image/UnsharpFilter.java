@@ -16,8 +16,12 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import pixelitor.ThreadPool;
+
 import java.awt.image.BufferedImage;
 
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
 /**
  * A filter which subtracts Gaussian blur from an image, sharpening it.
  *
@@ -79,37 +83,48 @@ public class UnsharpFilter extends GaussianFilter {
         int width = src.getWidth();
         int height = src.getHeight();
 
-        pt = createProgressTracker(width + height);
+        pt = createProgressTracker(height);
 
         if (dst == null) {
             dst = createCompatibleDestImage(src, null);
         }
 
         int[] inPixels = new int[width * height];
-        //        src.getRGB(0, 0, width, height, inPixels, 0, width);
         getRGB(src, 0, 0, width, height, inPixels);
 
+        // the blurred pixels
         int[] outPixels = new int[width * height];
         if (radius > 0) {
-            convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, CLAMP_EDGES, pt);
-            convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, CLAMP_EDGES, pt);
-        }
+            boolean premultiply = alpha && premultiplyAlpha;
+            int[] blurSource = inPixels;
+            if (premultiply) {
+                blurSource = inPixels.clone();
+                ImageMath.premultiply(blurSource, 0, blurSource.length);
+            }
 
-        // src.getRGB(0, 0, width, height, outPixels, 0, width);
-        // TODO system.arraycopy would be even faster
-        getRGB(src, 0, 0, width, height, outPixels);
+            // the Gaussian kernel is separable
+            float[] factors = kernel.getKernelData(null);
+            var convolution = Convolution.separable(factors, factors);
+            convolution.setUseAlpha(alpha);
+            convolution.convolve(blurSource, outPixels, width, height, pt);
+
+            if (premultiply) {
+                ImageMath.unpremultiply(outPixels, 0, outPixels.length);
+            }
+        } else {
+            System.arraycopy(inPixels, 0, outPixels, 0, inPixels.length);
+        }
 
         float a = 4 * amount;
 
-        int index = 0;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb1 = outPixels[index];
+        ThreadPool.runInStrips(height, width, (startY, endY) -> {
+            for (int index = startY * width; index < endY * width; index++) {
+                int rgb1 = inPixels[index];
                 int r1 = (rgb1 >> 16) & 0xff;
                 int g1 = (rgb1 >> 8) & 0xff;
                 int b1 = rgb1 & 0xff;
 
-                int rgb2 = inPixels[index];
+                int rgb2 = outPixels[index];
                 int r2 = (rgb2 >> 16) & 0xff;
                 int g2 = (rgb2 >> 8) & 0xff;
                 int b2 = rgb2 & 0xff;
@@ -125,9 +140,8 @@ public class UnsharpFilter extends GaussianFilter {
                 }
 
                 inPixels[index] = (rgb1 & 0xff000000) | (r1 << 16) | (g1 << 8) | b1;
-                index++;
             }
-        }
+        }, NULL_TRACKER);
 
         dst.setRGB(0, 0, width, height, inPixels, 0, width);
 
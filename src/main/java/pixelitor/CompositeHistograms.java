@@ -0,0 +1,215 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.utils.Histograms;
+import pixelitor.utils.Messages;
+
+import java.awt.EventQueue;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static pixelitor.DirtyTiles.TILE_SIZE;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+/**
+ * Calculates the histograms of the composite image in the background.
+ *
+ * The histograms are kept for each tile of the composite image, and after
+ * a change (signalled by the same invalidations as the composite image
+ * itself) only the changed tiles are recalculated, in parallel, and
+ * the histograms of the tiles are added together.
+ *
+ * The invalidations arrive before the composite image is updated, so they
+ * are only collected until the next calculation request, which brings the
+ * up-to-date image. The tiles to recalculate are known only from these
+ * invalidations, not from the identity of the received images, because
+ * a new image (for example a copy made before an in-place update) can
+ * differ from the previous one only in the invalidated regions.
+ *
+ * A received image can be changed later (the image of a single layer is
+ * the composite image, and the tools change it in place), but every
+ * such change is also invalidated, so a tile read during a change
+ * is calculated again with the next request.
+ */
+class CompositeHistograms {
+    // the calculations of all compositions run on this thread,
+    // and it only coordinates the parallel tile calculations
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Histograms");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the fields are accessed both on the EDT and on the calculating thread
+    private final Object lock = new Object();
+
+    // the composite image from which the tiles are calculated
+    private BufferedImage image;
+    private DirtyTiles dirtyTiles;
+    private Histograms[] tileHistograms;
+
+    // the invalidations since the last received image
+    private final List<Rectangle> pendingRegions = new ArrayList<>();
+    private boolean pendingAll;
+
+    private boolean calculating;
+    private Consumer<Histograms> callback;
+
+    /**
+     * Signals that the whole composite image changed
+     */
+    void invalidate() {
+        synchronized (lock) {
+            pendingAll = true;
+            pendingRegions.clear();
+        }
+    }
+
+    /**
+     * Signals that the given region (in canvas coordinates) of the composite image changed
+     */
+    void invalidateRegion(Rectangle region) {
+        synchronized (lock) {
+            if (!pendingAll) {
+                pendingRegions.add(region);
+            }
+        }
+    }
+
+    /**
+     * Starts the calculation of the histograms from the given up-to-date
+     * composite image in the background, and calls the callback on the EDT
+     * with the result. The requests made during a calculation are merged:
+     * the calculation continues with the changed tiles, and the last
+     * callback receives the histograms of the latest image.
+     */
+    void calculate(BufferedImage composite, Consumer<Histograms> callback) {
+        assert EventQueue.isDispatchThread();
+
+        synchronized (lock) {
+            setImage(composite);
+            this.callback = callback;
+            if (calculating) {
+                return;
+            }
+            calculating = true;
+        }
+        executor.execute(this::calculateInBackground);
+    }
+
+    private void calculateInBackground() {
+        while (true) {
+            Histograms result;
+            try {
+                result = calcChangedTiles();
+            } catch (RuntimeException e) {
+                synchronized (lock) {
+                    calculating = false;
+                }
+                Messages.showException(e, Thread.currentThread());
+                return;
+            }
+            Consumer<Histograms> resultCallback;
+            boolean changedMeanwhile;
+            synchronized (lock) {
+                resultCallback = callback;
+                changedMeanwhile = !dirtyTiles.isClean();
+                if (!changedMeanwhile) {
+                    calculating = false;
+                }
+            }
+            EventQueue.invokeLater(() -> resultCallback.accept(result));
+            if (!changedMeanwhile) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Calculates the histograms from the given image on the current thread,
+     * recalculating only the changed tiles if the image was seen before.
+     */
+    Histograms calculateNow(BufferedImage composite) {
+        synchronized (lock) {
+            setImage(composite);
+        }
+        return calcChangedTiles();
+    }
+
+    private void setImage(BufferedImage composite) {
+        int width = composite.getWidth();
+        int height = composite.getHeight();
+        if (dirtyTiles == null || !dirtyTiles.hasSize(width, height)) {
+            dirtyTiles = new DirtyTiles(width, height);
+            tileHistograms = new Histograms[numTiles(width) * numTiles(height)];
+        } else if (pendingAll) {
+            dirtyTiles.markAll();
+        } else {
+            for (Rectangle region : pendingRegions) {
+                dirtyTiles.mark(region);
+            }
+        }
+        pendingRegions.clear();
+        pendingAll = false;
+        image = composite;
+    }
+
+    private Histograms calcChangedTiles() {
+        BufferedImage img;
+        Histograms[] tiles;
+        List<Rectangle> regions;
+        synchronized (lock) {
+            img = image;
+            tiles = tileHistograms;
+            regions = dirtyTiles.takeDirty(null);
+        }
+
+        int numTilesX = numTiles(img.getWidth());
+        List<Future<?>> futures = new ArrayList<>();
+        for (Rectangle region : regions) {
+            // the regions are the merged tiles of a tile row
+            for (int x = region.x; x < region.x + region.width; x += TILE_SIZE) {
+                Rectangle tile = new Rectangle(x, region.y,
+                    Math.min(TILE_SIZE, region.x + region.width - x), region.height);
+                int index = (tile.y / TILE_SIZE) * numTilesX + tile.x / TILE_SIZE;
+                futures.add(ThreadPool.submit(() ->
+                    tiles[index] = Histograms.calculateSerially(img, tile)));
+            }
+        }
+        ThreadPool.waitFor(futures, NULL_TRACKER);
+
+        Histograms total = new Histograms();
+        for (Histograms tile : tiles) {
+            if (tile != null) {
+                total.add(tile);
+            }
+        }
+        return total;
+    }
+
+    private static int numTiles(int size) {
+        return (size + TILE_SIZE - 1) / TILE_SIZE;
+    }
+}
@@ -0,0 +1,636 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.layers.Layer;
+import pixelitor.tools.Tools;
+import pixelitor.utils.Histograms;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.debug.PerformanceMetrics;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.awt.RenderingHints.KEY_INTERPOLATION;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static pixelitor.DirtyTiles.TILE_SIZE;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+import static pixelitor.utils.debug.PerformanceMetrics.Phase.COMPOSITING;
+
+/**
+ * Caches the composite image of a {@link Composition}.
+ *
+ * When only a region of a layer changes (for example while brushing),
+ * the composite image is not recalculated from scratch: the composite
+ * of the layers below the changed layer is kept as a snapshot, and only
+ * the dirty rectangle is recomposited, from the changed layer upward.
+ * Only one snapshot is kept (below the last changed layer),
+ * because it costs a canvas-sized image.
+ *
+ * After a full invalidation, the composite image is recalculated lazily,
+ * tile by tile: painting only calculates the tiles that intersect the
+ * repainted (visible) area, so that the display of large images
+ * depends on the size of the screen, not on the size of the image.
+ * The tiles which are not visible are calculated when they are
+ * scrolled into view, or when the whole composite image is requested.
+ *
+ * When the whole composite image is needed (for example after
+ * changing a blending mode or after an undo), the full layer stack
+ * of each tile is composited independently, and the tiles are
+ * calculated in parallel, if all the visible layers support it.
+ *
+ * The downscaled versions of the composite image, used when
+ * painting zoomed-out, are also cached in a {@link CompositePyramid}.
+ */
+class CompositeImageCache {
+    // the versions are unique among all the compositions
+    private static final AtomicLong lastVersion = new AtomicLong();
+
+    private final Composition comp;
+
+    // changes each time the composite image is invalidated
+    private long version = lastVersion.incrementAndGet();
+
+    private BufferedImage compositeImage;
+
+    // true if the composite image is the image of a layer
+    // (single-layer shortcut), and therefore can't be updated in place
+    private boolean shared;
+
+    // true if the composite image was created here, and
+    // therefore it can be recalculated in place, tile by tile
+    private boolean reusable;
+
+    // the tiles of the composite image which still have to
+    // be calculated after a full invalidation, or null
+    private DirtyTiles dirtyTiles;
+
+    // the composite of the visible layers below the layer at snapshotIndex
+    private BufferedImage snapshot;
+    private int snapshotIndex = -1;
+
+    // the pending partial update, in canvas coordinates
+    private Rectangle dirtyRegion;
+    private int dirtyFromIndex;
+
+    private final CompositePyramid pyramid = new CompositePyramid();
+    private final CompositeHistograms histograms = new CompositeHistograms();
+
+    CompositeImageCache(Composition comp) {
+        this.comp = comp;
+    }
+
+    /**
+     * Returns the (canvas-sized) composite image,
+     * recalculating it only as much as necessary.
+     */
+    BufferedImage get() {
+        BufferedImage img = get(null);
+
+        // The caller might keep a reference (for example to compare the
+        // image before and after a filter), so after the next invalidation
+        // it will be replaced or copied instead of being updated in place.
+        reusable = false;
+        return img;
+    }
+
+    /**
+     * Returns the composite image, which is up to date at least in the
+     * given area (in canvas coordinates), or everywhere if it's null.
+     */
+    private BufferedImage get(Rectangle area) {
+        if (compositeImage == null) {
+            var measurement = PerformanceMetrics.start(COMPOSITING, "full composite");
+            compositeImage = calcFullComposite();
+            measurement.finish(numCanvasPixels());
+        } else if (dirtyTiles != null) {
+            var measurement = PerformanceMetrics.start(COMPOSITING, "dirty tiles");
+            long numPixels = updateDirtyTiles(area);
+            measurement.finish(numPixels);
+        } else if (dirtyRegion != null) {
+            var measurement = PerformanceMetrics.start(COMPOSITING, "dirty region");
+            long numPixels = updateDirtyRegion();
+            measurement.finish(numPixels);
+        }
+        return compositeImage;
+    }
+
+    /**
+     * Forces the full recalculation of the composite image. If possible,
+     * the image is kept, and only its tiles are marked as out of date.
+     */
+    void invalidate() {
+        version = lastVersion.incrementAndGet();
+        notifyLayersAbove(-1, null);
+        histograms.invalidate();
+        invalidateImage();
+    }
+
+    // the part of the full invalidation that doesn't concern the histograms
+    private void invalidateImage() {
+        dirtyRegion = null;
+        releaseSnapshot();
+        pyramid.invalidate();
+
+        if (compositeImage != null && reusable && hasCanvasSize(compositeImage)) {
+            if (dirtyTiles == null) {
+                dirtyTiles = new DirtyTiles(compositeImage.getWidth(), compositeImage.getHeight());
+            } else {
+                dirtyTiles.markAll();
+            }
+            return;
+        }
+
+        if (compositeImage != null && !shared) {
+            compositeImage.flush();
+        }
+        compositeImage = null;
+        shared = false;
+        reusable = false;
+        dirtyTiles = null;
+    }
+
+    /**
+     * Signals that only the given region (in canvas coordinates)
+     * of the given layer changed, and the layers below it didn't change.
+     */
+    void invalidateRegion(Layer layer, Rectangle region) {
+        int layerIndex = comp.getLayerIndex(layer);
+        if (layerIndex < 0) {
+            invalidate();
+            return;
+        }
+        version = lastVersion.incrementAndGet();
+        // the region of the composite image that
+        // changed, or null if the adjustments moved it
+        Rectangle changed = notifyLayersAbove(layerIndex, region);
+        if (changed == null) {
+            histograms.invalidate();
+        } else {
+            histograms.invalidateRegion(changed);
+        }
+        if (shared) {
+            // the image of the layer was changed in place
+            invalidateImage();
+            return;
+        }
+        if (compositeImage == null) {
+            return; // it will be fully recalculated anyway
+        }
+        if (dirtyTiles != null) {
+            // still waiting for a lazy recalculation,
+            // so the region will be recalculated with it
+            dirtyTiles.mark(region);
+            pyramid.invalidateRegion(region);
+            return;
+        }
+        if (snapshot != null && snapshotIndex > layerIndex) {
+            // the snapshot contains the changed layer
+            releaseSnapshot();
+        }
+
+        Rectangle canvasRegion = region.intersection(comp.getCanvas().getBounds());
+        pyramid.invalidateRegion(canvasRegion);
+        if (dirtyRegion == null) {
+            dirtyRegion = canvasRegion;
+            dirtyFromIndex = layerIndex;
+        } else {
+            dirtyRegion = dirtyRegion.union(canvasRegion);
+            dirtyFromIndex = Math.min(dirtyFromIndex, layerIndex);
+        }
+    }
+
+    /**
+     * Tells the layers above the given index which region of the image
+     * below them changed (or null if all of it), so that the adjustment
+     * layers know which parts of their cached outputs are out of date.
+     * Returns the changed region of the composite image, or null.
+     */
+    private Rectangle notifyLayersAbove(int layerIndex, Rectangle region) {
+        List<Layer> layers = comp.getLayers();
+        for (int i = layerIndex + 1; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            Rectangle changed = layer.imageBelowChanged(region);
+            if (layer.isVisible()) {
+                region = changed;
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Recomposites the pending dirty region, and returns the number of recalculated pixels.
+     */
+    private long updateDirtyRegion() {
+        Rectangle region = dirtyRegion;
+        int fromIndex = dirtyFromIndex;
+        dirtyRegion = null;
+        if (region.isEmpty()) {
+            return 0;
+        }
+
+        List<Layer> layers = comp.getLayers();
+        if (snapshot == null) {
+            // calculated once, and then reused while the same layer is edited
+            snapshot = createCanvasImage();
+            snapshotIndex = fromIndex;
+            snapshot = compositeLayers(layers, 0, fromIndex, snapshot, true);
+        }
+
+        boolean firstVisible = !anyVisible(layers, 0, snapshotIndex);
+        if (!canClip(layers, snapshotIndex, region)) {
+            // some adjustment layers transform the whole image, so start
+            // from a copy of the snapshot and recomposite everything above it
+            // (the adjustments can also change the pixels outside the region)
+            pyramid.invalidate();
+            compositeImage.flush();
+            BufferedImage base = createCanvasImage();
+            Graphics2D g = base.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(snapshot, 0, 0, null);
+            g.dispose();
+            compositeImage = compositeLayers(layers, snapshotIndex, layers.size(), base, firstVisible);
+            reusable = compositeImage == base;
+            return (long) base.getWidth() * base.getHeight();
+        }
+
+        if (!reusable) {
+            // the image was returned by get(), and the caller might still
+            // use it, so it's copied before the first in-place update
+            compositeImage = ImageUtils.copyImage(compositeImage);
+            reusable = true;
+        }
+
+        Graphics2D g = compositeImage.createGraphics();
+        g.setClip(region);
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(snapshot, 0, 0, null);
+
+        applyLayersInPlace(layers, snapshotIndex, compositeImage, g, firstVisible);
+        g.dispose();
+        return (long) region.width * region.height;
+    }
+
+    /**
+     * Calculates the out-of-date tiles intersecting the given area (or all
+     * of them, if the area is null) by compositing all the visible layers.
+     * Returns the number of recalculated pixels.
+     */
+    private long updateDirtyTiles(Rectangle area) {
+        List<Layer> layers = comp.getLayers();
+        if (layers.size() == 1 || !canClip(layers, 0, null)) {
+            // the single-layer shortcut and the adjustment
+            // layers need the full recalculation
+            dirtyTiles = null;
+            compositeImage.flush();
+            compositeImage = calcFullComposite();
+            return numCanvasPixels();
+        }
+
+        List<Rectangle> regions = dirtyTiles.takeDirty(area);
+        if (dirtyTiles.isClean()) {
+            dirtyTiles = null;
+        }
+        long numPixels = 0;
+        for (Rectangle region : regions) {
+            numPixels += (long) region.width * region.height;
+        }
+        if (regions.size() > 1 && canCompositeInParallel(layers)) {
+            compositeInParallel(layers, compositeImage, regions);
+            return numPixels;
+        }
+
+        for (Rectangle region : regions) {
+            Graphics2D g = compositeImage.createGraphics();
+            g.setClip(region);
+            g.setComposite(AlphaComposite.Clear);
+            g.fill(region);
+
+            applyLayersInPlace(layers, 0, compositeImage, g, true);
+            g.dispose();
+        }
+        return numPixels;
+    }
+
+    /**
+     * Applies the visible layers from the given index on the given image,
+     * within the clip of the given graphics. A layer can return the same
+     * image (a text layer without settings), which is ignored, and if it
+     * returns a new image, the clipped part of that is copied back, so
+     * that the next layers can continue in place.
+     */
+    private static void applyLayersInPlace(List<Layer> layers, int startIndex,
+                                           BufferedImage image, Graphics2D g,
+                                           boolean firstVisible) {
+        for (int i = startIndex; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            if (layer.isVisible()) {
+                BufferedImage result = layer.applyLayer(g, image, firstVisible);
+                if (result != null && result != image) {
+                    // the layers set up their own composite
+                    g.setComposite(AlphaComposite.Src);
+                    g.drawImage(result, 0, 0, null);
+                }
+                firstVisible = false;
+            }
+        }
+    }
+
+    /**
+     * Returns a number that changes each time the composite image is invalidated.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Calculates the histograms of the up-to-date composite image in the background
+     */
+    void calcHistograms(Consumer<Histograms> callback) {
+        // get() protects the image from the later in-place updates, except
+        // if it's the image of the single layer, but then the histograms
+        // of the tiles changed during the calculation are invalidated
+        histograms.calculate(get(), callback);
+    }
+
+    private boolean hasCanvasSize(BufferedImage img) {
+        Canvas canvas = comp.getCanvas();
+        return img.getWidth() == canvas.getWidth() && img.getHeight() == canvas.getHeight();
+    }
+
+    /**
+     * Paints the composite image on the given graphics, which must be in
+     * image space. Only the part intersecting the clip is painted, and if
+     * the image is zoomed out, a smaller level of the pyramid is painted
+     * instead of resampling the full-resolution image.
+     */
+    void paint(Graphics2D g) {
+        Canvas canvas = comp.getCanvas();
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
+
+        // the scaling to device pixels, including the zooming and the HiDPI scaling
+        AffineTransform at = g.getTransform();
+        double scaling = Math.min(Math.abs(at.getScaleX()), Math.abs(at.getScaleY()));
+        int level = at.getShearX() == 0 && at.getShearY() == 0
+            ? CompositePyramid.calcLevel(scaling, width, height)
+            : 0;
+
+        // only the painted part must be calculated
+        Rectangle area = g.getClipBounds();
+        if (area != null) {
+            // the clip bounds are rounded, so allow one pixel for the scaling
+            area.grow(1, 1);
+        }
+        if (level > 0 && !CompositePyramid.canUpdatePartially(level)) {
+            area = null;
+        }
+        BufferedImage img = get(area);
+
+        if (level == 0) {
+            paintClipped(g, img);
+            return;
+        }
+
+        BufferedImage levelImage = pyramid.getLevel(level, img, area);
+        Shape origClip = g.getClip();
+        Object origInterpolation = g.getRenderingHint(KEY_INTERPOLATION);
+
+        // the last pixels of a level can extend beyond the canvas
+        g.clipRect(0, 0, width, height);
+        g.scale(1 << level, 1 << level);
+        // the remaining scaling is between 0.5 and 1
+        g.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR);
+
+        paintClipped(g, levelImage);
+
+        if (origInterpolation != null) {
+            g.setRenderingHint(KEY_INTERPOLATION, origInterpolation);
+        }
+        g.setTransform(at);
+        g.setClip(origClip);
+    }
+
+    /**
+     * Paints only the part of the given image that intersects
+     * the clip, because the repaints are often local.
+     */
+    private static void paintClipped(Graphics2D g, BufferedImage img) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            g.drawImage(img, 0, 0, null);
+            return;
+        }
+
+        // the clip bounds are rounded, so allow one pixel for the scaling
+        clip.grow(1, 1);
+        Rectangle area = clip.intersection(new Rectangle(0, 0,
+            img.getWidth(), img.getHeight()));
+        if (area.isEmpty()) {
+            return;
+        }
+        int x2 = area.x + area.width;
+        int y2 = area.y + area.height;
+        g.drawImage(img,
+            area.x, area.y, x2, y2,
+            area.x, area.y, x2, y2, null);
+    }
+
+    /**
+     * Returns true if the visible layers starting at the given index
+     * can be painted with a clip, without changing the whole image.
+     */
+    /**
+     * Returns true if the layers starting at the given index can be
+     * composited only in the given region (or in any clipped region,
+     * if it's null), because the rest of the composite image is final.
+     */
+    private static boolean canClip(List<Layer> layers, int fromIndex, Rectangle region) {
+        if (Tools.isShapesDrawing()) {
+            // the dragged shapes are painted with the selection clip
+            return false;
+        }
+        for (int i = fromIndex; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            if (layer.isVisible() && !layer.canApplyOnRegion(region)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean anyVisible(List<Layer> layers, int fromIndex, int toIndex) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            if (layers.get(i).isVisible()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private BufferedImage calcFullComposite() {
+        List<Layer> layers = comp.getLayers();
+        if (layers.size() == 1) { // shortcut
+            Layer layer = layers.get(0);
+            if (Tools.currentTool.isDirectDrawing() && layer.isVisible()) {
+                shared = true;
+                reusable = false;
+                return layer.asImage(true, true);
+            }
+        }
+        shared = false;
+        BufferedImage canvasImage = createCanvasImage();
+        if (canCompositeInParallel(layers)) {
+            DirtyTiles allTiles = new DirtyTiles(canvasImage.getWidth(), canvasImage.getHeight());
+            compositeInParallel(layers, canvasImage, allTiles.takeDirty(null));
+            reusable = true;
+            return canvasImage;
+        }
+        BufferedImage result = compositeLayers(layers, 0, layers.size(), canvasImage, true);
+        reusable = result == canvasImage;
+        return result;
+    }
+
+    /**
+     * Returns true if the visible layers can be composited tile by tile,
+     * in parallel, and if it's worth doing so.
+     */
+    private boolean canCompositeInParallel(List<Layer> layers) {
+        Canvas canvas = comp.getCanvas();
+        if (ThreadPool.getNumCores() == 1
+            || (canvas.getWidth() <= TILE_SIZE && canvas.getHeight() <= TILE_SIZE)
+            || Tools.isShapesDrawing()) {
+            return false;
+        }
+        for (Layer layer : layers) {
+            if (layer.isVisible() && !layer.prepareForParallelTiles()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Composites the visible layers in the given regions (the merged
+     * tiles of tile rows) of the given image, one tile per task.
+     * The layers must be prepared for this on the current thread.
+     */
+    static void compositeInParallel(List<Layer> layers, BufferedImage image,
+                                    List<Rectangle> regions) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Rectangle region : regions) {
+            for (int x = region.x; x < region.x + region.width; x += TILE_SIZE) {
+                Rectangle tile = new Rectangle(x, region.y,
+                    Math.min(TILE_SIZE, region.x + region.width - x), region.height);
+                futures.add(ThreadPool.submit(() -> compositeTile(layers, image, tile)));
+            }
+        }
+        ThreadPool.waitFor(futures, NULL_TRACKER);
+    }
+
+    /**
+     * Composites the full layer stack of the given tile into a tile-sized image,
+     * so that the adjustment layers can also be applied on the tile only,
+     * and then copies the result into the given canvas-sized image.
+     */
+    private static void compositeTile(List<Layer> layers, BufferedImage image, Rectangle tile) {
+        BufferedImage tileImage = new BufferedImage(tile.width, tile.height, TYPE_INT_ARGB_PRE);
+        Graphics2D g = createTileGraphics(tileImage, tile);
+        boolean firstVisible = true;
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                BufferedImage result = layer.applyLayer(g, tileImage, tile.x, tile.y, firstVisible);
+                if (result != null) { // adjustment layer
+                    tileImage = result;
+                    g.dispose();
+                    g = createTileGraphics(tileImage, tile);
+                }
+                firstVisible = false;
+            }
+        }
+        g.dispose();
+
+        // the point filters keep the type of the image
+        assert tileImage.getType() == image.getType();
+        image.getRaster().setDataElements(tile.x, tile.y, tileImage.getRaster());
+    }
+
+    // the returned graphics paints the given tile in canvas coordinates
+    private static Graphics2D createTileGraphics(BufferedImage tileImage, Rectangle tile) {
+        Graphics2D g = tileImage.createGraphics();
+        g.translate(-tile.x, -tile.y);
+        g.clip(tile);
+        return g;
+    }
+
+    /**
+     * Applies the visible layers between the given indices
+     * (start inclusive, end exclusive) on the given image.
+     * Returns the resulting image, which is different from the
+     * given one if there was an adjustment layer.
+     */
+    static BufferedImage compositeLayers(List<Layer> layers,
+                                                 int startIndex, int endIndex,
+                                                 BufferedImage imageSoFar,
+                                                 boolean firstVisibleLayer) {
+        Graphics2D g = imageSoFar.createGraphics();
+        for (int i = startIndex; i < endIndex; i++) {
+            Layer layer = layers.get(i);
+            if (layer.isVisible()) {
+                BufferedImage result = layer.applyLayer(g, imageSoFar, firstVisibleLayer);
+                if (result != null) { // adjustment layer or watermarking text layer
+                    imageSoFar = result;
+                    g.dispose();
+                    g = imageSoFar.createGraphics();
+                }
+                firstVisibleLayer = false;
+            }
+        }
+        g.dispose();
+
+        return imageSoFar;
+    }
+
+    private long numCanvasPixels() {
+        Canvas canvas = comp.getCanvas();
+        return (long) canvas.getWidth() * canvas.getHeight();
+    }
+
+    private BufferedImage createCanvasImage() {
+        Canvas canvas = comp.getCanvas();
+        return new BufferedImage(canvas.getWidth(), canvas.getHeight(), TYPE_INT_ARGB_PRE);
+    }
+
+    private void releaseSnapshot() {
+        if (snapshot != null) {
+            snapshot.flush();
+            snapshot = null;
+        }
+        snapshotIndex = -1;
+    }
+}
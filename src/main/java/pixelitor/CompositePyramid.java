@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.utils.ImageUtils;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.*;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+/**
+ * Downscaled copies of the composite image at power-of-two scales
+ * (level 1 is half-sized, level 2 is quarter-sized, etc.), so that
+ * the zoomed-out views and the navigator can paint from a small image
+ * instead of resampling the full-resolution composite at each repaint.
+ *
+ * The levels are created lazily, each from the previous one, by
+ * averaging 2x2 blocks of premultiplied pixels. After a change only the
+ * affected tiles are downscaled again, and only when they become visible.
+ */
+class CompositePyramid {
+    // above this level the tiles are smaller than a
+    // pixel, so the levels can't be updated tile by tile
+    private static final int MAX_PARTIAL_LEVEL = Integer.numberOfTrailingZeros(DirtyTiles.TILE_SIZE);
+
+    private final List<BufferedImage> levels = new ArrayList<>();
+
+    // The out-of-date tiles of the level at the same index. The
+    // images are kept after a full invalidation, so that they can be reused.
+    private final List<DirtyTiles> dirtyTiles = new ArrayList<>();
+
+    /**
+     * Returns the level that should be used for painting the
+     * composite image with the given scaling, or 0 if the full
+     * resolution image should be used.
+     */
+    static int calcLevel(double scaling, int canvasWidth, int canvasHeight) {
+        int level = 0;
+        // the next level is used only if it's still not enlarged when painted
+        while (scaling * (2 << level) <= 1.0
+               && (canvasWidth >> (level + 1)) > 0
+               && (canvasHeight >> (level + 1)) > 0) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Returns true if the given level can be updated only in a part of the canvas
+     */
+    static boolean canUpdatePartially(int level) {
+        return level <= MAX_PARTIAL_LEVEL;
+    }
+
+    /**
+     * Returns the given level (at least 1), updating the out-of-date
+     * tiles from the given full-resolution composite. Only the tiles
+     * intersecting the given area (in canvas coordinates) are updated,
+     * or all of them, if the area is null. The composite image must
+     * be up to date in the updated tiles.
+     */
+    BufferedImage getLevel(int level, BufferedImage composite, Rectangle area) {
+        assert level > 0;
+        assert area == null || canUpdatePartially(level);
+        if (!ImageUtils.hasPackedIntArray(composite)) {
+            // not expected, but adjustment layers could return anything
+            composite = ImageUtils.convertToARGB_PRE(composite, false);
+            invalidate();
+        }
+
+        int canvasWidth = composite.getWidth();
+        int canvasHeight = composite.getHeight();
+        BufferedImage src = composite;
+        for (int i = 1; i <= level; i++) {
+            int index = i - 1;
+            int width = (canvasWidth + (1 << i) - 1) >> i;
+            int height = (canvasHeight + (1 << i) - 1) >> i;
+            if (index == levels.size()) {
+                levels.add(new BufferedImage(width, height, TYPE_INT_ARGB_PRE));
+                dirtyTiles.add(new DirtyTiles(canvasWidth, canvasHeight));
+            } else if (!dirtyTiles.get(index).hasSize(canvasWidth, canvasHeight)) {
+                levels.get(index).flush();
+                levels.set(index, new BufferedImage(width, height, TYPE_INT_ARGB_PRE));
+                dirtyTiles.set(index, new DirtyTiles(canvasWidth, canvasHeight));
+            }
+
+            BufferedImage dst = levels.get(index);
+            for (Rectangle dirty : dirtyTiles.get(index).takeDirty(area)) {
+                downscale(src, dst, toLevel(dirty, i, dst));
+            }
+            src = dst;
+        }
+        return src;
+    }
+
+    /**
+     * Signals that the whole composite image changed
+     */
+    void invalidate() {
+        for (DirtyTiles tiles : dirtyTiles) {
+            tiles.markAll();
+        }
+    }
+
+    /**
+     * Signals that the given region (in canvas coordinates) of the composite image changed
+     */
+    void invalidateRegion(Rectangle region) {
+        for (DirtyTiles tiles : dirtyTiles) {
+            tiles.mark(region);
+        }
+    }
+
+    // converts a canvas region into the covered pixels of a level
+    private static Rectangle toLevel(Rectangle region, int level, BufferedImage levelImage) {
+        int scale = 1 << level;
+        long x1 = Math.max(0, region.x) / scale;
+        long y1 = Math.max(0, region.y) / scale;
+        long x2 = Math.min(levelImage.getWidth(), ((long) region.x + region.width + scale - 1) / scale);
+        long y2 = Math.min(levelImage.getHeight(), ((long) region.y + region.height + scale - 1) / scale);
+        return new Rectangle((int) x1, (int) y1, (int) Math.max(0, x2 - x1), (int) Math.max(0, y2 - y1));
+    }
+
+    /**
+     * Calculates the given area of the destination image
+     * by averaging 2x2 blocks of the source image.
+     */
+    private static void downscale(BufferedImage src, BufferedImage dst, Rectangle area) {
+        if (area.isEmpty()) {
+            return;
+        }
+        int[] srcPixels = ImageUtils.getPixelsAsArray(src);
+        int[] dstPixels = ImageUtils.getPixelsAsArray(dst);
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+        int dstWidth = dst.getWidth();
+        int srcType = src.getType();
+
+        ThreadPool.runInStrips(area.height, area.width, (startY, endY) -> {
+            for (int y = area.y + startY; y < area.y + endY; y++) {
+                int row1 = 2 * y * srcWidth;
+                // at the bottom edge of odd-sized images the last row is repeated
+                int row2 = 2 * y + 1 < srcHeight ? row1 + srcWidth : row1;
+                for (int x = area.x; x < area.x + area.width; x++) {
+                    int x1 = 2 * x;
+                    int x2 = x1 + 1 < srcWidth ? x1 + 1 : x1;
+                    dstPixels[y * dstWidth + x] = average(
+                        premultiplied(srcPixels[row1 + x1], srcType),
+                        premultiplied(srcPixels[row1 + x2], srcType),
+                        premultiplied(srcPixels[row2 + x1], srcType),
+                        premultiplied(srcPixels[row2 + x2], srcType));
+                }
+            }
+        }, NULL_TRACKER);
+    }
+
+    private static int premultiplied(int pixel, int type) {
+        return switch (type) {
+            case TYPE_INT_ARGB_PRE -> pixel;
+            case TYPE_INT_RGB -> pixel | 0xFF_00_00_00;
+            default -> ImageUtils.premultiply(pixel);
+        };
+    }
+
+    private static int average(int p1, int p2, int p3, int p4) {
+        // the sums of the channels are calculated in parallel
+        // for the alpha-green and the red-blue channel pairs
+        long ag = ((p1 >>> 8) & 0x00FF_00FFL) + ((p2 >>> 8) & 0x00FF_00FFL)
+                  + ((p3 >>> 8) & 0x00FF_00FFL) + ((p4 >>> 8) & 0x00FF_00FFL);
+        long rb = (p1 & 0x00FF_00FFL) + (p2 & 0x00FF_00FFL)
+                  + (p3 & 0x00FF_00FFL) + (p4 & 0x00FF_00FFL);
+
+        // the sums need 10 bits per channel, so there is no overflow
+        // into the other channel, and +2 rounds the division by 4
+        ag = ((ag + 0x0002_0002L) >>> 2) & 0x00FF_00FFL;
+        rb = ((rb + 0x0002_0002L) >>> 2) & 0x00FF_00FFL;
+        return (int) (ag << 8 | rb);
+    }
+}
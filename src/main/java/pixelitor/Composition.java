@@ -30,6 +30,7 @@ import pixelitor.history.*;
 import pixelitor.io.FileFormat;
 import pixelitor.io.FileUtils;
 import pixelitor.io.IOTasks;
+import pixelitor.io.LazyImage;
 import pixelitor.io.SaveSettings;
 import pixelitor.layers.*;
 import pixelitor.menus.file.RecentFilesMenu;
@@ -42,6 +43,7 @@ import pixelitor.tools.pen.Path;
 import pixelitor.tools.pen.Paths;
 import pixelitor.tools.util.PPoint;
 import pixelitor.tools.util.PRectangle;
+import pixelitor.utils.Histograms;
 import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
 import pixelitor.utils.Shapes;
@@ -63,7 +65,6 @@ import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
-import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
 import static java.lang.String.format;
 import static pixelitor.Composition.LayerAdder.Position.*;
 import static pixelitor.Composition.UpdateActions.FULL;
@@ -107,7 +108,7 @@ public class Composition implements Serializable {
     private transient File file;
     private transient boolean dirty = false;
 
-    private transient BufferedImage compositeImage;
+    private transient CompositeImageCache compositeCache;
 
     private transient View view;
 
@@ -126,6 +127,7 @@ public class Composition implements Serializable {
         assert canvas != null;
         this.canvas = canvas;
         this.mode = mode;
+        compositeCache = new CompositeImageCache(this);
     }
 
     /**
@@ -226,7 +228,7 @@ public class Composition implements Serializable {
     @Serial
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         // init transient variables
-        compositeImage = null; // will be set when needed
+        compositeCache = new CompositeImageCache(this);
         file = null; // will be set later
         debugName = null; // will be set later
         dirty = false;
@@ -510,6 +512,9 @@ public class Composition implements Serializable {
         var imageBefore = ImageUtils.copyImage(bellowImage);
 
         // apply the effect of the merged layer to the image of the image layer
+        // (an adjustment layer must not use or keep its output cached for the
+        // composite image, because here its input is the image of a single layer)
+        layer.imageBelowChanged(null);
         Graphics2D g = bellowImage.createGraphics();
         g.translate(-bellowLayer.getTx(), -bellowLayer.getTy());
         BufferedImage result = layer.applyLayer(g, bellowImage, false);
@@ -517,6 +522,7 @@ public class Composition implements Serializable {
             bellowLayer.setImage(result);
         }
         g.dispose();
+        layer.imageBelowChanged(null);
 
         bellowLayer.updateIconImage();
 
@@ -596,6 +602,11 @@ public class Composition implements Serializable {
         Layer oldLayer = activeLayer;
         activeLayer = newActiveLayer;
 
+        if (oldLayer instanceof ImageLayer oldImageLayer) {
+            // the layers that are not edited can store their pixels more compactly
+            oldImageLayer.storeInTilesLater();
+        }
+
         if (activeLayer.hasUI()) {
             activeLayer.activateUI();
             Layers.layerActivated(newActiveLayer, false);
@@ -933,56 +944,34 @@ public class Composition implements Serializable {
         assert ConsistencyChecks.fadeWouldWorkOn(this);
     }
 
-    private BufferedImage calculateCompositeImage() {
-        if (layerList.size() == 1) { // shortcut
-            Layer layer = layerList.get(0);
-//            if (firstLayer instanceof ImageLayer layer) {
-            if (Tools.currentTool.isDirectDrawing() && layer.isVisible()) {
-                return layer.asImage(true, true);
-            }
-//            }
-        }
-
-//        BufferedImage imageSoFar = ImageUtils.createCompatibleImage(getCanvasWidth(), getCanvasHeight());
-
-        var imageSoFar = new BufferedImage(
-            canvas.getWidth(), canvas.getHeight(), TYPE_INT_ARGB_PRE);
-        Graphics2D g = imageSoFar.createGraphics();
-
-        boolean firstVisibleLayer = true;
-        for (Layer layer : layerList) {
-            if (layer.isVisible()) {
-                BufferedImage result = layer.applyLayer(g, imageSoFar, firstVisibleLayer);
-                if (result != null) { // adjustment layer or watermarking text layer
-                    imageSoFar = result;
-                    if (g != null) {
-                        g.dispose();
-                    }
-                    g = imageSoFar.createGraphics();
-                }
-                firstVisibleLayer = false;
-            }
-        }
-
-        g.dispose();
-
-        return imageSoFar;
-    }
-
     public void repaint() {
         view.repaint();
     }
 
+    /**
+     * Repaints the region of a brush stroke segment on the active layer.
+     */
     public void repaintRegion(PPoint start, PPoint end, double thickness) {
-        invalidateCompositeCache();
+        int x1 = (int) Math.floor(Math.min(start.getImX(), end.getImX()) - thickness);
+        int y1 = (int) Math.floor(Math.min(start.getImY(), end.getImY()) - thickness);
+        int x2 = (int) Math.ceil(Math.max(start.getImX(), end.getImX()) + thickness);
+        int y2 = (int) Math.ceil(Math.max(start.getImY(), end.getImY()) + thickness);
+        // one extra pixel for the antialiasing
+        compositeCache.invalidateRegion(activeLayer,
+            new Rectangle(x1 - 1, y1 - 1, x2 - x1 + 2, y2 - y1 + 2));
         if (view != null) { // during reload image it can be null
             view.repaintRegion(start, end, thickness);
             view.repaintNavigator(false);
         }
     }
 
+    /**
+     * Repaints the given region of the active layer.
+     */
     public void repaintRegion(PRectangle area) {
-        invalidateCompositeCache();
+        Rectangle imRect = area.getIm().getBounds();
+        imRect.grow(1, 1);
+        compositeCache.invalidateRegion(activeLayer, imRect);
         if (view != null) { // during reload image it can be null
             view.repaintRegion(area);
             view.repaintNavigator(false);
@@ -1260,10 +1249,33 @@ public class Composition implements Serializable {
      * Returns the (canvas-sized) composite image.
      */
     public BufferedImage getCompositeImage() {
-        if (compositeImage == null) {
-            compositeImage = calculateCompositeImage();
-        }
-        return compositeImage;
+        return compositeCache.get();
+    }
+
+    /**
+     * Returns a number that changes each time the composite image changes.
+     * The versions of different compositions are never the same.
+     */
+    public long getCompositeImageVersion() {
+        return compositeCache.getVersion();
+    }
+
+    /**
+     * Paints the composite image on the given graphics, which must be
+     * in image space. When zoomed out, a cached downscaled version
+     * of the composite image is painted.
+     */
+    public void paintCompositeImage(Graphics2D g) {
+        compositeCache.paint(g);
+    }
+
+    /**
+     * Calculates the histograms of the composite image in the background,
+     * and calls the given callback on the EDT with the result. Only the
+     * parts that changed since the last calculation are recalculated.
+     */
+    public void calcHistograms(Consumer<Histograms> callback) {
+        compositeCache.calcHistograms(callback);
     }
 
     /**
@@ -1271,10 +1283,7 @@ public class Composition implements Serializable {
      * the next time when getCompositeImage() is called.
      */
     private void invalidateCompositeCache() {
-        if (compositeImage != null) {
-            compositeImage.flush();
-        }
-        compositeImage = null;
+        compositeCache.invalidate();
     }
 
     public void update() {
@@ -1304,6 +1313,26 @@ public class Composition implements Serializable {
         }
     }
 
+    /**
+     * Signals that only the given region (in image space) of the given layer
+     * has been changed. The layers below it don't have to be recomposited,
+     * and only the given region of the view has to be repainted.
+     */
+    public void update(Layer changedLayer, Rectangle dirtyRegion, UpdateActions actions) {
+        compositeCache.invalidateRegion(changedLayer, dirtyRegion);
+
+        if (actions.repaintNeeded()) {
+            if (view != null) {
+                view.repaintRegion(dirtyRegion);
+                view.repaintNavigator(false);
+            }
+        }
+
+        if (actions.histogramChanged()) {
+            HistogramsPanel.updateFrom(this);
+        }
+    }
+
     public boolean isActive() {
         return OpenImages.activeCompIs(this);
     }
@@ -1368,19 +1397,6 @@ public class Composition implements Serializable {
         return true;
     }
 
-    public int calcNumImages() {
-        int count = 0;
-        for (Layer layer : layerList) {
-            if (layer instanceof ImageLayer) {
-                count++;
-            }
-            if (layer.hasMask()) {
-                count++;
-            }
-        }
-        return count;
-    }
-
     public CompletableFuture<Void> saveAsync(SaveSettings saveSettings,
                                              boolean addToRecentMenus) {
         assert calledOnEDT() : threadInfo();
@@ -1404,7 +1420,12 @@ public class Composition implements Serializable {
         setDirty(false);
 
         return CompletableFuture
-            .runAsync(saveTask, onIOThread)
+            .runAsync(() -> {
+                // the layers that are still read lazily from
+                // the overwritten file need their pixels first
+                LazyImage.loadPendingImages(savedFile);
+                saveTask.run();
+            }, onIOThread)
             .handleAsync((v, e) -> {
                 if (e != null) {
                     Messages.showException(e);
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Keeps track of the out-of-date tiles of a canvas-sized image, so that
+ * they can be recalculated lazily, only when they become visible.
+ * The tiles are squares in canvas coordinates.
+ */
+final class DirtyTiles {
+    static final int TILE_SIZE = 256;
+
+    private final int width;
+    private final int height;
+    private final int numTilesX;
+    private final int numTilesY;
+    private final BitSet dirty;
+
+    /**
+     * Creates a tracker for the given canvas size, with all tiles dirty
+     */
+    DirtyTiles(int width, int height) {
+        this.width = width;
+        this.height = height;
+        numTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        numTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        dirty = new BitSet(numTilesX * numTilesY);
+        markAll();
+    }
+
+    boolean hasSize(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+
+    void markAll() {
+        dirty.set(0, numTilesX * numTilesY);
+    }
+
+    /**
+     * Marks the tiles intersecting the given region (in canvas coordinates) as dirty
+     */
+    void mark(Rectangle region) {
+        Rectangle tiles = toTiles(region);
+        for (int ty = tiles.y; ty < tiles.y + tiles.height; ty++) {
+            int rowStart = ty * numTilesX;
+            dirty.set(rowStart + tiles.x, rowStart + tiles.x + tiles.width);
+        }
+    }
+
+    boolean isClean() {
+        return dirty.isEmpty();
+    }
+
+    /**
+     * Returns the dirty tiles intersecting the given area (in canvas
+     * coordinates, or everywhere if it's null), and marks them as clean.
+     * The adjacent tiles of a tile row are merged into one rectangle,
+     * and the rectangles are clipped to the canvas.
+     */
+    List<Rectangle> takeDirty(Rectangle area) {
+        Rectangle tiles = area == null
+            ? new Rectangle(0, 0, numTilesX, numTilesY)
+            : toTiles(area);
+        List<Rectangle> regions = new ArrayList<>();
+        for (int ty = tiles.y; ty < tiles.y + tiles.height; ty++) {
+            int rowStart = ty * numTilesX;
+            int runEnd = rowStart + tiles.x + tiles.width;
+            int runStart = dirty.nextSetBit(rowStart + tiles.x);
+            while (runStart >= 0 && runStart < runEnd) {
+                int clearIndex = Math.min(dirty.nextClearBit(runStart), runEnd);
+                dirty.clear(runStart, clearIndex);
+
+                int x = (runStart - rowStart) * TILE_SIZE;
+                int y = ty * TILE_SIZE;
+                int x2 = Math.min(width, (clearIndex - rowStart) * TILE_SIZE);
+                int y2 = Math.min(height, y + TILE_SIZE);
+                regions.add(new Rectangle(x, y, x2 - x, y2 - y));
+
+                runStart = dirty.nextSetBit(clearIndex);
+            }
+        }
+        return regions;
+    }
+
+    // the range of tile indices intersecting the given region
+    private Rectangle toTiles(Rectangle region) {
+        Rectangle r = region.intersection(new Rectangle(0, 0, width, height));
+        if (r.isEmpty()) {
+            return new Rectangle();
+        }
+        int tx1 = r.x / TILE_SIZE;
+        int ty1 = r.y / TILE_SIZE;
+        int tx2 = (r.x + r.width - 1) / TILE_SIZE;
+        int ty2 = (r.y + r.height - 1) / TILE_SIZE;
+        return new Rectangle(tx1, ty1, tx2 - tx1 + 1, ty2 - ty1 + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "DirtyTiles{" + dirty.cardinality() + " of " + numTilesX * numTilesY + '}';
+    }
+}
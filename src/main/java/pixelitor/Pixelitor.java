@@ -33,6 +33,7 @@ import pixelitor.utils.AppPreferences;
 import pixelitor.utils.Language;
 import pixelitor.utils.Messages;
 import pixelitor.utils.Utils;
+import pixelitor.utils.debug.PerformanceMetrics;
 
 import java.awt.EventQueue;
 import java.awt.GraphicsEnvironment;
@@ -63,6 +64,7 @@ public class Pixelitor {
         if ("true".equals(System.getProperty("pixelitor.development"))) {
             Utils.makeSureAssertionsAreEnabled();
             AppContext.CURRENT = AppContext.DEVELOPMENT_GUI;
+            PerformanceMetrics.setEnabled(true);
         }
 
         // Force using English locale, because using the default system
@@ -17,20 +17,35 @@
 
 package pixelitor;
 
-import com.jhlabs.image.AbstractBufferedImageOp;
 import pixelitor.utils.ProgressTracker;
 
-import java.awt.image.BufferedImage;
+import java.util.List;
 import java.util.concurrent.*;
 
 /**
  * A thread pool for parallel execution on multiple CPU cores
  */
 public class ThreadPool {
-    private static final int NUM_CORES = Runtime.getRuntime().availableProcessors();
+    // can be overridden with -Dpixelitor.threads=N, for example
+    // to measure the scaling of the parallel code in the benchmarks
+    private static final int NUM_CORES = Math.max(1, Integer.getInteger(
+        "pixelitor.threads", Runtime.getRuntime().availableProcessors()));
 
     private static final ExecutorService pool =
-        Executors.newFixedThreadPool(NUM_CORES);
+        Executors.newFixedThreadPool(NUM_CORES, PoolThread::new);
+
+    // the approximate number of pixel bytes processed by a strip,
+    // chosen so that the input and output lines of a strip
+    // fit into a typical per-core L2 cache
+    private static final int STRIP_BYTES = 128 * 1024;
+
+    // the maximal number of strips per core: enough for the faster
+    // threads to pick up the work of the slower ones, but few enough
+    // to keep the number of futures small even for huge images
+    private static final int STRIPS_PER_CORE = 4;
+
+    // shorter strips would make the per-strip overhead significant
+    private static final int MIN_STRIP_LINES = 16;
 
     private ThreadPool() {
     }
@@ -42,18 +57,12 @@ public class ThreadPool {
         return pool.submit(task);
     }
 
-    /**
-     * Submits a task that returns something, such as
-     * the calculated pixels in a line
-     */
-    public static <T> Future<T> submit2(Callable<T> task) {
-        return pool.submit(task);
-    }
-
     /**
      * Waits until all the given futures complete their
      * computation, and updates the given
      * {@link ProgressTracker} in the meantime.
+     * If the calling thread is interrupted while waiting, the
+     * tasks that haven't started yet are cancelled.
      */
     public static void waitFor(Iterable<Future<?>> futures, ProgressTracker pt) {
         assert pt != null;
@@ -66,7 +75,10 @@ public class ThreadPool {
                 // necessarily the same as the finish order, but
                 // good enough in practice
                 pt.unitDone();
-            } catch (InterruptedException | ExecutionException e) {
+            } catch (InterruptedException e) {
+                cancelAfterInterrupt(futures);
+                return;
+            } catch (ExecutionException e) {
                 e.printStackTrace();
             }
         }
@@ -81,35 +93,122 @@ public class ThreadPool {
                 future.get();
                 pt.unitDone();
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                cancelAfterInterrupt(List.of(futures));
+                return;
             } catch (ExecutionException e) {
                 e.getCause().printStackTrace();
             }
         }
     }
 
+    // cancels the tasks that haven't started yet, and keeps
+    // the interrupted status for the caller of the waiting method
+    private static void cancelAfterInterrupt(Iterable<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(false);
+        }
+        Thread.currentThread().interrupt();
+    }
+
     /**
-     * Similar to waitFor, but works with futures
-     * that return an int array representing a line, and
-     * updates the given destination image with the new pixels.
+     * Runs the given task over the lines [0, numLines) by splitting them
+     * into horizontal strips of consecutive lines, and executing the strips
+     * in parallel. Compared to submitting one task per line, this creates
+     * at most a few strips per core (regardless of the image size),
+     * and each thread works on adjacent memory.
+     * The given {@link ProgressTracker} is updated with one unit per line.
+     * If the calling thread is interrupted while waiting, the strips that
+     * haven't started yet are cancelled.
+     *
+     * If it's called on a thread of this pool (for example while compositing
+     * the tiles of an image in parallel), all lines are processed on the
+     * calling thread, because the work is already distributed, and waiting
+     * for the other threads of the fixed-size pool could deadlock.
      */
-    public static void waitFor2(Future<int[]>[] futures, BufferedImage dst, int width, ProgressTracker pt) {
+    public static void runInStrips(int numLines, int lineLength, StripTask task, ProgressTracker pt) {
         assert pt != null;
+        if (numLines <= 0) {
+            return;
+        }
 
-        try {
-            for (int i = 0; i < futures.length; i++) {
-                var lineFuture = futures[i];
-                int[] linePixels = lineFuture.get();
-                AbstractBufferedImageOp.setRGB(dst, 0, i, width, 1, linePixels);
+        int stripHeight = calcStripHeight(numLines, lineLength);
+        int numStrips = (numLines + stripHeight - 1) / stripHeight;
+        if (numStrips == 1 || isPoolThread()) {
+            task.run(0, numLines);
+            pt.unitsDone(numLines);
+            return;
+        }
 
-                pt.unitDone();
+        Future<?>[] futures = new Future[numStrips];
+        for (int i = 0; i < numStrips; i++) {
+            int startY = i * stripHeight;
+            int endY = Math.min(startY + stripHeight, numLines);
+            futures[i] = pool.submit(() -> task.run(startY, endY));
+        }
+
+        for (int i = 0; i < numStrips; i++) {
+            try {
+                futures[i].get();
+                int startY = i * stripHeight;
+                pt.unitsDone(Math.min(stripHeight, numLines - startY));
+            } catch (InterruptedException e) {
+                cancelAfterInterrupt(List.of(futures));
+                return;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
             }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
         }
     }
 
+    /**
+     * Returns the number of lines in a strip for the given image
+     * dimensions. There are at most STRIPS_PER_CORE strips per core,
+     * and if possible at least one per core. Within these bounds, the
+     * strips fit into the cache, and they are never very short.
+     */
+    static int calcStripHeight(int numLines, int lineLength) {
+        int lineBytes = Math.max(1, lineLength) * 4;
+        int cacheFriendlyHeight = Math.max(1, STRIP_BYTES / lineBytes);
+
+        int minHeight = Math.max(MIN_STRIP_LINES,
+            divideRoundingUp(numLines, NUM_CORES * STRIPS_PER_CORE));
+        int maxHeight = Math.max(minHeight, divideRoundingUp(numLines, NUM_CORES));
+
+        int height = Math.max(minHeight, Math.min(cacheFriendlyHeight, maxHeight));
+        return Math.max(1, Math.min(height, numLines));
+    }
+
+    private static int divideRoundingUp(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    public static int getNumCores() {
+        return NUM_CORES;
+    }
+
+    /**
+     * Returns true if the current thread is one of the threads of this pool
+     */
+    public static boolean isPoolThread() {
+        return Thread.currentThread() instanceof PoolThread;
+    }
+
+    /**
+     * A task that processes the lines in the [startY, endY) range
+     */
+    @FunctionalInterface
+    public interface StripTask {
+        void run(int startY, int endY);
+    }
+
     public static Executor getExecutor() {
         return pool;
     }
+
+    // a marker class for recognizing the threads of the pool
+    private static final class PoolThread extends Thread {
+        private PoolThread(Runnable task) {
+            super(task);
+        }
+    }
 }
@@ -19,6 +19,8 @@ package pixelitor.automate;
 
 import pixelitor.Composition;
 import pixelitor.OpenImages;
+import pixelitor.automate.BatchProcessor.FileResult;
+import pixelitor.automate.BatchProcessor.OverwritePolicy;
 import pixelitor.compactions.CompAction;
 import pixelitor.gui.PixelitorWindow;
 import pixelitor.gui.View;
@@ -27,12 +29,19 @@ import pixelitor.io.*;
 import pixelitor.utils.Messages;
 
 import javax.swing.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 import static java.lang.String.format;
 import static javax.swing.JOptionPane.WARNING_MESSAGE;
+import static pixelitor.automate.BatchProcessor.Status.DONE;
+import static pixelitor.automate.BatchProcessor.Status.FAILED;
 import static pixelitor.utils.Threads.*;
 
 /**
@@ -44,6 +53,11 @@ public class Automate {
     private static final String OVERWRITE_NO = "No (Skip)";
     private static final String OVERWRITE_CANCEL = "Cancel Processing";
 
+    private static final String POLICY_OVERWRITE = "Overwrite";
+    private static final String POLICY_SKIP = "Skip";
+    private static final String POLICY_RENAME = "Keep Both";
+    private static final String POLICY_CANCEL = "Cancel";
+
     private static volatile boolean overwriteAll = false;
     private static volatile boolean stopProcessing = false;
 
@@ -78,6 +92,131 @@ public class Automate {
         worker.execute();
     }
 
+    /**
+     * Processes each file in the input directory with the given image
+     * action, without opening the files. Several files are processed at
+     * the same time, and the handling of the existing output files is
+     * asked only once, before starting. If an input file or the output
+     * format has layers, then it falls back to {@link #processFiles}.
+     */
+    public static void processImages(Supplier<UnaryOperator<BufferedImage>> actionFactory,
+                                     CompAction fallbackAction,
+                                     String dialogTitle) {
+        assert calledOnEDT() : threadInfo();
+
+        File openDir = Dirs.getLastOpen();
+        File saveDir = Dirs.getLastSave();
+        FileFormat format = FileFormat.getLastOutput();
+
+        List<File> inputFiles = FileUtils.listSupportedInputFilesIn(openDir);
+        if (inputFiles.isEmpty()) {
+            String msg = "There are no supported files in " + openDir.getAbsolutePath();
+            Messages.showInfo("No files", msg);
+            return;
+        }
+        if (format.hasLayers() || !inputFiles.stream().allMatch(BatchProcessor::canRead)) {
+            processFiles(fallbackAction, dialogTitle);
+            return;
+        }
+
+        OverwritePolicy policy = askOverwritePolicy(inputFiles, saveDir, format);
+        if (policy == null) { // cancelled
+            return;
+        }
+
+        int numFiles = inputFiles.size();
+        var pm = GUIUtils.createPercentageProgressMonitor(dialogTitle);
+        var numFinished = new AtomicInteger();
+        var processor = new BatchProcessor(actionFactory, saveDir, format)
+            .overwritePolicy(policy);
+        processor.listener(result -> {
+            int finished = numFinished.incrementAndGet();
+            SwingUtilities.invokeLater(() -> {
+                if (pm.isCanceled()) {
+                    processor.cancel();
+                }
+                pm.setProgress(finished * 100 / numFiles);
+                pm.setNote("Processed " + finished + " of " + numFiles);
+            });
+        });
+
+        var worker = new SwingWorker<List<FileResult>, Void>() {
+            @Override
+            public List<FileResult> doInBackground() {
+                return processor.process(inputFiles);
+            }
+
+            @Override
+            protected void done() {
+                pm.close();
+                try {
+                    showResults(get(), saveDir);
+                } catch (InterruptedException | ExecutionException e) {
+                    Messages.showException(e);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    /**
+     * Returns the policy for the existing output files, or null if cancelled
+     */
+    private static OverwritePolicy askOverwritePolicy(List<File> inputFiles,
+                                                      File saveDir,
+                                                      FileFormat format) {
+        long numExisting = inputFiles.stream()
+            .map(file -> new File(saveDir, FileUtils.replaceExt(file.getName(), format.toString())))
+            .filter(File::exists)
+            .count();
+        if (numExisting == 0) {
+            return OverwritePolicy.SKIP;
+        }
+
+        String msg = format("%d output files already exist in %s.", numExisting, saveDir);
+        var optionPane = new JOptionPane(msg, WARNING_MESSAGE);
+        optionPane.setOptions(new String[]{
+            POLICY_OVERWRITE, POLICY_SKIP, POLICY_RENAME, POLICY_CANCEL});
+        optionPane.setInitialValue(POLICY_SKIP);
+
+        JDialog dialog = optionPane.createDialog(PixelitorWindow.get(), "Warning");
+        dialog.setVisible(true);
+        Object value = optionPane.getValue();
+        if (POLICY_OVERWRITE.equals(value)) {
+            return OverwritePolicy.OVERWRITE;
+        } else if (POLICY_SKIP.equals(value)) {
+            return OverwritePolicy.SKIP;
+        } else if (POLICY_RENAME.equals(value)) {
+            return OverwritePolicy.RENAME;
+        }
+        return null;
+    }
+
+    private static void showResults(List<FileResult> results, File saveDir) {
+        List<FileResult> failed = results.stream()
+            .filter(result -> result.status() == FAILED)
+            .toList();
+        if (failed.isEmpty()) {
+            long numSaved = results.stream()
+                .filter(result -> result.status() == DONE)
+                .count();
+            Messages.showFilesSavedMessage((int) numSaved, saveDir);
+            return;
+        }
+
+        var msg = new StringBuilder("<html>" + BatchProcessor.summarize(results) + ".<br>");
+        int numShown = Math.min(5, failed.size());
+        for (int i = 0; i < numShown; i++) {
+            FileResult result = failed.get(i);
+            msg.append("<br><b>").append(result.input().getName())
+                .append("</b>: ").append(result.error());
+        }
+        if (failed.size() > numShown) {
+            msg.append("<br>...");
+        }
+        Messages.showError("Batch Processing", msg.toString());
+    }
+
     private static Void processFilesOutsideTheEDT(List<File> inputFiles,
                                                   CompAction action,
                                                   File saveDir,
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import pixelitor.automate.BatchProcessor.FileResult;
+import pixelitor.automate.BatchProcessor.OverwritePolicy;
+import pixelitor.filters.Filter;
+import pixelitor.io.FileFormat;
+import pixelitor.io.FileUtils;
+import pixelitor.utils.ConsoleMessageHandler;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static pixelitor.automate.BatchProcessor.Status.FAILED;
+
+/**
+ * The command-line entry point for headless batch processing. Example:
+ * <pre>
+ * java -cp pixelitor.jar pixelitor.automate.BatchCommandLine \
+ *     --input in --output out --format png \
+ *     --filter JHGaussianBlur --resize 800x600 --threads 8
+ * </pre>
+ * The filters run with their default settings, in the given order.
+ */
+public class BatchCommandLine {
+    private static final String[] FILTER_PACKAGES = {
+        "", "pixelitor.filters.", "pixelitor.filters.jhlabsproxies."};
+
+    private File inputDir;
+    private File outputDir;
+    private FileFormat format = FileFormat.PNG;
+    private final List<Class<? extends Filter>> filterClasses = new ArrayList<>();
+    private int maxWidth;
+    private int maxHeight;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private OverwritePolicy overwritePolicy = OverwritePolicy.SKIP;
+
+    private BatchCommandLine() {
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        Messages.setMsgHandler(new ConsoleMessageHandler());
+
+        var commandLine = new BatchCommandLine();
+        try {
+            commandLine.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+        int numFailed = commandLine.run();
+
+        // the filters might have started non-daemon pool threads
+        System.exit(numFailed == 0 ? 0 : 1);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--help")) {
+                printUsage();
+                System.exit(0);
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--input" -> inputDir = new File(value);
+                case "--output" -> outputDir = new File(value);
+                case "--format" -> format = FileFormat.fromExtension(value)
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown format: " + value));
+                case "--filter" -> filterClasses.add(findFilterClass(value));
+                case "--resize" -> parseSize(value);
+                case "--threads" -> numThreads = parsePositiveInt(option, value);
+                case "--memory" -> memoryBudget = parsePositiveInt(option, value) * 1024L * 1024L;
+                case "--overwrite" -> overwritePolicy = parsePolicy(value);
+                default -> throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+        if (inputDir == null || !inputDir.isDirectory()) {
+            throw new IllegalArgumentException("The input directory is missing or invalid.");
+        }
+        if (outputDir == null) {
+            throw new IllegalArgumentException("The output directory is missing.");
+        }
+        if (format.hasLayers()) {
+            throw new IllegalArgumentException("Layered output formats are not supported.");
+        }
+        if (filterClasses.isEmpty() && maxWidth == 0) {
+            throw new IllegalArgumentException("No filter and no resizing was given.");
+        }
+        // fail early if a filter can't be created
+        createAction();
+    }
+
+    private int run() {
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            System.err.println("Could not create " + outputDir);
+            return 1;
+        }
+
+        List<File> inputFiles = FileUtils.listSupportedInputFilesIn(inputDir).stream()
+            .filter(BatchProcessor::canRead)
+            .toList();
+        int numFiles = inputFiles.size();
+        System.out.printf("Processing %d files with %d threads%n", numFiles, numThreads);
+
+        var numFinished = new AtomicInteger();
+        var processor = new BatchProcessor(this::createAction, outputDir, format)
+            .overwritePolicy(overwritePolicy)
+            .numThreads(numThreads)
+            .memoryBudget(memoryBudget)
+            .listener(result -> printResult(result, numFinished.incrementAndGet(), numFiles));
+
+        long startTime = System.nanoTime();
+        List<FileResult> results = processor.process(inputFiles);
+        long seconds = (System.nanoTime() - startTime) / 1_000_000_000L;
+
+        System.out.printf("Finished in %d s: %s%n", seconds, BatchProcessor.summarize(results));
+        return (int) results.stream()
+            .filter(result -> result.status() == FAILED)
+            .count();
+    }
+
+    // a new instance for each worker thread
+    private UnaryOperator<BufferedImage> createAction() {
+        List<Filter> filters = new ArrayList<>();
+        for (Class<? extends Filter> filterClass : filterClasses) {
+            try {
+                filters.add(filterClass.getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Could not create " + filterClass.getName(), e);
+            }
+        }
+        int width = maxWidth;
+        int height = maxHeight;
+        return img -> {
+            for (Filter filter : filters) {
+                img = filter.transformImage(img);
+            }
+            if (width > 0) {
+                img = ImageUtils.resizeInBox(img, width, height);
+            }
+            return img;
+        };
+    }
+
+    private static void printResult(FileResult result, int count, int numFiles) {
+        String msg = String.format("[%d/%d] %s: %s", count, numFiles,
+            result.input().getName(), result.status().toString().toLowerCase(Locale.ENGLISH));
+        if (result.status() == FAILED) {
+            System.err.println(msg + " (" + result.error() + ")");
+        } else {
+            System.out.println(msg);
+        }
+    }
+
+    private static Class<? extends Filter> findFilterClass(String name) {
+        for (String packagePrefix : FILTER_PACKAGES) {
+            try {
+                return Class.forName(packagePrefix + name).asSubclass(Filter.class);
+            } catch (ClassNotFoundException | ClassCastException e) {
+                // try the next package
+            }
+        }
+        throw new IllegalArgumentException("Unknown filter: " + name);
+    }
+
+    private void parseSize(String value) {
+        String[] parts = value.toLowerCase(Locale.ENGLISH).split("x");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("The size must be given as WIDTHxHEIGHT");
+        }
+        maxWidth = parsePositiveInt("--resize", parts[0]);
+        maxHeight = parsePositiveInt("--resize", parts[1]);
+    }
+
+    private static int parsePositiveInt(String option, String value) {
+        try {
+            int retVal = Integer.parseInt(value);
+            if (retVal > 0) {
+                return retVal;
+            }
+        } catch (NumberFormatException e) {
+            // handled below
+        }
+        throw new IllegalArgumentException(option + " must be a positive integer");
+    }
+
+    private static OverwritePolicy parsePolicy(String value) {
+        try {
+            return OverwritePolicy.valueOf(value.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown overwrite policy: " + value);
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("""
+            Usage: BatchCommandLine --input <dir> --output <dir> [options]
+              --format <ext>        the output format (default: png)
+              --filter <class>      a filter to run with default settings, can be repeated
+              --resize <WxH>        resize into the given box, keeping the proportions
+              --threads <n>         the number of images processed at the same time
+              --memory <MB>         the memory that the images in process can use
+              --overwrite <policy>  overwrite, skip (default) or rename existing output files""");
+    }
+}
@@ -47,7 +47,9 @@ public class BatchFilterWizard extends Wizard {
             filter.startOn(comp.getActiveDrawableOrThrow(), BATCH_AUTOMATE, busyCursorParent);
             return CompletableFuture.completedFuture(comp);
         };
-        Automate.processFiles(batchFilterAction, dialogTitle);
+        // each worker thread gets its own copy of the filter
+        Automate.processImages(() -> filter.copy()::transformImage,
+            batchFilterAction, dialogTitle);
     }
 
     @Override
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import pixelitor.io.DecodingException;
+import pixelitor.io.FileFormat;
+import pixelitor.io.FileUtils;
+import pixelitor.io.JpegInfo;
+import pixelitor.io.TrackedIO;
+import pixelitor.utils.ImageUtils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+/**
+ * Batch processing without opening the images in the GUI.
+ * The files are processed concurrently, the number of images in
+ * memory is limited by a memory budget, and existing output files
+ * are handled according to an {@link OverwritePolicy}, without asking.
+ * Only single-layer formats are supported, both for input and output.
+ */
+public final class BatchProcessor {
+    /**
+     * What happens if an output file already exists
+     */
+    public enum OverwritePolicy {
+        OVERWRITE, SKIP, RENAME
+    }
+
+    public enum Status {
+        DONE, SKIPPED, FAILED
+    }
+
+    /**
+     * The result of processing a single file
+     */
+    public record FileResult(File input, File output, Status status, Throwable error) {
+    }
+
+    // estimated memory use relative to the decoded image: the
+    // source, the result and a possible conversion before saving
+    private static final int MEMORY_FACTOR = 3;
+
+    private final Supplier<UnaryOperator<BufferedImage>> actionFactory;
+    private final File outputDir;
+    private final FileFormat outputFormat;
+
+    private OverwritePolicy overwritePolicy = OverwritePolicy.SKIP;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private Consumer<FileResult> listener = result -> {};
+
+    // the output files reserved (or already written) in the current run
+    private final Set<File> claimedOutputs = new HashSet<>();
+    private volatile boolean canceled;
+
+    /**
+     * The action factory is called once for each worker thread, so
+     * that the actions (for example filters with cached state)
+     * don't have to be thread-safe.
+     */
+    public BatchProcessor(Supplier<UnaryOperator<BufferedImage>> actionFactory,
+                          File outputDir, FileFormat outputFormat) {
+        if (outputFormat.hasLayers()) {
+            throw new IllegalArgumentException(outputFormat + " is not supported");
+        }
+        this.actionFactory = Objects.requireNonNull(actionFactory);
+        this.outputDir = Objects.requireNonNull(outputDir);
+        this.outputFormat = outputFormat;
+    }
+
+    public BatchProcessor overwritePolicy(OverwritePolicy overwritePolicy) {
+        this.overwritePolicy = Objects.requireNonNull(overwritePolicy);
+        return this;
+    }
+
+    public BatchProcessor numThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads = " + numThreads);
+        }
+        this.numThreads = numThreads;
+        return this;
+    }
+
+    public BatchProcessor memoryBudget(long memoryBudget) {
+        if (memoryBudget < 1) {
+            throw new IllegalArgumentException("memoryBudget = " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * Sets a listener that is notified (on a worker thread)
+     * each time a file is finished
+     */
+    public BatchProcessor listener(Consumer<FileResult> listener) {
+        this.listener = Objects.requireNonNull(listener);
+        return this;
+    }
+
+    /**
+     * Stops the processing after the files that are already started
+     */
+    public void cancel() {
+        canceled = true;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Returns true if the given file can be processed
+     */
+    public static boolean canRead(File file) {
+        return FileFormat.fromFile(file)
+            .map(format -> !format.hasLayers())
+            .orElse(false);
+    }
+
+    /**
+     * Processes the given files and waits until all of them are finished.
+     * The results are returned in the order of the input files,
+     * without the files that were not started because of a cancellation.
+     */
+    public List<FileResult> process(List<File> inputFiles) {
+        canceled = false;
+        synchronized (claimedOutputs) {
+            claimedOutputs.clear();
+        }
+
+        // in KB, so that the budget of big heaps fits into an int
+        int budgetKB = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget / 1024));
+        var memory = new Semaphore(budgetKB, true);
+        var threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, r -> {
+            var thread = new Thread(r, "batch-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ThreadLocal<UnaryOperator<BufferedImage>> actions = ThreadLocal.withInitial(actionFactory);
+
+        List<Future<FileResult>> futures = new ArrayList<>(inputFiles.size());
+        for (File file : inputFiles) {
+            futures.add(executor.submit(() -> {
+                if (canceled) {
+                    return null;
+                }
+                int neededKB = (int) Math.min(budgetKB, Math.max(1, estimateBytes(file) / 1024));
+                memory.acquire(neededKB);
+                try {
+                    if (canceled) {
+                        return null;
+                    }
+                    FileResult result = processFile(file, actions.get());
+                    listener.accept(result);
+                    return result;
+                } finally {
+                    memory.release(neededKB);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        List<FileResult> results = new ArrayList<>(inputFiles.size());
+        for (Future<FileResult> future : futures) {
+            try {
+                FileResult result = future.get();
+                if (result != null) {
+                    results.add(result);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                executor.shutdownNow();
+                break;
+            } catch (ExecutionException e) {
+                // processFile catches everything, so this is a bug
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private FileResult processFile(File input, UnaryOperator<BufferedImage> action) {
+        File output = claimOutputFile(input);
+        if (output == null) {
+            return new FileResult(input, null, Status.SKIPPED, null);
+        }
+        try {
+            if (!canRead(input)) {
+                throw new IOException("Unsupported input format: " + input.getName());
+            }
+            BufferedImage src = TrackedIO.read(input, NULL_TRACKER);
+            if (src == null) {
+                throw DecodingException.normal(input, null);
+            }
+            // the filters expect the same image type as in the app
+            src = ImageUtils.toSysCompatibleImage(src);
+            BufferedImage result = action.apply(src);
+            src = null; // can be collected while saving
+            write(outputFormat.convertForSaving(result), output);
+            return new FileResult(input, output, Status.DONE, null);
+        } catch (Exception | OutOfMemoryError e) {
+            return new FileResult(input, output, Status.FAILED, e);
+        }
+    }
+
+    /**
+     * Returns the output file for the given input file,
+     * or null if the file should be skipped
+     */
+    private File claimOutputFile(File input) {
+        String baseName = FileUtils.stripExtension(input.getName());
+        String ext = outputFormat.toString();
+        synchronized (claimedOutputs) {
+            File file = new File(outputDir, baseName + "." + ext);
+            // the policy is only for the files that existed before the run,
+            // the output of another input file (for example "a.jpg" and
+            // "a.png" as inputs) is never overwritten or skipped
+            boolean taken = claimedOutputs.contains(file);
+            if (!taken && file.exists() && overwritePolicy == OverwritePolicy.SKIP) {
+                return null;
+            }
+            if (taken || (file.exists() && overwritePolicy == OverwritePolicy.RENAME)) {
+                int i = 1;
+                do {
+                    file = new File(outputDir, baseName + "-" + i + "." + ext);
+                    i++;
+                } while (claimedOutputs.contains(file) || file.exists());
+            }
+            claimedOutputs.add(file);
+            return file;
+        }
+    }
+
+    /**
+     * Writes into a temporary file first, so that an interrupted
+     * run doesn't leave behind (or overwrite with) partial files
+     */
+    private void write(BufferedImage img, File output) throws IOException {
+        Path tmp = Files.createTempFile(outputDir.toPath(), output.getName(), ".tmp");
+        try {
+            var customizer = outputFormat == FileFormat.JPG
+                ? JpegInfo.DEFAULTS.toCustomizer()
+                : null;
+            TrackedIO.write(img, outputFormat.toString(), tmp.toFile(), customizer, NULL_TRACKER);
+            Files.move(tmp, output.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Estimates the memory needed for processing the given file
+     * from the image size in the file header, without decoding it.
+     */
+    private static long estimateBytes(File file) {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis != null) {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if (readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(iis, true, true);
+                        return 4L * reader.getWidth(0) * reader.getHeight(0) * MEMORY_FACTOR;
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // the reading will also fail and report the problem
+        }
+        // compressed images are typically not bigger than this
+        return 20 * file.length() * MEMORY_FACTOR;
+    }
+
+    /**
+     * Returns a short summary of the given results
+     */
+    public static String summarize(List<FileResult> results) {
+        int done = 0;
+        int skipped = 0;
+        int failed = 0;
+        for (FileResult result : results) {
+            switch (result.status()) {
+                case DONE -> done++;
+                case SKIPPED -> skipped++;
+                case FAILED -> failed++;
+            }
+        }
+        return String.format("%d processed, %d skipped, %d failed", done, skipped, failed);
+    }
+}
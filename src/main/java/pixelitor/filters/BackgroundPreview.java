@@ -0,0 +1,265 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters;
+
+import pixelitor.ThreadPool;
+import pixelitor.filters.util.FilterUtils;
+import pixelitor.gui.utils.GUIUtils;
+import pixelitor.layers.Drawable;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
+
+import java.awt.AlphaComposite;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.awt.RenderingHints.KEY_INTERPOLATION;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+import static java.awt.image.BufferedImage.*;
+import static pixelitor.FilterContext.PREVIEWING;
+import static pixelitor.utils.Threads.calledOnEDT;
+import static pixelitor.utils.Threads.threadInfo;
+
+/**
+ * Calculates the previews of a filter dialog in the background,
+ * so that the EDT isn't blocked while the settings are adjusted.
+ *
+ * A new request supersedes the previous one: the running calculation is
+ * interrupted (the filters that use {@link ThreadPool#runInStrips} stop
+ * after the current strips), and its result is discarded. If the last
+ * full-resolution calculation was slow, a downscaled copy of the image
+ * is filtered first, and its enlarged result is shown until the
+ * full-resolution preview is ready.
+ *
+ * The previews of all dialogs are calculated on the same thread,
+ * so a filter never runs twice at the same time.
+ */
+public class BackgroundPreview {
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Filter Preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the full-resolution previews slower than this are preceded by a coarse one
+    private static final long COARSE_THRESHOLD_MILLIS = 150;
+
+    // the coarse previews are scaled to take about this long
+    private static final long COARSE_TARGET_MILLIS = 40;
+
+    private static final double MIN_COARSE_SCALE = 1 / 8.0;
+    private static final double MAX_COARSE_SCALE = 1 / 2.0;
+    private static final int MIN_COARSE_SIZE = 32;
+
+    private final Filter filter;
+    private final Drawable dr;
+    private final Component busyCursorParent;
+
+    // incremented on the EDT by each request, so that the
+    // results of the superseded calculations can be recognized
+    private volatile long generation;
+
+    // the fields below are accessed only on the EDT
+    private Future<?> running;
+    private BufferedImage lastSrc;
+
+    // true if the full-resolution result of the last request is shown
+    private boolean upToDate = true;
+
+    // the duration of the last full-resolution calculation,
+    // accessed only on the preview thread
+    private long lastFullMillis;
+
+    public BackgroundPreview(Filter filter, Drawable dr, Component busyCursorParent) {
+        this.filter = filter;
+        this.dr = dr;
+        this.busyCursorParent = busyCursorParent;
+    }
+
+    /**
+     * Starts calculating the preview with the current settings of the filter
+     */
+    public void request() {
+        assert calledOnEDT() : threadInfo();
+
+        long requestGeneration = ++generation;
+
+        // counted here, where the filter is triggered
+        Filter.runCount.incrementAndGet();
+        FilterUtils.setLastFilter(filter);
+
+        upToDate = false;
+        lastSrc = dr.getFilterSourceImage();
+        BufferedImage src = lastSrc;
+
+        if (running != null) {
+            running.cancel(true);
+        }
+        running = executor.submit(() -> calculate(requestGeneration, src));
+    }
+
+    /**
+     * Makes sure that the full-resolution preview of the last request is
+     * shown, calculating it while the EDT waits, if it's not ready yet.
+     * It must be called before the preview is accepted.
+     */
+    public void finish() {
+        assert calledOnEDT() : threadInfo();
+        if (upToDate) {
+            return;
+        }
+        generation++;
+        upToDate = true;
+        running.cancel(true);
+
+        // calculated on the preview thread after the interrupted calculation
+        BufferedImage src = lastSrc;
+        Future<BufferedImage> result = executor.submit(() -> filter.transformImageUncounted(src));
+        GUIUtils.runWithBusyCursor(busyCursorParent, () -> {
+            try {
+                dr.changePreviewImage(result.get(), filter.getName(), PREVIEWING);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                filter.showError(dr, e.getCause());
+            }
+        });
+    }
+
+    /**
+     * Discards the running calculation, and waits until it stops,
+     * so that the filter can be used again on the EDT.
+     */
+    public void cancel() {
+        assert calledOnEDT() : threadInfo();
+        if (running == null) {
+            return;
+        }
+        generation++;
+        upToDate = true;
+        running.cancel(true);
+        running = null;
+
+        Future<?> stopped = executor.submit(() -> {
+        });
+        GUIUtils.runWithBusyCursor(busyCursorParent, () -> {
+            try {
+                stopped.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        });
+    }
+
+    private void calculate(long requestGeneration, BufferedImage src) {
+        try {
+            if (lastFullMillis > COARSE_THRESHOLD_MILLIS) {
+                BufferedImage coarse = calcCoarse(src);
+                if (coarse != null) {
+                    show(requestGeneration, coarse, -1);
+                }
+            }
+            if (requestGeneration != generation) {
+                return;
+            }
+
+            long startTime = System.nanoTime();
+            BufferedImage dest = filter.transformImageUncounted(src);
+            long millis = (System.nanoTime() - startTime) / 1_000_000;
+
+            if (requestGeneration != generation) {
+                // the result can be incomplete, but the interrupted
+                // calculation was at least this slow
+                lastFullMillis = Math.max(lastFullMillis, millis);
+                return;
+            }
+            lastFullMillis = millis;
+            show(requestGeneration, dest, millis);
+        } catch (Throwable e) {
+            EventQueue.invokeLater(() -> {
+                // the errors of the superseded calculations can
+                // be caused by the settings changing meanwhile
+                if (requestGeneration == generation) {
+                    upToDate = true;
+                    filter.showError(dr, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Filters a downscaled copy of the given image, and returns the
+     * result enlarged to the original size, or null if the image
+     * is not suitable for this.
+     */
+    private BufferedImage calcCoarse(BufferedImage src) {
+        int type = src.getType();
+        if (type != TYPE_INT_ARGB && type != TYPE_INT_ARGB_PRE && type != TYPE_INT_RGB) {
+            return null;
+        }
+
+        // the running time is roughly proportional to the number of pixels
+        double scale = Math.sqrt(COARSE_TARGET_MILLIS / (double) lastFullMillis);
+        scale = Math.max(MIN_COARSE_SCALE, Math.min(MAX_COARSE_SCALE, scale));
+        int width = (int) (src.getWidth() * scale);
+        int height = (int) (src.getHeight() * scale);
+        if (width < MIN_COARSE_SIZE || height < MIN_COARSE_SIZE) {
+            return null;
+        }
+
+        BufferedImage small = resize(src, src, width, height);
+        BufferedImage filtered = filter.transformImageUncounted(small);
+        return resize(filtered, src, src.getWidth(), src.getHeight());
+    }
+
+    // returns the given image resized into a new image with the color model of the model image
+    private static BufferedImage resize(BufferedImage img, BufferedImage model, int width, int height) {
+        BufferedImage resized = ImageUtils.createImageWithSameCM(model, width, height);
+        Graphics2D g = resized.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(img, 0, 0, width, height, null);
+        g.dispose();
+        return resized;
+    }
+
+    /**
+     * Shows the given result on the EDT, if it wasn't superseded meanwhile.
+     * The time is negative for the coarse previews.
+     */
+    private void show(long requestGeneration, BufferedImage result, long millis) {
+        EventQueue.invokeLater(() -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+            dr.changePreviewImage(result, filter.getName(), PREVIEWING);
+            if (millis >= 0) {
+                upToDate = true;
+                Messages.showPerformanceMessage(filter.getName(), millis);
+            }
+        });
+    }
+}
@@ -28,15 +28,18 @@ import pixelitor.layers.Drawable;
 import pixelitor.layers.Layer;
 import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
+import pixelitor.utils.debug.PerformanceMetrics;
 import pixelitor.utils.test.RandomGUITest;
 
 import java.awt.Component;
 import java.awt.image.BufferedImage;
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 import static pixelitor.FilterContext.FILTER_WITHOUT_DIALOG;
+import static pixelitor.utils.debug.PerformanceMetrics.Phase.TRANSFORM;
 
 /**
  * The superclass of all Pixelitor filters and color adjustments.
@@ -51,8 +54,9 @@ public abstract class Filter implements Serializable {
     private transient String name;
 
     // used for making sure that there are no
-    // unnecessary filter executions triggered
-    public static long runCount = 0;
+    // unnecessary filter executions triggered,
+    // atomic because filters also run on pool threads
+    public static final AtomicLong runCount = new AtomicLong();
 
     protected Filter() {
     }
@@ -119,30 +123,49 @@ public abstract class Filter implements Serializable {
             } else {
                 dr.filterWithoutDialogFinished(dest, context, getName());
             }
-        } catch (OutOfMemoryError e) {
-            Dialogs.showOutOfMemoryDialog(e);
         } catch (Throwable e) {
-            Layer layer = dr.getLayer();
-            String errorDetails = String.format(
-                "Error while running the filter '%s'%n" +
-                "composition = '%s'%n" +
-                "layer = '%s' (%s)%n" +
-                "hasMask = '%s'%n" +
-                "mask editing = '%b'%n" +
-                "params = %s",
-                getName(), layer.getComp().getName(),
-                layer.getName(), layer.getClass().getSimpleName(),
-                layer.hasMask(), layer.isMaskEditing(), paramsAsString());
-
-            var ise = new IllegalStateException(errorDetails, e);
-            if (RandomGUITest.isRunning()) {
-                throw ise; // we can debug the exact filter parameters only in RandomGUITest
-            }
-            Messages.showException(ise);
+            showError(dr, e);
         }
     }
 
+    /**
+     * Shows the error that happened while running this filter on the given drawable
+     */
+    void showError(Drawable dr, Throwable e) {
+        if (e instanceof OutOfMemoryError oome) {
+            Dialogs.showOutOfMemoryDialog(oome);
+            return;
+        }
+
+        Layer layer = dr.getLayer();
+        String errorDetails = String.format(
+            "Error while running the filter '%s'%n" +
+            "composition = '%s'%n" +
+            "layer = '%s' (%s)%n" +
+            "hasMask = '%s'%n" +
+            "mask editing = '%b'%n" +
+            "params = %s",
+            getName(), layer.getComp().getName(),
+            layer.getName(), layer.getClass().getSimpleName(),
+            layer.hasMask(), layer.isMaskEditing(), paramsAsString());
+
+        var ise = new IllegalStateException(errorDetails, e);
+        if (RandomGUITest.isRunning()) {
+            throw ise; // we can debug the exact filter parameters only in RandomGUITest
+        }
+        Messages.showException(ise);
+    }
+
     public BufferedImage transformImage(BufferedImage src) {
+        runCount.incrementAndGet();
+        return transformImageUncounted(src);
+    }
+
+    /**
+     * Same as {@link #transformImage(BufferedImage)}, but without counting
+     * the run, for the callers which count it when the run is requested.
+     */
+    BufferedImage transformImageUncounted(BufferedImage src) {
         boolean convertFromGray = false;
         if (src.getType() == TYPE_BYTE_GRAY) { // editing a mask
             if (!supportsGray()) {
@@ -151,6 +174,7 @@ public abstract class Filter implements Serializable {
             }
         }
 
+        var measurement = PerformanceMetrics.start(TRANSFORM, getName());
         BufferedImage dest = null;
         if (createDefaultDestImg()) {
             dest = ImageUtils.createImageWithSameCM(src);
@@ -161,8 +185,7 @@ public abstract class Filter implements Serializable {
         if (convertFromGray) { // convert the result back
             dest = ImageUtils.convertToGrayScaleImage(dest);
         }
-
-        runCount++;
+        measurement.finish((long) src.getWidth() * src.getHeight());
 
         assert dest != null : getName() + " returned null dest";
 
@@ -195,6 +218,26 @@ public abstract class Filter implements Serializable {
         return true;
     }
 
+    /**
+     * Returns true if each output pixel depends only on the input pixel
+     * at the same position, and the filter can transform several images
+     * at the same time, on different threads. The adjustment layers with
+     * such filters can be applied on the tiles of the composite image in parallel.
+     */
+    public boolean isPointFilter() {
+        return false;
+    }
+
+    /**
+     * Returns a string which is equal for two filters only if they
+     * produce the same output, or null if this can't be determined.
+     * It's used to decide whether a cached output is still valid.
+     */
+    public String getSettingsKey() {
+        // the filters without a GUI have no settings
+        return getClass().getName();
+    }
+
     public String paramsAsString() {
         return "";
     }
@@ -48,6 +48,11 @@ public class Invert extends Filter {
         return false;
     }
 
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
+
     public static BufferedImage invertImage(BufferedImage src) {
         BufferedImage dest;
         if (src.getColorModel() instanceof IndexColorModel) {
@@ -18,7 +18,7 @@
 package pixelitor.filters;
 
 import com.jhlabs.composite.MultiplyComposite;
-import com.jhlabs.image.BoxBlurFilter;
+import com.jhlabs.image.GaussianFilter;
 import pixelitor.filters.gui.RangeParam;
 import pixelitor.utils.ImageUtils;
 import pixelitor.utils.StatusBarProgressTracker;
@@ -53,7 +53,7 @@ public class Orton extends ParametrizedFilter {
         int height = src.getHeight();
 
         // the blur takes approx the same time as the screen + multiply together
-        int blurWorkUnits = 3 * (width + height);
+        int blurWorkUnits = width + height;
         int totalWorkUnits = 2 * blurWorkUnits;
 
         var pt = new StatusBarProgressTracker(NAME, totalWorkUnits);
@@ -65,14 +65,9 @@ public class Orton extends ParametrizedFilter {
         pt.unitsDone(blurWorkUnits / 2);
 
         if (radius > 0) {
-            if (width == 1 || height == 1) {
-                // otherwise we get ArrayIndexOutOfBoundsException in BoxBlurFilter
-                return src;
-            }
-
-            var boxBlur = new BoxBlurFilter(radius, radius, 3, NAME);
-            boxBlur.setProgressTracker(pt);
-            blurredMultiplied = boxBlur.filter(blurredMultiplied, blurredMultiplied);
+            var blur = GaussianFilter.likeBoxBlur(radius, 3, NAME);
+            blur.setProgressTracker(pt);
+            blurredMultiplied = blur.filter(blurredMultiplied, blurredMultiplied);
         }
 
         Graphics2D g = dest.createGraphics();
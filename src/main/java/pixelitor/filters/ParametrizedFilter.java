@@ -149,6 +149,19 @@ public abstract class ParametrizedFilter extends FilterWithGUI {
         paramSet.loadPreset(preset);
     }
 
+    @Override
+    public String getSettingsKey() {
+        // also works for the filters with a single parameter,
+        // which have no user presets
+        String className = getClass().getName();
+        try {
+            return className + "\n" + paramSet.toUserPreset(className, "").saveToString();
+        } catch (UnsupportedOperationException e) {
+            // some composite parameters can't be saved
+            return null;
+        }
+    }
+
     @Override
     public String paramsAsString() {
         return paramSet.toUserPreset(getName(), "Debug").toString();
@@ -17,26 +17,54 @@
 
 package pixelitor.filters.animation;
 
-import pixelitor.filters.Filter;
+import pixelitor.ThreadPool;
 import pixelitor.filters.ParametrizedFilter;
 import pixelitor.filters.gui.FilterState;
-import pixelitor.gui.PixelitorWindow;
 import pixelitor.gui.utils.GUIUtils;
 import pixelitor.layers.Drawable;
+import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
 
 import javax.swing.*;
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import static java.lang.String.format;
 import static pixelitor.FilterContext.TWEEN_PREVIEW;
+import static pixelitor.utils.Threads.calledOnEDT;
 import static pixelitor.utils.Threads.calledOutsideEDT;
 
 /**
- * A SwingWorker for rendering the frames of a tween animation
+ * A SwingWorker for rendering the frames of a tween animation.
+ *
+ * The filter runs for several frames at the same time on worker threads,
+ * each thread using its own copy of the filter, because the filters
+ * aren't thread-safe. Only the fast part (showing the filtered image
+ * in the layer and calculating the composite image) runs on the EDT.
+ * The frames are written in order, and only a limited number of frames
+ * can be calculated ahead of the writing, so the memory usage doesn't
+ * grow with the length of the animation. The backwards half of a
+ * "ping-pong" animation reuses the already rendered frames, unless
+ * the garbage collector needed their memory.
  */
 class RenderTweenFramesTask extends SwingWorker<Void, Void> {
+    // the rendered frames that are not yet written can use at most this
+    // fraction of the free memory (but at least one frame is rendered)
+    private static final int FREE_MEMORY_FRACTION = 4;
+
     private final TweenAnimation animation;
     private final Drawable dr;
     private final ProgressMonitor progressMonitor;
@@ -60,8 +88,8 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         progressMonitor.setProgress(progress);
         progressMonitor.setNote(format("Completed %d%%.%n", progress));
         if (progressMonitor.isCanceled()) {
-            // Probably nothing bad happens if the current frame rendering is
-            // interrupted, but to be on the safe side, let the current frame finish
+            // the frames that are already being rendered are
+            // interrupted, and the rendered frames are discarded
             cancel(false);
         }
     }
@@ -82,10 +110,18 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
 
         int numFrames = animation.getNumFrames();
         ParametrizedFilter filter = animation.getFilter();
+        int numWorkers = ThreadPool.getNumCores();
+
+        BlockingQueue<ParametrizedFilter> workerFilters = callOnEDT(
+            () -> createWorkerFilters(filter, numWorkers));
+        if (workerFilters == null) { // the error was already shown
+            return;
+        }
 
         AnimationWriter animationWriter = animation.createAnimationWriter();
 
         dr.tweenCalculatingStarted();
+        BufferedImage src = callOnEDT(dr::getFilterSourceImage);
 
         int numTotalFrames = numFrames;
         boolean pingPong = animation.isPingPong() && numFrames > 2;
@@ -93,42 +129,61 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
             numTotalFrames = 2 * numFrames - 2;
         }
 
+        ExecutorService executor = Executors.newFixedThreadPool(numWorkers, r -> {
+            Thread thread = new Thread(r, "Tween Frame Renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int maxFramesInFlight = calcMaxFramesInFlight(numWorkers);
+
+        // the written ping frames (indexed by frame number), which are
+        // reused by the pong frames if they are still in the memory
+        List<SoftReference<BufferedImage>> pingFrames = new ArrayList<>();
+
+        // the reorder buffer: the frames rendered ahead, in the order of writing
+        Deque<PendingFrame> pendingFrames = new ArrayDeque<>();
+        int nextFrameToSubmit = 0;
+
         boolean canceled = false;
-        for (int frameNr = 0; frameNr < numTotalFrames; frameNr++) {
-            if (isCancelled()) {
-                canceled = true;
-                break;
-            }
-            int percentProgress = (int) ((100.0 * frameNr) / numTotalFrames);
-            setProgress(percentProgress);
-
-            double time;
-            if (frameNr < numFrames) { // ping: normal animation forwards
-                time = ((double) frameNr) / numFrames;
-            } else { // pong: animating backwards
-                // Here the same frames are calculated again.
-                // They could be cached in an array of soft references
-                // or in the case of the file sequence output,
-                // the output files could be copied.
-                // However, "ping-pong" animations are probably uncommon.
-                int effectiveFrame = 2 * (numFrames - 1) - frameNr;
-                time = ((double) effectiveFrame) / numFrames;
-            }
+        try {
+            for (int frameNr = 0; frameNr < numTotalFrames; frameNr++) {
+                if (isCancelled()) {
+                    canceled = true;
+                    break;
+                }
+                while (nextFrameToSubmit < numTotalFrames
+                    && pendingFrames.size() < maxFramesInFlight) {
+                    pendingFrames.add(submitFrame(nextFrameToSubmit, numFrames,
+                        pingFrames, executor, workerFilters, src));
+                    nextFrameToSubmit++;
+                }
 
-            try {
-                // first render the frame...
-                BufferedImage image = renderFrame(filter, time);
+                BufferedImage image = completeFrame(pendingFrames.remove(),
+                    pingFrames, workerFilters, src, filter.getName());
+                if (pingPong && frameNr < numFrames) {
+                    pingFrames.add(new SoftReference<>(image));
+                }
 
-                // ...then write the file
-                // TODO ideally while writing out the frame,
-                // the rendering of the next frame should be
-                // started on another thread
                 animationWriter.addFrame(image);
-            } catch (Exception e) {
-                canceled = true;
-                Messages.showException(e);
-                break;
+
+                setProgress((int) ((100.0 * (frameNr + 1)) / numTotalFrames));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            canceled = true;
+        } catch (ExecutionException e) {
+            canceled = true;
+            Messages.showException(e.getCause());
+        } catch (Exception e) {
+            canceled = true;
+            Messages.showException(e);
+        } finally {
+            for (PendingFrame pendingFrame : pendingFrames) {
+                if (pendingFrame.filtered() != null) {
+                    pendingFrame.filtered().cancel(true);
+                }
             }
+            executor.shutdownNow();
         }
 
         setProgress(100);
@@ -137,26 +192,158 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         SwingUtilities.invokeLater(() -> finishOnEDT(animationWriter, finalCanceled));
     }
 
-    private BufferedImage renderFrame(ParametrizedFilter filter, double time) {
-        long runCountBefore = Filter.runCount;
+    /**
+     * Starts filtering the image of the given frame on a worker thread,
+     * unless it is a pong frame that can reuse an earlier ping frame.
+     */
+    private PendingFrame submitFrame(int frameNr, int numFrames,
+                                     List<SoftReference<BufferedImage>> pingFrames,
+                                     ExecutorService executor,
+                                     BlockingQueue<ParametrizedFilter> workerFilters,
+                                     BufferedImage src) {
+        int effectiveFrame = frameNr;
+        if (frameNr >= numFrames) { // pong: animating backwards
+            effectiveFrame = 2 * (numFrames - 1) - frameNr;
+            if (effectiveFrame >= pingFrames.size()) {
+                // the ping frame is not yet written, it will be looked up later
+                return new PendingFrame(effectiveFrame, null, null);
+            }
+            BufferedImage pingFrame = pingFrames.get(effectiveFrame).get();
+            if (pingFrame != null) {
+                return new PendingFrame(effectiveFrame, null, pingFrame);
+            }
+        }
+
+        // the state is calculated here, because the
+        // animation shouldn't be accessed concurrently
+        FilterState state = animation.tween(((double) effectiveFrame) / numFrames);
+        Future<BufferedImage> filtered = executor.submit(
+            () -> filterFrame(workerFilters, state, src));
+        return new PendingFrame(effectiveFrame, filtered, null);
+    }
+
+    /**
+     * Waits for the filtered image of the given frame, and returns the
+     * composite image with the filtered image shown in the layer.
+     */
+    private BufferedImage completeFrame(PendingFrame frame,
+                                        List<SoftReference<BufferedImage>> pingFrames,
+                                        BlockingQueue<ParametrizedFilter> workerFilters,
+                                        BufferedImage src,
+                                        String filterName) throws InterruptedException, ExecutionException {
+        if (frame.reused() != null) {
+            return frame.reused();
+        }
 
-        // all sorts of problems can happen
-        // if filters run outside of EDT
-        var busyCursorParent = PixelitorWindow.get();
-        Runnable filterRunTask = () -> {
-            FilterState intermediateState = animation.tween(time);
-            filter.getParamSet().setState(intermediateState, true);
-            filter.startOn(dr, TWEEN_PREVIEW, busyCursorParent);
-        };
-        GUIUtils.invokeAndWait(filterRunTask);
+        BufferedImage filtered;
+        if (frame.filtered() != null) {
+            filtered = frame.filtered().get();
+        } else {
+            BufferedImage pingFrame = pingFrames.get(frame.effectiveFrame()).get();
+            if (pingFrame != null) {
+                return pingFrame;
+            }
+            // the ping frame was written after this pong frame was
+            // submitted, but since then the garbage collector cleared it
+            int numFrames = animation.getNumFrames();
+            FilterState state = animation.tween(((double) frame.effectiveFrame()) / numFrames);
+            filtered = filterFrame(workerFilters, state, src);
+        }
 
-        long runCountAfter = Filter.runCount;
-        assert runCountAfter == runCountBefore + 1;
+        return showFrame(filtered, filterName);
+    }
 
+    private BufferedImage filterFrame(BlockingQueue<ParametrizedFilter> workerFilters,
+                                      FilterState state,
+                                      BufferedImage src) throws InterruptedException {
+        ParametrizedFilter filter = workerFilters.take();
+        try {
+            if (filter == animation.getFilter()) {
+                // the filter of the dialog (which couldn't be copied)
+                // runs on the EDT, as the filters normally do
+                return callOnEDT(() -> {
+                    filter.getParamSet().setState(state, true);
+                    return filter.transformImage(src);
+                });
+            }
+            filter.getParamSet().setState(state, true);
+            return filter.transformImage(src);
+        } finally {
+            workerFilters.add(filter);
+        }
+    }
+
+    private BufferedImage showFrame(BufferedImage filtered, String filterName) {
         var comp = dr.getComp();
+        BufferedImage frame = callOnEDT(() -> {
+            dr.changePreviewImage(filtered, filterName, TWEEN_PREVIEW);
+            // copied on the EDT, because the frame is written while
+            // the composite image is updated for the next frames
+            return ImageUtils.copyImage(comp.getCompositeImage());
+        });
         comp.repaint();
 
-        return comp.getCompositeImage();
+        return frame;
+    }
+
+    /**
+     * Creates a copy of the filter with the current settings for each
+     * worker thread, so that several frames can be filtered at the same time.
+     * If the filter can't be copied, the queue contains only the filter
+     * itself, and then the frames are filtered one at a time.
+     */
+    private static BlockingQueue<ParametrizedFilter> createWorkerFilters(
+        ParametrizedFilter filter, int numWorkers) {
+        assert calledOnEDT() : "not on EDT";
+
+        BlockingQueue<ParametrizedFilter> filters = new ArrayBlockingQueue<>(numWorkers);
+        if (!canBeCopied(filter)) {
+            filters.add(filter);
+            return filters;
+        }
+        FilterState currentState = new FilterState(filter.getParamSet(), false);
+        for (int i = 0; i < numWorkers; i++) {
+            ParametrizedFilter copy = (ParametrizedFilter) filter.copy();
+            copy.getParamSet().setState(currentState, false);
+            filters.add(copy);
+        }
+        return filters;
+    }
+
+    // the copies are created through the serialization proxy of the filter,
+    // which needs the presets and a no-argument constructor
+    private static boolean canBeCopied(ParametrizedFilter filter) {
+        if (!filter.canHaveUserPresets()) {
+            return false; // the copy would be the same instance
+        }
+        try {
+            filter.getClass().getDeclaredConstructor();
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private int calcMaxFramesInFlight(int numWorkers) {
+        // a frame in flight can have both a filtered image
+        // and a composite image with the canvas size
+        var canvas = dr.getComp().getCanvas();
+        long frameBytes = 2L * 4 * canvas.getWidth() * canvas.getHeight();
+
+        Runtime runtime = Runtime.getRuntime();
+        long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        long freeMemory = runtime.maxMemory() - usedMemory;
+        long maxFrames = freeMemory / FREE_MEMORY_FRACTION / Math.max(1, frameBytes);
+
+        // twice the number of workers, so that the workers
+        // are not idle while a slow frame is finishing
+        return (int) Math.max(1, Math.min(2L * numWorkers, maxFrames));
+    }
+
+    private static <T> T callOnEDT(Supplier<T> task) {
+        AtomicReference<T> result = new AtomicReference<>();
+        GUIUtils.invokeAndWait(() -> result.set(task.get()));
+        return result.get();
     }
 
     private void finishOnEDT(AnimationWriter animationWriter, boolean canceled) {
@@ -167,4 +354,14 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
             animationWriter.finish();
         }
     }
+
+    /**
+     * A frame in the reorder buffer. Either its filtered image is
+     * being calculated, or it reuses a ping frame, which is
+     * null if the ping frame was not yet written at submission.
+     */
+    private record PendingFrame(int effectiveFrame,
+                                Future<BufferedImage> filtered,
+                                BufferedImage reused) {
+    }
 }
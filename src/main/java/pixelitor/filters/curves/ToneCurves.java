@@ -19,6 +19,7 @@ package pixelitor.filters.curves;
 
 import pixelitor.colors.Colors;
 import pixelitor.filters.levels.Channel;
+import pixelitor.utils.Histograms;
 
 import java.awt.*;
 import java.awt.geom.Path2D;
@@ -46,6 +47,10 @@ public class ToneCurves {
     private static final int AXIS_SIZE = 10;
     private static final int GRID_DENSITY = 4;
 
+    // the histograms of the filtered image, drawn behind the
+    // curves, or null if they are not calculated (yet)
+    private Histograms histograms;
+
     public ToneCurves() {
         curvesByChannel.put(Channel.RGB, new ToneCurve(Channel.RGB));
         curvesByChannel.put(Channel.RED, new ToneCurve(Channel.RED));
@@ -86,6 +91,10 @@ public class ToneCurves {
         }
     }
 
+    public void setHistograms(Histograms histograms) {
+        this.histograms = histograms;
+    }
+
     public void reset() {
         for (var entry : curvesByChannel.entrySet()) {
             entry.getValue().reset();
@@ -113,6 +122,7 @@ public class ToneCurves {
         g.translate(0, curveHeight);
         g.scale(1.0, -1.0);
 
+        drawHistogram(g);
         drawGrid(g);
         drawDiagonal(g);
         drawScales(g);
@@ -121,6 +131,32 @@ public class ToneCurves {
         g.setTransform(origTransform);
     }
 
+    private void drawHistogram(Graphics2D g) {
+        if (histograms == null || histograms.getNumPixels() == 0) {
+            return;
+        }
+        int[] counts = histograms.get(activeChannel);
+        int maxCount = 0;
+        for (int count : counts) {
+            maxCount = Math.max(maxCount, count);
+        }
+
+        Path2D path = new Path2D.Float();
+        float binWidth = (float) curveWidth / counts.length;
+        path.moveTo(0, 0);
+        for (int i = 0; i < counts.length; i++) {
+            float binHeight = (float) curveHeight * counts[i] / maxCount;
+            path.lineTo(i * binWidth, binHeight);
+            path.lineTo((i + 1) * binWidth, binHeight);
+        }
+        path.lineTo(curveWidth, 0);
+        path.closePath();
+
+        Color color = activeChannel.getDrawColor(true);
+        g.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), 48));
+        g.fill(path);
+    }
+
     private void drawGrid(Graphics2D g) {
         Path2D lightPath2D = new Path2D.Float();
         Path2D darkPath2D = new Path2D.Float();
@@ -25,8 +25,10 @@ import pixelitor.filters.gui.UserPreset;
 import pixelitor.filters.levels.Channel;
 import pixelitor.layers.Drawable;
 
+import java.awt.EventQueue;
 import java.awt.image.BufferedImage;
 
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
 import static pixelitor.utils.Texts.i18n;
 
 /**
@@ -37,7 +39,6 @@ import static pixelitor.utils.Texts.i18n;
 public class ToneCurvesFilter extends FilterWithGUI {
     public static final String NAME = i18n("curves");
 
-    private CurvesFilter filter;
     private final ToneCurves curves;
 
     private ToneCurvesGUI lastGUI;
@@ -67,13 +68,17 @@ public class ToneCurvesFilter extends FilterWithGUI {
 
     @Override
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
-        if (filter == null) {
-            filter = new CurvesFilter(NAME);
-        }
         if (curves == null) {
             return src;
         }
 
+        // a new helper filter for each call (its lookup tables are cheap),
+        // because the tiles of an adjustment layer are transformed in parallel
+        var filter = new CurvesFilter(NAME);
+        if (!EventQueue.isDispatchThread()) {
+            // the status bar progress can be shown only on the EDT
+            filter.setProgressTracker(NULL_TRACKER);
+        }
         filter.setCurves(
             curves.getCurve(Channel.RGB).curve,
             curves.getCurve(Channel.RED).curve,
@@ -84,6 +89,11 @@ public class ToneCurvesFilter extends FilterWithGUI {
         return filter.filter(src, dest);
     }
 
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
+
     @Override
     public void randomizeSettings() {
         // not supported yet
@@ -21,12 +21,17 @@ import pixelitor.filters.gui.FilterGUI;
 import pixelitor.filters.levels.Channel;
 import pixelitor.gui.utils.GUIUtils;
 import pixelitor.layers.Drawable;
+import pixelitor.utils.Histograms;
 
 import javax.swing.*;
 import java.awt.FlowLayout;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
 
 import static java.awt.FlowLayout.LEFT;
 import static javax.swing.BoxLayout.PAGE_AXIS;
+import static pixelitor.utils.Threads.onEDT;
+import static pixelitor.utils.Threads.onPool;
 
 /**
  * The GUI for the tone curve filter
@@ -47,6 +52,15 @@ public class ToneCurvesGUI extends FilterGUI {
         curvesPanel.addActionListener(e -> runFilterPreview());
         add(curvesPanel);
 
+        // the histograms of the image are drawn behind the curves
+        curves.setHistograms(null);
+        BufferedImage src = dr.getFilterSourceImage();
+        CompletableFuture.supplyAsync(() -> Histograms.calculate(src), onPool)
+            .thenAcceptAsync(histograms -> {
+                curves.setHistograms(histograms);
+                curvesPanel.repaint();
+            }, onEDT);
+
         add(createButtonsPanel(dr, curvesPanel));
     }
 
@@ -17,6 +17,7 @@
 
 package pixelitor.filters.gui;
 
+import pixelitor.filters.BackgroundPreview;
 import pixelitor.filters.Filter;
 import pixelitor.layers.Drawable;
 
@@ -32,12 +33,47 @@ public abstract class FilterGUI extends JPanel {
     protected Filter filter;
     private final Drawable dr;
 
+    // null if the previews are calculated on the EDT
+    private BackgroundPreview backgroundPreview;
+
     protected FilterGUI(Filter filter, Drawable dr) {
         this.filter = filter;
         this.dr = dr;
     }
 
     public void runFilterPreview() {
-        filter.startOn(dr, PREVIEWING, this);
+        if (backgroundPreview != null) {
+            backgroundPreview.request();
+        } else {
+            filter.startOn(dr, PREVIEWING, this);
+        }
+    }
+
+    /**
+     * Calculates the following previews in the background. The first
+     * preview (which runs while this GUI is created) is calculated
+     * on the EDT, so that the dialog opens with an up-to-date preview.
+     */
+    public void startBackgroundPreviews() {
+        backgroundPreview = new BackgroundPreview(filter, dr, this);
+    }
+
+    /**
+     * Shows the full-resolution preview for the current settings,
+     * it must be called before the preview is accepted.
+     */
+    public void finishPreviews() {
+        if (backgroundPreview != null) {
+            backgroundPreview.finish();
+        }
+    }
+
+    /**
+     * Stops calculating the previews, because the dialog was canceled
+     */
+    public void cancelPreviews() {
+        if (backgroundPreview != null) {
+            backgroundPreview.cancel();
+        }
     }
 }
@@ -78,6 +78,15 @@ public abstract class FilterWithGUI extends Filter implements DialogMenuOwner {
         return false;
     }
 
+    @Override
+    public String getSettingsKey() {
+        if (!canHaveUserPresets()) {
+            return null;
+        }
+        // the same form that is used for copying the filters
+        return getClass().getName() + "\n" + createUserPreset("").saveToString();
+    }
+
     @Override
     public UserPreset createUserPreset(String presetName) {
         // the subclasses override this if they can have user presets
@@ -112,6 +121,7 @@ public abstract class FilterWithGUI extends Filter implements DialogMenuOwner {
         Tools.editedObjectChanged(dr.getLayer());
 
         FilterGUI gui = createGUI(dr, reset);
+        gui.startBackgroundPreviews();
 
         MouseZoomMethod.CURRENT.installOnJComponent(gui, dr.getComp().getView());
         ZoomMenu.setupZoomKeys(gui);
@@ -124,8 +134,14 @@ public abstract class FilterWithGUI extends Filter implements DialogMenuOwner {
             .align(FRAME_RIGHT)
             .withScrollbars()
             .enableCopyVisibleShortcut()
-            .okAction(() -> dr.onFilterDialogAccepted(getName()))
-            .cancelAction(dr::onFilterDialogCanceled)
+            .okAction(() -> {
+                gui.finishPreviews();
+                dr.onFilterDialogAccepted(getName());
+            })
+            .cancelAction(() -> {
+                gui.cancelPreviews();
+                dr.onFilterDialogCanceled();
+            })
             .show()
             .wasAccepted();
     }
@@ -164,12 +164,12 @@ public class ParamSet {
     }
 
     public void randomize() {
-        long before = Filter.runCount;
+        long before = Filter.runCount.get();
 
         paramList.forEach(FilterParam::randomize);
 
         // the filter is not supposed to be triggered
-        long after = Filter.runCount;
+        long after = Filter.runCount.get();
         assert before == after : "before = " + before + ", after = " + after;
     }
 
@@ -265,14 +265,14 @@ public class ParamSet {
     }
 
     public void loadPreset(UserPreset preset) {
-        long runCountBefore = Filter.runCount;
+        long runCountBefore = Filter.runCount.get();
         for (FilterParam param : paramList) {
             param.loadStateFrom(preset);
         }
 
         // check that the loading didn't trigger the filter
-        assert Filter.runCount == runCountBefore :
-            "runCountBefore = " + runCountBefore + ", runCount = " + Filter.runCount;
+        assert Filter.runCount.get() == runCountBefore :
+            "runCountBefore = " + runCountBefore + ", runCount = " + Filter.runCount.get();
 
         runFilter();
     }
@@ -58,15 +58,6 @@ public class JHDifferenceOfGaussians extends ParametrizedFilter {
             filter = new DoGFilter(NAME);
         }
 
-        if (src.getWidth() == 1 || src.getHeight() == 1) {
-            // BoxBlurFilter throws ArrayIndexOutOfBoundsException for such images
-
-            // Give up. A workaround would be to use a filter that can use another
-            // blurring algorithm, but it is not worth it, because this case is very
-            // unlikely to occur.
-            return src;
-        }
-
         filter.setRadius1(radius1.getValueAsFloat());
         filter.setRadius2(radius2.getValueAsFloat());
         filter.setNormalize(normalize.isChecked());
@@ -21,21 +21,33 @@ package pixelitor.filters.jhlabsproxies;
 import com.jhlabs.image.GaussianFilter;
 import pixelitor.filters.ParametrizedFilter;
 import pixelitor.filters.gui.BooleanParam;
+import pixelitor.filters.gui.IntChoiceParam;
+import pixelitor.filters.gui.IntChoiceParam.Item;
 import pixelitor.filters.gui.RangeParam;
 import pixelitor.gui.GUIText;
 import pixelitor.utils.ImageUtils;
 
 import java.awt.image.BufferedImage;
 
+import static pixelitor.filters.gui.RandomizePolicy.IGNORE_RANDOMIZE;
+
 /**
  * Gaussian Blur filter based on JHLabs GaussianFilter
  */
 public class JHGaussianBlur extends ParametrizedFilter {
     public static final String NAME = "Gaussian Blur";
 
+    private static final int METHOD_EXACT = 0;
+    private static final int METHOD_BOX_APPROXIMATION = 1;
+
     private final RangeParam radius = new RangeParam(GUIText.RADIUS, 1, 2, 101);
     private final BooleanParam keepAlpha = new BooleanParam("Keep Transparency", true);
     private final BooleanParam hpSharpening = BooleanParam.forHPSharpening();
+    private final IntChoiceParam method = new IntChoiceParam("Method", new Item[]{
+        new Item("Exact", METHOD_EXACT),
+        // takes the same time for any radius
+        new Item("Fast Approximation", METHOD_BOX_APPROXIMATION),
+    }, IGNORE_RANDOMIZE);
 
     private GaussianFilter filter;
 
@@ -45,7 +57,8 @@ public class JHGaussianBlur extends ParametrizedFilter {
         setParams(
             radius.withDecimalPlaces(1),
             keepAlpha,
-            hpSharpening
+            hpSharpening,
+            method
         );
 
         helpURL = "https://en.wikipedia.org/wiki/Gaussian_blur";
@@ -60,6 +73,7 @@ public class JHGaussianBlur extends ParametrizedFilter {
         filter.setRadius(radius.getValueAsFloat());
         filter.setPremultiplyAlpha(false);
         filter.setUseAlpha(!keepAlpha.isChecked());
+        filter.setUseBoxApproximation(method.getValue() == METHOD_BOX_APPROXIMATION);
 
         dest = filter.filter(src, dest);
 
@@ -50,11 +50,6 @@ public class JHGlow extends ParametrizedFilter {
             return src;
         }
 
-        if (src.getWidth() == 1 || src.getHeight() == 1) {
-            // otherwise we get ArrayIndexOutOfBoundsException in BoxBlurFilter
-            return src;
-        }
-
         if (filter == null) {
             filter = new GlowFilter(NAME);
         }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.jhlabsproxies;
+
+import com.jhlabs.image.MedianFilter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.RangeParam;
+import pixelitor.gui.GUIText;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Median filter with adjustable radius based on the JHLabs MedianFilter
+ */
+public class JHMedian extends ParametrizedFilter {
+    public static final String NAME = "Median";
+
+    private final RangeParam radiusParam = new RangeParam(GUIText.RADIUS, 0, 2, 50);
+
+    private MedianFilter filter;
+
+    public JHMedian() {
+        super(true);
+
+        setParams(radiusParam.withAdjustedRange(0.02));
+    }
+
+    @Override
+    public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
+        int radius = radiusParam.getValue();
+        if (radius == 0) {
+            return src;
+        }
+
+        if (filter == null) {
+            filter = new MedianFilter(NAME);
+        }
+
+        filter.setRadius(radius);
+
+        return filter.filter(src, dest);
+    }
+}
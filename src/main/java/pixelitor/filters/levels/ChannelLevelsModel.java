@@ -132,6 +132,20 @@ public class ChannelLevelsModel implements ParamAdjustmentListener {
             outputLight.getValue());
     }
 
+    /**
+     * Sets the input range without running the filter
+     */
+    public void setInputRange(int dark, int light) {
+        if (light <= dark) {
+            return;
+        }
+        inputLight.setValueNoTrigger(MAX_VALUE);
+        inputDark.setValueNoTrigger(dark);
+        inputLight.setValueNoTrigger(light);
+
+        updateLookup();
+    }
+
     public void resetToDefaults() {
         for (RangeParam param : params) {
             param.reset(false);
@@ -21,6 +21,7 @@ import pixelitor.filters.gui.FilterGUI;
 import pixelitor.filters.gui.FilterParam;
 import pixelitor.filters.gui.ParamSet;
 import pixelitor.filters.gui.UserPreset;
+import pixelitor.utils.Histograms;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -28,6 +29,10 @@ import java.util.List;
 import static pixelitor.filters.levels.Channel.*;
 
 public class LevelsModel {
+    // the fraction of the darkest and lightest pixels which
+    // are allowed to be clipped by the automatic adjustment
+    private static final double AUTO_CLIP_FRACTION = 0.001;
+
     private final ChannelLevelsModel rgbModel;
     private final ChannelLevelsModel rModel;
     private final ChannelLevelsModel gModel;
@@ -80,6 +85,27 @@ public class LevelsModel {
         settingsChanged();
     }
 
+    /**
+     * Stretches the contrast of each color channel so that its values
+     * fill the whole range, ignoring a small fraction of the extreme values.
+     */
+    public void autoAdjust(Histograms histograms) {
+        if (histograms.getNumPixels() == 0) {
+            return;
+        }
+        for (ChannelLevelsModel model : subModels) {
+            model.resetToDefaults();
+            Channel channel = model.getChannel();
+            if (channel != RGB) {
+                model.setInputRange(
+                    histograms.getPercentile(channel, AUTO_CLIP_FRACTION),
+                    histograms.getPercentile(channel, 1 - AUTO_CLIP_FRACTION));
+            }
+        }
+
+        settingsChanged();
+    }
+
     public void resetChannelToDefault(Channel channel) {
         for (ChannelLevelsModel model : subModels) {
             if (model.getChannel() == channel) {
@@ -25,6 +25,7 @@ import pixelitor.filters.levels.ChannelLevelsModel;
 import pixelitor.filters.levels.LevelsModel;
 import pixelitor.gui.utils.GUIUtils;
 import pixelitor.layers.Drawable;
+import pixelitor.utils.Histograms;
 
 import javax.swing.*;
 import java.awt.BorderLayout;
@@ -89,6 +90,12 @@ public class LevelsGUI extends FilterGUI implements ItemListener {
             e -> model.resetAllToDefault());
         southPanel.add(resetAllButton);
 
+        JButton autoButton = new JButton("Auto");
+        autoButton.setToolTipText("Stretches the contrast of each color channel");
+        autoButton.addActionListener(e -> model.autoAdjust(
+            Histograms.calculate(dr.getFilterSourceImage())));
+        southPanel.add(autoButton);
+
         add(southPanel, SOUTH);
     }
 
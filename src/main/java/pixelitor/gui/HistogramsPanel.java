@@ -19,7 +19,8 @@ package pixelitor.gui;
 
 import pixelitor.Composition;
 import pixelitor.OpenImages;
-import pixelitor.utils.ImageUtils;
+import pixelitor.filters.levels.Channel;
+import pixelitor.utils.Histograms;
 import pixelitor.utils.ViewActivationListener;
 
 import javax.swing.*;
@@ -27,7 +28,6 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.GridLayout;
-import java.awt.image.BufferedImage;
 import java.util.Objects;
 
 import static java.awt.BorderLayout.CENTER;
@@ -43,7 +43,7 @@ import static pixelitor.utils.Texts.i18n;
 public class HistogramsPanel extends JPanel implements ViewActivationListener {
     private static final HistogramsPanel INSTANCE = new HistogramsPanel();
 
-    public static final int HISTOGRAM_RESOLUTION = 256;
+    public static final int HISTOGRAM_RESOLUTION = Histograms.NUM_BINS;
 
     private static final String TYPE_LOGARITHMIC = "Logarithmic";
     private static final String TYPE_LINEAR = "Linear";
@@ -123,25 +123,18 @@ public class HistogramsPanel extends JPanel implements ViewActivationListener {
         if (!isShown()) {
             return;
         }
-        BufferedImage image = comp.getCompositeImage();
-
-        int[] reds = new int[HISTOGRAM_RESOLUTION];
-        int[] blues = new int[HISTOGRAM_RESOLUTION];
-        int[] greens = new int[HISTOGRAM_RESOLUTION];
-
-        int[] data = ImageUtils.getPixelsAsArray(image);
-        for (int rgb : data) {
-            int a = (rgb >>> 24) & 0xFF;
-            if (a > 0) {
-                int r = (rgb >>> 16) & 0xFF;
-                int g = (rgb >>> 8) & 0xFF;
-                int b = rgb & 0xFF;
-
-                reds[r]++;
-                greens[g]++;
-                blues[b]++;
+        comp.calcHistograms(histograms -> {
+            // the active composition could have changed in the meantime
+            if (comp.isActive()) {
+                update(histograms);
             }
-        }
+        });
+    }
+
+    private void update(Histograms histograms) {
+        int[] reds = histograms.get(Channel.RED);
+        int[] greens = histograms.get(Channel.GREEN);
+        int[] blues = histograms.get(Channel.BLUE);
 
         if (logarithmic) {
             for (int i = 0; i < HISTOGRAM_RESOLUTION; i++) {
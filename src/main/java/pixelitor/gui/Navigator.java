@@ -313,7 +313,8 @@ public class Navigator extends JComponent
         var origTransform = g2.getTransform();
 
         g2.scale(imgScalingRatio, imgScalingRatio);
-        g2.drawImage(view.getComp().getCompositeImage(), 0, 0, null);
+        // shares the downscaled images with the zoomed-out views
+        view.getComp().paintCompositeImage(g2);
         g2.setTransform(origTransform);
 
         g2.setStroke(VIEW_BOX_STROKE);
@@ -309,7 +309,7 @@ public class View extends JComponent implements MouseListener, MouseMotionListen
             assert mask != null : "no mask in " + maskViewMode;
             mask.paintLayerOnGraphics(g2, true);
         } else {
-            g2.drawImage(comp.getCompositeImage(), 0, 0, null);
+            comp.paintCompositeImage(g2);
 
             if (maskViewMode.showRuby()) {
                 LayerMask mask = comp.getActiveLayer().getMask();
@@ -433,6 +433,13 @@ public class View extends JComponent implements MouseListener, MouseMotionListen
         repaint(area.getCo());
     }
 
+    /**
+     * Repaints the given region, which is given in image space
+     */
+    public void repaintRegion(Rectangle imRegion) {
+        repaintRegion(PRectangle.fromIm(imRegion, this));
+    }
+
     public void ensurePositiveLocation() {
         if (viewContainer != null) {
             viewContainer.ensurePositiveLocation();
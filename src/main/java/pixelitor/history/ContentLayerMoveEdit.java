@@ -90,6 +90,18 @@ public class ContentLayerMoveEdit extends PixelitorEdit {
         layer = null;
     }
 
+    @Override
+    public void sealBackup() {
+        if (imageEdit != null) {
+            imageEdit.sealBackup();
+        }
+    }
+
+    @Override
+    public long getBackupBytes() {
+        return imageEdit == null ? 0 : imageEdit.getBackupBytes();
+    }
+
     @Override
     public DebugNode createDebugNode() {
         var node = super.createDebugNode();
@@ -52,6 +52,7 @@ public class History {
 
     static {
         setUndoLevels(AppPreferences.loadUndoLevels());
+        setBackupBudgets(UndoStore.getMemoryBudget(), UndoStore.getDiskBudget());
     }
 
     private History() {
@@ -79,6 +80,7 @@ public class History {
         }
 
         if (edit.canUndo()) {
+            edit.sealBackup();
             undoManager.addEdit(edit);
         } else {
             undoManager.discardAllEdits();
@@ -213,6 +215,17 @@ public class History {
         undoManager.setLimit(undoLevels);
     }
 
+    /**
+     * Sets how many bytes the saved pixels of the history can use in memory
+     * (beyond that they are moved to temporary files) and on the disk
+     * (beyond that the oldest edits are dropped).
+     */
+    public static void setBackupBudgets(long memoryBytes, long diskBytes) {
+        UndoStore.setBudgets(memoryBytes, diskBytes);
+        undoManager.setBackupBytesLimit(memoryBytes + diskBytes);
+        UndoStore.scheduleSpill();
+    }
+
     public static int getUndoLevels() {
         return undoManager.getHeavyEditLimit();
     }
@@ -68,6 +68,23 @@ public class ImageAndMaskEdit extends ImageEdit {
         maskImageEdit.die();
     }
 
+    @Override
+    public void sealBackup() {
+        super.sealBackup();
+        maskImageEdit.sealBackup();
+    }
+
+    @Override
+    public void keepFullBackup() {
+        super.keepFullBackup();
+        maskImageEdit.keepFullBackup();
+    }
+
+    @Override
+    public long getBackupBytes() {
+        return super.getBackupBytes() + maskImageEdit.getBackupBytes();
+    }
+
     private void updateGUI() {
         // the two edits are set to embedded, so we update - except
         // if this edit is also embedded
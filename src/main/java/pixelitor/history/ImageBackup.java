@@ -0,0 +1,477 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import pixelitor.layers.TiledImage;
+import pixelitor.utils.debug.PerformanceMetrics;
+
+import java.awt.Point;
+import java.awt.image.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static pixelitor.utils.debug.PerformanceMetrics.Phase.HISTORY_BACKUP;
+
+/**
+ * The pixels saved by an edit for undo/redo. They are kept as they were
+ * received until they are compressed in the background, and if the memory
+ * budget of the history is exceeded, they are moved into a temporary file
+ * (see {@link UndoStore}). Unlike soft references, this never loses them.
+ */
+final class ImageBackup {
+    // the number of data elements compressed at once
+    private static final int BATCH_ELEMENTS = 64 * 1024;
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final ColorModel colorModel; // null if the backup is a raster
+    private final SampleModel sampleModel;
+    private final int minX;
+    private final int minY;
+    private final int width;
+    private final int height;
+    private final boolean compressible;
+
+    // at any time, the pixels are stored in exactly one of these forms
+    private BufferedImage image;
+    private Raster raster;
+    private TiledImage tiles;
+    private byte[] compressed;
+    private Path file;
+
+    private long fileLength;
+    private boolean disposed;
+
+    // true while the pixels are being moved to the disk
+    private boolean moving;
+
+    // used by the UndoStore, so that backups of edits which
+    // are dropped without dying can still be garbage collected
+    final WeakReference<ImageBackup> storeRef = new WeakReference<>(this);
+
+    // deletes the temporary file (if there is one) even if this
+    // backup is garbage collected without being disposed
+    private final AtomicReference<Path> fileToDelete = new AtomicReference<>();
+    private final Cleaner.Cleanable cleanable = CLEANER.register(this, new FileDeleter(fileToDelete));
+
+    private ImageBackup(ColorModel colorModel, Raster raster) {
+        this.colorModel = colorModel;
+        sampleModel = raster.getSampleModel();
+        minX = raster.getMinX();
+        minY = raster.getMinY();
+        width = raster.getWidth();
+        height = raster.getHeight();
+        int type = raster.getTransferType();
+        compressible = type == DataBuffer.TYPE_INT || type == DataBuffer.TYPE_BYTE;
+    }
+
+    /**
+     * Creates a backup of the given image, which must not be modified later.
+     * Sparse images are stored as tiles, sharing the unchanged tiles
+     * with the given base (if it's not null).
+     */
+    static ImageBackup of(BufferedImage img, TiledImage tileBase) {
+        var measurement = PerformanceMetrics.start(HISTORY_BACKUP, "image backup");
+        var backup = new ImageBackup(img.getColorModel(), img.getRaster());
+        TiledImage tiles = TiledImage.ofSparse(img, tileBase);
+        if (tiles != null) {
+            // already compact, and possibly shared with the layer
+            backup.tiles = tiles;
+        } else {
+            backup.image = img;
+        }
+        UndoStore.add(backup);
+        measurement.finish((long) img.getWidth() * img.getHeight());
+        return backup;
+    }
+
+    /**
+     * Creates a backup of the given raster, which must not be modified later.
+     */
+    static ImageBackup of(Raster raster) {
+        var backup = new ImageBackup(null, raster);
+        backup.raster = raster;
+        UndoStore.add(backup);
+        return backup;
+    }
+
+    /**
+     * Returns the saved pixels as an image
+     */
+    BufferedImage getImage() {
+        assert colorModel != null;
+        synchronized (this) {
+            waitForMove();
+            if (image != null) {
+                return image;
+            }
+            if (tiles != null) {
+                return tiles.toImage();
+            }
+        }
+        WritableRaster decoded = decode();
+        return new BufferedImage(colorModel, decoded,
+            colorModel.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Returns the saved pixels as a raster with the original location
+     */
+    Raster getRaster() {
+        synchronized (this) {
+            waitForMove();
+            if (raster != null) {
+                return raster;
+            }
+            if (image != null) {
+                return image.getRaster();
+            }
+            if (tiles != null) {
+                return tiles.toImage().getRaster();
+            }
+        }
+        return decode();
+    }
+
+    /**
+     * Waits until a running move to the disk finishes, so that the
+     * tiles aren't assembled and the pixels aren't converted twice at
+     * the same time. Must be called while holding the lock.
+     */
+    private void waitForMove() {
+        boolean interrupted = false;
+        while (moving) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    boolean isBackupOf(BufferedImage img) {
+        return image == img;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of heap bytes used by the pixels
+     */
+    synchronized long getMemoryBytes() {
+        if (image != null || raster != null) {
+            return calcRawBytes();
+        }
+        if (tiles != null) {
+            return tiles.getPixelBytes();
+        }
+        if (compressed != null) {
+            return compressed.length;
+        }
+        return 0;
+    }
+
+    synchronized long getDiskBytes() {
+        return file != null ? fileLength : 0;
+    }
+
+    long getStoredBytes() {
+        return getMemoryBytes() + getDiskBytes();
+    }
+
+    synchronized boolean isInMemory() {
+        return !disposed && file == null;
+    }
+
+    /**
+     * Returns true if the pixels are not compressed yet, but they could be
+     */
+    synchronized boolean needsCompression() {
+        return compressible && (image != null || raster != null);
+    }
+
+    /**
+     * Returns true if the pixels can be moved to the disk
+     */
+    synchronized boolean canMoveToDisk() {
+        return compressible && !disposed && file == null;
+    }
+
+    private long calcRawBytes() {
+        int bitsPerPixel = 0;
+        for (int bits : sampleModel.getSampleSize()) {
+            bitsPerPixel += bits;
+        }
+        return (long) width * height * bitsPerPixel / 8;
+    }
+
+    /**
+     * Compresses the uncompressed pixels, called in the background
+     */
+    void compress() {
+        Raster source;
+        synchronized (this) {
+            if (!needsCompression() || disposed) {
+                return;
+            }
+            source = raster != null ? raster : image.getRaster();
+        }
+
+        // encoded without holding the lock, the source is not modified
+        var measurement = PerformanceMetrics.start(HISTORY_BACKUP, "compression");
+        byte[] encoded = encode(source);
+        measurement.finish((long) source.getWidth() * source.getHeight());
+
+        synchronized (this) {
+            if (disposed || (raster == null && image == null)) {
+                return;
+            }
+            compressed = encoded;
+            raster = null;
+            image = null;
+        }
+    }
+
+    /**
+     * Moves the pixels into a file in the given directory,
+     * compressing them first if necessary. The pixels are encoded
+     * and written without holding the lock, and only the state is
+     * swapped under it. The readers of the pixels wait for the move.
+     */
+    void moveToDisk(Path dir) throws IOException {
+        byte[] data;
+        Raster source = null;
+        TiledImage sourceTiles = null;
+        synchronized (this) {
+            if (!canMoveToDisk()) {
+                return;
+            }
+            data = compressed;
+            if (data == null) {
+                source = raster != null ? raster : image != null ? image.getRaster() : null;
+                sourceTiles = tiles;
+            }
+            moving = true;
+        }
+
+        try {
+            // the pixels are never modified, only their form changes
+            if (data == null) {
+                if (source == null) {
+                    source = sourceTiles.toImage().getRaster();
+                }
+                data = encode(source);
+            }
+            Path newFile = Files.createTempFile(dir, "undo", ".bin");
+            Files.write(newFile, data);
+
+            synchronized (this) {
+                if (disposed || file != null) {
+                    // disposed (or moved) while the file was written
+                    Files.deleteIfExists(newFile);
+                    return;
+                }
+                file = newFile;
+                fileToDelete.set(newFile);
+                fileLength = data.length;
+                compressed = null;
+                raster = null;
+                image = null;
+                tiles = null;
+            }
+        } finally {
+            synchronized (this) {
+                moving = false;
+                notifyAll();
+            }
+        }
+    }
+
+    void dispose() {
+        synchronized (this) {
+            if (disposed) {
+                return;
+            }
+            disposed = true;
+            if (image != null) {
+                image.flush();
+            }
+            image = null;
+            raster = null;
+            tiles = null;
+            compressed = null;
+            file = null;
+        }
+        UndoStore.remove(this);
+        cleanable.clean();
+    }
+
+    private byte[] encode(Raster source) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        var bos = new ByteArrayOutputStream();
+        byte[] outBuffer = new byte[64 * 1024];
+        ByteBuffer intBytes = null;
+
+        int numBands = source.getNumDataElements();
+        int batchRows = Math.max(1, BATCH_ELEMENTS / (width * numBands));
+        Object batch = null;
+        for (int y = 0; y < height; y += batchRows) {
+            int rows = Math.min(batchRows, height - y);
+            int numElements = width * rows * numBands;
+            batch = source.getDataElements(minX, minY + y, width, rows, batch);
+            if (batch instanceof int[] ints) {
+                if (intBytes == null) {
+                    intBytes = ByteBuffer.allocate(ints.length * 4);
+                }
+                IntBuffer asInts = intBytes.asIntBuffer();
+                asInts.put(ints, 0, numElements);
+                deflater.setInput(intBytes.array(), 0, numElements * 4);
+            } else {
+                deflater.setInput((byte[]) batch, 0, numElements);
+            }
+            while (!deflater.needsInput()) {
+                int count = deflater.deflate(outBuffer);
+                bos.write(outBuffer, 0, count);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            int count = deflater.deflate(outBuffer);
+            bos.write(outBuffer, 0, count);
+        }
+        deflater.end();
+        return bos.toByteArray();
+    }
+
+    private WritableRaster decode() {
+        byte[] data;
+        Path dataFile;
+        synchronized (this) {
+            if (disposed) {
+                throw new IllegalStateException("disposed backup");
+            }
+            data = compressed;
+            dataFile = file;
+        }
+        if (data == null) {
+            // read without holding the lock
+            try {
+                data = Files.readAllBytes(dataFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        UndoStore.accessed(this);
+
+        WritableRaster decoded = Raster.createWritableRaster(
+            sampleModel.createCompatibleSampleModel(width, height),
+            new Point(minX, minY));
+        int numBands = decoded.getNumDataElements();
+        int batchRows = Math.max(1, BATCH_ELEMENTS / (width * numBands));
+        int batchElements = batchRows * width * numBands;
+        boolean isInt = decoded.getTransferType() == DataBuffer.TYPE_INT;
+        byte[] batchBytes = new byte[isInt ? batchElements * 4 : batchElements];
+        int[] batchInts = isInt ? new int[batchElements] : null;
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        try {
+            for (int y = 0; y < height; y += batchRows) {
+                int rows = Math.min(batchRows, height - y);
+                int numElements = width * rows * numBands;
+                if (isInt) {
+                    inflateFully(inflater, batchBytes, numElements * 4);
+                    ByteBuffer.wrap(batchBytes).asIntBuffer().get(batchInts, 0, numElements);
+                    decoded.setDataElements(minX, minY + y, width, rows, batchInts);
+                } else {
+                    inflateFully(inflater, batchBytes, numElements);
+                    decoded.setDataElements(minX, minY + y, width, rows, batchBytes);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+        return decoded;
+    }
+
+    private static void inflateFully(Inflater inflater, byte[] buffer, int length)
+        throws DataFormatException {
+        int done = 0;
+        while (done < length) {
+            int count = inflater.inflate(buffer, done, length - done);
+            if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                throw new IllegalStateException("truncated undo backup");
+            }
+            done += count;
+        }
+    }
+
+    private record FileDeleter(AtomicReference<Path> fileRef) implements Runnable {
+        @Override
+        public void run() {
+            Path file = fileRef.getAndSet(null);
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // the whole directory is deleted on exit
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        String form;
+        if (disposed) {
+            form = "disposed";
+        } else if (file != null) {
+            form = "disk";
+        } else if (compressed != null) {
+            form = "compressed";
+        } else if (tiles != null) {
+            form = "tiles";
+        } else {
+            form = "raw";
+        }
+        return "ImageBackup{" + width + "x" + height + ", " + form
+               + ", memory=" + getMemoryBytes() + ", disk=" + getDiskBytes() + '}';
+    }
+}
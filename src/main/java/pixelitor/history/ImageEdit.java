@@ -19,12 +19,19 @@ package pixelitor.history;
 
 import pixelitor.Composition;
 import pixelitor.layers.Drawable;
+import pixelitor.layers.TiledImage;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
 import pixelitor.utils.debug.DebugNode;
 
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import java.awt.image.BufferedImage;
-import java.lang.ref.SoftReference;
+import java.awt.image.DataBuffer;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+
+import static pixelitor.utils.Threads.onPool;
 
 /**
  * A PixelitorEdit that represents the changes made to an image.
@@ -33,7 +40,20 @@ public class ImageEdit extends FadeableEdit {
     // selections are ignored for example when the image is enlarged by the move tool
     private final boolean ignoreSelection;
 
-    private SoftReference<BufferedImage> imgRef;
+    // the pixels before the edit, or after the edit if it was undone
+    private ImageBackup backup;
+
+    // replaces the backup if only some tiles were changed by the edit
+    private TileDelta delta;
+
+    // The pixels before the edit until the edit is sealed. Only then is the
+    // backup or the delta created, so that the pixels aren't compressed
+    // before it turns out that most of them weren't changed.
+    private BufferedImage unsealedImage;
+    private TiledImage unsealedTileBase;
+
+    // the saving started by sealBackup, null if it's not running
+    private CompletableFuture<Void> sealing;
     protected Drawable dr;
 
     public ImageEdit(String name, Composition comp, Drawable dr,
@@ -47,9 +67,10 @@ public class ImageEdit extends FadeableEdit {
 
 //        Utils.debugImage(backupImage, "Backup for " + name);
 
-        // the backup image is stored in an SoftReference
-        imgRef = new SoftReference<>(backupImage);
         this.dr = dr;
+        unsealedImage = backupImage;
+        // sparse backups can share their tiles with the layer
+        unsealedTileBase = dr.getTileBase();
 
         checkBackupDifferentFromActive();
     }
@@ -57,8 +78,8 @@ public class ImageEdit extends FadeableEdit {
     // the backup should never be identical to the active image
     // otherwise the backup might be also edited
     private void checkBackupDifferentFromActive() {
-        BufferedImage layerImage = dr.getImage();
-        if (layerImage == imgRef.get()) {
+        BufferedImage active = dr.getImage();
+        if (unsealedImage == active || (backup != null && backup.isBackupOf(active))) {
             throw new IllegalStateException("backup image is identical to the active one");
         }
     }
@@ -75,6 +96,63 @@ public class ImageEdit extends FadeableEdit {
         return edit;
     }
 
+    /**
+     * Saves only the changed tiles, if possible, otherwise the full backup.
+     * At this point the image must already contain the result of the edit.
+     * The tiles are compared in parallel with the
+     * current image, and the changed ones are saved in the background.
+     */
+    @Override
+    public void sealBackup() {
+        if (unsealedImage == null || sealing != null) {
+            return; // already sealed or died
+        }
+        BufferedImage current = dr.getImage();
+        boolean sameSize = unsealedImage.getWidth() == current.getWidth()
+                           && unsealedImage.getHeight() == current.getHeight();
+        if (!sameSize || (!ignoreSelection && comp.getSelection() != null)) {
+            // the backup is only the selected part or the
+            // image was resized, only a full backup is possible
+            keepFullBackup();
+            return;
+        }
+        BufferedImage before = unsealedImage;
+        TiledImage base = unsealedTileBase;
+        sealing = TileDelta.createAsync(before.getRaster(), before.getType(), current)
+            .thenAcceptAsync(newDelta -> {
+                if (newDelta != null) {
+                    delta = newDelta;
+                } else {
+                    backup = ImageBackup.of(before, base);
+                }
+            }, onPool);
+    }
+
+    /**
+     * Creates the full backup without comparing it with the current image.
+     * Used by the edits which are added to the history before the image is changed.
+     */
+    public void keepFullBackup() {
+        if (unsealedImage != null && sealing == null) {
+            backup = ImageBackup.of(unsealedImage, unsealedTileBase);
+            unsealedImage = null;
+            unsealedTileBase = null;
+        }
+    }
+
+    // Waits for the saving started by sealBackup (usually it's
+    // already finished), or creates the full backup if it wasn't sealed.
+    private void finishSealing() {
+        if (sealing != null) {
+            sealing.join();
+            sealing = null;
+            unsealedImage = null;
+            unsealedTileBase = null;
+        } else {
+            keepFullBackup();
+        }
+    }
+
     @Override
     public void undo() throws CannotUndoException {
         super.undo();
@@ -97,8 +175,19 @@ public class ImageEdit extends FadeableEdit {
      * Returns true if successful
      */
     private boolean swapImages() {
-        BufferedImage backupImage = imgRef.get();
-        if (backupImage == null) {
+        finishSealing();
+        if (delta != null) {
+            return swapTiles();
+        }
+        if (backup == null) { // died
+            return false;
+        }
+        BufferedImage backupImage;
+        try {
+            backupImage = backup.getImage();
+        } catch (UncheckedIOException e) {
+            // the temporary file of the backup couldn't be read
+            Messages.showException(e);
             return false;
         }
 
@@ -111,7 +200,8 @@ public class ImageEdit extends FadeableEdit {
         dr.changeImageForUndoRedo(backupImage, ignoreSelection);
 
         // create new backup image from tmp
-        imgRef = new SoftReference<>(tmp);
+        backup.dispose();
+        backup = ImageBackup.of(tmp, dr.getTileBase());
 
         if (!embedded) {
             comp.update();
@@ -122,36 +212,97 @@ public class ImageEdit extends FadeableEdit {
         return true;
     }
 
+    private boolean swapTiles() {
+        BufferedImage current = dr.getImage();
+        if (!delta.canApplyTo(current)) {
+            return false;
+        }
+        BufferedImage newImage = ImageUtils.copyImage(current);
+        try {
+            delta.swapWith(newImage);
+        } catch (UncheckedIOException e) {
+            // the temporary file of the backup couldn't be read
+            Messages.showException(e);
+            return false;
+        }
+        // the delta always covers the whole image
+        dr.changeImageForUndoRedo(newImage, true);
+
+        if (!embedded) {
+            comp.update();
+            dr.updateIconImage();
+        }
+        return true;
+    }
+
     @Override
     public void die() {
         super.die();
 
-        BufferedImage backupImage = imgRef.get();
-        if (backupImage != null) {
-            backupImage.flush();
+        if (sealing != null) {
+            sealing.join();
+            sealing = null;
         }
-
-        imgRef = null;
+        unsealedImage = null;
+        unsealedTileBase = null;
+        if (backup != null) {
+            backup.dispose();
+        }
+        backup = null;
+        if (delta != null) {
+            delta.dispose();
+        }
+        delta = null;
         dr = null;
     }
 
     @Override
     public BufferedImage getBackupImage() {
-        if (imgRef != null) {
-            // this still could be null
-            return imgRef.get();
+        if (dr == null) { // died
+            return null;
+        }
+        finishSealing();
+        if (delta != null) {
+            BufferedImage previousImage = ImageUtils.copyImage(dr.getImage());
+            delta.copyTo(previousImage);
+            return previousImage;
+        }
+        if (backup == null) { // died
+            return null;
+        }
+        return backup.getImage();
+    }
+
+    @Override
+    public long getBackupBytes() {
+        if (sealing != null && sealing.isDone()) {
+            finishSealing();
+        }
+        if (unsealedImage != null) {
+            // not sealed yet, or the changed tiles are still being saved
+            DataBuffer buffer = unsealedImage.getRaster().getDataBuffer();
+            return (long) buffer.getSize() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
         }
-        return null;
+        if (delta != null) {
+            return delta.getStoredBytes();
+        }
+        return backup == null ? 0 : backup.getStoredBytes();
     }
 
     @Override
     public DebugNode createDebugNode() {
         var node = super.createDebugNode();
 
-        BufferedImage img = imgRef.get();
-        if (img != null) {
-            node.addInt("backup image width", img.getWidth());
-            node.addInt("backup image height", img.getHeight());
+        if (unsealedImage != null) {
+            node.addBoolean("sealing", sealing != null);
+        }
+        if (sealing == null && backup != null) {
+            node.addInt("backup image width", backup.getWidth());
+            node.addInt("backup image height", backup.getHeight());
+            node.addString("backup", backup.toString());
+        }
+        if (sealing == null && delta != null) {
+            node.addString("delta", delta.toString());
         }
 
         node.addBoolean("ignoreSelection", ignoreSelection);
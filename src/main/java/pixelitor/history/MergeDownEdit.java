@@ -89,6 +89,16 @@ public class MergeDownEdit extends PixelitorEdit {
         deleteLayerEdit.die();
     }
 
+    @Override
+    public void sealBackup() {
+        imageEdit.sealBackup();
+    }
+
+    @Override
+    public long getBackupBytes() {
+        return imageEdit.getBackupBytes();
+    }
+
     @Override
     public DebugNode createDebugNode() {
         DebugNode node = super.createDebugNode();
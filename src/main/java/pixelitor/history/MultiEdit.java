@@ -95,6 +95,22 @@ public class MultiEdit extends PixelitorEdit {
         }
     }
 
+    @Override
+    public void sealBackup() {
+        for (PixelitorEdit edit : edits) {
+            edit.sealBackup();
+        }
+    }
+
+    @Override
+    public long getBackupBytes() {
+        long bytes = 0;
+        for (PixelitorEdit edit : edits) {
+            bytes += edit.getBackupBytes();
+        }
+        return bytes;
+    }
+
     @Override
     public DebugNode createDebugNode() {
         var node = super.createDebugNode();
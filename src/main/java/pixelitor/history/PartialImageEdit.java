@@ -20,6 +20,7 @@ package pixelitor.history;
 import pixelitor.Composition;
 import pixelitor.layers.Drawable;
 import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
 import pixelitor.utils.debug.Debug;
 import pixelitor.utils.debug.DebugNode;
 
@@ -29,9 +30,11 @@ import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.Raster;
-import java.lang.ref.SoftReference;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
 
 import static java.lang.String.format;
+import static pixelitor.utils.Threads.onPool;
 
 /**
  * Represents the changes made to a part of an image (for example brush strokes).
@@ -39,7 +42,17 @@ import static java.lang.String.format;
  */
 public class PartialImageEdit extends FadeableEdit {
     private final Rectangle saveRect;
-    private SoftReference<Raster> backupRasterRef;
+    private final int imageType;
+    private ImageBackup backup;
+
+    // replaces the backup if only some tiles were changed by the edit
+    private TileDelta delta;
+
+    // the pixels before the edit until the edit is sealed (see ImageEdit)
+    private Raster unsealedRaster;
+
+    // the saving started by sealBackup, null if it's not running
+    private CompletableFuture<Void> sealing;
 
     private final Drawable dr;
 
@@ -49,9 +62,53 @@ public class PartialImageEdit extends FadeableEdit {
 
         this.dr = dr;
         this.saveRect = saveRect;
+        imageType = image.getType();
+
+        unsealedRaster = image.getData(this.saveRect);
+    }
+
+    /**
+     * Saves only the changed tiles, if possible, otherwise the full backup.
+     * The tiles are compared in parallel with the
+     * current image, and the changed ones are saved in the background.
+     */
+    @Override
+    public void sealBackup() {
+        if (unsealedRaster == null || sealing != null) {
+            return; // already sealed or died
+        }
+        Raster before = unsealedRaster;
+        sealing = TileDelta.createAsync(before, imageType, dr.getImage())
+            .thenAcceptAsync(newDelta -> {
+                if (newDelta != null) {
+                    delta = newDelta;
+                } else {
+                    backup = ImageBackup.of(before);
+                }
+            }, onPool);
+    }
+
+    /**
+     * Creates the full backup without comparing it with the current image.
+     * Used by the edits which are added to the history before the image is changed.
+     */
+    public void keepFullBackup() {
+        if (unsealedRaster != null && sealing == null) {
+            backup = ImageBackup.of(unsealedRaster);
+            unsealedRaster = null;
+        }
+    }
 
-        Raster backupRaster = image.getData(this.saveRect);
-        backupRasterRef = new SoftReference<>(backupRaster);
+    // Waits for the saving started by sealBackup (usually it's
+    // already finished), or creates the full backup if it wasn't sealed.
+    private void finishSealing() {
+        if (sealing != null) {
+            sealing.join();
+            sealing = null;
+            unsealedRaster = null;
+        } else {
+            keepFullBackup();
+        }
     }
 
     @Override
@@ -76,8 +133,19 @@ public class PartialImageEdit extends FadeableEdit {
      * Returns true if successful
      */
     private boolean swapRasters() {
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster == null) {
+        finishSealing();
+        if (delta != null) {
+            return swapTiles();
+        }
+        if (backup == null) { // died
+            return false;
+        }
+        Raster backupRaster;
+        try {
+            backupRaster = backup.getRaster();
+        } catch (UncheckedIOException e) {
+            // the temporary file of the backup couldn't be read
+            Messages.showException(e);
             return false;
         }
 
@@ -99,9 +167,29 @@ public class PartialImageEdit extends FadeableEdit {
             throw e;
         }
 
-        backupRasterRef = new SoftReference<>(tmpRaster);
+        backup.dispose();
+        backup = ImageBackup.of(tmpRaster);
+
+        dr.updateRegion(saveRect);
+        dr.updateIconImage();
+
+        return true;
+    }
+
+    private boolean swapTiles() {
+        BufferedImage image = dr.getImage();
+        if (!delta.canApplyTo(image)) {
+            return false;
+        }
+        try {
+            delta.swapWith(image);
+        } catch (UncheckedIOException e) {
+            // the temporary file of the backup couldn't be read
+            Messages.showException(e);
+            return false;
+        }
 
-        comp.update();
+        dr.updateRegion(saveRect);
         dr.updateIconImage();
 
         return true;
@@ -133,16 +221,41 @@ public class PartialImageEdit extends FadeableEdit {
     public void die() {
         super.die();
 
-        backupRasterRef = null;
+        if (sealing != null) {
+            sealing.join();
+            sealing = null;
+        }
+        unsealedRaster = null;
+        if (backup != null) {
+            backup.dispose();
+        }
+        backup = null;
+        if (delta != null) {
+            delta.dispose();
+        }
+        delta = null;
+    }
+
+    @Override
+    public long getBackupBytes() {
+        if (sealing != null && sealing.isDone()) {
+            finishSealing();
+        }
+        if (unsealedRaster != null) {
+            // not sealed yet, or the changed tiles are still being saved
+            DataBuffer buffer = unsealedRaster.getDataBuffer();
+            return (long) buffer.getSize() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        }
+        if (delta != null) {
+            return delta.getStoredBytes();
+        }
+        return backup == null ? 0 : backup.getStoredBytes();
     }
 
     @Override
     public BufferedImage getBackupImage() {
-        if (backupRasterRef == null) { // died
-            return null;
-        }
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster == null) { // soft reference lost
+        finishSealing();
+        if (backup == null && delta == null) { // died
             return null;
         }
 
@@ -151,7 +264,11 @@ public class PartialImageEdit extends FadeableEdit {
         // TODO this is not the optimal solution  - Fade should fade only the changed area
         BufferedImage fullImage = dr.getImage();
         BufferedImage previousImage = ImageUtils.copyImage(fullImage);
-        previousImage.setData(backupRaster);
+        if (delta != null) {
+            delta.copyTo(previousImage);
+        } else {
+            previousImage.setData(backup.getRaster());
+        }
 
         var selection = dr.getComp().getSelection();
         if (selection != null) {
@@ -167,16 +284,17 @@ public class PartialImageEdit extends FadeableEdit {
     public DebugNode createDebugNode() {
         var node = super.createDebugNode();
 
-        int width = -1;
-        int height = -1;
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster != null) {
-            width = backupRaster.getWidth();
-            height = backupRaster.getHeight();
+        if (unsealedRaster != null) {
+            node.addBoolean("sealing", sealing != null);
+        }
+        if (sealing == null && backup != null) {
+            node.addInt("backup image width", backup.getWidth());
+            node.addInt("backup image height", backup.getHeight());
+            node.addString("backup", backup.toString());
+        }
+        if (sealing == null && delta != null) {
+            node.addString("delta", delta.toString());
         }
-
-        node.addInt("backup image width", width);
-        node.addInt("backup image height", height);
 
         return node;
     }
@@ -155,6 +155,22 @@ public abstract class PixelitorEdit extends AbstractUndoableEdit {
         return isHeavy;
     }
 
+    /**
+     * Called when the edit is added to the history, at which point
+     * the changes are already made. Edits that save pixels can use
+     * this to save only the difference.
+     */
+    public void sealBackup() {
+    }
+
+    /**
+     * Returns the number of bytes (in memory or on disk)
+     * used by the saved pixels of this edit.
+     */
+    public long getBackupBytes() {
+        return 0;
+    }
+
     @Override
     public String toString() {
         return name;
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import pixelitor.ThreadPool;
+import pixelitor.layers.TiledImage;
+
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+import static pixelitor.utils.Threads.onPool;
+
+/**
+ * The difference between the two states of an image edit, stored as the
+ * tiles that were changed by the edit. Only the changed tiles are saved
+ * (in an {@link ImageBackup}, so they are also compressed and possibly
+ * moved to the disk). Undo and redo swap them with the same tiles of the
+ * current image, so the same delta works in both directions.
+ */
+final class TileDelta {
+    static final int TILE_SIZE = 64;
+    private static final int TILE_PIXELS = TILE_SIZE * TILE_SIZE;
+
+    // a delta is not worth it if this fraction of the tiles changed
+    private static final double MAX_CHANGED_RATIO = 0.9;
+
+    private static final int[] ARGB_MASKS = {0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000};
+
+    private final Rectangle bounds; // relative to the image
+    private final int imageType;
+    private final int numTilesX;
+    private final int[] changedTiles;
+
+    // one row of TILE_PIXELS ints for each changed tile,
+    // null if nothing changed
+    private ImageBackup backup;
+
+    private TileDelta(Rectangle bounds, int imageType, int[] changedTiles) {
+        this.bounds = bounds;
+        this.imageType = imageType;
+        this.changedTiles = changedTiles;
+        numTilesX = divideRoundingUp(bounds.width, TILE_SIZE);
+    }
+
+    /**
+     * Returns the delta between the given raster of an image before the edit
+     * and the same area of the current image, or null if a delta can't be
+     * created or wouldn't save memory. The raster must have the same type
+     * as the current image, and its bounds determine the compared area.
+     */
+    static TileDelta create(Raster before, int beforeType, BufferedImage current) {
+        if (!canCompare(before, beforeType, current)) {
+            return null;
+        }
+        return pack(before, beforeType, findChangedTiles(before, current.getRaster()));
+    }
+
+    /**
+     * Like {@link #create(Raster, int, BufferedImage)}, but only the
+     * comparison runs while the calling thread waits (because the current
+     * image can be changed by the next edits), and the changed tiles of the
+     * raster before the edit are saved in the background. The current image
+     * is read in place, in parallel strips, without copying it.
+     */
+    static CompletableFuture<TileDelta> createAsync(Raster before, int beforeType, BufferedImage current) {
+        if (!canCompare(before, beforeType, current)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        boolean[] changed = findChangedTiles(before, current.getRaster());
+        return CompletableFuture.supplyAsync(() -> pack(before, beforeType, changed), onPool);
+    }
+
+    private static boolean canCompare(Raster before, int beforeType, BufferedImage current) {
+        if (beforeType != current.getType() || !TiledImage.canStore(current)) {
+            return false;
+        }
+        if (before.getTransferType() != DataBuffer.TYPE_INT || before.getNumDataElements() != 1) {
+            return false;
+        }
+        return new Rectangle(current.getWidth(), current.getHeight()).contains(before.getBounds());
+    }
+
+    /**
+     * Compares the rows of the two rasters in parallel strips, and returns
+     * which tiles (in row-major order within the bounds of the before
+     * raster) are different. The after raster must contain these bounds.
+     */
+    private static boolean[] findChangedTiles(Raster before, Raster after) {
+        Rectangle bounds = before.getBounds();
+        int numTilesX = divideRoundingUp(bounds.width, TILE_SIZE);
+        boolean[] changed = new boolean[numTilesX * divideRoundingUp(bounds.height, TILE_SIZE)];
+
+        // two strips can share a row of tiles, but they only set elements
+        // to true, and the results are visible after the waiting
+        ThreadPool.runInStrips(bounds.height, bounds.width, (startY, endY) -> {
+            int[] beforeRow = new int[bounds.width];
+            int[] afterRow = new int[bounds.width];
+            for (int y = startY; y < endY; y++) {
+                before.getDataElements(bounds.x, bounds.y + y, bounds.width, 1, beforeRow);
+                after.getDataElements(bounds.x, bounds.y + y, bounds.width, 1, afterRow);
+                int rowStart = (y / TILE_SIZE) * numTilesX;
+                for (int tx = 0; tx < numTilesX; tx++) {
+                    if (changed[rowStart + tx]) {
+                        continue;
+                    }
+                    int from = tx * TILE_SIZE;
+                    int to = Math.min(from + TILE_SIZE, bounds.width);
+                    if (!Arrays.equals(beforeRow, from, to, afterRow, from, to)) {
+                        changed[rowStart + tx] = true;
+                    }
+                }
+            }
+        }, NULL_TRACKER);
+        return changed;
+    }
+
+    // saves the changed tiles of the before raster
+    private static TileDelta pack(Raster before, int beforeType, boolean[] changed) {
+        Rectangle bounds = before.getBounds();
+        int numTilesX = divideRoundingUp(bounds.width, TILE_SIZE);
+        int numTiles = changed.length;
+
+        int numChanged = 0;
+        for (boolean tileChanged : changed) {
+            if (tileChanged) {
+                numChanged++;
+            }
+        }
+        if (numChanged > (int) (MAX_CHANGED_RATIO * numTiles)) {
+            return null; // the full backup is just as good
+        }
+
+        int[] changedTiles = new int[numChanged];
+        int[] packed = new int[numChanged * TILE_PIXELS];
+        int[] tileBuffer = new int[TILE_PIXELS];
+        int k = 0;
+        for (int i = 0; i < numTiles; i++) {
+            if (!changed[i]) {
+                continue;
+            }
+            Rectangle tile = getTileRect(bounds, numTilesX, i);
+            before.getDataElements(tile.x, tile.y, tile.width, tile.height, tileBuffer);
+            System.arraycopy(tileBuffer, 0, packed, k * TILE_PIXELS, tile.width * tile.height);
+            changedTiles[k++] = i;
+        }
+
+        var delta = new TileDelta(bounds, beforeType, changedTiles);
+        if (numChanged > 0) {
+            delta.backup = ImageBackup.of(createPackedRaster(packed, numChanged));
+        }
+        return delta;
+    }
+
+    /**
+     * Returns true if the delta can be applied to the given image
+     */
+    boolean canApplyTo(BufferedImage img) {
+        return img.getType() == imageType
+               && TiledImage.canStore(img)
+               && new Rectangle(img.getWidth(), img.getHeight()).contains(bounds);
+    }
+
+    /**
+     * Swaps the saved tiles with the same tiles of the given image,
+     * so that afterwards the delta can be used to reverse the swap.
+     */
+    void swapWith(BufferedImage img) {
+        assert canApplyTo(img);
+        if (backup == null) {
+            return; // nothing changed
+        }
+        int[] saved = getSavedPixels();
+        transfer(saved, img, true);
+
+        backup.dispose();
+        backup = ImageBackup.of(createPackedRaster(saved, changedTiles.length));
+    }
+
+    /**
+     * Copies the saved tiles into the given image
+     */
+    void copyTo(BufferedImage img) {
+        assert canApplyTo(img);
+        if (backup != null) {
+            transfer(getSavedPixels(), img, false);
+        }
+    }
+
+    private int[] getSavedPixels() {
+        // a copy, because the raster might be shared with the backup
+        return (int[]) backup.getRaster().getDataElements(
+            0, 0, TILE_PIXELS, changedTiles.length, null);
+    }
+
+    private void transfer(int[] saved, BufferedImage img, boolean swap) {
+        int[] pixels = getPixels(img);
+        int scanline = img.getWidth();
+        int[] row = swap ? new int[TILE_SIZE] : null;
+        for (int k = 0; k < changedTiles.length; k++) {
+            Rectangle tile = getTileRect(bounds, numTilesX, changedTiles[k]);
+            int w = tile.width;
+            for (int y = 0; y < tile.height; y++) {
+                int imgFrom = (tile.y + y) * scanline + tile.x;
+                int savedFrom = k * TILE_PIXELS + y * w;
+                if (swap) {
+                    System.arraycopy(pixels, imgFrom, row, 0, w);
+                    System.arraycopy(saved, savedFrom, pixels, imgFrom, w);
+                    System.arraycopy(row, 0, saved, savedFrom, w);
+                } else {
+                    System.arraycopy(saved, savedFrom, pixels, imgFrom, w);
+                }
+            }
+        }
+    }
+
+    Rectangle getBounds() {
+        return bounds;
+    }
+
+    int getNumChangedTiles() {
+        return changedTiles.length;
+    }
+
+    long getStoredBytes() {
+        return backup == null ? 0 : backup.getStoredBytes();
+    }
+
+    void dispose() {
+        if (backup != null) {
+            backup.dispose();
+            backup = null;
+        }
+    }
+
+    // the tile with the given index, relative to the image
+    private static Rectangle getTileRect(Rectangle bounds, int numTilesX, int index) {
+        int x = (index % numTilesX) * TILE_SIZE;
+        int y = (index / numTilesX) * TILE_SIZE;
+        return new Rectangle(bounds.x + x, bounds.y + y,
+            Math.min(TILE_SIZE, bounds.width - x),
+            Math.min(TILE_SIZE, bounds.height - y));
+    }
+
+    private static Raster createPackedRaster(int[] data, int numTiles) {
+        return Raster.createPackedRaster(new DataBufferInt(data, data.length),
+            TILE_PIXELS, numTiles, TILE_PIXELS, ARGB_MASKS, null);
+    }
+
+    private static int[] getPixels(BufferedImage img) {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+
+    private static int divideRoundingUp(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    @Override
+    public String toString() {
+        return "TileDelta{bounds=" + bounds + ", changedTiles="
+               + changedTiles.length + ", backup=" + backup + '}';
+    }
+}
@@ -23,10 +23,12 @@ import javax.swing.undo.UndoableEdit;
 /**
  * An undo manager that has a separate limit for heavyweight and lightweight edits.
  * An edit is considered heavyweight if storing it potentially requires a lot of memory.
+ * There is also a limit for the total number of bytes used by the saved pixels.
  */
 public class TwoLimitsUndoManager extends UndoManager {
     private int heavyEditLimit;
     private int lightEditLimit;
+    private long backupBytesLimit = Long.MAX_VALUE;
 
     public TwoLimitsUndoManager() {
         this(64, 256);
@@ -67,6 +69,15 @@ public class TwoLimitsUndoManager extends UndoManager {
         this.lightEditLimit = lightEditLimit;
     }
 
+    public synchronized long getBackupBytesLimit() {
+        return backupBytesLimit;
+    }
+
+    public synchronized void setBackupBytesLimit(long backupBytesLimit) {
+        this.backupBytesLimit = backupBytesLimit;
+        trimForLimit();
+    }
+
     @Override
     protected void trimForLimit() {
         super.trimForLimit();
@@ -98,6 +109,35 @@ public class TwoLimitsUndoManager extends UndoManager {
                 }
             }
         }
+
+        trimForBackupBytesLimit();
+    }
+
+    // drops the oldest edits, but always keeps the last one
+    private void trimForBackupBytesLimit() {
+        long bytes = getBackupBytes();
+        if (bytes <= backupBytesLimit) {
+            return;
+        }
+        int lastToTrim = -1;
+        for (int i = 0; i < edits.size() - 1 && bytes > backupBytesLimit; i++) {
+            bytes -= ((PixelitorEdit) edits.get(i)).getBackupBytes();
+            lastToTrim = i;
+        }
+        if (lastToTrim >= 0) {
+            trimEdits(0, lastToTrim);
+        }
+    }
+
+    /**
+     * Returns the number of bytes used by the saved pixels of all edits
+     */
+    public long getBackupBytes() {
+        long bytes = 0;
+        for (UndoableEdit edit : edits) {
+            bytes += ((PixelitorEdit) edit).getBackupBytes();
+        }
+        return bytes;
     }
 
     public int getHeavyEditCount() {
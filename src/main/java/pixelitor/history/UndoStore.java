@@ -0,0 +1,218 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.Messages;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps track of the {@link ImageBackup}s of the history.
+ * The backups are compressed in the background, and if their memory
+ * use exceeds the memory budget, the least recently used ones are
+ * moved into temporary files, also in the background. The disk budget is enforced by the
+ * undo manager, which drops the oldest edits if the backups need
+ * more than the two budgets together.
+ */
+final class UndoStore {
+    private static long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+    private static long diskBudget = 4L * 1024 * 1024 * 1024;
+
+    // The backups which are in memory, the least recently used first.
+    // They are referenced weakly, because the edits own them.
+    private static final LinkedHashSet<WeakReference<ImageBackup>> inMemory = new LinkedHashSet<>();
+
+    // the backups which were moved to the disk
+    private static final LinkedHashSet<WeakReference<ImageBackup>> onDisk = new LinkedHashSet<>();
+
+    // the backups are moved to the disk on this thread, so that
+    // the EDT doesn't wait for the compression and the disk IO
+    private static final ExecutorService spillExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Undo Spill");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static boolean spillScheduled;
+
+    private static Path dir;
+    private static boolean diskErrorReported;
+
+    private UndoStore() {
+    }
+
+    static void add(ImageBackup backup) {
+        synchronized (UndoStore.class) {
+            inMemory.add(backup.storeRef);
+        }
+        if (backup.needsCompression()) {
+            ThreadPool.submit(backup::compress);
+        }
+        scheduleSpill();
+    }
+
+    /**
+     * Enforces the memory budget in the background. The requests
+     * arriving while an earlier one is still waiting are merged into it.
+     */
+    static void scheduleSpill() {
+        synchronized (UndoStore.class) {
+            if (spillScheduled) {
+                return;
+            }
+            spillScheduled = true;
+        }
+        spillExecutor.execute(() -> {
+            synchronized (UndoStore.class) {
+                spillScheduled = false;
+            }
+            enforceMemoryBudget();
+        });
+    }
+
+    static synchronized void accessed(ImageBackup backup) {
+        // move it to the end of the iteration order
+        if (inMemory.remove(backup.storeRef)) {
+            inMemory.add(backup.storeRef);
+        }
+    }
+
+    static synchronized void remove(ImageBackup backup) {
+        inMemory.remove(backup.storeRef);
+        onDisk.remove(backup.storeRef);
+    }
+
+    /**
+     * Moves the least recently used backups to the disk until the rest
+     * fits into the memory budget. Called on the spill thread.
+     */
+    static void enforceMemoryBudget() {
+        List<ImageBackup> toMove = new ArrayList<>();
+        synchronized (UndoStore.class) {
+            long memoryBytes = getMemoryBytes();
+            Iterator<WeakReference<ImageBackup>> it = inMemory.iterator();
+            while (memoryBytes > memoryBudget && it.hasNext()) {
+                ImageBackup backup = it.next().get();
+                if (backup != null && backup.canMoveToDisk()) {
+                    memoryBytes -= backup.getMemoryBytes();
+                    toMove.add(backup);
+                }
+            }
+        }
+
+        for (ImageBackup backup : toMove) {
+            try {
+                backup.moveToDisk(getDir());
+            } catch (IOException e) {
+                // if the disk is not usable, the backup stays in memory
+                // and the undo manager will drop the oldest edits
+                reportDiskError(e);
+                break;
+            }
+            synchronized (UndoStore.class) {
+                if (inMemory.remove(backup.storeRef) && !backup.isInMemory()) {
+                    onDisk.add(backup.storeRef);
+                }
+            }
+        }
+    }
+
+    static synchronized long getMemoryBytes() {
+        return sumBytes(inMemory, true);
+    }
+
+    static synchronized long getDiskBytes() {
+        return sumBytes(onDisk, false);
+    }
+
+    // also removes the references of the garbage collected backups
+    private static long sumBytes(Set<WeakReference<ImageBackup>> backups, boolean memory) {
+        long bytes = 0;
+        Iterator<WeakReference<ImageBackup>> it = backups.iterator();
+        while (it.hasNext()) {
+            ImageBackup backup = it.next().get();
+            if (backup == null) {
+                it.remove();
+            } else {
+                bytes += memory ? backup.getMemoryBytes() : backup.getDiskBytes();
+            }
+        }
+        return bytes;
+    }
+
+    static synchronized void setBudgets(long newMemoryBudget, long newDiskBudget) {
+        memoryBudget = newMemoryBudget;
+        diskBudget = newDiskBudget;
+    }
+
+    static synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    static synchronized long getDiskBudget() {
+        return diskBudget;
+    }
+
+    // reported only once, because it would be repeated for every new edit
+    private static void reportDiskError(IOException e) {
+        synchronized (UndoStore.class) {
+            if (diskErrorReported) {
+                return;
+            }
+            diskErrorReported = true;
+        }
+        Messages.showException(e);
+    }
+
+    private static synchronized Path getDir() throws IOException {
+        if (dir == null) {
+            dir = Files.createTempDirectory("pixelitor-undo");
+
+            // all the files are deleted together on exit, instead of
+            // registering each one with File.deleteOnExit, whose list
+            // would grow for the whole session
+            Path createdDir = dir;
+            Runtime.getRuntime().addShutdownHook(
+                new Thread(() -> deleteDir(createdDir), "Undo Files Cleanup"));
+        }
+        return dir;
+    }
+
+    private static void deleteDir(Path dirToDelete) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dirToDelete)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dirToDelete);
+        } catch (IOException e) {
+            // nothing can be done while exiting, the
+            // operating system cleans the temp directory
+        }
+    }
+}
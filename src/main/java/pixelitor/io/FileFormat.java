@@ -96,14 +96,23 @@ public enum FileFormat {
     }
 
     private void saveSingleLayered(Composition comp, SaveSettings settings) {
-        BufferedImage img = comp.getCompositeImage();
+        BufferedImage img = convertForSaving(comp.getCompositeImage());
+        IO.saveImageToFile(img, settings);
+    }
+
+    /**
+     * Does the final conversion, which might be
+     * necessary before writing the image
+     */
+    public BufferedImage convertForSaving(BufferedImage img) {
         if (converter != null) {
-            // do the final conversion, which might be
-            // necessary before writing the image
-            img = converter.apply(img);
+            return converter.apply(img);
         }
+        return img;
+    }
 
-        IO.saveImageToFile(img, settings);
+    public boolean hasLayers() {
+        return hasLayers;
     }
 
     public FileFilter getFileFilter() {
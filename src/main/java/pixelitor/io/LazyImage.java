@@ -0,0 +1,317 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.Messages;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.FutureTask;
+
+/**
+ * An image whose pixels stay in a pxc file until they are first needed.
+ *
+ * The file is kept open while some of its images are not yet read, so
+ * that the pixels can still be read after the file is renamed or deleted.
+ * Before the file is overwritten by a save, the pending images are read
+ * into the memory, see {@link #loadPendingImages(File)}.
+ */
+public class LazyImage {
+    private final Source source;
+    private final PXCChunks.Entry entry;
+
+    // the already loaded image for the files that
+    // don't support lazy loading, otherwise null
+    private final BufferedImage loadedImage;
+
+    // the pixels read before the file was overwritten
+    private BufferedImage detachedImage;
+
+    private FutureTask<BufferedImage> prefetchTask;
+
+    private LazyImage(Source source, PXCChunks.Entry entry) {
+        this.source = source;
+        this.entry = entry;
+        loadedImage = null;
+    }
+
+    private LazyImage(BufferedImage loadedImage) {
+        source = null;
+        entry = null;
+        this.loadedImage = loadedImage;
+    }
+
+    static LazyImage ofLoaded(BufferedImage img) {
+        return new LazyImage(img);
+    }
+
+    public boolean isLoaded() {
+        return loadedImage != null;
+    }
+
+    public int getWidth() {
+        return isLoaded() ? loadedImage.getWidth() : entry.width();
+    }
+
+    public int getHeight() {
+        return isLoaded() ? loadedImage.getHeight() : entry.height();
+    }
+
+    /**
+     * Starts reading the pixels in the background, because
+     * they will probably be needed soon.
+     */
+    public synchronized void prefetch() {
+        if (isLoaded() || prefetchTask != null || detachedImage != null) {
+            return;
+        }
+        prefetchTask = new FutureTask<>(this::read);
+        ThreadPool.submit(prefetchTask);
+    }
+
+    /**
+     * Returns the pixels, reading them from the file if necessary.
+     * The result is not cached here (except for a prefetched result),
+     * so that the callers can decide whether to keep them in memory.
+     */
+    public BufferedImage load() {
+        if (isLoaded()) {
+            return loadedImage;
+        }
+
+        FutureTask<BufferedImage> task;
+        synchronized (this) {
+            task = prefetchTask;
+            prefetchTask = null;
+        }
+        try {
+            if (task != null) {
+                return PXCChunks.getResult(task);
+            }
+            return read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Signals that the pixels were taken over by the caller, and they
+     * will not be read again, so the file doesn't have to be kept open for them.
+     */
+    public void release() {
+        if (source != null) {
+            synchronized (this) {
+                prefetchTask = null;
+                detachedImage = null;
+            }
+            source.released(this);
+        }
+    }
+
+    private BufferedImage read() throws IOException {
+        synchronized (this) {
+            if (detachedImage != null) {
+                return detachedImage;
+            }
+        }
+        return source.read(entry);
+    }
+
+    // reads the pixels into the memory, because the file will be overwritten
+    private void detach() throws IOException {
+        BufferedImage img = load();
+        synchronized (this) {
+            detachedImage = img;
+        }
+    }
+
+    /**
+     * Reads into the memory the pending images of all the open
+     * compositions that were read from the given file. Must be called
+     * before the file is overwritten.
+     */
+    public static void loadPendingImages(File file) {
+        for (Source source : Source.getOpenSources(file)) {
+            source.detachAll();
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (isLoaded()) {
+            return "LazyImage{loaded}";
+        }
+        return "LazyImage{file=" + source.file.getName() + ", entry=" + entry + '}';
+    }
+
+    /**
+     * A pxc file which is kept open while some of its images are not yet read.
+     */
+    static final class Source {
+        private static final Cleaner cleaner = Cleaner.create();
+
+        // the open sources by the real path of their files
+        private static final Map<Path, List<WeakReference<Source>>> openSources = new HashMap<>();
+
+        private final File file;
+        private final Path key;
+        private final FileChannel channel;
+        private final long fileSize;
+
+        // the images which can still be read from the file
+        private final Set<LazyImage> pendingImages = new LinkedHashSet<>();
+        private final Cleaner.Cleanable cleanable;
+
+        /**
+         * Takes over the given channel, which is closed when all the images
+         * are released, or when the composition is garbage collected.
+         */
+        Source(File file, FileChannel channel) throws IOException {
+            this.file = file;
+            this.channel = channel;
+            fileSize = channel.size();
+            key = toKey(file);
+
+            // the action can't reference this object
+            cleanable = cleaner.register(this, () -> closeQuietly(channel));
+            synchronized (openSources) {
+                openSources.computeIfAbsent(key, k -> new ArrayList<>())
+                    .add(new WeakReference<>(this));
+            }
+        }
+
+        LazyImage createImage(PXCChunks.Entry entry) {
+            LazyImage img = new LazyImage(this, entry);
+            synchronized (this) {
+                pendingImages.add(img);
+            }
+            return img;
+        }
+
+        private BufferedImage read(PXCChunks.Entry entry) throws IOException {
+            if (!channel.isOpen()) {
+                throw new IOException(file.getName() + " was closed, the layer pixels can't be read");
+            }
+            if (channel.size() != fileSize) {
+                throw new IOException(file.getName()
+                    + " was changed since it was opened, the layer pixels can't be read");
+            }
+            return PXCChunks.decode(channel, entry);
+        }
+
+        private void released(LazyImage img) {
+            boolean allReleased;
+            synchronized (this) {
+                allReleased = pendingImages.remove(img) && pendingImages.isEmpty();
+            }
+            if (allReleased) {
+                close();
+            }
+        }
+
+        /**
+         * Closes the file if none of its images are read lazily
+         */
+        void closeIfUnused() {
+            boolean unused;
+            synchronized (this) {
+                unused = pendingImages.isEmpty();
+            }
+            if (unused) {
+                close();
+            }
+        }
+
+        private void detachAll() {
+            List<LazyImage> images;
+            synchronized (this) {
+                images = new ArrayList<>(pendingImages);
+            }
+            try {
+                for (LazyImage img : images) {
+                    img.detach();
+                }
+            } catch (IOException | UncheckedIOException e) {
+                // the pixels that couldn't be read are lost anyway,
+                // but the file can still be overwritten
+                Messages.showException(e);
+            }
+            close();
+        }
+
+        void close() {
+            synchronized (openSources) {
+                List<WeakReference<Source>> sources = openSources.get(key);
+                if (sources != null) {
+                    sources.removeIf(ref -> ref.get() == null || ref.get() == this);
+                    if (sources.isEmpty()) {
+                        openSources.remove(key);
+                    }
+                }
+            }
+            cleanable.clean(); // closes the channel only once
+        }
+
+        private static List<Source> getOpenSources(File file) {
+            Path key = toKey(file);
+            List<Source> result = new ArrayList<>();
+            synchronized (openSources) {
+                List<WeakReference<Source>> sources = openSources.get(key);
+                if (sources != null) {
+                    for (WeakReference<Source> ref : sources) {
+                        Source source = ref.get();
+                        if (source != null) {
+                            result.add(source);
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static Path toKey(File file) {
+            Path path = file.toPath().toAbsolutePath().normalize();
+            try {
+                return path.toRealPath();
+            } catch (IOException e) {
+                return path; // the file doesn't exist yet
+            }
+        }
+
+        private static void closeQuietly(FileChannel channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing can be done
+            }
+        }
+    }
+}
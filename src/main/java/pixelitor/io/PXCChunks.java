@@ -0,0 +1,295 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import pixelitor.ThreadPool;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static pixelitor.utils.ImageUtils.getPixelsAsArray;
+
+/**
+ * The pixel chunks of the version 4 pxc format. Each image
+ * (layer or mask pixels) is compressed independently into its own chunk,
+ * which makes it possible to encode and decode them in parallel, and
+ * to read them only when they are needed (see {@link LazyImage}).
+ *
+ * The file layout is:
+ * <pre>
+ * header: 0xAB 0xC4 0x04
+ * long: the offset of the table of contents
+ * the compressed chunks, one after the other
+ * table of contents: int numChunks, then for each chunk
+ *     int width, int height, int imageType, byte method, long offset, int length
+ * int metadataLength, then the gzipped java-serialized
+ *     composition, in which the images are replaced by chunk indices
+ * </pre>
+ */
+class PXCChunks {
+    static final byte METHOD_DEFLATE = 1;
+
+    // the number of pixels converted to bytes at once while compressing
+    private static final int ENCODE_BATCH_PIXELS = 64 * 1024;
+
+    private PXCChunks() {
+    }
+
+    /**
+     * A table of contents entry describing one chunk
+     */
+    record Entry(int width, int height, int type, byte method, long offset, int length) {
+        void writeTo(DataOutput out) throws IOException {
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(type);
+            out.writeByte(method);
+            out.writeLong(offset);
+            out.writeInt(length);
+        }
+
+        static Entry readFrom(DataInput in) throws IOException {
+            return new Entry(in.readInt(), in.readInt(), in.readInt(),
+                in.readByte(), in.readLong(), in.readInt());
+        }
+    }
+
+    /**
+     * The stream into which the composition of a version 4 file is
+     * serialized. It carries the chunk writer of the current save,
+     * so that concurrent saves don't share any state.
+     */
+    static class ChunkedOutputStream extends ObjectOutputStream {
+        private final Writer chunkWriter;
+
+        ChunkedOutputStream(OutputStream out, Writer chunkWriter) throws IOException {
+            super(out);
+            this.chunkWriter = chunkWriter;
+        }
+
+        Writer getChunkWriter() {
+            return chunkWriter;
+        }
+    }
+
+    /**
+     * The stream from which the composition of a
+     * version 4 file is deserialized.
+     */
+    static class ChunkedInputStream extends ObjectInputStream {
+        private final List<LazyImage> chunkImages;
+
+        ChunkedInputStream(InputStream in, List<LazyImage> chunkImages) throws IOException {
+            super(in);
+            this.chunkImages = chunkImages;
+        }
+
+        LazyImage getChunkImage(int index) throws IOException {
+            if (index < 0 || index >= chunkImages.size()) {
+                throw new IOException("invalid chunk index " + index);
+            }
+            return chunkImages.get(index);
+        }
+    }
+
+    /**
+     * Collects the images found while serializing the composition,
+     * and compresses each of them in a separate pool task.
+     */
+    static class Writer {
+        private final List<BufferedImage> images = new ArrayList<>();
+        private final List<FutureTask<byte[]>> encodeTasks = new ArrayList<>();
+
+        /**
+         * Starts compressing the given image in the background
+         * and returns the index of its chunk.
+         */
+        int addImage(BufferedImage img) {
+            FutureTask<byte[]> task = new FutureTask<>(() -> encode(img));
+            images.add(img);
+            encodeTasks.add(task);
+            ThreadPool.submit(task);
+            return images.size() - 1;
+        }
+
+        int getNumChunks() {
+            return images.size();
+        }
+
+        /**
+         * Writes the chunks in order, as soon as each is compressed,
+         * and returns their table of contents entries.
+         */
+        List<Entry> writeChunks(DataOutputStream out, long startOffset,
+                                Runnable chunkWrittenCallback) throws IOException {
+            List<Entry> entries = new ArrayList<>(images.size());
+            long offset = startOffset;
+            for (int i = 0; i < images.size(); i++) {
+                byte[] data = getResult(encodeTasks.get(i));
+                out.write(data);
+
+                BufferedImage img = images.get(i);
+                entries.add(new Entry(img.getWidth(), img.getHeight(),
+                    img.getType(), METHOD_DEFLATE, offset, data.length));
+                offset += data.length;
+
+                // allow the compressed bytes to be garbage collected
+                encodeTasks.set(i, null);
+                chunkWrittenCallback.run();
+            }
+            return entries;
+        }
+
+        private static byte[] encode(BufferedImage img) {
+            int width = img.getWidth();
+            int height = img.getHeight();
+
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] outBuffer = new byte[64 * 1024];
+
+            if (img.getType() == TYPE_BYTE_GRAY) {
+                byte[] pixels = (byte[]) img.getRaster().getDataElements(0, 0, width, height, null);
+                deflater.setInput(pixels);
+                deflate(deflater, outBuffer, bos);
+            } else {
+                int[] pixels = getPixelsAsArray(img);
+                ByteBuffer batch = ByteBuffer.allocate(ENCODE_BATCH_PIXELS * 4);
+                IntBuffer batchInts = batch.asIntBuffer();
+                for (int start = 0; start < pixels.length; start += ENCODE_BATCH_PIXELS) {
+                    int batchLength = Math.min(ENCODE_BATCH_PIXELS, pixels.length - start);
+                    batchInts.clear();
+                    batchInts.put(pixels, start, batchLength);
+                    deflater.setInput(batch.array(), 0, batchLength * 4);
+                    deflate(deflater, outBuffer, bos);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int count = deflater.deflate(outBuffer);
+                bos.write(outBuffer, 0, count);
+            }
+            deflater.end();
+
+            return bos.toByteArray();
+        }
+
+        // compresses all the current input of the deflater
+        private static void deflate(Deflater deflater, byte[] outBuffer, ByteArrayOutputStream bos) {
+            while (!deflater.needsInput()) {
+                int count = deflater.deflate(outBuffer);
+                bos.write(outBuffer, 0, count);
+            }
+        }
+    }
+
+    /**
+     * Decompresses the given chunk into a new image.
+     */
+    static BufferedImage decode(FileChannel channel, Entry entry) throws IOException {
+        if (entry.method() != METHOD_DEFLATE) {
+            throw new IOException("unknown chunk compression method " + entry.method());
+        }
+        byte[] compressed = readFully(channel, entry.offset(), entry.length());
+
+        int width = entry.width();
+        int height = entry.height();
+        BufferedImage img = new BufferedImage(width, height, entry.type());
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        try {
+            if (entry.type() == TYPE_BYTE_GRAY) {
+                byte[] pixels = new byte[width * height];
+                inflateFully(inflater, pixels, pixels.length);
+                img.getRaster().setDataElements(0, 0, width, height, pixels);
+            } else {
+                int[] pixels = getPixelsAsArray(img);
+                ByteBuffer batch = ByteBuffer.allocate(ENCODE_BATCH_PIXELS * 4);
+                IntBuffer batchInts = batch.asIntBuffer();
+                for (int start = 0; start < pixels.length; start += ENCODE_BATCH_PIXELS) {
+                    int batchLength = Math.min(ENCODE_BATCH_PIXELS, pixels.length - start);
+                    inflateFully(inflater, batch.array(), batchLength * 4);
+                    batchInts.clear();
+                    batchInts.get(pixels, start, batchLength);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt pixel chunk", e);
+        } finally {
+            inflater.end();
+        }
+        return img;
+    }
+
+    private static void inflateFully(Inflater inflater, byte[] buffer, int length)
+        throws DataFormatException, IOException {
+        int done = 0;
+        while (done < length) {
+            int count = inflater.inflate(buffer, done, length - done);
+            if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                throw new IOException("truncated pixel chunk");
+            }
+            done += count;
+        }
+    }
+
+    static byte[] readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            // positional reads don't change the channel's
+            // position, so they can run in parallel
+            int count = channel.read(buffer, position + buffer.position());
+            if (count < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Returns the result of the given task. If the task wasn't
+     * started yet by the pool, then it's run on the calling thread,
+     * which also avoids deadlocks if the caller is a pool thread.
+     */
+    static <T> T getResult(FutureTask<T> task) throws IOException {
+        task.run(); // does nothing if it's already running or done
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -22,11 +22,15 @@ import pixelitor.layers.SmartObject;
 import pixelitor.utils.Messages;
 import pixelitor.utils.ProgressTracker;
 import pixelitor.utils.StatusBarProgressTracker;
-import pixelitor.utils.SubtaskProgressTracker;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -37,58 +41,76 @@ import static pixelitor.utils.ImageUtils.getPixelsAsArray;
  * PXC file format support.
  */
 public class PXCFormat {
-    private static final int CURRENT_PXC_VERSION_NUMBER = 0x03;
+    private static final int CURRENT_PXC_VERSION_NUMBER = 0x04;
 
-    // tracks the reading-writing of the whole file
-    private static ProgressTracker mainPT;
-
-    private static double workRatioForOneImage;
+    // the last version that stored the pixels inline in the serialized stream
+    private static final int INLINE_PIXELS_VERSION_NUMBER = 0x03;
 
     private PXCFormat() {
     }
 
     public static Composition read(File file) throws BadPxcFormatException {
+        int versionByte;
+        try (InputStream is = new FileInputStream(file)) {
+            versionByte = readVersion(is, file);
+        } catch (IOException e) {
+            Messages.showException(e);
+            return null;
+        }
+
+        if (versionByte == INLINE_PIXELS_VERSION_NUMBER) {
+            return readInlinePixels(file);
+        }
+        return readChunked(file);
+    }
+
+    private static int readVersion(InputStream is, File file) throws IOException, BadPxcFormatException {
+        int firstByte = is.read();
+        int secondByte = is.read();
+        if (firstByte == 0xAB && secondByte == 0xC4) {
+            // identification bytes OK
+        } else {
+            throw new BadPxcFormatException(file.getName()
+                + " is not in the pxc format.");
+        }
+        int versionByte = is.read();
+        if (versionByte == 0) {
+            throw new BadPxcFormatException(file.getName()
+                + " is in an obsolete pxc format, "
+                + "it can only be opened in the old beta Pixelitor versions 0.9.2-0.9.7");
+        }
+        if (versionByte == 1) {
+            throw new BadPxcFormatException(file.getName()
+                + " is in an obsolete pxc format, "
+                + "it can only be opened in the old beta Pixelitor version 0.9.8");
+        }
+        if (versionByte == 2) {
+            throw new BadPxcFormatException(file.getName()
+                + " is in an obsolete pxc format, "
+                + "it can only be opened in the old Pixelitor versions 0.9.9-1.1.2");
+        }
+        if (versionByte > CURRENT_PXC_VERSION_NUMBER) {
+            throw new BadPxcFormatException(file.getName()
+                + " has unknown version byte " + versionByte);
+        }
+        return versionByte;
+    }
+
+    // reads the files written by Pixelitor versions 1.1.3-4.3.0
+    private static Composition readInlinePixels(File file) {
         long fileSize = file.length();
-        mainPT = new StatusBarProgressTracker(
+        ProgressTracker mainPT = new StatusBarProgressTracker(
             "Reading " + file.getName(), (int) fileSize);
         Composition comp = null;
         try (InputStream is = new ProgressTrackingInputStream(
             new FileInputStream(file), mainPT)) {
 
-            int firstByte = is.read();
-            int secondByte = is.read();
-            if (firstByte == 0xAB && secondByte == 0xC4) {
-                // identification bytes OK
-            } else {
-                throw new BadPxcFormatException(file.getName()
-                    + " is not in the pxc format.");
-            }
-            int versionByte = is.read();
-            if (versionByte == 0) {
-                throw new BadPxcFormatException(file.getName()
-                    + " is in an obsolete pxc format, "
-                    + "it can only be opened in the old beta Pixelitor versions 0.9.2-0.9.7");
-            }
-            if (versionByte == 1) {
-                throw new BadPxcFormatException(file.getName()
-                    + " is in an obsolete pxc format, "
-                    + "it can only be opened in the old beta Pixelitor version 0.9.8");
-            }
-            if (versionByte == 2) {
-                throw new BadPxcFormatException(file.getName()
-                    + " is in an obsolete pxc format, "
-                    + "it can only be opened in the old Pixelitor versions 0.9.9-1.1.2");
-            }
-            if (versionByte > CURRENT_PXC_VERSION_NUMBER) {
-                throw new BadPxcFormatException(file.getName()
-                    + " has unknown version byte " + versionByte);
-            }
+            is.skipNBytes(3); // the already checked header
 
             try (GZIPInputStream gs = new GZIPInputStream(is)) {
                 try (ObjectInput ois = new ObjectInputStream(gs)) {
                     comp = (Composition) ois.readObject();
                     mainPT.finished();
-                    mainPT = null;
 
                     // file is transient in Composition because the pxc file can be renamed
                     comp.setFile(file);
@@ -101,71 +123,169 @@ public class PXCFormat {
         return comp;
     }
 
+    private static Composition readChunked(File file) {
+        Composition comp = null;
+        FileChannel channel = null;
+        LazyImage.Source source = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            long tocOffset = ByteBuffer.wrap(
+                PXCChunks.readFully(channel, 3, 8)).getLong();
+
+            // the table of contents and the metadata are at the end of the file
+            byte[] tail = PXCChunks.readFully(channel,
+                tocOffset, (int) (channel.size() - tocOffset));
+            DataInputStream tailIn = new DataInputStream(new ByteArrayInputStream(tail));
+            int numChunks = tailIn.readInt();
+            List<PXCChunks.Entry> entries = new ArrayList<>(numChunks);
+            for (int i = 0; i < numChunks; i++) {
+                entries.add(PXCChunks.Entry.readFrom(tailIn));
+            }
+            byte[] metadata = new byte[tailIn.readInt()];
+            tailIn.readFully(metadata);
+
+            // the pixels are read only when they are needed (the image
+            // layers decide whether to prefetch them), and until then
+            // the source keeps the file open
+            source = new LazyImage.Source(file, channel);
+            channel = null;
+            List<LazyImage> chunkImages = new ArrayList<>(numChunks);
+            for (PXCChunks.Entry entry : entries) {
+                chunkImages.add(source.createImage(entry));
+            }
+            try (ObjectInput ois = new PXCChunks.ChunkedInputStream(
+                new GZIPInputStream(new ByteArrayInputStream(metadata)), chunkImages)) {
+                comp = (Composition) ois.readObject();
+
+                // file is transient in Composition because the pxc file can be renamed
+                comp.setFile(file);
+            }
+            source.closeIfUnused();
+        } catch (IOException | ClassNotFoundException e) {
+            if (source != null) {
+                source.close();
+            }
+            Messages.showException(e);
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Messages.showException(e);
+                }
+            }
+        }
+
+        return comp;
+    }
+
     public static void write(Composition comp, File file) {
         // If this is a composition embedded in a smart object, then make sure
         // that the owner is not written by temporarily setting it to null.
         SmartObject owner = comp.getOwner();
         comp.setOwner(null);
 
-        mainPT = new StatusBarProgressTracker(
-            "Writing " + file.getName(), 100);
-        int numImages = comp.calcNumImages();
-        if (numImages > 0) {
-            workRatioForOneImage = 1.0 / numImages;
-        } else {
-            workRatioForOneImage = -1;
-        }
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            fos.write(new byte[]{(byte) 0xAB, (byte) 0xC4, CURRENT_PXC_VERSION_NUMBER});
+        // the layers that are still read lazily from
+        // the overwritten file need their pixels first
+        LazyImage.loadPendingImages(file);
+
+        PXCChunks.Writer chunkWriter = new PXCChunks.Writer();
+        ProgressTracker mainPT;
+        try {
+            // serializing the composition starts compressing
+            // the images of the layers in parallel
+            ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+            try (ObjectOutput oos = new PXCChunks.ChunkedOutputStream(
+                new GZIPOutputStream(metadata), chunkWriter)) {
+                oos.writeObject(comp);
+                oos.flush();
+            }
+            mainPT = new StatusBarProgressTracker(
+                "Writing " + file.getName(), chunkWriter.getNumChunks());
 
-            try (GZIPOutputStream gz = new GZIPOutputStream(fos)) {
-                try (ObjectOutput oos = new ObjectOutputStream(gz)) {
-                    oos.writeObject(comp);
-                    oos.flush();
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                out.write(new byte[]{(byte) 0xAB, (byte) 0xC4, CURRENT_PXC_VERSION_NUMBER});
+                out.writeLong(0); // placeholder for the table of contents offset
+
+                List<PXCChunks.Entry> entries = chunkWriter.writeChunks(
+                    out, 3 + 8, mainPT::unitDone);
+
+                // not using out.size(), because it overflows for files above 2 GB
+                long tocOffset = 3 + 8;
+                for (PXCChunks.Entry entry : entries) {
+                    tocOffset += entry.length();
                 }
+                out.writeInt(entries.size());
+                for (PXCChunks.Entry entry : entries) {
+                    entry.writeTo(out);
+                }
+                out.writeInt(metadata.size());
+                metadata.writeTo(out);
+                out.flush();
+
+                fos.getChannel().write(ByteBuffer.allocate(8).putLong(0, tocOffset), 3);
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
+        } finally {
+            comp.setOwner(owner); // restore the original owner
         }
-        comp.setOwner(owner); // restore the original owner
         mainPT.finished();
-        mainPT = null;
     }
 
     public static void serializeImage(ObjectOutputStream out,
                                       BufferedImage img) throws IOException {
         assert img != null;
-        int imgType = img.getType();
-        int imgWidth = img.getWidth();
-        int imgHeight = img.getHeight();
 
-        out.writeInt(imgWidth);
-        out.writeInt(imgHeight);
-        out.writeInt(imgType);
+        if (out instanceof PXCChunks.ChunkedOutputStream chunkedOut) {
+            // only the chunk index is written here, the
+            // pixels are written to their own chunk
+            out.writeInt(chunkedOut.getChunkWriter().addImage(img));
+        } else {
+            // serialized outside a pxc file, for example when copying
+            serializeInlineImage(out, img);
+        }
+    }
 
-        ProgressTracker pt = getImageTracker();
+    private static void serializeInlineImage(ObjectOutputStream out,
+                                             BufferedImage img) throws IOException {
+        int imgType = img.getType();
+        out.writeInt(img.getWidth());
+        out.writeInt(img.getHeight());
+        out.writeInt(imgType);
 
         if (imgType == TYPE_BYTE_GRAY) {
             ImageIO.write(img, "PNG", out);
         } else {
-            int[] pixels = getPixelsAsArray(img);
-            int length = pixels.length;
-            int progress = 0;
-            int fiveUnits = length / 20;
-            for (int pixel : pixels) {
+            for (int pixel : getPixelsAsArray(img)) {
                 out.writeInt(pixel);
-                progress++;
-                if (progress > fiveUnits) {
-                    pt.unitsDone(5);
-                    progress = 0;
-                }
             }
         }
     }
 
-    // when deserializing, the progress tracking
-    // is done at the InputStream level, not here
     public static BufferedImage deserializeImage(ObjectInputStream in) throws IOException {
+        try {
+            return deserializeLazyImage(in).load();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns an image whose pixels might be read from
+     * the file only later, when they are needed.
+     */
+    public static LazyImage deserializeLazyImage(ObjectInputStream in) throws IOException {
+        if (in instanceof PXCChunks.ChunkedInputStream chunkedIn) {
+            return chunkedIn.getChunkImage(in.readInt());
+        }
+        return LazyImage.ofLoaded(deserializeInlineImage(in));
+    }
+
+    // when deserializing a version 3 file, the progress
+    // tracking is done at the InputStream level, not here
+    private static BufferedImage deserializeInlineImage(ObjectInputStream in) throws IOException {
         int width = in.readInt();
         int height = in.readInt();
         int type = in.readInt();
@@ -183,13 +303,4 @@ public class PXCFormat {
             return img;
         }
     }
-
-    private static ProgressTracker getImageTracker() {
-        if (workRatioForOneImage == -1) {
-            // a pxc without images
-            return ProgressTracker.NULL_TRACKER;
-        } else {
-            return new SubtaskProgressTracker(workRatioForOneImage, mainPT);
-        }
-    }
 }
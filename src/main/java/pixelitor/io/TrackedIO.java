@@ -47,6 +47,14 @@ public class TrackedIO {
                              Consumer<ImageWriteParam> customizer) throws IOException {
         var tracker = new StatusBarProgressTracker(
             "Writing " + file.getName(), 100);
+        write(img, formatName, file, customizer, tracker);
+    }
+
+    public static void write(BufferedImage img,
+                             String formatName,
+                             File file,
+                             Consumer<ImageWriteParam> customizer,
+                             ProgressTracker tracker) throws IOException {
         // the creation of FileOutputStream is necessary, because if the
         // ImageOutputStream is created directly from the File, then existing files
         // are not truncated, and small files don't completely overwrite bigger files.
@@ -156,7 +164,10 @@ public class TrackedIO {
     public static BufferedImage read(File file) {
         var tracker = new StatusBarProgressTracker(
             "Reading " + file.getName(), 100);
+        return read(file, tracker);
+    }
 
+    public static BufferedImage read(File file, ProgressTracker tracker) {
         BufferedImage image;
         try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
             image = readFromIIS(iis, tracker);
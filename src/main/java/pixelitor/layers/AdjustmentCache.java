@@ -0,0 +1,276 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import pixelitor.filters.Filter;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static pixelitor.layers.CacheMemoryBudget.getMemoryBytes;
+
+/**
+ * The last output of the filter of an {@link AdjustmentLayer}, so that
+ * the filter doesn't run again if neither the layers below it nor
+ * its settings changed.
+ *
+ * The input isn't compared with the previous one: the composite image
+ * cache reports the changed regions of the image below the layer (see
+ * {@link #inputChanged(Rectangle)}), and each report increments the input
+ * version. If the filter is a point filter, only the changed regions are
+ * filtered again. When the composite image is calculated in parallel
+ * tiles, the output of each tile is cached separately. Both kinds of
+ * outputs are kept, because the two ways of compositing can alternate.
+ *
+ * The returned images are the cached ones, and they must not be modified.
+ * The cached images count in the {@link CacheMemoryBudget} shared by
+ * all the layers, and if there isn't enough memory for them, the tile
+ * outputs are dropped first, and then the output for the whole canvas.
+ */
+class AdjustmentCache implements CacheMemoryBudget.Cache {
+    private final CacheMemoryBudget budget;
+    private final WeakReference<CacheMemoryBudget.Cache> budgetRef = new WeakReference<>(this);
+
+    // incremented each time the image below the layer changes
+    private long inputVersion;
+
+    // the union of the regions changed since the output was calculated,
+    // or null if the whole input could have changed
+    private Rectangle changedRegion;
+
+    // the output for the whole canvas
+    private BufferedImage output;
+    private String outputSettings;
+    private long outputVersion;
+
+    // read by the budget checks on other threads
+    private volatile long outputBytes;
+
+    // the outputs of the parallel tiles, and the filter settings and
+    // canvas size with which they were calculated, set before each parallel run
+    private final Map<Rectangle, BufferedImage> tiles = new ConcurrentHashMap<>();
+    private final AtomicLong tileBytes = new AtomicLong();
+    private volatile String tileSettings;
+    private int tileCanvasWidth;
+    private int tileCanvasHeight;
+
+    AdjustmentCache() {
+        this(CacheMemoryBudget.SHARED);
+    }
+
+    AdjustmentCache(CacheMemoryBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Signals that the given region (in canvas coordinates) of the
+     * image below the layer changed, or all of it, if the region is null.
+     */
+    void inputChanged(Rectangle region) {
+        boolean upToDate = outputVersion == inputVersion;
+        inputVersion++;
+        if (region == null) {
+            changedRegion = null;
+            clearTiles();
+            return;
+        }
+
+        if (upToDate) {
+            changedRegion = new Rectangle(region);
+        } else if (changedRegion != null) {
+            changedRegion = changedRegion.union(region);
+        }
+        tiles.entrySet().removeIf(entry -> {
+            if (entry.getKey().intersects(region)) {
+                tileBytes.addAndGet(-getMemoryBytes(entry.getValue()));
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Returns the output of the given filter for the whole composite image.
+     */
+    BufferedImage apply(BufferedImage src, Filter filter) {
+        String settings = filter.getSettingsKey();
+        if (settings == null) {
+            clear();
+            return filter.transformImage(src);
+        }
+
+        if (output != null && settings.equals(outputSettings)
+            && output.getWidth() == src.getWidth()
+            && output.getHeight() == src.getHeight()) {
+            if (outputVersion != inputVersion) {
+                updateChangedRegion(src, filter);
+            }
+        } else {
+            // the settings or the canvas size changed
+            output = filterIntoNewImage(src, filter);
+        }
+        outputSettings = settings;
+        outputVersion = inputVersion;
+        changedRegion = null;
+
+        BufferedImage result = output;
+        outputBytes = getMemoryBytes(output);
+        long available = budget.used(this);
+        if (outputBytes > available) {
+            clear();
+        }
+        if (outputBytes + tileBytes.get() > available) {
+            clearTiles();
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the next {@link #apply} call with the given filter
+     * would filter only pixels in the given region of the canvas-sized
+     * input, because the cached output is up-to-date everywhere else.
+     */
+    boolean canUpdateRegion(Rectangle region, Filter filter, int canvasWidth, int canvasHeight) {
+        String settings = filter.getSettingsKey();
+        if (settings == null || !settings.equals(outputSettings) || output == null
+            || output.getWidth() != canvasWidth || output.getHeight() != canvasHeight) {
+            return false;
+        }
+        if (outputVersion == inputVersion) {
+            return true;
+        }
+        if (changedRegion == null) {
+            return false;
+        }
+        Rectangle changed = changedRegion.intersection(
+            new Rectangle(0, 0, canvasWidth, canvasHeight));
+        return changed.isEmpty() || region.contains(changed);
+    }
+
+    private void updateChangedRegion(BufferedImage src, Filter filter) {
+        Rectangle region = changedRegion == null ? null : changedRegion.intersection(
+            new Rectangle(0, 0, src.getWidth(), src.getHeight()));
+        if (region == null || !filter.isPointFilter()) {
+            // each output pixel can depend on any input pixel
+            output = filterIntoNewImage(src, filter);
+            return;
+        }
+        if (region.isEmpty()) {
+            return;
+        }
+
+        BufferedImage regionSrc = ImageUtils.copySubImage(
+            src.getSubimage(region.x, region.y, region.width, region.height));
+        BufferedImage regionOut = filter.transformImage(regionSrc);
+        if (regionOut.getType() != output.getType()) {
+            output = filterIntoNewImage(src, filter);
+            return;
+        }
+        output.getRaster().setDataElements(region.x, region.y, regionOut.getRaster());
+    }
+
+    /**
+     * Must be called on the current thread before the composite image
+     * is calculated in parallel tiles, because calculating the filter
+     * settings key is not thread-safe.
+     */
+    void prepareForTiles(Filter filter, int canvasWidth, int canvasHeight) {
+        String settings = filter.getSettingsKey();
+        if (settings == null || !settings.equals(tileSettings)
+            || canvasWidth != tileCanvasWidth || canvasHeight != tileCanvasHeight) {
+            // the tiles at the old positions would never be used again
+            clearTiles();
+        }
+        tileSettings = settings;
+        tileCanvasWidth = canvasWidth;
+        tileCanvasHeight = canvasHeight;
+    }
+
+    /**
+     * Returns the output of the given filter for a tile of the composite
+     * image at the given position. Can be called on any thread.
+     */
+    BufferedImage applyOnTile(BufferedImage src, int x, int y, Filter filter) {
+        if (tileSettings == null) {
+            return filter.transformImage(src);
+        }
+
+        Rectangle bounds = new Rectangle(x, y, src.getWidth(), src.getHeight());
+        BufferedImage cached = tiles.get(bounds);
+        if (cached == null) {
+            cached = filterIntoNewImage(src, filter);
+            BufferedImage replaced = tiles.put(bounds, cached);
+            long added = getMemoryBytes(cached) - (replaced == null ? 0 : getMemoryBytes(replaced));
+            if (tileBytes.addAndGet(added) + outputBytes > budget.getAvailable(this)) {
+                // the other caches are not touched from the pool threads
+                clearTiles();
+            }
+        }
+        return cached;
+    }
+
+    private void clear() {
+        output = null;
+        outputSettings = null;
+        outputBytes = 0;
+    }
+
+    private void clearTiles() {
+        tiles.clear();
+        // approximate if other threads are adding tiles at the same time
+        tileBytes.set(0);
+    }
+
+    @Override
+    public long getCachedBytes() {
+        return outputBytes + tileBytes.get();
+    }
+
+    @Override
+    public void dropCachedImages() {
+        clear();
+        clearTiles();
+    }
+
+    @Override
+    public WeakReference<CacheMemoryBudget.Cache> getBudgetRef() {
+        return budgetRef;
+    }
+
+    int getNumCachedTiles() {
+        return tiles.size();
+    }
+
+    boolean hasOutput() {
+        return output != null;
+    }
+
+    // the cached output must not be the input, which will be painted into
+    private static BufferedImage filterIntoNewImage(BufferedImage src, Filter filter) {
+        BufferedImage dest = filter.transformImage(src);
+        if (dest == src) {
+            dest = ImageUtils.copyImage(src);
+        }
+        return dest;
+    }
+}
@@ -23,6 +23,7 @@ import pixelitor.filters.gui.FilterWithGUI;
 
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
@@ -39,6 +40,10 @@ public class AdjustmentLayer extends Layer {
 
     private final Filter filter;
 
+    // the last output of the filter, so that it runs
+    // again only if its input or its settings change
+    private transient AdjustmentCache cache = new AdjustmentCache();
+
     public AdjustmentLayer(Composition comp, String name, Filter filter) {
         super(comp, name);
         this.filter = filter;
@@ -49,6 +54,7 @@ public class AdjustmentLayer extends Layer {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         isAdjustment = true;
+        cache = new AdjustmentCache();
     }
 
     @Override
@@ -70,7 +76,46 @@ public class AdjustmentLayer extends Layer {
 
     @Override
     public BufferedImage applyOnImage(BufferedImage src) {
-        return filter.transformImage(src);
+        return cache.apply(src, filter);
+    }
+
+    @Override
+    protected BufferedImage applyOnImage(BufferedImage src, int imageX, int imageY) {
+        if (imageX == 0 && imageY == 0
+            && src.getWidth() == comp.getCanvasWidth()
+            && src.getHeight() == comp.getCanvasHeight()) {
+            return cache.apply(src, filter);
+        }
+        // a tile of the composite image, possibly on a pool thread
+        return cache.applyOnTile(src, imageX, imageY, filter);
+    }
+
+    @Override
+    public Rectangle imageBelowChanged(Rectangle region) {
+        cache.inputChanged(region);
+        if (region == null || !filter.isPointFilter()) {
+            return null;
+        }
+        // the masks and the blending are also applied pixel by pixel
+        return region;
+    }
+
+    @Override
+    public boolean canApplyOnRegion(Rectangle region) {
+        // the cached output is updated only in the changed region,
+        // but only if the rest of it is still up-to-date
+        return region != null && filter.isPointFilter()
+            && cache.canUpdateRegion(region, filter, comp.getCanvasWidth(), comp.getCanvasHeight());
+    }
+
+    @Override
+    public boolean prepareForParallelTiles() {
+        // the other filters need the whole image
+        if (!filter.isPointFilter()) {
+            return false;
+        }
+        cache.prepareForTiles(filter, comp.getCanvasWidth(), comp.getCanvasHeight());
+        return true;
     }
 
     @Override
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * The memory budget shared by the caches of the layer outputs, so that
+ * together they use at most a fixed part of the heap, no matter how many
+ * adjustment layers and smart objects are open. If a cache is used and
+ * the cached images need more memory than the budget, the images of the
+ * least recently used other caches are dropped first.
+ */
+final class CacheMemoryBudget {
+    static final CacheMemoryBudget SHARED =
+        new CacheMemoryBudget(Runtime.getRuntime().maxMemory() / 8);
+
+    /**
+     * A cache whose images are counted in the budget.
+     */
+    interface Cache {
+        /**
+         * Returns the memory used by the cached images. Can be called on any thread.
+         */
+        long getCachedBytes();
+
+        /**
+         * Drops the cached images which can be calculated again.
+         */
+        void dropCachedImages();
+
+        /**
+         * Returns the reference used for the registration, which
+         * must be the same object during the life of the cache.
+         */
+        WeakReference<Cache> getBudgetRef();
+    }
+
+    private final long limit;
+
+    // The caches, the least recently used first. They are
+    // referenced weakly, because the layers own them.
+    private final LinkedHashSet<WeakReference<Cache>> caches = new LinkedHashSet<>();
+
+    CacheMemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Signals that the given cache was used, and drops the images of the
+     * least recently used other caches, until the rest fits into the budget.
+     * Returns the number of bytes that the given cache can use.
+     */
+    synchronized long used(Cache cache) {
+        // move it to the end of the iteration order
+        caches.remove(cache.getBudgetRef());
+        caches.add(cache.getBudgetRef());
+
+        long othersBytes = getBytesOfOthers(cache);
+        long bytes = othersBytes + cache.getCachedBytes();
+        Iterator<WeakReference<Cache>> it = caches.iterator();
+        while (bytes > limit && it.hasNext()) {
+            Cache other = it.next().get();
+            if (other != null && other != cache) {
+                long otherBytes = other.getCachedBytes();
+                other.dropCachedImages();
+                long freed = otherBytes - other.getCachedBytes();
+                bytes -= freed;
+                othersBytes -= freed;
+            }
+        }
+        return limit - othersBytes;
+    }
+
+    /**
+     * Returns the number of bytes that the given cache can use, without
+     * dropping the images of the other caches. Can be called on any thread.
+     */
+    synchronized long getAvailable(Cache cache) {
+        return limit - getBytesOfOthers(cache);
+    }
+
+    // also removes the references of the garbage collected caches
+    private long getBytesOfOthers(Cache cache) {
+        long bytes = 0;
+        Iterator<WeakReference<Cache>> it = caches.iterator();
+        while (it.hasNext()) {
+            Cache other = it.next().get();
+            if (other == null) {
+                it.remove();
+            } else if (other != cache) {
+                bytes += other.getCachedBytes();
+            }
+        }
+        return bytes;
+    }
+
+    static long getMemoryBytes(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+               * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+}
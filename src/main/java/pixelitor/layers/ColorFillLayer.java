@@ -135,6 +135,11 @@ public class ColorFillLayer extends Layer {
         Colors.fillWith(color, g, canvas.getWidth(), canvas.getHeight());
     }
 
+    @Override
+    public boolean prepareForParallelTiles() {
+        return true;
+    }
+
     @Override
     protected BufferedImage applyOnImage(BufferedImage src) {
         throw new UnsupportedOperationException();
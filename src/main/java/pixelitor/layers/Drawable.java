@@ -21,6 +21,7 @@ import pixelitor.Composition;
 import pixelitor.FilterContext;
 
 import java.awt.Composite;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 /**
@@ -83,6 +84,19 @@ public interface Drawable {
 
     void updateIconImage();
 
+    /**
+     * Signals that the image changed only in the given region,
+     * which is relative to the image (not to the canvas).
+     */
+    void updateRegion(Rectangle imageRegion);
+
+    /**
+     * Returns the tiles storing the pixels of an image which is not
+     * edited (or null), whose unchanged tiles can be shared with new
+     * tiled copies.
+     */
+    TiledImage getTileBase();
+
     Composition getComp();
 
     int getTx();
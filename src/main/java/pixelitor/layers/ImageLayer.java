@@ -24,6 +24,7 @@ import pixelitor.ImageMode;
 import pixelitor.compactions.Flip;
 import pixelitor.gui.utils.Dialogs;
 import pixelitor.history.*;
+import pixelitor.io.LazyImage;
 import pixelitor.io.PXCFormat;
 import pixelitor.tools.Tools;
 import pixelitor.utils.*;
@@ -32,6 +33,7 @@ import pixelitor.utils.debug.DebugNode;
 import pixelitor.utils.debug.DebugNodes;
 import pixelitor.utils.test.Assertions;
 
+import javax.swing.Timer;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
@@ -45,6 +47,7 @@ import static java.awt.RenderingHints.KEY_INTERPOLATION;
 import static java.awt.RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
 import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
+import static pixelitor.Composition.UpdateActions.FULL;
 import static pixelitor.Composition.UpdateActions.INVALIDATE_CACHE;
 import static pixelitor.Composition.UpdateActions.REPAINT;
 import static pixelitor.FilterContext.BATCH_AUTOMATE;
@@ -54,7 +57,10 @@ import static pixelitor.layers.ImageLayer.State.*;
 import static pixelitor.layers.LayerButtonLayout.thumbSize;
 import static pixelitor.utils.ImageUtils.copyImage;
 import static pixelitor.utils.ImageUtils.createThumbnail;
+import static pixelitor.utils.Threads.calledOnEDT;
 import static pixelitor.utils.Threads.onEDT;
+import static pixelitor.utils.Threads.onPool;
+import static pixelitor.utils.Threads.threadInfo;
 
 /**
  * An image layer.
@@ -69,6 +75,9 @@ public class ImageLayer extends ContentLayer implements Drawable {
     @Serial
     private static final long serialVersionUID = 2L;
 
+    // how long a layer has to be inactive before its pixels are stored in tiles
+    private static final int TILING_DELAY_MILLIS = 3000;
+
     //
     // all variables are transient
     //
@@ -80,7 +89,26 @@ public class ImageLayer extends ContentLayer implements Drawable {
      * The regular image content of this image layer.
      * Transient because BufferedImage can't be directly serialized.
      */
-    protected transient BufferedImage image = null;
+    protected transient volatile BufferedImage image = null;
+
+    /**
+     * The pixels that weren't yet read from the pxc file.
+     * While this is not null, the image field is null.
+     */
+    private transient LazyImage lazyImage;
+
+    /**
+     * The pixels of a sparse image while the layer is not edited.
+     * Only one of this and the image field is not null, because
+     * the pixels shouldn't be kept twice.
+     */
+    private transient TiledImage tiles;
+
+    // guards the recreation of the image from the lazy image or from the tiles
+    private transient Object pixelsLock = new Object();
+
+    // starts storing the pixels in tiles if the layer stays inactive
+    private transient Timer tilingTimer;
 
     /**
      * The image shown during filter previews.
@@ -227,7 +255,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
         if (serializeImage()) {
-            PXCFormat.serializeImage(out, image);
+            PXCFormat.serializeImage(out, getImage());
         }
     }
 
@@ -239,11 +267,24 @@ public class ImageLayer extends ContentLayer implements Drawable {
         previewImage = null;
         filterSourceImage = null;
         image = null;
+        lazyImage = null;
+        pixelsLock = new Object();
+        tiles = null;
         trimmedBoundingBox = null;
 
         in.defaultReadObject();
         if (serializeImage()) {
-            setImage(PXCFormat.deserializeImage(in));
+            LazyImage storedImage = PXCFormat.deserializeLazyImage(in);
+            if (storedImage.isLoaded() || !loadsPixelsLazily()) {
+                setImage(storedImage.load());
+                storedImage.release();
+            } else {
+                lazyImage = storedImage;
+                if (isVisible()) {
+                    // it will be needed for the first repaint
+                    lazyImage.prefetch();
+                }
+            }
         }
         imageContentChanged = false;
     }
@@ -252,6 +293,13 @@ public class ImageLayer extends ContentLayer implements Drawable {
         return true;
     }
 
+    /**
+     * Whether the pixels can stay in the pxc file until they are needed
+     */
+    boolean loadsPixelsLazily() {
+        return true;
+    }
+
     public State getState() {
         return state;
     }
@@ -278,12 +326,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
             setState(PREVIEW);
         }
         imageRefChanged();
-        comp.update(REPAINT);
+        comp.update(getLayer(), getFilteredRegion(), REPAINT);
     }
 
     @Override
     protected Layer createTypeSpecificDuplicate(String duplicateName) {
-        BufferedImage imageCopy = copyImage(image);
+        BufferedImage imageCopy = copyImage(getImage());
         if (imageCopy == null) {
             // there was an out of memory error
             return null;
@@ -292,9 +340,106 @@ public class ImageLayer extends ContentLayer implements Drawable {
         return new ImageLayer(comp, imageCopy, duplicateName, getTx(), getTy());
     }
 
+    /**
+     * Returns the image of this layer, recreating it if necessary.
+     * Can be called on any thread, for example during the parallel
+     * compositing or while saving.
+     */
     @Override
     public BufferedImage getImage() {
-        return image;
+        BufferedImage img = image;
+        if (img != null) {
+            return img;
+        }
+        synchronized (pixelsLock) {
+            if (lazyImage != null) {
+                image = lazyImage.load();
+                lazyImage.release();
+                lazyImage = null;
+            } else if (image == null && tiles != null) {
+                image = tiles.toImage();
+                tiles = null;
+            }
+            return image;
+        }
+    }
+
+    private int getImageWidth() {
+        LazyImage pending = lazyImage;
+        if (pending != null) {
+            return pending.getWidth();
+        }
+        return image != null ? image.getWidth() : tiles.getWidth();
+    }
+
+    private int getImageHeight() {
+        LazyImage pending = lazyImage;
+        if (pending != null) {
+            return pending.getHeight();
+        }
+        return image != null ? image.getHeight() : tiles.getHeight();
+    }
+
+    /**
+     * Stores the pixels only in tiles if the image is sparse enough
+     * (for example mostly transparent), but only if this layer stays
+     * inactive for a while, because then it's probably not edited soon.
+     * The tiled copy is created in the background, and the image
+     * is recreated from the tiles when it is needed again.
+     */
+    public void storeInTilesLater() {
+        assert calledOnEDT() : threadInfo();
+        if (!canStorePixelsInTiles()) {
+            return;
+        }
+        if (tilingTimer == null) {
+            tilingTimer = new Timer(TILING_DELAY_MILLIS, e -> startTiling());
+            tilingTimer.setRepeats(false);
+        }
+        tilingTimer.restart();
+    }
+
+    private void startTiling() {
+        BufferedImage img = image;
+        if (!canStartTiling(img)) {
+            return;
+        }
+        CompletableFuture
+            .supplyAsync(() -> TiledImage.ofSparse(img, null), onPool)
+            .whenCompleteAsync((newTiles, e) -> {
+                if (e != null) {
+                    Messages.showException(e);
+                } else if (canStartTiling(img)) {
+                    // nothing changed while the tiles were created
+                    finishTiling(newTiles);
+                }
+            }, onEDT);
+    }
+
+    private boolean canStartTiling(BufferedImage img) {
+        // the inactive layers are not edited in place, their images are
+        // replaced, so the image can be read on another thread, and its
+        // reference shows whether it was changed in the meantime
+        return img != null && img == image
+               && !isActive() && state == NORMAL && tmpDrawingLayer == null;
+    }
+
+    private void finishTiling(TiledImage newTiles) {
+        synchronized (pixelsLock) {
+            if (newTiles != null) {
+                tiles = newTiles;
+                image = null;
+            }
+        }
+    }
+
+    boolean canStorePixelsInTiles() {
+        return true;
+    }
+
+    @Override
+    public TiledImage getTileBase() {
+        return tiles;
     }
 
     @Override
@@ -310,13 +455,13 @@ public class ImageLayer extends ContentLayer implements Drawable {
         var selection = comp.getSelection();
         if (selection == null) { // no selection => return full image
             if (copyIfNoSelection) {
-                return copyImage(image);
+                return copyImage(getImage());
             }
-            return image;
+            return getImage();
         }
 
         // there is selection
-        return ImageUtils.getSelectionSizedPartFrom(image,
+        return ImageUtils.getSelectionSizedPartFrom(getImage(),
             selection, getTx(), getTy());
     }
 
@@ -324,16 +469,16 @@ public class ImageLayer extends ContentLayer implements Drawable {
     public BufferedImage getImageForFilterDialogs() {
         var selection = comp.getSelection();
         if (selection == null) {
-            return image;
+            return getImage();
         }
 
         Rectangle selBounds = selection.getShapeBounds();
 
-        assert image.getRaster().getBounds().contains(selBounds) :
-            "image bounds = " + image.getRaster().getBounds()
+        assert getImage().getRaster().getBounds().contains(selBounds) :
+            "image bounds = " + getImage().getRaster().getBounds()
                 + ", selection bounds = " + selBounds;
 
-        return image.getSubimage(
+        return getImage().getSubimage(
             selBounds.x, selBounds.y,
             selBounds.width, selBounds.height);
     }
@@ -341,10 +486,10 @@ public class ImageLayer extends ContentLayer implements Drawable {
     @Override
     public BufferedImage getCanvasSizedSubImage() {
         if (!isBigLayer()) {
-            return image;
+            return getImage();
         }
 
-        return image.getSubimage(-getTx(), -getTy(),
+        return getImage().getSubimage(-getTx(), -getTy(),
             comp.getCanvasWidth(), comp.getCanvasHeight());
     }
 
@@ -373,7 +518,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     public BufferedImage getVisibleImage() {
         BufferedImage visibleImage = switch (state) {
-            case NORMAL, SHOW_ORIGINAL -> image;
+            case NORMAL, SHOW_ORIGINAL -> getImage();
             case PREVIEW -> previewImage;
         };
 
@@ -407,14 +552,36 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
         setState(PREVIEW);
         imageRefChanged();
-        comp.update();
+        comp.update(getLayer(), getFilteredRegion(), FULL);
     }
 
     private void setImageWithSelection(BufferedImage newImage, boolean isUndoRedo) {
-        image = replaceSelectedRegion(image, newImage, isUndoRedo);
+        image = replaceSelectedRegion(getImage(), newImage, isUndoRedo);
         imageRefChanged();
 
-        comp.update(INVALIDATE_CACHE);
+        comp.update(getLayer(), getFilteredRegion(), INVALIDATE_CACHE);
+    }
+
+    /**
+     * Returns the region of the canvas that can be changed by
+     * a filter: the selection bounds if there is a selection.
+     */
+    private Rectangle getFilteredRegion() {
+        var selection = comp.getSelection();
+        if (selection == null) {
+            return comp.getCanvasBounds();
+        }
+        Rectangle bounds = selection.getShapeBounds();
+        // the soft selection edges can be antialiased
+        bounds.grow(1, 1);
+        return bounds;
+    }
+
+    @Override
+    public void updateRegion(Rectangle imageRegion) {
+        Rectangle canvasRegion = new Rectangle(imageRegion);
+        canvasRegion.translate(getTx(), getTy());
+        comp.update(getLayer(), canvasRegion, FULL);
     }
 
     /**
@@ -476,6 +643,11 @@ public class ImageLayer extends ContentLayer implements Drawable {
     public void setImage(BufferedImage newImage) {
         BufferedImage oldRef = image;
         image = requireNonNull(newImage);
+        if (lazyImage != null) {
+            lazyImage.release();
+            lazyImage = null;
+        }
+        tiles = null;
         imageRefChanged();
 
         assert Assertions.checkRasterMinimum(newImage);
@@ -492,7 +664,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
      * Replaces the image with history and icon update
      */
     public void replaceImage(BufferedImage newImage, String editName) {
-        BufferedImage oldImage = image;
+        BufferedImage oldImage = getImage();
         setImage(newImage);
 
         History.add(new ImageEdit(editName, comp, this, oldImage, true));
@@ -509,11 +681,11 @@ public class ImageLayer extends ContentLayer implements Drawable {
             // the image reference, because when we draw into the preview image, we would
             // also draw on the real image, and after cancel we would still have the
             // changed version.
-            previewImage = copyImage(image);
+            previewImage = copyImage(getImage());
         } else {
             // if there is no selection, then there is no problem, because
             // the previewImage reference will be overwritten
-            previewImage = image;
+            previewImage = getImage();
         }
         setState(PREVIEW);
     }
@@ -529,7 +701,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         // from the real image after the previews
         imageRefChanged();
 
-        comp.update();
+        comp.update(getLayer(), getFilteredRegion(), FULL);
     }
 
     @Override
@@ -537,15 +709,19 @@ public class ImageLayer extends ContentLayer implements Drawable {
         assert state == PREVIEW || state == SHOW_ORIGINAL;
         assert previewImage != null;
 
+        ImageEdit edit = null;
         if (imageContentChanged) {
-            History.add(new ImageEdit(filterName, comp, this,
-                getSelectedSubImage(true), false));
+            edit = new ImageEdit(filterName, comp, this,
+                getSelectedSubImage(true), false);
         }
 
         image = previewImage;
         imageRefChanged();
 
-        if (imageContentChanged) {
+        if (edit != null) {
+            // added only after the change, because the
+            // edit might save only the changed tiles
+            History.add(edit);
             updateIconImage();
             invalidateTrimCache();
         }
@@ -554,7 +730,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         setState(NORMAL);
 
         if (wasShowOriginal) {
-            comp.update();
+            comp.update(getLayer(), getFilteredRegion(), FULL);
         }
     }
 
@@ -605,7 +781,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
             if (shouldRefresh) {
                 imageRefChanged();
-                comp.update();
+                comp.update(getLayer(), getFilteredRegion(), FULL);
             }
         } else {
             imageContentChanged = true; // history will be necessary
@@ -656,7 +832,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         // not the actual one
         filterSourceImage = null;
         updateIconImage();
-        comp.update();
+        comp.update(getLayer(), getFilteredRegion(), FULL);
         invalidateTrimCache();
         Tools.editedObjectChanged(this);
     }
@@ -695,18 +871,18 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     @Override
     public Rectangle getContentBounds() {
-        return new Rectangle(getTx(), getTy(), image.getWidth(), image.getHeight());
+        return new Rectangle(getTx(), getTy(), getImageWidth(), getImageHeight());
     }
 
     @Override
     public int getPixelAtPoint(Point p) {
         int x = p.x - getTx();
         int y = p.y - getTy();
-        if (x >= 0 && y >= 0 && x < image.getWidth() && y < image.getHeight()) {
+        if (x >= 0 && y >= 0 && x < getImage().getWidth() && y < getImage().getHeight()) {
             if (hasMask() && isMaskEnabled()) {
                 int maskPixel = getMask().getPixelAtPoint(p);
                 if (maskPixel != 0) {
-                    int imagePixel = image.getRGB(x, y);
+                    int imagePixel = getImage().getRGB(x, y);
                     float maskAlpha = (maskPixel & 0xff) / 255.0f;
                     int imageAlpha = (imagePixel >> 24) & 0xff;
                     int layerAlpha = (int) (imageAlpha * maskAlpha);
@@ -714,7 +890,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 }
             }
 
-            return image.getRGB(x, y);
+            return getImage().getRGB(x, y);
         }
 
         return 0x00000000;
@@ -738,7 +914,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
             Graphics2D g = bi.createGraphics();
             int drawX = current.x - target.x;
             int drawY = current.y - target.y;
-            g.drawImage(image, drawX, drawY, null);
+            g.drawImage(getImage(), drawX, drawY, null);
             g.dispose();
 
             setTranslation(target.x - canvasBounds.x, target.y - canvasBounds.y);
@@ -751,7 +927,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void flip(Flip.Direction direction) {
-        var imageTransform = direction.createImageTransform(image);
+        var imageTransform = direction.createImageTransform(getImage());
         int txAbs = -getTx();
         int tyAbs = -getTy();
         int newTxAbs;
@@ -759,10 +935,10 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
         int canvasWidth = comp.getCanvasWidth();
         int canvasHeight = comp.getCanvasHeight();
-        int imageWidth = image.getWidth();
-        int imageHeight = image.getHeight();
+        int imageWidth = getImage().getWidth();
+        int imageHeight = getImage().getHeight();
 
-        BufferedImage dest = ImageUtils.createImageWithSameCM(image);
+        BufferedImage dest = ImageUtils.createImageWithSameCM(getImage());
         Graphics2D g2 = dest.createGraphics();
 
         if (direction == HORIZONTAL) {
@@ -774,7 +950,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         }
 
         g2.setTransform(imageTransform);
-        g2.drawImage(image, 0, 0, imageWidth, imageHeight, null);
+        g2.drawImage(getImage(), 0, 0, imageWidth, imageHeight, null);
         g2.dispose();
 
         setTranslation(-newTxAbs, -newTyAbs);
@@ -791,8 +967,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
         int newTxAbs = 0;
         int newTyAbs = 0;
 
-        int imageWidth = image.getWidth();
-        int imageHeight = image.getHeight();
+        int imageWidth = getImage().getWidth();
+        int imageHeight = getImage().getHeight();
 
         int canvasWidth = comp.getCanvasWidth();
         int canvasHeight = comp.getCanvasHeight();
@@ -814,13 +990,13 @@ public class ImageLayer extends ContentLayer implements Drawable {
             default -> throw new IllegalStateException("angleDegree = " + angleDegree);
         }
 
-        BufferedImage dest = angle.createDestImage(image);
+        BufferedImage dest = angle.createDestImage(getImage());
 
         Graphics2D g2 = dest.createGraphics();
         // nearest neighbor should be ok for 90, 180, 270 degrees
         g2.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-        g2.setTransform(angle.createImageTransform(image));
-        g2.drawImage(image, 0, 0, imageWidth, imageHeight, null);
+        g2.setTransform(angle.createImageTransform(getImage()));
+        g2.drawImage(getImage(), 0, 0, imageWidth, imageHeight, null);
         g2.dispose();
 
         setTranslation(-newTxAbs, -newTyAbs);
@@ -863,8 +1039,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
             assert allowGrowing;
 
             boolean imageCoversNewCanvas = cropX >= 0 && cropY >= 0
-                && cropX + cropWidth <= image.getWidth()
-                && cropY + cropHeight <= image.getHeight();
+                && cropX + cropWidth <= getImage().getWidth()
+                && cropY + cropHeight <= getImage().getHeight();
             if (imageCoversNewCanvas) {
                 // no need to change the image, just set the translation
                 super.crop(cropRect, false, allowGrowing);
@@ -872,12 +1048,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 // the image still has to be enlarged, but the translation will not be zero
                 int westEnlargement = Math.max(0, -cropX);
                 int newWidth = westEnlargement + Math.max(
-                    image.getWidth(), cropX + cropWidth);
+                    getImage().getWidth(), cropX + cropWidth);
                 int northEnlargement = Math.max(0, -cropY);
                 int newHeight = northEnlargement + Math.max(
-                    image.getHeight(), cropY + cropHeight);
+                    getImage().getHeight(), cropY + cropHeight);
 
-                BufferedImage newImage = ImageUtils.crop(image,
+                BufferedImage newImage = ImageUtils.crop(getImage(),
                     -westEnlargement, -northEnlargement, newWidth, newHeight);
                 setImage(newImage);
                 setTranslation(Math.min(-cropX, 0), Math.min(-cropY, 0));
@@ -891,7 +1067,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         assert deleteCroppedPixels;
 
         // this method call can also grow the image
-        BufferedImage newImage = ImageUtils.crop(image, cropX, cropY, cropWidth, cropHeight);
+        BufferedImage newImage = ImageUtils.crop(getImage(), cropX, cropY, cropWidth, cropHeight);
         setImage(newImage);
         setTranslation(0, 0);
     }
@@ -912,13 +1088,13 @@ public class ImageLayer extends ContentLayer implements Drawable {
      * Returns true if something was changed.
      */
     public boolean toCanvasSize() {
-        int imageWidth = image.getWidth();
-        int imageHeight = image.getHeight();
+        int imageWidth = getImage().getWidth();
+        int imageHeight = getImage().getHeight();
         int canvasWidth = comp.getCanvasWidth();
         int canvasHeight = comp.getCanvasHeight();
 
         if (imageWidth > canvasWidth || imageHeight > canvasHeight) {
-            BufferedImage newImage = ImageUtils.crop(image,
+            BufferedImage newImage = ImageUtils.crop(getImage(),
                 -getTx(), -getTy(), canvasWidth, canvasHeight);
 
             BufferedImage tmp = image;
@@ -985,7 +1161,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
             return;
         }
 
-        Graphics2D g = image.createGraphics();
+        Graphics2D g = getImage().createGraphics();
         tmpDrawingLayer.paintOn(g, -getTx(), -getTy());
         g.dispose();
 
@@ -1027,8 +1203,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
         if (bigLayer) {
             double horRatio = newSize.getWidth() / comp.getCanvasWidth();
             double verRatio = newSize.getHeight() / comp.getCanvasHeight();
-            imgTargetWidth = (int) (image.getWidth() * horRatio);
-            imgTargetHeight = (int) (image.getHeight() * verRatio);
+            imgTargetWidth = (int) (getImage().getWidth() * horRatio);
+            imgTargetHeight = (int) (getImage().getHeight() * verRatio);
 
             newTx = (int) (getTx() * horRatio);
             newTy = (int) (getTy() * verRatio);
@@ -1046,7 +1222,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 ", tx = " + getTx() + ", ty = " + getTy()
                     + ", imgTargetWidth = " + imgTargetWidth + ", imgTargetHeight = " + imgTargetHeight
                     + ", newWidth = " + newSize.getWidth() + ", newHeight() = " + newSize.getHeight()
-                    + ", imgWidth = " + image.getWidth() + ", imgHeight = " + image.getHeight()
+                    + ", imgWidth = " + getImage().getWidth() + ", imgHeight = " + getImage().getHeight()
                     + ", canvasWidth = " + comp.getCanvasWidth() + ", canvasHeight = " + comp.getCanvasHeight()
                     + ", horRatio = " + horRatio + ", verRatio = " + verRatio;
         }
@@ -1054,7 +1230,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         int finalTx = newTx;
         int finalTy = newTy;
         return ImageUtils
-            .resizeAsync(image, imgTargetWidth, imgTargetHeight)
+            .resizeAsync(getImage(), imgTargetWidth, imgTargetHeight)
             .thenAcceptAsync(resizedImg -> {
                 setImage(resizedImg);
                 if (bigLayer) {
@@ -1074,6 +1250,13 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer) {
+        if (image == null && tiles != null && lazyImage == null
+            && tmpDrawingLayer == null && !(Tools.isShapesDrawing() && isActive())) {
+            // paint the tiles without recreating the image
+            if (tiles.paintOn(g, getTx(), getTy())) {
+                return;
+            }
+        }
         BufferedImage visibleImage = getVisibleImage();
 
         if (tmpDrawingLayer == null) {
@@ -1102,6 +1285,20 @@ public class ImageLayer extends ContentLayer implements Drawable {
         }
     }
 
+    @Override
+    public boolean prepareForParallelTiles() {
+        if (tmpDrawingLayer != null) {
+            // the brush strokes are painted into a shared temporary image
+            return false;
+        }
+        if (image == null && tiles != null && lazyImage == null) {
+            return true; // the tiles are painted without recreating the image
+        }
+        // load the image, if it's not loaded yet
+        getVisibleImage();
+        return true;
+    }
+
     protected void paintLayerOnGraphicsWOTmpLayer(Graphics2D g,
                                                   BufferedImage visibleImage,
                                                   boolean firstVisibleLayer) {
@@ -1146,7 +1343,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void debugImages() {
-        Debug.debugImage(image, "image");
+        Debug.debugImage(getImage(), "image");
         if (previewImage != null) {
             Debug.debugImage(previewImage, "previewImage");
         } else {
@@ -1163,6 +1360,22 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public BufferedImage createIconThumbnail() {
+        LazyImage pending = lazyImage;
+        if (pending != null) {
+            // the thumbnail of a hidden layer can be created
+            // without keeping its pixels in memory
+            BufferedImage full = pending.load();
+            BufferedImage img = !isBigLayer() ? full : full.getSubimage(
+                -getTx(), -getTy(), comp.getCanvasWidth(), comp.getCanvasHeight());
+            return createThumbnail(img, thumbSize, thumbCheckerBoardPainter);
+        }
+        if (image == null && tiles != null) {
+            BufferedImage full = tiles.toImage();
+            BufferedImage img = !isBigLayer() ? full : full.getSubimage(
+                -getTx(), -getTy(), comp.getCanvasWidth(), comp.getCanvasHeight());
+            return createThumbnail(img, thumbSize, thumbCheckerBoardPainter);
+        }
+
         BufferedImage img = getCanvasSizedSubImage();
         BufferedImage thumb = createThumbnail(img, thumbSize, thumbCheckerBoardPainter);
         return thumb;
@@ -1173,11 +1386,11 @@ public class ImageLayer extends ContentLayer implements Drawable {
      * to the transparency of the layer
      */
     public BufferedImage applyLayerMask(boolean addToHistory) {
-        BufferedImage oldImage = copyImage(image);
+        BufferedImage oldImage = copyImage(getImage());
         LayerMask oldMask = mask;
         MaskViewMode oldMode = comp.getView().getMaskViewMode();
 
-        mask.applyToImage(image);
+        mask.applyToImage(getImage());
         deleteMask(false);
 
         if (addToHistory) {
@@ -1200,7 +1413,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     }
 
     public void convertMode(ImageMode mode) {
-        image = mode.convert(image);
+        image = mode.convert(getImage());
     }
 
     @Override
@@ -1218,7 +1431,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         DebugNode node = super.createDebugNode(descr);
 
         node.addString("state", state.toString());
-        node.add(DebugNodes.createBufferedImageNode("image", image));
+        node.add(DebugNodes.createBufferedImageNode("image", getImage()));
 
         return node;
     }
@@ -1228,15 +1441,15 @@ public class ImageLayer extends ContentLayer implements Drawable {
                + ", canvasHeight=" + comp.getCanvasHeight()
                + ", tx=" + getTx()
                + ", ty=" + getTy()
-               + ", imgWidth=" + image.getWidth()
-            + ", imgHeight=" + image.getHeight()
+               + ", imgWidth=" + getImageWidth()
+            + ", imgHeight=" + getImageHeight()
             + '}';
     }
 
     @Override
     public String toString() {
         return getClass().getSimpleName()
-            + "{img=" + image.getWidth() + "x" + image.getHeight()
+            + "{img=" + getImageWidth() + "x" + getImageHeight()
             + ", state=" + state
             + ", super=" + super.toString()
             + '}';
@@ -185,6 +185,14 @@ public abstract class Layer implements Serializable {
         return visible;
     }
 
+    /**
+     * Returns true for adjustment layers and watermarked text layers,
+     * which transform the whole image below them.
+     */
+    public boolean isAdjustment() {
+        return isAdjustment;
+    }
+
     public void setVisible(boolean newVisibility, boolean addToHistory) {
         if (visible == newVisibility) {
             return;
@@ -542,8 +550,20 @@ public abstract class Layer implements Serializable {
     public BufferedImage applyLayer(Graphics2D g,
                                     BufferedImage imageSoFar,
                                     boolean firstVisibleLayer) {
+        return applyLayer(g, imageSoFar, 0, 0, firstVisibleLayer);
+    }
+
+    /**
+     * Same as {@link #applyLayer(Graphics2D, BufferedImage, boolean)}, but
+     * the given image covers only a part (a tile) of the canvas, starting at
+     * the given canvas position, and the graphics is translated accordingly.
+     */
+    public BufferedImage applyLayer(Graphics2D g,
+                                    BufferedImage imageSoFar,
+                                    int imageX, int imageY,
+                                    boolean firstVisibleLayer) {
         if (isAdjustment) { // adjustment layer or watermarked text layer
-            return adjustImageWithMasksAndBlending(imageSoFar, firstVisibleLayer);
+            return adjustImageWithMasksAndBlending(g, imageSoFar, imageX, imageY, firstVisibleLayer);
         } else {
             setupDrawingComposite(g, firstVisibleLayer);
             if (usesMask()) {
@@ -555,22 +575,66 @@ public abstract class Layer implements Serializable {
         return null;
     }
 
+    /**
+     * Signals that the given region (in canvas coordinates) of the image
+     * below this layer changed, or all of it, if the region is null.
+     * Returns the region of the result of this layer that could have
+     * changed because of this, which is wider if the layer transforms
+     * the image below it.
+     */
+    public Rectangle imageBelowChanged(Rectangle region) {
+        // by default the adjustments can move the pixels
+        return isAdjustment ? null : region;
+    }
+
+    /**
+     * Returns true if this layer can be applied only on the given region
+     * (in canvas coordinates) of the composite image, while the pixels
+     * outside it already contain the final result. Returns false for the
+     * adjustments if the region is null.
+     */
+    public boolean canApplyOnRegion(Rectangle region) {
+        return !isAdjustment;
+    }
+
+    /**
+     * Prepares this layer for being applied on the tiles of the composite
+     * image on several threads at the same time, by calculating its lazily
+     * initialized state on the current thread. Returns false if the layer
+     * can't be applied in parallel, and then the layers have to be
+     * composited on a single thread.
+     */
+    public boolean prepareForParallelTiles() {
+        return false;
+    }
+
     // used by the non-adjustment stuff
     // This method assumes that the composite of the graphics is already
     // set up according to the transparency and blending mode
     public abstract void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer);
 
     /**
-     * Returns the masked image for the non-adjustment case.
-     * The returned image is canvas-sized, and the masks and the
-     * translations are taken into account
+     * Paints the masked image for the non-adjustment case.
+     * The masked image covers the canvas (or only its clipped
+     * part if the graphics is clipped to a dirty region), and
+     * the masks and the translations are taken into account
      */
     private void paintLayerOnGraphicsWithMask(Graphics2D g, boolean firstVisibleLayer) {
+        Rectangle area = comp.getCanvasBounds();
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            area = area.intersection(clip);
+            if (area.isEmpty()) {
+                return;
+            }
+        }
+
         // 1. create the masked image
         // TODO the masked image should be cached
         var maskedImage = new BufferedImage(
-            comp.getCanvasWidth(), comp.getCanvasHeight(), TYPE_INT_ARGB);
+            area.width, area.height, TYPE_INT_ARGB);
         Graphics2D mig = maskedImage.createGraphics();
+        mig.translate(-area.x, -area.y);
         paintLayerOnGraphics(mig, firstVisibleLayer);
         mig.setComposite(DstIn);
         mig.drawImage(mask.getTransparencyImage(),
@@ -578,38 +642,58 @@ public abstract class Layer implements Serializable {
         mig.dispose();
 
         // 2. paint the masked image onto the graphics
-        g.drawImage(maskedImage, 0, 0, null);
+        g.drawImage(maskedImage, area.x, area.y, null);
     }
 
     /**
      * Used by adjustment layers and watermarked text layers
      */
-    private BufferedImage adjustImageWithMasksAndBlending(BufferedImage imgSoFar,
+    private BufferedImage adjustImageWithMasksAndBlending(Graphics2D g,
+                                                          BufferedImage imgSoFar,
+                                                          int imageX, int imageY,
                                                           boolean isFirstVisibleLayer) {
         if (isFirstVisibleLayer) {
             return imgSoFar; // there's nothing we can do
         }
-        BufferedImage transformed = applyOnImage(imgSoFar);
+        BufferedImage transformed = applyOnImage(imgSoFar, imageX, imageY);
         if (usesMask()) {
-            mask.applyToImage(transformed);
+            // the transformed image can be cached
+            transformed = ImageUtils.copyImage(transformed);
+            mask.applyToImage(transformed, imageX, imageY);
+        }
+        Graphics2D ig = imgSoFar.createGraphics();
+        Shape clip = g.getClip();
+        if (clip != null) {
+            // the pixels outside a dirty region are already composited
+            ig.setClip(g.getTransform().createTransformedShape(clip));
         }
         if (!usesMask() && isNormalAndOpaque()) {
-            return transformed;
+            // the transformed image can be cached, so it's copied
+            // into the image so far instead of being returned
+            ig.setComposite(AlphaComposite.Src);
         } else {
-            Graphics2D g = imgSoFar.createGraphics();
-            setupDrawingComposite(g, isFirstVisibleLayer);
-            g.drawImage(transformed, 0, 0, null);
-            g.dispose();
-            return imgSoFar;
+            setupDrawingComposite(ig, isFirstVisibleLayer);
         }
+        ig.drawImage(transformed, 0, 0, null);
+        ig.dispose();
+        return imgSoFar;
     }
 
     /**
      * Used by adjustment layers and watermarked text layers
      * to apply this layer's effect on the given image.
+     * The returned image must not be modified, because it can be cached.
      */
     protected abstract BufferedImage applyOnImage(BufferedImage src);
 
+    /**
+     * Same as {@link #applyOnImage(BufferedImage)}, but the given image can
+     * also be a tile of the composite image, at the given canvas position.
+     */
+    protected BufferedImage applyOnImage(BufferedImage src, int imageX, int imageY) {
+        return applyOnImage(src);
+    }
+
     public abstract CompletableFuture<Void> resize(Dimension newSize);
 
     /**
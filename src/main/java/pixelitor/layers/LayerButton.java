@@ -23,6 +23,7 @@ import pixelitor.ThreadPool;
 import pixelitor.gui.View;
 import pixelitor.utils.Icons;
 import pixelitor.utils.ImageUtils;
+import pixelitor.utils.debug.PerformanceMetrics;
 
 import javax.swing.*;
 import javax.swing.border.Border;
@@ -36,6 +37,7 @@ import java.awt.image.BufferedImage;
 import static javax.swing.BorderFactory.*;
 import static pixelitor.utils.Threads.calledOnEDT;
 import static pixelitor.utils.Threads.threadInfo;
+import static pixelitor.utils.debug.PerformanceMetrics.Phase.THUMBNAIL_UPDATE;
 
 /**
  * The selectable and draggable component representing
@@ -376,7 +378,11 @@ public class LayerButton extends JToggleButton implements LayerUI {
         assert layer.hasIconThumbnail();
 
         Runnable notEDT = () -> {
+            var measurement = PerformanceMetrics.start(THUMBNAIL_UPDATE, layer.getTypeString());
             BufferedImage thumb = layer.createIconThumbnail();
+            if (thumb != null) {
+                measurement.finish((long) thumb.getWidth() * thumb.getHeight());
+            }
             assert thumb != null;
             if (thumb != null) {
                 SwingUtilities.invokeLater(() -> updateIconOnEDT(layer, thumb));
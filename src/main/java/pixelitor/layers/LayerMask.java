@@ -91,9 +91,17 @@ public class LayerMask extends ImageLayer {
     }
 
     public void applyToImage(BufferedImage in) {
+        applyToImage(in, 0, 0);
+    }
+
+    /**
+     * Applies the mask on the given image, which covers
+     * the canvas starting at the given canvas position.
+     */
+    public void applyToImage(BufferedImage in, int imageX, int imageY) {
         Graphics2D g = in.createGraphics();
         g.setComposite(DstIn);
-        g.drawImage(getTransparencyImage(), 0, 0, null);
+        g.drawImage(getTransparencyImage(), -imageX, -imageY, null);
         g.dispose();
     }
 
@@ -137,6 +145,18 @@ public class LayerMask extends ImageLayer {
         updateFromBWImage();
     }
 
+    @Override
+    boolean loadsPixelsLazily() {
+        // the transparency image is derived from the pixels
+        return false;
+    }
+
+    @Override
+    boolean canStorePixelsInTiles() {
+        // the transparency image shares the raster of the image
+        return false;
+    }
+
     /**
      * Duplicates this layer mask, and attaches the duplicated mask
      * to the given layer
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import pixelitor.filters.Filter;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outputs of the smart filters of a {@link SmartObject}, so that
+ * after a change only the filters starting with the first changed one
+ * have to run again, and the content isn't composited again either.
+ *
+ * A stage is valid if the content has the same version as when the
+ * stage was calculated, and the settings of its filter and of all the
+ * filters before it are the same (see {@link Filter#getSettingsKey()}).
+ * The outputs are counted in the memory budget shared with the other
+ * layer caches. If they need more memory than what's available, the
+ * outputs of the earliest stages are dropped, but their settings are
+ * kept, so that the later stages remain valid. The cached images must
+ * not be modified.
+ */
+class SmartFilterCache implements CacheMemoryBudget.Cache {
+    private final CacheMemoryBudget budget;
+    private final WeakReference<CacheMemoryBudget.Cache> budgetRef = new WeakReference<>(this);
+
+    // the input of the first smart filter
+    private BufferedImage source;
+    private long sourceVersion;
+
+    private final List<Stage> stages = new ArrayList<>();
+
+    // the memory used by the outputs counted in the budget
+    private volatile long cachedBytes;
+
+    SmartFilterCache() {
+        this(CacheMemoryBudget.SHARED);
+    }
+
+    SmartFilterCache(CacheMemoryBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Sets the composite image of the content with the given version
+     * (see {@link pixelitor.Composition#getCompositeImageVersion()}).
+     * The stages are dropped only if the version is different.
+     */
+    void setContent(BufferedImage contentImage, long version) {
+        if (source != null && version == sourceVersion
+            && contentImage.getWidth() == source.getWidth()
+            && contentImage.getHeight() == source.getHeight()) {
+            return;
+        }
+        stages.clear();
+        updateCachedBytes();
+        if (ImageUtils.isSubImage(contentImage)) {
+            contentImage = ImageUtils.copySubImage(contentImage);
+        }
+        source = contentImage;
+        sourceVersion = version;
+    }
+
+    /**
+     * Returns the output of the given number of smart filters (or the
+     * content image, if it's 0), running only the filters whose output
+     * is not cached with the current settings.
+     */
+    BufferedImage calc(List<Filter> filters, int numFilters) {
+        int numKnown = Math.min(numFilters, stages.size());
+        int firstChanged = 0;
+        while (firstChanged < numKnown
+               && stages.get(firstChanged).isValidFor(filters.get(firstChanged))) {
+            firstChanged++;
+        }
+        if (firstChanged < numFilters) {
+            discardFrom(firstChanged);
+        } else if (numFilters == filters.size()) {
+            // the filters after the end of the list were removed
+            discardFrom(numFilters);
+        }
+
+        // start from the last available output before the changed stage
+        int start = firstChanged;
+        while (start > 0 && stages.get(start - 1).output == null) {
+            start--;
+        }
+        BufferedImage img = start == 0 ? source : stages.get(start - 1).output;
+
+        for (int i = start; i < numFilters; i++) {
+            Filter filter = filters.get(i);
+            img = filter.transformImage(img);
+            if (i < stages.size()) {
+                // recalculating an evicted output
+                stages.get(i).output = img;
+            } else {
+                stages.add(new Stage(filter.getSettingsKey(), img));
+            }
+        }
+        enforceMemoryBudget();
+
+        return img;
+    }
+
+    /**
+     * Stores the output of a smart filter that was calculated
+     * elsewhere, for example in the filter dialog. The stages
+     * before it must be in the cache (see {@link #calc}).
+     */
+    void setOutput(int index, Filter filter, BufferedImage output) {
+        discardFrom(index);
+        if (stages.size() == index) {
+            stages.add(new Stage(filter.getSettingsKey(), output));
+            enforceMemoryBudget();
+        }
+    }
+
+    int getNumStages() {
+        return stages.size();
+    }
+
+    boolean hasOutput(int index) {
+        return index < stages.size() && stages.get(index).output != null;
+    }
+
+    private void discardFrom(int index) {
+        while (stages.size() > index) {
+            stages.remove(stages.size() - 1);
+        }
+        updateCachedBytes();
+    }
+
+    /**
+     * Drops the earliest outputs until the rest fits into the memory
+     * available for this cache. The last output is never dropped,
+     * because it's the image of the smart object anyway.
+     */
+    private void enforceMemoryBudget() {
+        updateCachedBytes();
+        long bytes = cachedBytes;
+        long available = budget.used(this);
+        for (int i = 0; i < stages.size() - 1 && bytes > available; i++) {
+            Stage stage = stages.get(i);
+            bytes -= stage.getMemoryBytes();
+            stage.output = null;
+        }
+        cachedBytes = bytes;
+    }
+
+    // the last output is not counted, because it's the image of the smart object
+    private void updateCachedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < stages.size() - 1; i++) {
+            bytes += stages.get(i).getMemoryBytes();
+        }
+        cachedBytes = bytes;
+    }
+
+    @Override
+    public long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    @Override
+    public void dropCachedImages() {
+        for (int i = 0; i < stages.size() - 1; i++) {
+            stages.get(i).output = null;
+        }
+        cachedBytes = 0;
+    }
+
+    @Override
+    public WeakReference<CacheMemoryBudget.Cache> getBudgetRef() {
+        return budgetRef;
+    }
+
+    private static class Stage {
+        private final String settingsKey;
+        // null if it was dropped because of the memory budget
+        private BufferedImage output;
+
+        private Stage(String settingsKey, BufferedImage output) {
+            this.settingsKey = settingsKey;
+            this.output = output;
+        }
+
+        private boolean isValidFor(Filter filter) {
+            return settingsKey != null && settingsKey.equals(filter.getSettingsKey());
+        }
+
+        private long getMemoryBytes() {
+            return output == null ? 0 : CacheMemoryBudget.getMemoryBytes(output);
+        }
+    }
+}
@@ -57,6 +57,10 @@ public class SmartObject extends ImageLayer {
      */
     private final List<Filter> smartFilters = new ArrayList<>();
 
+    // the outputs of the smart filters, so that a change
+    // doesn't have to run all of them again
+    private transient SmartFilterCache filterCache = new SmartFilterCache();
+
     // The following two fields are used only during editing of smart filters
     // to restore the image and filter state if the user cancels the dialog.
     private transient BufferedImage lastFilterOutput;
@@ -89,11 +93,18 @@ public class SmartObject extends ImageLayer {
         if (!orig.smartFilters.isEmpty()) {
             smartFilters.add(orig.smartFilters.get(0).copy());
         }
+        filterCache.setContent(content.getCompositeImage(), content.getCompositeImageVersion());
         lastFilterState = orig.lastFilterState;
         lastFilterOutput = orig.lastFilterOutput;
         indexOfLastSmartFilter = orig.indexOfLastSmartFilter;
     }
 
+    @Override
+    boolean canStorePixelsInTiles() {
+        // the image is calculated from the content
+        return false;
+    }
+
     @Serial
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
@@ -103,6 +114,7 @@ public class SmartObject extends ImageLayer {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
 
+        filterCache = new SmartFilterCache();
         recalculateImage();
         lastFilterOutput = null;
         lastFilterState = null;
@@ -113,18 +125,20 @@ public class SmartObject extends ImageLayer {
         return false;
     }
 
+    /**
+     * Recalculates the image after the content might have changed.
+     * Only the smart filters with changed inputs or settings run again.
+     */
     private void recalculateImage() {
-        resetImageFromContent();
-        for (Filter filter : smartFilters) {
-            image = filter.transformImage(image);
-        }
+        filterCache.setContent(content.getCompositeImage(), content.getCompositeImageVersion());
+        image = filterCache.calc(smartFilters, smartFilters.size());
     }
 
-    private void resetImageFromContent() {
-        image = content.getCompositeImage();
-        if (ImageUtils.isSubImage(image)) {
-            image = ImageUtils.copySubImage(image);
-        }
+    /**
+     * Sets the image to the input of the smart filter with the given index.
+     */
+    private void resetImageToFilterInput(int index) {
+        image = filterCache.calc(smartFilters, index);
     }
 
     public void contentDeactivated(Composition content) {
@@ -208,13 +222,14 @@ public class SmartObject extends ImageLayer {
     public void replaceSmartFilter(Filter newFilter) {
         Filter prevFilter = smartFilters.get(0);
         lastFilterOutput = image;
+        resetImageToFilterInput(0);
         smartFilters.clear();
-        resetImageFromContent();
         boolean filterDialogAccepted = newFilter.startOn(this, false);
         if (filterDialogAccepted) {
             lastFilterOutput.flush();
             lastFilterOutput = null;
             addSmartFilter(newFilter);
+            filterCache.setOutput(0, newFilter, image);
         } else {
             image = lastFilterOutput;
             addSmartFilter(prevFilter);
@@ -227,13 +242,22 @@ public class SmartObject extends ImageLayer {
         if (filter instanceof ParametrizedFilter pf) {
             lastFilterState = pf.getParamSet().copyState(false);
         }
-        resetImageFromContent();
+        // the filter dialog starts from the cached output of the previous smart filters
+        resetImageToFilterInput(indexOfLastSmartFilter);
         boolean filterDialogAccepted = filter.startOn(this, false);
         if (filterDialogAccepted) {
             // these are no longer needed
             lastFilterOutput.flush();
             lastFilterOutput = null;
             lastFilterState = null;
+
+            filterCache.setOutput(indexOfLastSmartFilter, filter, image);
+            if (indexOfLastSmartFilter < smartFilters.size() - 1) {
+                // only the smart filters after the edited one run again
+                image = filterCache.calc(smartFilters, smartFilters.size());
+                comp.update();
+                updateIconImage();
+            }
         } else {
             // restore to the result of the previous run
             image = lastFilterOutput;
@@ -249,7 +273,7 @@ public class SmartObject extends ImageLayer {
 
     private void deleteSmartFilter() {
         smartFilters.clear();
-        resetImageFromContent();
+        resetImageToFilterInput(0);
         comp.update();
         updateIconImage();
     }
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.*;
+import java.util.Arrays;
+
+import static java.awt.image.BufferedImage.*;
+
+/**
+ * An immutable, tiled copy of an int-based image, which stores
+ * uniform tiles (for example fully transparent ones) without pixels.
+ * The pixel tiles are never modified after creation, so they can be
+ * shared (copy-on-write) between the tiled copies of the same image,
+ * for example between a layer and its undo history.
+ */
+public final class TiledImage {
+    public static final int TILE_SIZE = 256;
+
+    // a tiled copy is created only if the pixel tiles
+    // take at most this fraction of the full image
+    private static final double MAX_PIXEL_TILES_RATIO = 0.5;
+
+    private static final Tile TRANSPARENT_TILE = new Tile(null, 0, 0, 0);
+
+    private final int width;
+    private final int height;
+    private final int type;
+    private final int numTilesX;
+    private final Tile[] tiles;
+
+    private TiledImage(int width, int height, int type, Tile[] tiles) {
+        this.width = width;
+        this.height = height;
+        this.type = type;
+        numTilesX = divideRoundingUp(width, TILE_SIZE);
+        this.tiles = tiles;
+    }
+
+    /**
+     * Returns true if the pixels of the given image can be stored in tiles.
+     */
+    public static boolean canStore(BufferedImage img) {
+        int type = img.getType();
+        if (type != TYPE_INT_ARGB && type != TYPE_INT_ARGB_PRE && type != TYPE_INT_RGB) {
+            return false;
+        }
+        WritableRaster raster = img.getRaster();
+        // sub-images and other rasters with offsets are not supported
+        return raster.getParent() == null
+               && raster.getDataBuffer().getOffset() == 0
+               && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm
+               && sm.getScanlineStride() == img.getWidth();
+    }
+
+    /**
+     * Returns a tiled copy of the given image, or null if the image
+     * is not sparse enough (or not supported), because then the
+     * tiled copy wouldn't save memory.
+     * The pixel tiles of the given base (if not null) are reused
+     * wherever the pixels didn't change.
+     */
+    public static TiledImage ofSparse(BufferedImage img, TiledImage base) {
+        if (!canStore(img)) {
+            return null;
+        }
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+        int numTilesX = divideRoundingUp(width, TILE_SIZE);
+        int numTilesY = divideRoundingUp(height, TILE_SIZE);
+        Tile[] tiles = new Tile[numTilesX * numTilesY];
+        boolean hasAlpha = img.getType() != TYPE_INT_RGB;
+
+        // first find the uniform tiles, so that nothing
+        // is copied if the image is not sparse enough
+        long maxPixelTilesArea = (long) (MAX_PIXEL_TILES_RATIO * width * height);
+        long pixelTilesArea = 0;
+        for (int ty = 0; ty < numTilesY; ty++) {
+            for (int tx = 0; tx < numTilesX; tx++) {
+                int x = tx * TILE_SIZE;
+                int y = ty * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, width - x);
+                int h = Math.min(TILE_SIZE, height - y);
+                int color = pixels[y * width + x];
+                if (isUniform(pixels, width, x, y, w, h, color)) {
+                    tiles[ty * numTilesX + tx] = color == 0 && hasAlpha
+                        ? TRANSPARENT_TILE
+                        : new Tile(null, color, w, h);
+                } else {
+                    pixelTilesArea += (long) w * h;
+                    if (pixelTilesArea > maxPixelTilesArea) {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        boolean canShare = base != null && base.width == width
+                           && base.height == height && base.type == img.getType();
+        for (int ty = 0; ty < numTilesY; ty++) {
+            for (int tx = 0; tx < numTilesX; tx++) {
+                int index = ty * numTilesX + tx;
+                if (tiles[index] != null) {
+                    continue; // uniform
+                }
+                int x = tx * TILE_SIZE;
+                int y = ty * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, width - x);
+                int h = Math.min(TILE_SIZE, height - y);
+
+                Tile baseTile = canShare ? base.tiles[index] : null;
+                if (baseTile != null && baseTile.hasSamePixels(pixels, width, x, y)) {
+                    tiles[index] = baseTile;
+                } else {
+                    tiles[index] = Tile.copyFrom(pixels, width, x, y, w, h);
+                }
+            }
+        }
+        return new TiledImage(width, height, img.getType(), tiles);
+    }
+
+    private static boolean isUniform(int[] pixels, int scanline,
+                                     int x, int y, int w, int h, int color) {
+        for (int row = y; row < y + h; row++) {
+            int offset = row * scanline + x;
+            for (int i = offset; i < offset + w; i++) {
+                if (pixels[i] != color) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a new {@link BufferedImage} with the stored pixels.
+     */
+    public BufferedImage toImage() {
+        BufferedImage img = new BufferedImage(width, height, type);
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < tiles.length; i++) {
+            Tile tile = tiles[i];
+            if (tile == TRANSPARENT_TILE) {
+                continue; // the new image is already transparent
+            }
+            int x = (i % numTilesX) * TILE_SIZE;
+            int y = (i / numTilesX) * TILE_SIZE;
+            tile.copyTo(pixels, width, x, y);
+        }
+        return img;
+    }
+
+    /**
+     * Paints the stored pixels at the given location, using the current
+     * composite and clip of the given graphics, without creating
+     * an image of the full size. Returns false (and paints nothing)
+     * if the transform of the graphics doesn't allow tiled painting.
+     */
+    public boolean paintOn(Graphics2D g, int x, int y) {
+        if ((g.getTransform().getType() & ~AffineTransform.TYPE_TRANSLATION) != 0) {
+            // scaled tiles could have visible seams
+            return false;
+        }
+        Rectangle clip = g.getClipBounds();
+        Color origColor = g.getColor();
+        for (int i = 0; i < tiles.length; i++) {
+            Tile tile = tiles[i];
+            if (tile == TRANSPARENT_TILE) {
+                continue;
+            }
+            int tileX = x + (i % numTilesX) * TILE_SIZE;
+            int tileY = y + (i / numTilesX) * TILE_SIZE;
+            if (clip != null && !clip.intersects(tileX, tileY, tile.width, tile.height)) {
+                continue;
+            }
+            if (tile.pixels == null) {
+                g.setColor(tile.getColor(type));
+                g.fillRect(tileX, tileY, tile.width, tile.height);
+            } else {
+                g.drawImage(tile.asImage(type), tileX, tileY, null);
+            }
+        }
+        g.setColor(origColor);
+        return true;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of bytes used by the pixel tiles,
+     * counting the tiles shared with other tiled images too.
+     */
+    public long getPixelBytes() {
+        long bytes = 0;
+        for (Tile tile : tiles) {
+            if (tile.pixels != null) {
+                bytes += 4L * tile.pixels.length;
+            }
+        }
+        return bytes;
+    }
+
+    private static int divideRoundingUp(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    @Override
+    public String toString() {
+        return "TiledImage{width=" + width + ", height=" + height
+               + ", pixelBytes=" + getPixelBytes() + '}';
+    }
+
+    /**
+     * A rectangular tile, which either has its own pixels
+     * or (if the pixels array is null) a single color.
+     */
+    private static final class Tile {
+        private final int[] pixels;
+        private final int color;
+        private final int width;
+        private final int height;
+
+        // a view of the pixels, created only when the tile is painted
+        private BufferedImage image;
+
+        private Tile(int[] pixels, int color, int width, int height) {
+            this.pixels = pixels;
+            this.color = color;
+            this.width = width;
+            this.height = height;
+        }
+
+        static Tile copyFrom(int[] src, int scanline, int x, int y, int w, int h) {
+            int[] pixels = new int[w * h];
+            for (int row = 0; row < h; row++) {
+                System.arraycopy(src, (y + row) * scanline + x, pixels, row * w, w);
+            }
+            return new Tile(pixels, 0, w, h);
+        }
+
+        boolean hasSamePixels(int[] src, int scanline, int x, int y) {
+            if (pixels == null) {
+                return false;
+            }
+            for (int row = 0; row < height; row++) {
+                int srcFrom = (y + row) * scanline + x;
+                int from = row * width;
+                if (!Arrays.equals(src, srcFrom, srcFrom + width,
+                    pixels, from, from + width)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void copyTo(int[] dest, int scanline, int x, int y) {
+            for (int row = 0; row < height; row++) {
+                int destFrom = (y + row) * scanline + x;
+                if (pixels == null) {
+                    Arrays.fill(dest, destFrom, destFrom + width, color);
+                } else {
+                    System.arraycopy(pixels, row * width, dest, destFrom, width);
+                }
+            }
+        }
+
+        Color getColor(int type) {
+            return switch (type) {
+                case TYPE_INT_RGB -> new Color(color);
+                case TYPE_INT_ARGB_PRE -> unPremultiply(color);
+                default -> new Color(color, true);
+            };
+        }
+
+        private static Color unPremultiply(int argb) {
+            int a = argb >>> 24;
+            if (a == 0) {
+                return new Color(0, true);
+            }
+            int r = Math.min(255, ((argb >> 16) & 0xFF) * 255 / a);
+            int g = Math.min(255, ((argb >> 8) & 0xFF) * 255 / a);
+            int b = Math.min(255, (argb & 0xFF) * 255 / a);
+            return new Color(r, g, b, a);
+        }
+
+        synchronized BufferedImage asImage(int type) {
+            if (image == null) {
+                ColorModel cm = ColorModel.getRGBdefault();
+                if (type != TYPE_INT_ARGB) {
+                    cm = new BufferedImage(1, 1, type).getColorModel();
+                }
+                var buffer = new DataBufferInt(pixels, pixels.length);
+                WritableRaster raster = Raster.createWritableRaster(
+                    cm.createCompatibleSampleModel(width, height), buffer, null);
+                image = new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+            }
+            return image;
+        }
+    }
+}
@@ -72,6 +72,7 @@ import pixelitor.selection.SelectionActions;
 import pixelitor.tools.brushes.CopyBrush;
 import pixelitor.utils.*;
 import pixelitor.utils.debug.Debug;
+import pixelitor.utils.debug.PerformanceMetricsPanel;
 import pixelitor.utils.test.Events;
 import pixelitor.utils.test.RandomGUITest;
 import pixelitor.utils.test.SplashImageCreator;
@@ -956,6 +957,7 @@ public class MenuBar extends JMenuBar {
         String medianFilterName = "3x3 Median Filter";
         sub.addForwardingFilter(medianFilterName,
             () -> new MedianFilter(medianFilterName));
+        sub.addFilter(JHMedian.NAME, JHMedian::new);
 
         sub.addSeparator();
 
@@ -1414,6 +1416,13 @@ public class MenuBar extends JMenuBar {
             }
         });
 
+        sub.add(new PAction("Performance Metrics...") {
+            @Override
+            public void onClick() {
+                PerformanceMetricsPanel.showInDialog();
+            }
+        });
+
         sub.add(new DrawableAction("Debug ImageLayer Images") {
             @Override
             protected void process(Drawable dr) {
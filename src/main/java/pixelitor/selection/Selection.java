@@ -227,14 +227,20 @@ public class Selection {
     }
 
     public void modify(SelectionModifyType type, float amount) {
-        Stroke outlineStroke = new BasicStroke(amount);
-        Shape outlineShape = outlineStroke.createStrokedShape(shape);
+        Shape backupShape = shape;
+        if (SelectionMask.isComplex(shape)) {
+            // stroking and combining the outline would be too slow
+            SelectionMask mask = SelectionMask.fromShape(shape);
+            shape = type.modify(mask, amount / 2.0f).toShape();
+        } else {
+            Stroke outlineStroke = new BasicStroke(amount);
+            Shape outlineShape = outlineStroke.createStrokedShape(shape);
 
-        Area oldArea = new Area(shape);
-        Area outlineArea = new Area(outlineShape);
+            Area oldArea = new Area(shape);
+            Area outlineArea = new Area(outlineShape);
 
-        Shape backupShape = shape;
-        shape = type.modify(oldArea, outlineArea);
+            shape = type.modify(oldArea, outlineArea);
+        }
 
         var comp = view.getComp();
         boolean notEmpty = clipToCanvasSize(comp);
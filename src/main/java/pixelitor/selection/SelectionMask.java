@@ -0,0 +1,664 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.selection;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.*;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.Consumer;
+
+import static java.awt.RenderingHints.KEY_STROKE_CONTROL;
+import static java.awt.RenderingHints.VALUE_STROKE_PURE;
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+/**
+ * A raster representation of a selection, which stores the selected
+ * pixels of each row as runs. It's used instead of the {@link Area}-based
+ * operations for complex selections, because the cost of the boolean
+ * operations depends only on the number of runs, and growing or shrinking
+ * (with distance transforms) depends only on the size of the selection,
+ * and not on the number of path segments in the outline.
+ *
+ * The masks are immutable. The coordinates are in image space,
+ * relative to the canvas, like in {@link Selection}.
+ */
+public final class SelectionMask {
+    // shapes with more path segments are combined and modified as masks
+    private static final int COMPLEX_SHAPE_SEGMENTS = 2000;
+
+    private static final int[] EMPTY_ROW = new int[0];
+    private static final SelectionMask EMPTY = new SelectionMask(0, new int[0][]);
+
+    // the truth tables of the boolean operations,
+    // indexed by (selected in first) * 2 + (selected in second)
+    private static final int OP_ADD = 0b1110;
+    private static final int OP_SUBTRACT = 0b0100;
+    private static final int OP_INTERSECT = 0b1000;
+
+    // the squared distance of the pixels without a feature pixel nearby
+    private static final float FAR = 1.0e20f;
+
+    private static final int RIGHT = 0;
+    private static final int DOWN = 1;
+    private static final int LEFT = 2;
+    private static final int UP = 3;
+
+    // the y coordinate of the first row
+    private final int startY;
+
+    // For each row, the start (inclusive) and end (exclusive) x coordinates
+    // of the selected runs, in increasing order. Adjacent runs are always
+    // merged, and the first and last rows are never empty.
+    private final int[][] rows;
+
+    private SelectionMask(int startY, int[][] rows) {
+        int first = 0;
+        int last = rows.length - 1;
+        while (first <= last && rows[first].length == 0) {
+            first++;
+        }
+        while (last >= first && rows[last].length == 0) {
+            last--;
+        }
+        if (first == 0 && last == rows.length - 1) {
+            this.startY = startY;
+            this.rows = rows;
+        } else if (first > last) {
+            this.startY = 0;
+            this.rows = new int[0][];
+        } else {
+            this.startY = startY + first;
+            this.rows = Arrays.copyOfRange(rows, first, last + 1);
+        }
+    }
+
+    public static SelectionMask empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Creates a mask from the pixels whose center is inside the given shape.
+     */
+    public static SelectionMask fromShape(Shape shape) {
+        if (shape instanceof TracedShape traced && traced.mask != null) {
+            return traced.mask;
+        }
+        Rectangle bounds = shape.getBounds();
+        if (bounds.isEmpty()) {
+            return EMPTY;
+        }
+
+        BufferedImage img = new BufferedImage(bounds.width, bounds.height, TYPE_BYTE_GRAY);
+        Graphics2D g = img.createGraphics();
+        // no antialiasing and no coordinate normalization
+        g.setRenderingHint(KEY_STROKE_CONTROL, VALUE_STROKE_PURE);
+        g.translate(-bounds.x, -bounds.y);
+        g.setColor(Color.WHITE);
+        g.fill(shape);
+        g.dispose();
+
+        byte[] pixels = ImageUtils.getGrayPixelsAsByteArray(img);
+        int[][] rows = new int[bounds.height][];
+        ThreadPool.runInStrips(bounds.height, bounds.width, (stripStart, stripEnd) -> {
+            RunBuilder builder = new RunBuilder();
+            for (int y = stripStart; y < stripEnd; y++) {
+                int offset = y * bounds.width;
+                for (int x = 0; x < bounds.width; x++) {
+                    if (pixels[offset + x] != 0) {
+                        builder.add(bounds.x + x, bounds.x + x + 1);
+                    }
+                }
+                rows[y] = builder.build();
+            }
+        }, NULL_TRACKER);
+        return new SelectionMask(bounds.y, rows);
+    }
+
+    /**
+     * Creates a mask from a row-major array of selection flags,
+     * where the pixels with non-zero values are selected.
+     */
+    public static SelectionMask fromBitmap(byte[] bitmap, int width, int height) {
+        assert bitmap.length == width * height;
+
+        int[][] rows = new int[height][];
+        ThreadPool.runInStrips(height, width, (stripStart, stripEnd) -> {
+            RunBuilder builder = new RunBuilder();
+            for (int y = stripStart; y < stripEnd; y++) {
+                int offset = y * width;
+                int x = 0;
+                while (x < width) {
+                    if (bitmap[offset + x] == 0) {
+                        x++;
+                        continue;
+                    }
+                    int runStart = x;
+                    while (x < width && bitmap[offset + x] != 0) {
+                        x++;
+                    }
+                    builder.add(runStart, x);
+                }
+                rows[y] = builder.build();
+            }
+        }, NULL_TRACKER);
+        return new SelectionMask(0, rows);
+    }
+
+    /**
+     * Returns true if the given shape has so many path segments
+     * that it should be modified and combined as a mask.
+     */
+    public static boolean isComplex(Shape shape) {
+        if (shape == null || shape instanceof TracedShape) {
+            return shape != null;
+        }
+        int numSegments = 0;
+        for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+            if (++numSegments > COMPLEX_SHAPE_SEGMENTS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return rows.length == 0;
+    }
+
+    public boolean contains(int x, int y) {
+        int index = y - startY;
+        if (index < 0 || index >= rows.length) {
+            return false;
+        }
+        return rowContains(rows[index], x);
+    }
+
+    private static boolean rowContains(int[] row, int x) {
+        int index = Arrays.binarySearch(row, x);
+        if (index >= 0) {
+            // starts are inclusive, ends are exclusive
+            return index % 2 == 0;
+        }
+        return (-index - 1) % 2 == 1;
+    }
+
+    /**
+     * Returns the bounding box of the selected pixels
+     */
+    public Rectangle getBounds() {
+        if (rows.length == 0) {
+            return new Rectangle();
+        }
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        for (int[] row : rows) {
+            if (row.length > 0) {
+                minX = Math.min(minX, row[0]);
+                maxX = Math.max(maxX, row[row.length - 1]);
+            }
+        }
+        return new Rectangle(minX, startY, maxX - minX, rows.length);
+    }
+
+    public SelectionMask translate(int dx, int dy) {
+        if ((dx == 0 && dy == 0) || isEmpty()) {
+            return this;
+        }
+        int[][] movedRows = new int[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            int[] row = rows[i];
+            int[] movedRow = new int[row.length];
+            for (int k = 0; k < row.length; k++) {
+                movedRow[k] = row[k] + dx;
+            }
+            movedRows[i] = movedRow;
+        }
+        return new SelectionMask(startY + dy, movedRows);
+    }
+
+    public SelectionMask add(SelectionMask other) {
+        return combine(other, OP_ADD);
+    }
+
+    public SelectionMask subtract(SelectionMask other) {
+        return combine(other, OP_SUBTRACT);
+    }
+
+    public SelectionMask intersect(SelectionMask other) {
+        return combine(other, OP_INTERSECT);
+    }
+
+    private SelectionMask combine(SelectionMask other, int op) {
+        if (other.isEmpty()) {
+            return op == OP_INTERSECT ? EMPTY : this;
+        }
+        if (isEmpty()) {
+            return op == OP_ADD ? other : EMPTY;
+        }
+
+        int minY = Math.min(startY, other.startY);
+        int maxY = Math.max(startY + rows.length, other.startY + other.rows.length);
+        int[][] combinedRows = new int[maxY - minY][];
+        RunBuilder builder = new RunBuilder();
+        for (int y = minY; y < maxY; y++) {
+            combinedRows[y - minY] = combineRows(getRow(y), other.getRow(y), op, builder);
+        }
+        return new SelectionMask(minY, combinedRows);
+    }
+
+    private int[] getRow(int y) {
+        int index = y - startY;
+        if (index < 0 || index >= rows.length) {
+            return EMPTY_ROW;
+        }
+        return rows[index];
+    }
+
+    /**
+     * Combines two rows by sweeping through the run boundaries of both.
+     */
+    private static int[] combineRows(int[] a, int[] b, int op, RunBuilder builder) {
+        int i = 0;
+        int j = 0;
+        boolean inA = false;
+        boolean inB = false;
+        int runStart = 0;
+        boolean inResult = false;
+        while (i < a.length || j < b.length) {
+            int x;
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                x = a[i];
+            } else {
+                x = b[j];
+            }
+            if (i < a.length && a[i] == x) {
+                inA = !inA;
+                i++;
+            }
+            if (j < b.length && b[j] == x) {
+                inB = !inB;
+                j++;
+            }
+            boolean selected = ((op >> ((inA ? 2 : 0) + (inB ? 1 : 0))) & 1) != 0;
+            if (selected != inResult) {
+                if (selected) {
+                    runStart = x;
+                } else {
+                    builder.add(runStart, x);
+                }
+                inResult = selected;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns a mask that also contains the pixels within the
+     * given distance (measured from the pixel edges) of this mask.
+     */
+    public SelectionMask grow(float distance) {
+        if (distance <= 0 || isEmpty()) {
+            return this;
+        }
+        float threshold = distance + 0.5f;
+        Rectangle region = getBounds();
+        int margin = (int) Math.ceil(threshold);
+        region.grow(margin, margin);
+
+        float[] dist = distanceField(region, true);
+        return threshold(dist, region, threshold * threshold, true);
+    }
+
+    /**
+     * Returns a mask without the pixels within the given distance
+     * (measured from the pixel edges) of the unselected pixels.
+     */
+    public SelectionMask shrink(float distance) {
+        if (distance <= 0 || isEmpty()) {
+            return this;
+        }
+        float threshold = distance + 0.5f;
+        Rectangle region = getBounds();
+        // a frame of unselected pixels around the selection
+        region.grow(1, 1);
+
+        float[] dist = distanceField(region, false);
+        return threshold(dist, region, threshold * threshold, false);
+    }
+
+    /**
+     * Returns a canvas-sized grayscale image where the selected pixels are white,
+     * and the edges are faded linearly over twice the given feather radius.
+     */
+    public BufferedImage createFeatheredImage(int canvasWidth, int canvasHeight, float radius) {
+        BufferedImage img = new BufferedImage(canvasWidth, canvasHeight, TYPE_BYTE_GRAY);
+        Rectangle region = getBounds();
+        if (region.isEmpty()) {
+            return img;
+        }
+        int margin = (int) Math.ceil(Math.max(radius, 0)) + 1;
+        region.grow(margin, margin);
+
+        float[] outsideDist = distanceField(region, true);
+        float[] insideDist = distanceField(region, false);
+
+        byte[] pixels = ImageUtils.getGrayPixelsAsByteArray(img);
+        Rectangle visible = region.intersection(new Rectangle(0, 0, canvasWidth, canvasHeight));
+        ThreadPool.runInStrips(visible.height, visible.width, (stripStart, stripEnd) -> {
+            for (int y = visible.y + stripStart; y < visible.y + stripEnd; y++) {
+                int regionOffset = (y - region.y) * region.width - region.x;
+                int canvasOffset = y * canvasWidth;
+                for (int x = visible.x; x < visible.x + visible.width; x++) {
+                    int i = regionOffset + x;
+                    // the signed distance of the pixel center from the edge
+                    float edgeDist = insideDist[i] > 0
+                        ? (float) Math.sqrt(insideDist[i]) - 0.5f
+                        : 0.5f - (float) Math.sqrt(outsideDist[i]);
+                    float alpha;
+                    if (radius <= 0) {
+                        alpha = edgeDist > 0 ? 1.0f : 0.0f;
+                    } else {
+                        alpha = Math.max(0.0f, Math.min(1.0f, 0.5f + edgeDist / (2 * radius)));
+                    }
+                    pixels[canvasOffset + x] = (byte) Math.round(alpha * 255);
+                }
+            }
+        }, NULL_TRACKER);
+        return img;
+    }
+
+    /**
+     * Calculates the squared Euclidean distances of the pixels in the
+     * given region from the nearest selected (or unselected) pixel
+     * center, using the separable algorithm of Felzenszwalb and Huttenlocher.
+     */
+    private float[] distanceField(Rectangle region, boolean toSelected) {
+        int width = region.width;
+        int height = region.height;
+        float[] dist = new float[width * height];
+
+        float selectedValue = toSelected ? 0 : FAR;
+        float unselectedValue = toSelected ? FAR : 0;
+        ThreadPool.runInStrips(height, width, (stripStart, stripEnd) -> {
+            for (int y = stripStart; y < stripEnd; y++) {
+                int offset = y * width;
+                Arrays.fill(dist, offset, offset + width, unselectedValue);
+                int[] row = getRow(region.y + y);
+                for (int k = 0; k < row.length; k += 2) {
+                    int start = Math.max(row[k] - region.x, 0);
+                    int end = Math.min(row[k + 1] - region.x, width);
+                    if (start < end) {
+                        Arrays.fill(dist, offset + start, offset + end, selectedValue);
+                    }
+                }
+            }
+        }, NULL_TRACKER);
+
+        // the columns
+        ThreadPool.runInStrips(width, height, (stripStart, stripEnd) -> {
+            float[] column = new float[height];
+            DistanceTransform1D transform = new DistanceTransform1D(height);
+            for (int x = stripStart; x < stripEnd; x++) {
+                for (int y = 0; y < height; y++) {
+                    column[y] = dist[y * width + x];
+                }
+                transform.apply(column, height);
+                for (int y = 0; y < height; y++) {
+                    dist[y * width + x] = column[y];
+                }
+            }
+        }, NULL_TRACKER);
+
+        // the rows
+        ThreadPool.runInStrips(height, width, (stripStart, stripEnd) -> {
+            float[] row = new float[width];
+            DistanceTransform1D transform = new DistanceTransform1D(width);
+            for (int y = stripStart; y < stripEnd; y++) {
+                System.arraycopy(dist, y * width, row, 0, width);
+                transform.apply(row, width);
+                System.arraycopy(row, 0, dist, y * width, width);
+            }
+        }, NULL_TRACKER);
+
+        return dist;
+    }
+
+    /**
+     * Creates a mask from the pixels that are (or aren't,
+     * if selectNear is false) within the given squared distance.
+     */
+    private static SelectionMask threshold(float[] dist, Rectangle region,
+                                           float maxSquaredDist, boolean selectNear) {
+        int width = region.width;
+        int[][] rows = new int[region.height][];
+        ThreadPool.runInStrips(region.height, width, (stripStart, stripEnd) -> {
+            RunBuilder builder = new RunBuilder();
+            for (int y = stripStart; y < stripEnd; y++) {
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    if ((dist[offset + x] <= maxSquaredDist) == selectNear) {
+                        builder.add(region.x + x, region.x + x + 1);
+                    }
+                }
+                rows[y] = builder.build();
+            }
+        }, NULL_TRACKER);
+        return new SelectionMask(region.y, rows);
+    }
+
+    /**
+     * Converts this mask into a shape by tracing the pixel edges
+     * around the selected areas, so that the marching ants can
+     * be painted, and the mask can be used as a selection shape.
+     */
+    public Shape toShape() {
+        // Each outline (including the outlines of the holes) has at least one
+        // top edge, and each of the top edge segments starts at a run start of
+        // the selected pixels below an unselected one. These are the points
+        // where the tracing turns to the right.
+        int[][] topEdges = new int[rows.length][];
+        int[] firstEdgeIndex = new int[rows.length];
+        int numEdges = 0;
+        RunBuilder builder = new RunBuilder();
+        for (int i = 0; i < rows.length; i++) {
+            topEdges[i] = combineRows(rows[i], getRow(startY + i - 1), OP_SUBTRACT, builder);
+            firstEdgeIndex[i] = numEdges;
+            numEdges += topEdges[i].length / 2;
+        }
+
+        TracedShape path = new TracedShape(this);
+        BitSet visited = new BitSet(numEdges);
+        for (int i = 0; i < rows.length; i++) {
+            for (int k = 0; k < topEdges[i].length; k += 2) {
+                if (!visited.get(firstEdgeIndex[i] + k / 2)) {
+                    traceOutline(path, topEdges[i][k], startY + i, edgeStart -> {
+                        int row = edgeStart.y - startY;
+                        int index = Arrays.binarySearch(topEdges[row], edgeStart.x);
+                        visited.set(firstEdgeIndex[row] + index / 2);
+                    });
+                }
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Follows the outline starting at the given point to the right, always
+     * keeping the selected pixels on the right-hand side. Diagonally touching
+     * pixels are not connected, so the outlines don't intersect themselves.
+     * The given callback receives the starts of the top edge segments.
+     */
+    private void traceOutline(Path2D path, int startX, int startY, Consumer<Point> topEdgeCallback) {
+        path.moveTo(startX, startY);
+        topEdgeCallback.accept(new Point(startX, startY));
+        int x = startX;
+        int y = startY;
+        int dir = RIGHT;
+        while (true) {
+            switch (dir) {
+                case RIGHT -> x++;
+                case DOWN -> y++;
+                case LEFT -> x--;
+                case UP -> y--;
+            }
+
+            // the pixels ahead-left and ahead-right of the corner point
+            boolean aheadLeft;
+            boolean aheadRight;
+            switch (dir) {
+                case RIGHT -> {
+                    aheadLeft = contains(x, y - 1);
+                    aheadRight = contains(x, y);
+                }
+                case DOWN -> {
+                    aheadLeft = contains(x, y);
+                    aheadRight = contains(x - 1, y);
+                }
+                case LEFT -> {
+                    aheadLeft = contains(x - 1, y);
+                    aheadRight = contains(x - 1, y - 1);
+                }
+                default -> {
+                    aheadLeft = contains(x - 1, y - 1);
+                    aheadRight = contains(x, y - 1);
+                }
+            }
+
+            int newDir;
+            if (!aheadRight) {
+                newDir = (dir + 1) % 4;
+            } else if (aheadLeft) {
+                newDir = (dir + 3) % 4;
+            } else {
+                continue;
+            }
+
+            if (newDir == RIGHT) {
+                if (x == startX && y == startY) {
+                    path.closePath();
+                    return;
+                }
+                topEdgeCallback.accept(new Point(x, y));
+            }
+            path.lineTo(x, y);
+            dir = newDir;
+        }
+    }
+
+    /**
+     * The result of the vectorization, which remembers its mask,
+     * so that it doesn't have to be rasterized again.
+     */
+    private static class TracedShape extends Path2D.Float {
+        private final transient SelectionMask mask;
+
+        TracedShape(SelectionMask mask) {
+            super(WIND_EVEN_ODD);
+            this.mask = mask;
+        }
+    }
+
+    /**
+     * Collects the runs of a row, merging the adjacent ones.
+     * The runs must be added from left to right.
+     */
+    private static class RunBuilder {
+        private int[] data = new int[16];
+        private int size = 0;
+
+        void add(int start, int end) {
+            if (size > 0 && data[size - 1] == start) {
+                data[size - 1] = end;
+                return;
+            }
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = start;
+            data[size++] = end;
+        }
+
+        // returns the collected runs and resets this builder for the next row
+        int[] build() {
+            int[] row = size == 0 ? EMPTY_ROW : Arrays.copyOf(data, size);
+            size = 0;
+            return row;
+        }
+    }
+
+    /**
+     * The one-dimensional squared distance transform
+     * with reusable working arrays for lines of a given maximum length.
+     */
+    private static class DistanceTransform1D {
+        private final int[] parabolas; // the locations of the lower envelope parabolas
+        private final float[] bounds; // the boundaries between the parabolas
+        private final float[] result;
+
+        DistanceTransform1D(int maxLength) {
+            parabolas = new int[maxLength];
+            bounds = new float[maxLength + 1];
+            result = new float[maxLength];
+        }
+
+        void apply(float[] f, int n) {
+            int k = 0;
+            parabolas[0] = 0;
+            bounds[0] = Float.NEGATIVE_INFINITY;
+            bounds[1] = Float.POSITIVE_INFINITY;
+            for (int q = 1; q < n; q++) {
+                float s = intersection(f, parabolas[k], q);
+                while (s <= bounds[k]) {
+                    k--;
+                    s = intersection(f, parabolas[k], q);
+                }
+                k++;
+                parabolas[k] = q;
+                bounds[k] = s;
+                bounds[k + 1] = Float.POSITIVE_INFINITY;
+            }
+
+            k = 0;
+            for (int q = 0; q < n; q++) {
+                while (bounds[k + 1] < q) {
+                    k++;
+                }
+                int p = parabolas[k];
+                result[q] = (q - p) * (q - p) + f[p];
+            }
+            System.arraycopy(result, 0, f, 0, n);
+        }
+
+        private static float intersection(float[] f, int p, int q) {
+            return ((f[q] + q * q) - (f[p] + p * p)) / (2 * q - 2 * p);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SelectionMask{bounds=" + getBounds() + ", rows=" + rows.length + '}';
+    }
+}
@@ -33,29 +33,54 @@ public enum SelectionModifyType {
             previous.add(outlineShape);
             return previous;
         }
+
+        @Override
+        public SelectionMask modify(SelectionMask previous, float distance) {
+            return previous.grow(distance);
+        }
     }, CONTRACT("Contract") {
         @Override
         public Shape modify(Area previous, Area outlineShape) {
             previous.subtract(outlineShape);
             return previous;
         }
+
+        @Override
+        public SelectionMask modify(SelectionMask previous, float distance) {
+            return previous.shrink(distance);
+        }
     }, BORDER("Border") {
         @Override
         public Shape modify(Area previous, Area outlineShape) {
             return outlineShape;
         }
+
+        @Override
+        public SelectionMask modify(SelectionMask previous, float distance) {
+            return previous.grow(distance).subtract(previous.shrink(distance));
+        }
     }, BORDER_OUT("Border Outwards Only") {
         @Override
         public Shape modify(Area previous, Area outlineShape) {
             outlineShape.subtract(previous);
             return outlineShape;
         }
+
+        @Override
+        public SelectionMask modify(SelectionMask previous, float distance) {
+            return previous.grow(distance).subtract(previous);
+        }
     }, BORDER_IN("Border Inwards Only") {
         @Override
         public Shape modify(Area previous, Area outlineShape) {
             previous.intersect(outlineShape);
             return previous;
         }
+
+        @Override
+        public SelectionMask modify(SelectionMask previous, float distance) {
+            return previous.subtract(previous.shrink(distance));
+        }
     };
 
     private final String guiName;
@@ -70,6 +95,12 @@ public enum SelectionModifyType {
      */
     public abstract Shape modify(Area previous, Area outlineShape);
 
+    /**
+     * Calculates a new mask from the existing one, where
+     * the distance is half of the outline stroke's width.
+     */
+    public abstract SelectionMask modify(SelectionMask previous, float distance);
+
     public static EnumParam<SelectionModifyType> asParam() {
         return new EnumParam<>(GUIText.TYPE, SelectionModifyType.class);
     }
@@ -29,30 +29,59 @@ public enum ShapeCombination {
         public Shape combine(Shape oldShape, Shape newShape) {
             return newShape;
         }
+
+        @Override
+        public SelectionMask combine(SelectionMask oldMask, SelectionMask newMask) {
+            return newMask;
+        }
     }, ADD("Add") {
         @Override
         public Shape combine(Shape oldShape, Shape newShape) {
+            if (isComplex(oldShape, newShape)) {
+                return combineAsMasks(oldShape, newShape);
+            }
             Area oldArea = new Area(oldShape);
             Area newArea = new Area(newShape);
             oldArea.add(newArea);
             return oldArea;
         }
+
+        @Override
+        public SelectionMask combine(SelectionMask oldMask, SelectionMask newMask) {
+            return oldMask.add(newMask);
+        }
     }, SUBTRACT("Subtract") {
         @Override
         public Shape combine(Shape oldShape, Shape newShape) {
+            if (isComplex(oldShape, newShape)) {
+                return combineAsMasks(oldShape, newShape);
+            }
             Area oldArea = new Area(oldShape);
             Area newArea = new Area(newShape);
             oldArea.subtract(newArea);
             return oldArea;
         }
+
+        @Override
+        public SelectionMask combine(SelectionMask oldMask, SelectionMask newMask) {
+            return oldMask.subtract(newMask);
+        }
     }, INTERSECT("Intersect") {
         @Override
         public Shape combine(Shape oldShape, Shape newShape) {
+            if (isComplex(oldShape, newShape)) {
+                return combineAsMasks(oldShape, newShape);
+            }
             Area oldArea = new Area(oldShape);
             Area newArea = new Area(newShape);
             oldArea.intersect(newArea);
             return oldArea;
         }
+
+        @Override
+        public SelectionMask combine(SelectionMask oldMask, SelectionMask newMask) {
+            return oldMask.intersect(newMask);
+        }
     };
 
     private final String guiName;
@@ -66,6 +95,21 @@ public enum ShapeCombination {
      */
     public abstract Shape combine(Shape oldShape, Shape newShape);
 
+    /**
+     * Calculates the combined mask from the existing mask and the new one
+     */
+    public abstract SelectionMask combine(SelectionMask oldMask, SelectionMask newMask);
+
+    // the Area operations get very slow for shapes with many segments
+    private static boolean isComplex(Shape oldShape, Shape newShape) {
+        return SelectionMask.isComplex(oldShape) || SelectionMask.isComplex(newShape);
+    }
+
+    Shape combineAsMasks(Shape oldShape, Shape newShape) {
+        return combine(SelectionMask.fromShape(oldShape),
+            SelectionMask.fromShape(newShape)).toShape();
+    }
+
     @Override
     public String toString() {
         return guiName;
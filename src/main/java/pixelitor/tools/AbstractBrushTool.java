@@ -27,6 +27,7 @@ import pixelitor.gui.View;
 import pixelitor.gui.utils.*;
 import pixelitor.history.History;
 import pixelitor.history.MultiEdit;
+import pixelitor.history.PixelitorEdit;
 import pixelitor.layers.Drawable;
 import pixelitor.layers.LayerMask;
 import pixelitor.tools.brushes.*;
@@ -46,7 +47,6 @@ import static java.awt.RenderingHints.KEY_ANTIALIASING;
 import static java.awt.RenderingHints.VALUE_ANTIALIAS_ON;
 import static java.awt.geom.PathIterator.*;
 import static javax.swing.BorderFactory.createEmptyBorder;
-import static pixelitor.Composition.UpdateActions.HISTOGRAM;
 import static pixelitor.filters.gui.FilterSetting.EnabledReason.APP_LOGIC;
 import static pixelitor.gui.GUIText.CLOSE_DIALOG;
 import static pixelitor.gui.utils.SliderSpinner.TextPosition.WEST;
@@ -360,7 +360,14 @@ public abstract class AbstractBrushTool extends Tool {
 
     private void finishBrushStroke(Drawable dr) {
         brush.finishBrushStroke();
-        addBrushStrokeToHistory(dr);
+
+        // relative to the canvas
+        Rectangle strokeBounds = affectedArea.asRectangle(brush.getMaxEffectiveRadius());
+
+        // the edit is created before the temporary layer is merged down,
+        // but it is added only after the merge, because the edit
+        // might save only the changed tiles
+        PixelitorEdit edit = createBrushStrokeEdit(dr);
 
         if (graphics != null) {
             graphics.dispose();
@@ -368,11 +375,18 @@ public abstract class AbstractBrushTool extends Tool {
         graphics = null;
         drawDestination.finishBrushStroke(dr);
 
+        if (edit != null) {
+            History.add(edit);
+        }
+
         dr.updateIconImage();
-        dr.getComp().update(HISTOGRAM);
+
+        // only the stroke has to be composited again
+        strokeBounds.translate(-dr.getTx(), -dr.getTy());
+        dr.updateRegion(strokeBounds);
     }
 
-    private void addBrushStrokeToHistory(Drawable dr) {
+    private PixelitorEdit createBrushStrokeEdit(Drawable dr) {
         var originalImage = drawDestination.getOriginalImage(dr, this);
 
         double maxBrushRadius = brush.getMaxEffectiveRadius();
@@ -382,15 +396,12 @@ public abstract class AbstractBrushTool extends Tool {
 
         var imageEdit = History.createPartialImageEdit(
             affectedRect, originalImage, dr, false, getName());
-        if (imageEdit != null) {
-            if (typeCB != null && getBrushType() == BrushType.CONNECT) {
-                var comp = dr.getComp();
-                var connectEdit = new ConnectBrushHistory.Edit(comp);
-                History.add(new MultiEdit(imageEdit.getName(), comp, imageEdit, connectEdit));
-            } else {
-                History.add(imageEdit);
-            }
+        if (imageEdit != null && typeCB != null && getBrushType() == BrushType.CONNECT) {
+            var comp = dr.getComp();
+            var connectEdit = new ConnectBrushHistory.Edit(comp);
+            return new MultiEdit(imageEdit.getName(), comp, imageEdit, connectEdit);
         }
+        return imageEdit;
     }
 
     protected void prepareProgrammaticBrushStroke(Drawable dr, PPoint start) {
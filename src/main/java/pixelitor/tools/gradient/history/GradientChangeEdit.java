@@ -78,4 +78,12 @@ public class GradientChangeEdit extends PixelitorEdit {
             imageEdit.die();
         }
     }
+
+    @Override
+    public void sealBackup() {
+        // added before the gradient is drawn
+        if (imageEditNeeded) {
+            imageEdit.keepFullBackup();
+        }
+    }
 }
@@ -63,4 +63,10 @@ public class NewGradientEdit extends PixelitorEdit {
         comp.update();
         dr.updateIconImage();
     }
+
+    @Override
+    public void sealBackup() {
+        // added before the gradient is drawn
+        imageEdit.keepFullBackup();
+    }
 }
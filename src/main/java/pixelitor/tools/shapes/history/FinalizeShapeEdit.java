@@ -74,4 +74,12 @@ public class FinalizeShapeEdit extends PixelitorEdit {
             imageEdit.die();
         }
     }
+
+    @Override
+    public void sealBackup() {
+        // added before the shape is drawn
+        if (imageEdit != null) {
+            imageEdit.keepFullBackup();
+        }
+    }
 }
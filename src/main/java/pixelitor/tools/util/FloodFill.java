@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.tools.util;
+
+import pixelitor.ThreadPool;
+import pixelitor.selection.SelectionMask;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+/**
+ * Finds the regions of similar colors in packed int ARGB pixel arrays,
+ * for the paint bucket and for selections based on colors.
+ *
+ * The color comparisons are done in parallel in advance, and the local
+ * region is found with a scanline fill that keeps the seeds on a stack
+ * of primitive ints, so no objects are created for the pixels.
+ */
+public final class FloodFill {
+    // the pixel states during the local fill
+    private static final byte DIFFERENT = 0;
+    private static final byte SIMILAR = 1;
+    private static final byte FILLED = 2;
+
+    private FloodFill() {
+        // do not instantiate
+    }
+
+    /**
+     * Returns the region of the pixels that are similar to the
+     * color at the given point, and are connected to it.
+     */
+    public static Region findConnected(int[] pixels, int width, int height,
+                                       int x, int y, int tolerance) {
+        assert x >= 0 && x < width && y >= 0 && y < height;
+
+        byte[] states = markSimilar(pixels, width, height, pixels[x + y * width], tolerance);
+
+        int minX = x;
+        int maxX = x;
+        int minY = y;
+        int maxY = y;
+
+        // the x, y coordinates of the points to be inspected later
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = x;
+        stack[stackSize++] = y;
+
+        while (stackSize > 0) {
+            y = stack[--stackSize];
+            x = stack[--stackSize];
+            int offset = y * width;
+            if (states[offset + x] != SIMILAR) {
+                // filled since it was pushed
+                continue;
+            }
+
+            // find the similar pixels to the left and to the right
+            int lineMinX = x;
+            while (lineMinX > 0 && states[offset + lineMinX - 1] == SIMILAR) {
+                lineMinX--;
+            }
+            int lineMaxX = x;
+            while (lineMaxX < width - 1 && states[offset + lineMaxX + 1] == SIMILAR) {
+                lineMaxX++;
+            }
+            Arrays.fill(states, offset + lineMinX, offset + lineMaxX + 1, FILLED);
+
+            minX = Math.min(minX, lineMinX);
+            maxX = Math.max(maxX, lineMaxX);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+
+            // Look upwards and downwards for new points to be inspected
+            // later. If there are multiple similar pixels that are horizontal
+            // neighbours, only one of them has to be inspected later.
+            for (int nextY = y - 1; nextY <= y + 1; nextY += 2) {
+                if (nextY < 0 || nextY >= height) {
+                    continue;
+                }
+                int nextOffset = nextY * width;
+                boolean pointsInLine = false;
+                for (int i = lineMinX; i <= lineMaxX; i++) {
+                    boolean similar = states[nextOffset + i] == SIMILAR;
+                    if (similar && !pointsInLine) {
+                        if (stackSize + 2 > stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                        }
+                        stack[stackSize++] = i;
+                        stack[stackSize++] = nextY;
+                    }
+                    pointsInLine = similar;
+                }
+            }
+        }
+
+        // only the filled pixels remain in the region
+        ThreadPool.runInStrips(height, width, (startY, endY) -> {
+            for (int i = startY * width; i < endY * width; i++) {
+                states[i] = states[i] == FILLED ? SIMILAR : DIFFERENT;
+            }
+        }, NULL_TRACKER);
+
+        return new Region(states, width, height,
+            new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1));
+    }
+
+    /**
+     * Returns the region of all the pixels that are
+     * similar to the given color, connected or not.
+     */
+    public static Region findSimilar(int[] pixels, int width, int height,
+                                     int rgb, int tolerance) {
+        byte[] states = markSimilar(pixels, width, height, rgb, tolerance);
+        return new Region(states, width, height, new Rectangle(0, 0, width, height));
+    }
+
+    private static byte[] markSimilar(int[] pixels, int width, int height,
+                                      int rgb, int tolerance) {
+        byte[] states = new byte[width * height];
+        ThreadPool.runInStrips(height, width, (startY, endY) -> {
+            for (int i = startY * width; i < endY * width; i++) {
+                if (isSimilar(pixels[i], rgb, tolerance)) {
+                    states[i] = SIMILAR;
+                }
+            }
+        }, NULL_TRACKER);
+        return states;
+    }
+
+    public static boolean isSimilar(int color1, int color2, int tolerance) {
+        if (color1 == color2) {
+            return true;
+        }
+
+        int a1 = (color1 >>> 24) & 0xFF;
+        int r1 = (color1 >>> 16) & 0xFF;
+        int g1 = (color1 >>> 8) & 0xFF;
+        int b1 = color1 & 0xFF;
+
+        int a2 = (color2 >>> 24) & 0xFF;
+        int r2 = (color2 >>> 16) & 0xFF;
+        int g2 = (color2 >>> 8) & 0xFF;
+        int b2 = color2 & 0xFF;
+
+        return (r2 <= r1 + tolerance) && (r2 >= r1 - tolerance) &&
+            (g2 <= g1 + tolerance) && (g2 >= g1 - tolerance) &&
+            (b2 <= b1 + tolerance) && (b2 >= b1 - tolerance) &&
+            (a2 <= a1 + tolerance) && (a2 >= a1 - tolerance);
+    }
+
+    /**
+     * The result of a search: a row-major bitmap where the pixels
+     * of the region are non-zero, and the bounding box of the region.
+     */
+    public record Region(byte[] bitmap, int width, int height, Rectangle bounds) {
+        public boolean contains(int x, int y) {
+            return bitmap[x + y * width] != 0;
+        }
+
+        /**
+         * Sets the pixels of the region to the given color
+         */
+        public void fill(int[] pixels, int rgb) {
+            assert pixels.length == bitmap.length;
+
+            ThreadPool.runInStrips(bounds.height, bounds.width, (startY, endY) -> {
+                for (int y = bounds.y + startY; y < bounds.y + endY; y++) {
+                    int offset = y * width;
+                    for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                        if (bitmap[offset + x] != 0) {
+                            pixels[offset + x] = rgb;
+                        }
+                    }
+                }
+            }, NULL_TRACKER);
+        }
+
+        /**
+         * Returns the region as a selection mask. The translation is
+         * the position of the searched image relative to the canvas.
+         */
+        public SelectionMask toSelectionMask(int tx, int ty) {
+            return SelectionMask.fromBitmap(bitmap, width, height).translate(tx, ty);
+        }
+    }
+}
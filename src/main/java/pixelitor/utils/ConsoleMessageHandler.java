@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import pixelitor.layers.Layer;
+
+import java.awt.Component;
+
+/**
+ * A message handler that writes to the console,
+ * used when running without a GUI
+ */
+public class ConsoleMessageHandler implements MessageHandler {
+    @Override
+    public void showInStatusBar(String msg) {
+        // the status bar messages are too frequent for the console
+    }
+
+    @Override
+    public ProgressHandler startProgress(String msg, int max) {
+        return ProgressHandler.EMPTY;
+    }
+
+    @Override
+    public void showInfo(String title, String msg, Component parent) {
+        System.out.println(title + ": " + msg);
+    }
+
+    @Override
+    public void showError(String title, String msg, Component parent) {
+        System.err.println(title + ": " + msg);
+    }
+
+    @Override
+    public void showNotImageLayerError(Layer layer) {
+        System.err.println(layer.getName() + " is not an image layer.");
+    }
+
+    @Override
+    public void showNotDrawableError(Layer layer) {
+        System.err.println(layer.getName() + " is not an image layer or mask.");
+    }
+
+    @Override
+    public void showException(Throwable e) {
+        e.printStackTrace();
+    }
+
+    @Override
+    public void showException(Throwable e, Thread srcThread) {
+        System.err.println("Exception in " + srcThread.getName() + ":");
+        e.printStackTrace();
+    }
+
+    @Override
+    public void showExceptionOnEDT(Throwable e) {
+        e.printStackTrace();
+    }
+}
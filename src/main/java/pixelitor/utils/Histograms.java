@@ -0,0 +1,233 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import pixelitor.ThreadPool;
+import pixelitor.filters.levels.Channel;
+import pixelitor.filters.lookup.LuminanceLookup;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import static java.awt.image.BufferedImage.*;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+/**
+ * The histograms of the red, green, blue and luminance values
+ * of an image (the luminance is returned for {@link Channel#RGB}),
+ * and the statistics that can be derived from them.
+ * The fully transparent pixels are ignored.
+ */
+public final class Histograms {
+    public static final int NUM_BINS = 256;
+
+    // indexed by the ordinal of the channel
+    private final int[][] bins = new int[Channel.values().length][NUM_BINS];
+    private long numPixels;
+
+    /**
+     * Calculates the histograms of the whole image in parallel
+     */
+    public static Histograms calculate(BufferedImage img) {
+        return calculate(img, new Rectangle(0, 0, img.getWidth(), img.getHeight()));
+    }
+
+    /**
+     * Calculates the histograms of the given area of the image in parallel
+     */
+    public static Histograms calculate(BufferedImage img, Rectangle area) {
+        Histograms result = new Histograms();
+        ThreadPool.runInStrips(area.height, area.width, (startY, endY) -> {
+            Histograms strip = new Histograms();
+            strip.accumulate(img, new Rectangle(area.x, area.y + startY, area.width, endY - startY));
+            synchronized (result) {
+                result.add(strip);
+            }
+        }, NULL_TRACKER);
+        return result;
+    }
+
+    /**
+     * Calculates the histograms of the given area on the current thread
+     */
+    public static Histograms calculateSerially(BufferedImage img, Rectangle area) {
+        Histograms result = new Histograms();
+        result.accumulate(img, area);
+        return result;
+    }
+
+    private void accumulate(BufferedImage img, Rectangle area) {
+        int type = img.getType();
+        WritableRaster raster = img.getRaster();
+        boolean packed = (type == TYPE_INT_ARGB || type == TYPE_INT_ARGB_PRE || type == TYPE_INT_RGB)
+                         && raster.getSampleModel() instanceof SinglePixelPackedSampleModel;
+        if (!packed) {
+            // getRGB converts any image type into non-premultiplied ARGB
+            int[] row = new int[area.width];
+            for (int y = area.y; y < area.y + area.height; y++) {
+                img.getRGB(area.x, y, area.width, 1, row, 0, area.width);
+                for (int argb : row) {
+                    addPixel(argb);
+                }
+            }
+            return;
+        }
+
+        // the packed pixels are read directly, also from sub-images
+        int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+        int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        int offsetX = -raster.getSampleModelTranslateX();
+        int offsetY = -raster.getSampleModelTranslateY();
+        for (int y = area.y; y < area.y + area.height; y++) {
+            int start = (y + offsetY) * stride + offsetX + area.x;
+            for (int i = start; i < start + area.width; i++) {
+                int pixel = data[i];
+                switch (type) {
+                    case TYPE_INT_RGB -> addPixel(pixel | 0xFF_00_00_00);
+                    case TYPE_INT_ARGB_PRE -> addPixel(ImageUtils.unPremultiply(pixel));
+                    default -> addPixel(pixel);
+                }
+            }
+        }
+    }
+
+    private void addPixel(int argb) {
+        if ((argb >>> 24) == 0) {
+            return;
+        }
+        int r = (argb >>> 16) & 0xFF;
+        int g = (argb >>> 8) & 0xFF;
+        int b = argb & 0xFF;
+        int lum = Math.min(255, (int) (LuminanceLookup.from(r, g, b) + 0.5f));
+
+        bins[Channel.RGB.ordinal()][lum]++;
+        bins[Channel.RED.ordinal()][r]++;
+        bins[Channel.GREEN.ordinal()][g]++;
+        bins[Channel.BLUE.ordinal()][b]++;
+        numPixels++;
+    }
+
+    /**
+     * Adds the counts of the given histograms to these histograms
+     */
+    public void add(Histograms other) {
+        for (int ch = 0; ch < bins.length; ch++) {
+            int[] these = bins[ch];
+            int[] others = other.bins[ch];
+            for (int i = 0; i < NUM_BINS; i++) {
+                these[i] += others[i];
+            }
+        }
+        numPixels += other.numPixels;
+    }
+
+    /**
+     * Returns a copy of the counts in the given channel
+     */
+    public int[] get(Channel channel) {
+        return bins[channel.ordinal()].clone();
+    }
+
+    /**
+     * Returns the number of the (not fully transparent) pixels
+     */
+    public long getNumPixels() {
+        return numPixels;
+    }
+
+    /**
+     * Returns the smallest value in the given channel, or -1 if there are no pixels
+     */
+    public int getMin(Channel channel) {
+        int[] counts = bins[channel.ordinal()];
+        for (int i = 0; i < NUM_BINS; i++) {
+            if (counts[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the largest value in the given channel, or -1 if there are no pixels
+     */
+    public int getMax(Channel channel) {
+        int[] counts = bins[channel.ordinal()];
+        for (int i = NUM_BINS - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public double getMean(Channel channel) {
+        if (numPixels == 0) {
+            return 0;
+        }
+        int[] counts = bins[channel.ordinal()];
+        long sum = 0;
+        for (int i = 0; i < NUM_BINS; i++) {
+            sum += (long) i * counts[i];
+        }
+        return sum / (double) numPixels;
+    }
+
+    /**
+     * Returns the number of pixels with the value 0 in the given channel
+     */
+    public int getClippedDark(Channel channel) {
+        return bins[channel.ordinal()][0];
+    }
+
+    /**
+     * Returns the number of pixels with the value 255 in the given channel
+     */
+    public int getClippedLight(Channel channel) {
+        return bins[channel.ordinal()][NUM_BINS - 1];
+    }
+
+    /**
+     * Returns the smallest value in the given channel for which
+     * at least the given fraction of the pixels is not larger,
+     * or -1 if there are no pixels.
+     */
+    public int getPercentile(Channel channel, double fraction) {
+        if (numPixels == 0) {
+            return -1;
+        }
+        int[] counts = bins[channel.ordinal()];
+        double limit = fraction * numPixels;
+        long cumulative = 0;
+        for (int i = 0; i < NUM_BINS; i++) {
+            cumulative += counts[i];
+            if (cumulative > 0 && cumulative >= limit) {
+                return i;
+            }
+        }
+        return NUM_BINS - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "Histograms{numPixels=" + numPixels + ", mean luminance=" + getMean(Channel.RGB) + '}';
+    }
+}
@@ -64,11 +64,15 @@ public class ImageUtils {
     public static final double DEG_315_IN_RADIANS = Math.PI / 4;
     private static final Color CHECKERBOARD_GRAY = new Color(200, 200, 200);
 
-    private static final GraphicsConfiguration graphicsConfig = GraphicsEnvironment
-        .getLocalGraphicsEnvironment()
+    // null in headless mode (batch processing from the command line)
+    private static final GraphicsConfiguration graphicsConfig = GraphicsEnvironment.isHeadless()
+        ? null
+        : GraphicsEnvironment.getLocalGraphicsEnvironment()
         .getDefaultScreenDevice()
         .getDefaultConfiguration();
-    private static final ColorModel defaultColorModel = graphicsConfig.getColorModel();
+    private static final ColorModel defaultColorModel = graphicsConfig != null
+        ? graphicsConfig.getColorModel()
+        : ColorModel.getRGBdefault();
 
     private ImageUtils() {
     }
@@ -89,8 +93,8 @@ public class ImageUtils {
             }
         }
 
-        BufferedImage output = graphicsConfig.createCompatibleImage(
-            input.getWidth(), input.getHeight(), TRANSLUCENT);
+        BufferedImage output = createSysCompatibleImage(
+            input.getWidth(), input.getHeight());
         Graphics2D g = output.createGraphics();
         g.drawImage(input, 0, 0, null);
         g.dispose();
@@ -105,6 +109,9 @@ public class ImageUtils {
     public static BufferedImage createSysCompatibleImage(int width, int height) {
         assert width > 0 && height > 0;
 
+        if (graphicsConfig == null) {
+            return new BufferedImage(width, height, TYPE_INT_ARGB);
+        }
         return graphicsConfig.createCompatibleImage(width, height, TRANSLUCENT);
     }
 
@@ -146,6 +153,26 @@ public class ImageUtils {
                 VALUE_INTERPOLATION_BICUBIC, progressiveBilinear), onPool);
     }
 
+    /**
+     * Resizes the given image so that the proportions are kept
+     * and the result fits into the given dimensions
+     */
+    public static BufferedImage resizeInBox(BufferedImage img, int maxWidth, int maxHeight) {
+        double scale = Math.min(
+            maxWidth / (double) img.getWidth(),
+            maxHeight / (double) img.getHeight());
+        int targetWidth = Math.max(1, (int) (scale * img.getWidth()));
+        int targetHeight = Math.max(1, (int) (scale * img.getHeight()));
+        if (targetWidth == img.getWidth() && targetHeight == img.getHeight()) {
+            return img;
+        }
+
+        boolean progressiveBilinear = targetWidth < img.getWidth() / 2
+                                      || targetHeight < img.getHeight() / 2;
+        return getFasterScaledInstance(img, targetWidth, targetHeight,
+            VALUE_INTERPOLATION_BICUBIC, progressiveBilinear);
+    }
+
     // From the Filthy Rich Clients book
 
     /**
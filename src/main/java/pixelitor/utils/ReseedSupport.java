@@ -31,23 +31,23 @@ import static pixelitor.filters.gui.ReseedActions.reseedByCalling;
  * here, and the actions reseed it.
  */
 public class ReseedSupport {
-    private static long seed = System.nanoTime();
-    private static final Random rand = new Random();
-    private static OpenSimplex2F simplex;
+    // volatile, because the filters can also run on other threads
+    private static volatile long seed = System.nanoTime();
+    private static volatile OpenSimplex2F simplex;
 
     private ReseedSupport() {
     }
 
     /**
-     * Returns the random number generator reseeded to the last value
+     * Returns a new random number generator seeded with the last value
      * in order to make sure that the filter runs with the same random
      * numbers as before (when the filter execution is not started from
-     * the "reseed" button).
+     * the "reseed" button). A new instance is returned for each call,
+     * because several copies of a filter can run at the same time.
      * This must be called at the beginning of the filter.
      */
     public static Random getLastSeedRandom() {
-        rand.setSeed(seed);
-        return rand;
+        return new Random(seed);
     }
 
     public static SplittableRandom getLastSeedSRandom() {
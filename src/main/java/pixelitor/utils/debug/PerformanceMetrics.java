@@ -0,0 +1,489 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils.debug;
+
+import pixelitor.ThreadPool;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects timing statistics about the filters and about the other
+ * expensive phases of the editing, so that it can be seen where the
+ * time goes on real documents. The statistics can be viewed in the
+ * {@link PerformanceMetricsPanel}, and exported as CSV or JSON.
+ *
+ * The measurements started on the pool threads (for example the tiles
+ * of the parallel compositing) record the allocations and the CPU time
+ * of their own thread. The other measurements record the allocations
+ * and the CPU time of the whole process, including the pool threads
+ * they are waiting for, so the overlapping measurements share them.
+ *
+ * The metrics are collected only when they are enabled (by the panel or
+ * in development mode), otherwise the measurements do nothing, and the
+ * JVM-wide allocation and CPU time measuring is not switched on either.
+ *
+ * All methods are thread-safe.
+ */
+public final class PerformanceMetrics {
+    public enum Phase {
+        TRANSFORM("transform"),
+        COMPOSITING("compositing"),
+        HISTORY_BACKUP("history backup"),
+        THUMBNAIL_UPDATE("thumbnail update");
+
+        private final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    // the upper limits of the duration histogram buckets are 1, 2, 4, ... ms,
+    // and the last bucket contains everything above its lower limit
+    public static final int NUM_BUCKETS = 16;
+
+    private static final Map<String, Stats> statsByKey = new ConcurrentHashMap<>();
+
+    private static volatile boolean enabled;
+
+    // initialized when the metrics are first enabled,
+    // null if the JVM can't measure the allocations or the CPU time
+    private static volatile com.sun.management.ThreadMXBean threadBean;
+    private static volatile com.sun.management.OperatingSystemMXBean osBean;
+    private static boolean beansInitialized;
+
+    private PerformanceMetrics() {
+        // shouldn't be instantiated
+    }
+
+    /**
+     * Starts measuring an operation of the given phase. The returned
+     * measurement must be finished on the same thread. If the metrics
+     * are not enabled, the returned measurement does nothing.
+     */
+    public static Measurement start(Phase phase, String name) {
+        if (!enabled) {
+            return Measurement.DISABLED;
+        }
+        return new Measurement(phase, name, ThreadPool.isPoolThread());
+    }
+
+    public static void setEnabled(boolean enabled) {
+        if (enabled) {
+            initBeans();
+        }
+        PerformanceMetrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns a snapshot of the statistics, sorted by phase and name.
+     */
+    public static List<Stats> getStats() {
+        List<Stats> list = new ArrayList<>();
+        for (Stats stats : statsByKey.values()) {
+            list.add(stats.copy());
+        }
+        list.sort(Comparator.comparing((Stats s) -> s.phase).thenComparing(s -> s.name));
+        return list;
+    }
+
+    public static void reset() {
+        statsByKey.clear();
+    }
+
+    static void record(Phase phase, String name, long nanos, long pixels,
+                       long allocatedBytes, long cpuNanos, long cpuCapacityNanos) {
+        Stats stats = statsByKey.computeIfAbsent(phase + "/" + name,
+            key -> new Stats(phase, name));
+        stats.add(nanos, pixels, allocatedBytes, cpuNanos, cpuCapacityNanos);
+    }
+
+    /**
+     * Returns the statistics as CSV, with one line per phase and name.
+     */
+    public static String toCSV(List<Stats> list) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("phase,name,count,total ms,mean ms,min ms,max ms," +
+                  "megapixels,megapixels/s,allocated MB,CPU utilization");
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            sb.append(",").append(bucketName(i));
+        }
+        sb.append("\n");
+
+        for (Stats s : list) {
+            sb.append(csvField(s.phase.toString())).append(',')
+                .append(csvField(s.name)).append(',')
+                .append(s.count).append(',')
+                .append(formatMillis(s.totalNanos)).append(',')
+                .append(formatDouble(s.getMeanMillis())).append(',')
+                .append(formatMillis(s.minNanos)).append(',')
+                .append(formatMillis(s.maxNanos)).append(',')
+                .append(formatDouble(s.pixels / 1.0e6)).append(',')
+                .append(formatDouble(s.getMegapixelsPerSecond())).append(',')
+                .append(formatDouble(s.getAllocatedMegabytes())).append(',')
+                .append(formatDouble(s.getCpuUtilization()));
+            for (long bucket : s.histogram) {
+                sb.append(',').append(bucket);
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the statistics as a JSON array, with one object per phase and name.
+     */
+    public static String toJSON(List<Stats> list) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < list.size(); i++) {
+            Stats s = list.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("  {\"phase\": ").append(jsonString(s.phase.toString()))
+                .append(", \"name\": ").append(jsonString(s.name))
+                .append(", \"count\": ").append(s.count)
+                .append(", \"totalMs\": ").append(jsonMillis(s.totalNanos))
+                .append(", \"meanMs\": ").append(jsonNumber(s.getMeanMillis()))
+                .append(", \"minMs\": ").append(jsonMillis(s.minNanos))
+                .append(", \"maxMs\": ").append(jsonMillis(s.maxNanos))
+                .append(", \"megapixels\": ").append(jsonNumber(s.pixels / 1.0e6))
+                .append(", \"megapixelsPerSecond\": ").append(jsonNumber(s.getMegapixelsPerSecond()))
+                .append(", \"allocatedMB\": ").append(jsonNumber(s.getAllocatedMegabytes()))
+                .append(", \"cpuUtilization\": ").append(jsonNumber(s.getCpuUtilization()))
+                .append(", \"histogram\": {");
+            for (int b = 0; b < NUM_BUCKETS; b++) {
+                if (b > 0) {
+                    sb.append(", ");
+                }
+                sb.append(jsonString(bucketName(b))).append(": ").append(s.histogram[b]);
+            }
+            sb.append("}}");
+        }
+        sb.append(list.isEmpty() ? "]\n" : "\n]\n");
+        return sb.toString();
+    }
+
+    /**
+     * Returns the name of the given duration histogram bucket
+     */
+    public static String bucketName(int bucket) {
+        if (bucket == 0) {
+            return "< 1 ms";
+        }
+        long from = 1L << (bucket - 1);
+        if (bucket == NUM_BUCKETS - 1) {
+            return ">= " + from + " ms";
+        }
+        return from + "-" + (from << 1) + " ms";
+    }
+
+    static int bucketOf(long nanos) {
+        long millis = nanos / 1_000_000;
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        return Math.min(bucket, NUM_BUCKETS - 1);
+    }
+
+    private static String formatMillis(double nanos) {
+        return formatDouble(nanos / 1.0e6);
+    }
+
+    private static String formatDouble(double d) {
+        if (Double.isNaN(d)) {
+            return "";
+        }
+        return String.format(Locale.US, "%.3f", d);
+    }
+
+    private static String jsonMillis(double nanos) {
+        return jsonNumber(nanos / 1.0e6);
+    }
+
+    // JSON has no NaN, so the missing values are null
+    private static String jsonNumber(double d) {
+        if (Double.isNaN(d)) {
+            return "null";
+        }
+        return formatDouble(d);
+    }
+
+    private static String csvField(String s) {
+        if (s.contains(",") || s.contains("\"") || s.contains("\n")) {
+            return '"' + s.replace("\"", "\"\"") + '"';
+        }
+        return s;
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static synchronized void initBeans() {
+        if (!beansInitialized) {
+            threadBean = initThreadBean();
+            osBean = initOSBean();
+            beansInitialized = true;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean initThreadBean() {
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported() && bean.isThreadCpuTimeSupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                bean.setThreadCpuTimeEnabled(true);
+                return bean;
+            }
+        } catch (UnsupportedOperationException | SecurityException e) {
+            // the allocations and the CPU time won't be measured
+        }
+        return null;
+    }
+
+    private static com.sun.management.OperatingSystemMXBean initOSBean() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean bean) {
+            return bean;
+        }
+        return null;
+    }
+
+    /**
+     * A measurement in progress
+     */
+    public static final class Measurement {
+        // returned when the metrics are not enabled
+        private static final Measurement DISABLED = new Measurement();
+
+        private final Phase phase;
+        private final String name;
+        private final boolean threadOnly;
+        private final long startNanos;
+        private final long startAllocated;
+        private final long startCpu;
+
+        private Measurement(Phase phase, String name, boolean threadOnly) {
+            this.phase = phase;
+            this.name = name;
+            this.threadOnly = threadOnly;
+            startAllocated = allocatedBytes();
+            startCpu = cpuNanos();
+            // started last, so that the measuring itself is not included
+            startNanos = System.nanoTime();
+        }
+
+        private Measurement() {
+            phase = null;
+            name = null;
+            threadOnly = false;
+            startNanos = 0;
+            startAllocated = -1;
+            startCpu = -1;
+        }
+
+        /**
+         * Finishes the measurement of an operation that processed the given number of pixels.
+         */
+        public void finish(long pixels) {
+            if (this == DISABLED) {
+                return;
+            }
+            long nanos = System.nanoTime() - startNanos;
+
+            long allocated = -1;
+            long endAllocated = allocatedBytes();
+            if (startAllocated >= 0 && endAllocated >= 0) {
+                allocated = Math.max(0, endAllocated - startAllocated);
+            }
+
+            long cpu = -1;
+            long endCpu = cpuNanos();
+            if (startCpu >= 0 && endCpu >= 0) {
+                cpu = endCpu - startCpu;
+            }
+            int numThreads = threadOnly ? 1 : ThreadPool.getNumCores();
+
+            record(phase, name, nanos, pixels, allocated, cpu, nanos * numThreads);
+        }
+
+        private long allocatedBytes() {
+            var threadBean = PerformanceMetrics.threadBean;
+            if (threadBean == null) {
+                return -1;
+            }
+            if (threadOnly) {
+                return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            long sum = 0;
+            for (long bytes : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+                if (bytes > 0) {
+                    sum += bytes;
+                }
+            }
+            return sum;
+        }
+
+        private long cpuNanos() {
+            var threadBean = PerformanceMetrics.threadBean;
+            var osBean = PerformanceMetrics.osBean;
+            if (threadOnly) {
+                return threadBean == null ? -1 : threadBean.getCurrentThreadCpuTime();
+            }
+            return osBean == null ? -1 : osBean.getProcessCpuTime();
+        }
+    }
+
+    /**
+     * The accumulated statistics of the operations with the same phase and name
+     */
+    public static final class Stats {
+        private final Phase phase;
+        private final String name;
+        private long count;
+        private long totalNanos;
+        private long minNanos = Long.MAX_VALUE;
+        private long maxNanos;
+        private long pixels;
+
+        // only the measurements where they were available
+        private long allocatedBytes;
+        private long cpuNanos;
+        private long cpuCapacityNanos;
+
+        private final long[] histogram = new long[NUM_BUCKETS];
+
+        private Stats(Phase phase, String name) {
+            this.phase = phase;
+            this.name = name;
+        }
+
+        private synchronized void add(long nanos, long pixels, long allocatedBytes,
+                                      long cpuNanos, long cpuCapacityNanos) {
+            count++;
+            totalNanos += nanos;
+            minNanos = Math.min(minNanos, nanos);
+            maxNanos = Math.max(maxNanos, nanos);
+            this.pixels += pixels;
+            if (allocatedBytes >= 0) {
+                this.allocatedBytes += allocatedBytes;
+            }
+            if (cpuNanos >= 0) {
+                this.cpuNanos += cpuNanos;
+                this.cpuCapacityNanos += cpuCapacityNanos;
+            }
+            histogram[bucketOf(nanos)]++;
+        }
+
+        private synchronized Stats copy() {
+            Stats copy = new Stats(phase, name);
+            copy.count = count;
+            copy.totalNanos = totalNanos;
+            copy.minNanos = minNanos;
+            copy.maxNanos = maxNanos;
+            copy.pixels = pixels;
+            copy.allocatedBytes = allocatedBytes;
+            copy.cpuNanos = cpuNanos;
+            copy.cpuCapacityNanos = cpuCapacityNanos;
+            System.arraycopy(histogram, 0, copy.histogram, 0, NUM_BUCKETS);
+            return copy;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getTotalMillis() {
+            return totalNanos / 1.0e6;
+        }
+
+        public double getMeanMillis() {
+            return count == 0 ? Double.NaN : totalNanos / 1.0e6 / count;
+        }
+
+        public double getMinMillis() {
+            return minNanos / 1.0e6;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos / 1.0e6;
+        }
+
+        public double getMegapixelsPerSecond() {
+            if (pixels == 0 || totalNanos == 0) {
+                return Double.NaN;
+            }
+            return pixels / 1.0e6 / (totalNanos / 1.0e9);
+        }
+
+        public double getAllocatedMegabytes() {
+            return allocatedBytes / (1024.0 * 1024.0);
+        }
+
+        /**
+         * Returns the used fraction of the available CPU time
+         * (the wall time multiplied by the number of cores for
+         * the measurements that can wait for the pool threads)
+         */
+        public double getCpuUtilization() {
+            if (cpuCapacityNanos == 0) {
+                return Double.NaN;
+            }
+            return cpuNanos / (double) cpuCapacityNanos;
+        }
+
+        public long getBucket(int index) {
+            return histogram[index];
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils.debug;
+
+import pixelitor.gui.utils.DialogBuilder;
+import pixelitor.utils.Messages;
+import pixelitor.utils.debug.PerformanceMetrics.Stats;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.awt.BorderLayout.CENTER;
+import static java.awt.BorderLayout.SOUTH;
+import static pixelitor.gui.GUIText.CLOSE_DIALOG;
+import static pixelitor.utils.debug.PerformanceMetrics.NUM_BUCKETS;
+
+/**
+ * Shows the statistics collected by {@link PerformanceMetrics} in a table
+ */
+public class PerformanceMetricsPanel extends JPanel {
+    private final MetricsTableModel model = new MetricsTableModel();
+
+    private PerformanceMetricsPanel() {
+        super(new BorderLayout());
+
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane.setPreferredSize(new Dimension(900, 400));
+        add(scrollPane, CENTER);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JCheckBox collectCB = new JCheckBox("Collect", PerformanceMetrics.isEnabled());
+        collectCB.addActionListener(e -> PerformanceMetrics.setEnabled(collectCB.isSelected()));
+        buttons.add(collectCB);
+        buttons.add(createButton("Refresh", model::refresh));
+        buttons.add(createButton("Reset", () -> {
+            PerformanceMetrics.reset();
+            model.refresh();
+        }));
+        buttons.add(createButton("Export CSV...",
+            () -> export("csv", PerformanceMetrics::toCSV)));
+        buttons.add(createButton("Export JSON...",
+            () -> export("json", PerformanceMetrics::toJSON)));
+        add(buttons, SOUTH);
+    }
+
+    public static void showInDialog() {
+        // the metrics are collected from the first opening of the panel
+        PerformanceMetrics.setEnabled(true);
+
+        new DialogBuilder()
+            .title("Performance Metrics")
+            .content(new PerformanceMetricsPanel())
+            .notModal()
+            .okText(CLOSE_DIALOG)
+            .noCancelButton()
+            .show();
+    }
+
+    private static JButton createButton(String text, Runnable action) {
+        JButton button = new JButton(text);
+        button.addActionListener(e -> action.run());
+        return button;
+    }
+
+    private void export(String extension, Function<List<Stats>, String> format) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("performance_metrics." + extension));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        try {
+            Files.writeString(file.toPath(),
+                format.apply(PerformanceMetrics.getStats()), StandardCharsets.UTF_8);
+            Messages.showInStatusBar("Performance metrics saved to <b>" + file.getName() + "</b>.");
+        } catch (IOException e) {
+            Messages.showException(e);
+        }
+    }
+
+    private static class MetricsTableModel extends AbstractTableModel {
+        private static final String[] FIXED_COLUMNS = {
+            "Phase", "Name", "Count", "Total ms", "Mean ms", "Min ms", "Max ms",
+            "MPixels/s", "Allocated MB", "CPU utilization"
+        };
+        private List<Stats> rows = PerformanceMetrics.getStats();
+
+        void refresh() {
+            rows = PerformanceMetrics.getStats();
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return FIXED_COLUMNS.length + NUM_BUCKETS;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            if (column < FIXED_COLUMNS.length) {
+                return FIXED_COLUMNS[column];
+            }
+            return PerformanceMetrics.bucketName(column - FIXED_COLUMNS.length);
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return switch (column) {
+                case 0, 1 -> String.class;
+                case 2 -> Long.class;
+                default -> column < FIXED_COLUMNS.length ? Double.class : Long.class;
+            };
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Stats s = rows.get(row);
+            return switch (column) {
+                case 0 -> s.getPhase().toString();
+                case 1 -> s.getName();
+                case 2 -> s.getCount();
+                case 3 -> s.getTotalMillis();
+                case 4 -> s.getMeanMillis();
+                case 5 -> s.getMinMillis();
+                case 6 -> s.getMaxMillis();
+                case 7 -> s.getMegapixelsPerSecond();
+                case 8 -> s.getAllocatedMegabytes();
+                case 9 -> s.getCpuUtilization();
+                default -> s.getBucket(column - FIXED_COLUMNS.length);
+            };
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.composite;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("RGBComposite tests")
+class RGBCompositeTest {
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 11;
+
+    private static final float[] OPACITIES = {1.0f, 0.6f};
+
+    @Test
+    void packedAndSampleRastersGiveTheSameResult() {
+        BufferedImage src = createImage(1, TYPE_INT_ARGB);
+        for (int rule = MiscComposite.ADD; rule <= MiscComposite.AVERAGE; rule++) {
+            for (float opacity : OPACITIES) {
+                Composite composite = MiscComposite.getInstance(rule, opacity);
+
+                // the 4 byte image is composed through the generic raster methods
+                int[] packed = compose(composite, src, TYPE_INT_ARGB);
+                int[] generic = compose(composite, src, TYPE_4BYTE_ABGR);
+
+                assertThat(packed).isEqualTo(generic);
+            }
+        }
+    }
+
+    @Test
+    void transparentSourceChangesNothing() {
+        BufferedImage src = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        int[] orig = createImage(2, TYPE_INT_ARGB).getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        for (int rule = MiscComposite.ADD; rule <= MiscComposite.AVERAGE; rule++) {
+            assertThat(compose(MiscComposite.getInstance(rule, 1.0f), src, TYPE_INT_ARGB))
+                .isEqualTo(orig);
+        }
+    }
+
+    @Test
+    void premultipliedDestination() {
+        BufferedImage src = createImage(1, TYPE_INT_ARGB);
+        for (float opacity : OPACITIES) {
+            Composite composite = new MultiplyComposite(opacity);
+
+            int[] straight = compose(composite, src, TYPE_INT_ARGB);
+            int[] premultiplied = compose(composite, src, TYPE_INT_ARGB_PRE);
+
+            for (int i = 0; i < straight.length; i++) {
+                assertThat(premultiplied[i] >>> 24).isEqualTo(straight[i] >>> 24);
+                if (i % WIDTH % 3 == 0) {
+                    // the opaque destination colors were stored without rounding
+                    assertThat(premultiplied[i]).isEqualTo(straight[i]);
+                }
+            }
+        }
+    }
+
+    // draws the source with the given composite on the
+    // (otherwise identical) destination of the given type
+    private static int[] compose(Composite composite, BufferedImage src, int dstType) {
+        BufferedImage dst = createImage(2, dstType);
+        Graphics2D g = dst.createGraphics();
+        g.setComposite(composite);
+        g.drawImage(src, 0, 0, null);
+        g.dispose();
+        return dst.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    // random colors, with opaque, transparent and semi-transparent pixels
+    private static BufferedImage createImage(long seed, int type) {
+        Random random = new Random(seed);
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, type);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int alpha = switch (x % 3) {
+                    case 0 -> 255;
+                    case 1 -> 0;
+                    default -> random.nextInt(256);
+                };
+                img.setRGB(x, y, alpha << 24 | random.nextInt(0x1_00_00_00));
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.Kernel;
+import java.util.Random;
+
+import static com.jhlabs.image.ConvolveFilter.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+@DisplayName("Convolution tests")
+class ConvolutionTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 140;
+    private static final int[] EDGE_ACTIONS = {ZERO_EDGES, CLAMP_EDGES, WRAP_EDGES};
+
+    private final Random random = new Random(7);
+
+    @Test
+    void smallKernel() {
+        Kernel kernel = createRandomKernel(3, 3);
+        assertThat(new Convolution(kernel).isSeparable()).isFalse();
+        assertThat(new Convolution(kernel).usesFFT()).isFalse();
+
+        checkAgainstReference(kernel);
+    }
+
+    @Test
+    void separableKernel() {
+        float[] rowFactors = GaussianFilter.makeKernel(3).getKernelData(null);
+        float[] colFactors = {0.1f, -0.2f, 0.5f, 0.3f, 0.1f, 0.2f, 0.0f, 0.1f, -0.1f, 0.0f, 0.1f};
+        float[] matrix = new float[rowFactors.length * colFactors.length];
+        for (int row = 0; row < colFactors.length; row++) {
+            for (int col = 0; col < rowFactors.length; col++) {
+                matrix[row * rowFactors.length + col] = rowFactors[col] * colFactors[row];
+            }
+        }
+        Kernel kernel = new Kernel(rowFactors.length, colFactors.length, matrix);
+        assertThat(new Convolution(kernel).isSeparable()).isTrue();
+
+        checkAgainstReference(kernel);
+    }
+
+    @Test
+    void largeKernel() {
+        Kernel kernel = createRandomKernel(15, 13);
+        assertThat(new Convolution(kernel).isSeparable()).isFalse();
+        assertThat(new Convolution(kernel).usesFFT()).isTrue();
+
+        checkAgainstReference(kernel);
+    }
+
+    @Test
+    void alphaAndInputLookup() {
+        Kernel kernel = createRandomKernel(21, 21);
+        int[] in = createPixels();
+        float[] lookup = new float[256];
+        for (int i = 0; i < 256; i++) {
+            lookup[i] = i > 200 ? i * 2 : i;
+        }
+
+        var convolution = new Convolution(kernel);
+        convolution.setUseAlpha(true);
+        convolution.setInputLookup(lookup);
+        int[] out = new int[in.length];
+        convolution.convolve(in, out, WIDTH, HEIGHT, NULL_TRACKER);
+
+        int[] expected = convolveSlowly(kernel, in, CLAMP_EDGES, true, lookup);
+        assertSimilar(out, expected);
+    }
+
+    private void checkAgainstReference(Kernel kernel) {
+        int[] in = createPixels();
+        for (int edgeAction : EDGE_ACTIONS) {
+            var convolution = new Convolution(kernel);
+            convolution.setEdgeAction(edgeAction);
+            int[] out = new int[in.length];
+            convolution.convolve(in, out, WIDTH, HEIGHT, NULL_TRACKER);
+
+            assertSimilar(out, convolveSlowly(kernel, in, edgeAction, false, null));
+        }
+    }
+
+    private static int[] convolveSlowly(Kernel kernel, int[] in, int edgeAction,
+                                        boolean alpha, float[] lookup) {
+        float[] matrix = kernel.getKernelData(null);
+        int cols = kernel.getWidth();
+        int rows = kernel.getHeight();
+        int[] out = new int[in.length];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double[] sums = new double[4];
+                for (int row = 0; row < rows; row++) {
+                    for (int col = 0; col < cols; col++) {
+                        int ix = x + col - cols / 2;
+                        int iy = y + row - rows / 2;
+                        if (edgeAction == ZERO_EDGES && (ix < 0 || ix >= WIDTH || iy < 0 || iy >= HEIGHT)) {
+                            continue;
+                        }
+                        if (edgeAction == CLAMP_EDGES) {
+                            ix = Math.max(0, Math.min(WIDTH - 1, ix));
+                            iy = Math.max(0, Math.min(HEIGHT - 1, iy));
+                        } else {
+                            ix = Math.floorMod(ix, WIDTH);
+                            iy = Math.floorMod(iy, HEIGHT);
+                        }
+                        int rgb = in[iy * WIDTH + ix];
+                        for (int ch = 0; ch < 4; ch++) {
+                            int v = (rgb >>> (24 - 8 * ch)) & 0xFF;
+                            double value = ch > 0 && lookup != null ? lookup[v] : v;
+                            sums[ch] += matrix[row * cols + col] * value;
+                        }
+                    }
+                }
+                int argb = alpha ? clamp(sums[0]) << 24 : in[y * WIDTH + x] & 0xFF_00_00_00;
+                for (int ch = 1; ch < 4; ch++) {
+                    argb |= clamp(sums[ch]) << (24 - 8 * ch);
+                }
+                out[y * WIDTH + x] = argb;
+            }
+        }
+        return out;
+    }
+
+    private static int clamp(double v) {
+        return PixelUtils.clamp((int) (v + 0.5));
+    }
+
+    // allows rounding differences
+    private static void assertSimilar(int[] actual, int[] expected) {
+        for (int i = 0; i < actual.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int diff = ((actual[i] >>> shift) & 0xFF) - ((expected[i] >>> shift) & 0xFF);
+                assertThat(Math.abs(diff)).isLessThanOrEqualTo(1);
+            }
+        }
+    }
+
+    private Kernel createRandomKernel(int cols, int rows) {
+        float[] matrix = new float[cols * rows];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = (random.nextFloat() - 0.3f) * 2.0f / matrix.length;
+        }
+        return new Kernel(cols, rows, matrix);
+    }
+
+    private int[] createPixels() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
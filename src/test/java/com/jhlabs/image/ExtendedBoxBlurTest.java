@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+@DisplayName("ExtendedBoxBlur tests")
+class ExtendedBoxBlurTest {
+    // the edge pixels are repeated in each pass, so
+    // the results are compared only away from the edges
+    private static final int MAX_DIFFERENCE = 5;
+
+    @Test
+    void closeToTheExactGaussian() {
+        BufferedImage src = createImage(150, 110, 1);
+
+        for (float radius : new float[]{1.5f, 5, 12, 40}) {
+            int[] exact = blur(src, radius, false);
+            int[] approx = blur(src, radius, true);
+
+            int margin = (int) Math.ceil(radius);
+            assertThat(maxDifference(exact, approx, 150, 110, margin, margin))
+                .isLessThanOrEqualTo(MAX_DIFFERENCE);
+        }
+    }
+
+    @Test
+    void uniformImageIsNotChanged() {
+        BufferedImage src = new BufferedImage(70, 30, TYPE_INT_ARGB);
+        int color = 0xFF_40_80_C0;
+        int[] pixels = new int[70 * 30];
+        Arrays.fill(pixels, color);
+        src.setRGB(0, 0, 70, 30, pixels, 0, 70);
+
+        for (int pixel : blur(src, 25, true)) {
+            assertThat(pixel).isEqualTo(color);
+        }
+    }
+
+    @Test
+    void singlePixelWideImages() {
+        BufferedImage column = createImage(1, 50, 2);
+        BufferedImage row = createImage(50, 1, 2);
+
+        int[] columnResult = blur(column, 10, true);
+        int[] rowResult = blur(row, 10, true);
+
+        assertThat(columnResult.length).isEqualTo(50);
+        assertThat(maxDifference(columnResult, blur(column, 10, false), 1, 50, 0, 10))
+            .isLessThanOrEqualTo(MAX_DIFFERENCE);
+        assertThat(maxDifference(rowResult, blur(row, 10, false), 50, 1, 10, 0))
+            .isLessThanOrEqualTo(MAX_DIFFERENCE);
+    }
+
+    @Test
+    void keepsTheAlphaIfNotBlurred() {
+        BufferedImage src = createImage(40, 40, 3);
+        var filter = new GaussianFilter(8, "test");
+        filter.setProgressTracker(NULL_TRACKER);
+        filter.setUseBoxApproximation(true);
+        filter.setUseAlpha(false);
+        filter.setPremultiplyAlpha(false);
+
+        int[] in = src.getRGB(0, 0, 40, 40, null, 0, 40);
+        int[] out = filter.filter(src, null).getRGB(0, 0, 40, 40, null, 0, 40);
+
+        for (int i = 0; i < in.length; i++) {
+            assertThat(out[i] >>> 24).isEqualTo(in[i] >>> 24);
+        }
+    }
+
+    private static int[] blur(BufferedImage src, float radius, boolean approximate) {
+        var filter = new GaussianFilter(radius, "test");
+        filter.setProgressTracker(NULL_TRACKER);
+        filter.setUseBoxApproximation(approximate);
+        BufferedImage dst = filter.filter(src, null);
+        return dst.getRGB(0, 0, dst.getWidth(), dst.getHeight(), null, 0, dst.getWidth());
+    }
+
+    private static int maxDifference(int[] pixels1, int[] pixels2, int width, int height,
+                                     int marginX, int marginY) {
+        int max = 0;
+        for (int y = marginY; y < height - marginY; y++) {
+            for (int x = marginX; x < width - marginX; x++) {
+                int i = y * width + x;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int c1 = (pixels1[i] >>> shift) & 0xFF;
+                    int c2 = (pixels2[i] >>> shift) & 0xFF;
+                    max = Math.max(max, Math.abs(c1 - c2));
+                }
+            }
+        }
+        return max;
+    }
+
+    // smooth gradients with some noise and a varying alpha
+    private static BufferedImage createImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BufferedImage img = new BufferedImage(width, height, TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int a = 128 + (x * 127) / width;
+                int r = (x * 255) / width;
+                int g = (y * 255) / height;
+                int b = random.nextInt(256);
+                img.setRGB(x, y, a << 24 | r << 16 | g << 8 | b);
+            }
+        }
+        return img;
+    }
+}
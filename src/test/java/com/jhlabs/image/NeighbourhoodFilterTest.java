@@ -0,0 +1,224 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.ThreadPool;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+@DisplayName("NeighbourhoodFilter tests")
+class NeighbourhoodFilterTest {
+    // large enough for multiple tiles in both directions
+    private static final int WIDTH = 600;
+    private static final int HEIGHT = 150;
+
+    @Test
+    void medianMatchesSorting() {
+        BufferedImage src = createNoiseImage();
+        int[] in = getPixels(src);
+
+        for (int radius : new int[]{1, 4, 13}) {
+            var filter = new MedianFilter("Median");
+            filter.setProgressTracker(NULL_TRACKER);
+            filter.setRadius(radius);
+
+            int[] out = getPixels(filter.filter(src, null));
+
+            int[][] channels = new int[4][(2 * radius + 1) * (2 * radius + 1)];
+            for (int y = 0; y < HEIGHT; y += 7) {
+                for (int x = 0; x < WIDTH; x += 3) {
+                    int n = 0;
+                    for (int iy = Math.max(0, y - radius); iy <= Math.min(HEIGHT - 1, y + radius); iy++) {
+                        for (int ix = Math.max(0, x - radius); ix <= Math.min(WIDTH - 1, x + radius); ix++) {
+                            int rgb = in[iy * WIDTH + ix];
+                            for (int ch = 0; ch < 4; ch++) {
+                                channels[ch][n] = (rgb >>> (24 - 8 * ch)) & 0xFF;
+                            }
+                            n++;
+                        }
+                    }
+                    int expected = 0;
+                    for (int ch = 0; ch < 4; ch++) {
+                        Arrays.sort(channels[ch], 0, n);
+                        expected |= channels[ch][(n - 1) / 2] << (24 - 8 * ch);
+                    }
+                    assertThat(out[y * WIDTH + x]).isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    void medianRemovesIsolatedPixels() {
+        BufferedImage src = createUniformImage(0xFF_40_80_C0);
+        src.setRGB(300, 70, 0xFF_FF_FF_FF);
+        src.setRGB(0, 0, 0xFF_00_00_00);
+
+        var filter = new MedianFilter("Median");
+        filter.setProgressTracker(NULL_TRACKER);
+        int[] out = getPixels(filter.filter(src, null));
+
+        assertThat(Arrays.stream(out).allMatch(p -> p == 0xFF_40_80_C0)).isTrue();
+    }
+
+    @Test
+    void oilMatchesTheFullHistograms() {
+        BufferedImage src = createNoiseImage();
+        int[] in = getPixels(src);
+
+        var filter = new OilFilter("Oil");
+        filter.setProgressTracker(NULL_TRACKER);
+        filter.setRangeX(3);
+        filter.setRangeY(2);
+        filter.setLevels(20);
+        int[] out = getPixels(filter.filter(src, null));
+
+        int[] histogram = new int[20];
+        int[] rTotal = new int[20];
+        for (int y = 0; y < HEIGHT; y += 5) {
+            for (int x = 0; x < WIDTH; x += 3) {
+                Arrays.fill(histogram, 0);
+                Arrays.fill(rTotal, 0);
+                for (int iy = Math.max(0, y - 2); iy <= Math.min(HEIGHT - 1, y + 2); iy++) {
+                    for (int ix = Math.max(0, x - 3); ix <= Math.min(WIDTH - 1, x + 3); ix++) {
+                        int rgb = in[iy * WIDTH + ix];
+                        int r = (rgb >> 16) & 0xFF;
+                        int intensity = (r + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+                        int bin = intensity * 20 / 256;
+                        histogram[bin]++;
+                        rTotal[bin] += r;
+                    }
+                }
+                int maxIndex = 0;
+                for (int i = 1; i < 20; i++) {
+                    if (histogram[i] > histogram[maxIndex]) {
+                        maxIndex = i;
+                    }
+                }
+                int expectedRed = rTotal[maxIndex] / histogram[maxIndex];
+                assertThat((out[y * WIDTH + x] >> 16) & 0xFF).isEqualTo(expectedRed);
+            }
+        }
+    }
+
+    @Test
+    void smartBlurWithoutThresholdKeepsTheImage() {
+        BufferedImage src = createNoiseImage();
+
+        var filter = new SmartBlurFilter("Smart Blur");
+        filter.setProgressTracker(NULL_TRACKER);
+        filter.setRadius(20);
+        filter.setThreshold(0);
+        int[] out = getPixels(filter.filter(src, null));
+
+        assertThat(out).isEqualTo(getPixels(src));
+    }
+
+    @Test
+    void smartBlurKeepsUniformImages() {
+        BufferedImage src = createUniformImage(0xFF_40_80_C0);
+
+        var filter = new SmartBlurFilter("Smart Blur");
+        filter.setProgressTracker(NULL_TRACKER);
+        filter.setRadius(10);
+        filter.setThreshold(50);
+        int[] out = getPixels(filter.filter(src, null));
+
+        assertThat(out).isEqualTo(getPixels(src));
+    }
+
+    @Test
+    void reduceNoiseClampsExtremePixels() {
+        BufferedImage src = createUniformImage(0xFF_40_80_C0);
+        src.setRGB(256, 64, 0xFF_FF_00_00);
+
+        var filter = new ReduceNoiseFilter("Reduce Noise");
+        filter.setProgressTracker(NULL_TRACKER);
+        int[] out = getPixels(filter.filter(src, null));
+
+        assertThat(out[64 * WIDTH + 256]).isEqualTo(0xFF_40_80_C0);
+        assertThat(out[64 * WIDTH + 257]).isEqualTo(0xFF_40_80_C0);
+    }
+
+    @Test
+    void runsOnAllPoolThreadsAtOnce() throws Exception {
+        BufferedImage src = createNoiseImage();
+        int[] expected = getPixels(createMedian().filter(src, null));
+
+        // if the tiles were queued behind the callers, this would deadlock
+        List<Future<?>> futures = new ArrayList<>();
+        List<int[]> results = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < ThreadPool.getNumCores(); i++) {
+            futures.add(ThreadPool.submit(() ->
+                results.add(getPixels(createMedian().filter(src, null)))));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+
+        assertThat(results).hasSize(ThreadPool.getNumCores());
+        for (int[] result : results) {
+            assertThat(result).isEqualTo(expected);
+        }
+    }
+
+    private static MedianFilter createMedian() {
+        var filter = new MedianFilter("Median");
+        filter.setProgressTracker(NULL_TRACKER);
+        filter.setRadius(3);
+        return filter;
+    }
+
+    private static BufferedImage createNoiseImage() {
+        var img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        Random random = new Random(42);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    private static BufferedImage createUniformImage(int argb) {
+        var img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                img.setRGB(x, y, argb);
+            }
+        }
+        return img;
+    }
+
+    private static int[] getPixels(BufferedImage img) {
+        return img.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+}
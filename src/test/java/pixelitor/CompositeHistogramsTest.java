@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.filters.levels.Channel;
+import pixelitor.utils.Histograms;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("CompositeHistograms tests")
+class CompositeHistogramsTest {
+    // more than one tile in both directions
+    private static final int WIDTH = 601;
+    private static final int HEIGHT = 300;
+
+    @Test
+    void regionUpdateMatchesFullCalculation() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB_PRE);
+        fill(img, new Rectangle(0, 0, WIDTH, HEIGHT), Color.BLUE);
+        var histograms = new CompositeHistograms();
+        histograms.calculateNow(img);
+
+        Rectangle region = new Rectangle(250, 200, 30, 70);
+        fill(img, region, Color.RED);
+        histograms.invalidateRegion(region);
+
+        assertSameHistograms(histograms.calculateNow(img), Histograms.calculate(img));
+    }
+
+    @Test
+    void invalidatedImageIsFullyRecalculated() {
+        var histograms = new CompositeHistograms();
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB_PRE);
+        fill(img, new Rectangle(0, 0, WIDTH, HEIGHT), Color.BLUE);
+        histograms.calculateNow(img);
+
+        BufferedImage replacement = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB_PRE);
+        fill(replacement, new Rectangle(0, 0, 100, 100), Color.GREEN);
+        histograms.invalidate();
+
+        Histograms result = histograms.calculateNow(replacement);
+        assertThat(result.getNumPixels()).isEqualTo(100L * 100);
+        assertSameHistograms(result, Histograms.calculate(replacement));
+    }
+
+    @Test
+    void updatedCopyMatchesFullCalculation() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB_PRE);
+        fill(img, new Rectangle(0, 0, WIDTH, HEIGHT), Color.BLUE);
+        var histograms = new CompositeHistograms();
+        histograms.calculateNow(img);
+
+        // the received image is not changed, the update goes into a copy,
+        // which differs from it only in the invalidated region
+        BufferedImage copy = ImageUtils.copyImage(img);
+        Rectangle region = new Rectangle(10, 280, 600, 20);
+        histograms.invalidateRegion(region);
+        fill(copy, region, Color.RED);
+
+        assertSameHistograms(histograms.calculateNow(copy), Histograms.calculate(copy));
+    }
+
+    private static void assertSameHistograms(Histograms actual, Histograms expected) {
+        assertThat(actual.getNumPixels()).isEqualTo(expected.getNumPixels());
+        for (Channel channel : Channel.values()) {
+            assertThat(actual.get(channel)).isEqualTo(expected.get(channel));
+        }
+    }
+
+    private static void fill(BufferedImage img, Rectangle region, Color color) {
+        Graphics2D g = img.createGraphics();
+        g.setColor(color);
+        g.fill(region);
+        g.dispose();
+    }
+}
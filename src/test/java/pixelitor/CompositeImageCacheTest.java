@@ -0,0 +1,250 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.filters.Invert;
+import pixelitor.layers.BlendingMode;
+import pixelitor.layers.ImageLayer;
+import pixelitor.layers.Layer;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.layers.LayerMaskAddType.REVEAL_ALL;
+import static pixelitor.utils.ImageUtils.getPixelsAsArray;
+
+@DisplayName("CompositeImageCache tests")
+class CompositeImageCacheTest {
+    private Composition comp;
+    private CompositeImageCache cache;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        comp = TestHelper.createComp(3, false);
+        fill((ImageLayer) comp.getLayer(0), new Color(255, 0, 0, 200), comp.getCanvasBounds());
+        fill((ImageLayer) comp.getLayer(1), new Color(0, 255, 0, 100), new Rectangle(2, 2, 10, 5));
+        fill((ImageLayer) comp.getLayer(2), new Color(0, 0, 255, 50), new Rectangle(5, 0, 10, 10));
+        cache = new CompositeImageCache(comp);
+    }
+
+    @Test
+    void regionUpdateMatchesFullRecalculation() {
+        cache.get();
+
+        Rectangle region = new Rectangle(3, 3, 4, 4);
+        fill((ImageLayer) comp.getLayer(1), Color.YELLOW, region);
+        cache.invalidateRegion(comp.getLayer(1), region);
+
+        assertSameAsFullRecalculation(cache.get());
+    }
+
+    @Test
+    void returnedImageIsNotChangedByRegionUpdates() {
+        BufferedImage returned = cache.get();
+        int[] pixelsBefore = getPixelsAsArray(returned).clone();
+
+        Rectangle region = new Rectangle(3, 3, 4, 4);
+        fill((ImageLayer) comp.getLayer(2), Color.YELLOW, region);
+        cache.invalidateRegion(comp.getLayer(2), region);
+        BufferedImage updated = cache.get();
+
+        assertThat(updated).isNotSameAs(returned);
+        assertThat(getPixelsAsArray(returned)).isEqualTo(pixelsBefore);
+        assertSameAsFullRecalculation(updated);
+    }
+
+    @Test
+    void repeatedRegionUpdatesReuseTheSnapshot() {
+        cache.get();
+
+        for (int i = 0; i < 5; i++) {
+            Rectangle region = new Rectangle(i * 3, i, 3, 3);
+            fill((ImageLayer) comp.getLayer(2), Color.MAGENTA, region);
+            cache.invalidateRegion(comp.getLayer(2), region);
+            assertSameAsFullRecalculation(cache.get());
+        }
+    }
+
+    @Test
+    void regionUpdateBelowTheSnapshot() {
+        cache.get();
+
+        Rectangle region = new Rectangle(0, 0, 5, 5);
+        fill((ImageLayer) comp.getLayer(2), Color.CYAN, region);
+        cache.invalidateRegion(comp.getLayer(2), region);
+        cache.get();
+
+        fill((ImageLayer) comp.getLayer(0), Color.BLACK, region);
+        cache.invalidateRegion(comp.getLayer(0), region);
+
+        assertSameAsFullRecalculation(cache.get());
+    }
+
+    @Test
+    void regionUpdateWithMask() {
+        Layer layer = comp.getLayer(1);
+        layer.addMask(REVEAL_ALL);
+        cache.get();
+
+        Rectangle region = new Rectangle(4, 1, 6, 6);
+        fill(layer.getMask(), Color.BLACK, region);
+        cache.invalidateRegion(layer, region);
+
+        assertSameAsFullRecalculation(cache.get());
+    }
+
+    @Test
+    void regionUpdateBelowAnAdjustmentLayer() {
+        comp.addLayerInInitMode(TestHelper.createAdjustmentLayer(comp, "invert", new Invert()));
+        cache.get();
+
+        Rectangle region = new Rectangle(3, 3, 4, 4);
+        fill((ImageLayer) comp.getLayer(2), Color.YELLOW, region);
+        cache.invalidateRegion(comp.getLayer(2), region);
+        BufferedImage updated = cache.get();
+
+        // the inverted yellow, taken from the cached output of the adjustment
+        assertThat(updated.getRGB(4, 4)).isEqualTo(Color.BLUE.getRGB());
+        assertSameAsFullRecalculation(updated);
+    }
+
+    @Test
+    void repeatedRegionUpdatesBelowATransparentAdjustmentLayer() {
+        // the adjustment is blended with the image below it, so
+        // applying it again outside the region would be visible
+        Layer adjustment = TestHelper.createAdjustmentLayer(comp, "invert", new Invert());
+        adjustment.setOpacity(0.5f, false);
+        comp.addLayerInInitMode(adjustment);
+        cache.get();
+
+        for (int i = 0; i < 3; i++) {
+            Rectangle region = new Rectangle(i * 4, i, 3, 3);
+            fill((ImageLayer) comp.getLayer(1), Color.ORANGE, region);
+            cache.invalidateRegion(comp.getLayer(1), region);
+            assertSameAsFullRecalculation(cache.get());
+        }
+    }
+
+    @Test
+    void onlyThePaintedTilesAreCalculated() {
+        // big enough for multiple tiles
+        int width = 2 * DirtyTiles.TILE_SIZE + 88;
+        int height = DirtyTiles.TILE_SIZE + 44;
+        comp = TestHelper.createEmptyComp(width, height);
+        for (int i = 0; i < 2; i++) {
+            comp.addLayerInInitMode(TestHelper.createEmptyImageLayer(comp, "layer " + i));
+        }
+        fill((ImageLayer) comp.getLayer(0), Color.RED, comp.getCanvasBounds());
+        cache = new CompositeImageCache(comp);
+        BufferedImage screen = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+        paint(screen, comp.getCanvasBounds());
+
+        fill((ImageLayer) comp.getLayer(1), new Color(0, 0, 255, 128), comp.getCanvasBounds());
+        cache.invalidate();
+        Rectangle visible = new Rectangle(10, 20, 100, 50);
+        paint(screen, visible);
+
+        BufferedImage expected = new CompositeImageCache(comp).get();
+        for (int y = visible.y; y < visible.y + visible.height; y++) {
+            for (int x = visible.x; x < visible.x + visible.width; x++) {
+                assertThat(screen.getRGB(x, y)).isEqualTo(expected.getRGB(x, y));
+            }
+        }
+
+        // a local change before the other tiles are calculated
+        Rectangle region = new Rectangle(width - 30, height - 30, 20, 20);
+        fill((ImageLayer) comp.getLayer(1), Color.GREEN, region);
+        cache.invalidateRegion(comp.getLayer(1), region);
+
+        assertSameAsFullRecalculation(cache.get());
+    }
+
+    @Test
+    void parallelTilesMatchSequentialCompositing() {
+        int width = 2 * DirtyTiles.TILE_SIZE + 88;
+        int height = DirtyTiles.TILE_SIZE + 44;
+        comp = TestHelper.createEmptyComp(width, height);
+        for (int i = 0; i < 3; i++) {
+            comp.addLayerInInitMode(TestHelper.createEmptyImageLayer(comp, "layer " + i));
+        }
+        fill((ImageLayer) comp.getLayer(0), new Color(255, 100, 0, 200), comp.getCanvasBounds());
+        fill((ImageLayer) comp.getLayer(1), new Color(0, 200, 255, 150), new Rectangle(100, 50, 400, 200));
+        fill((ImageLayer) comp.getLayer(2), new Color(50, 0, 255), new Rectangle(230, 230, 100, 50));
+
+        Layer maskedLayer = comp.getLayer(1);
+        maskedLayer.setBlendingMode(BlendingMode.MULTIPLY, false);
+        maskedLayer.setOpacity(0.7f, false);
+        maskedLayer.addMask(REVEAL_ALL);
+        fill(maskedLayer.getMask(), Color.BLACK, new Rectangle(250, 0, 40, height));
+
+        var adjustment = TestHelper.createAdjustmentLayer(comp, "invert", new Invert());
+        comp.addLayerInInitMode(adjustment);
+        adjustment.setBlendingMode(BlendingMode.SCREEN, false);
+        adjustment.addMask(REVEAL_ALL);
+        fill(adjustment.getMask(), Color.BLACK, new Rectangle(0, 240, width, 30));
+
+        List<Layer> layers = comp.getLayers();
+        for (Layer layer : layers) {
+            assertThat(layer.prepareForParallelTiles()).isTrue();
+        }
+        BufferedImage tiled = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+        CompositeImageCache.compositeInParallel(layers, tiled,
+            new DirtyTiles(width, height).takeDirty(null));
+
+        BufferedImage sequential = CompositeImageCache.compositeLayers(layers, 0, layers.size(),
+            new BufferedImage(width, height, TYPE_INT_ARGB_PRE), true);
+        assertThat(getPixelsAsArray(tiled)).isEqualTo(getPixelsAsArray(sequential));
+    }
+
+    private void paint(BufferedImage screen, Rectangle clip) {
+        Graphics2D g = screen.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fill(clip);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setClip(clip);
+        cache.paint(g);
+        g.dispose();
+    }
+
+    private void assertSameAsFullRecalculation(BufferedImage composite) {
+        BufferedImage expected = new CompositeImageCache(comp).get();
+        assertThat(getPixelsAsArray(composite)).isEqualTo(getPixelsAsArray(expected));
+    }
+
+    private static void fill(ImageLayer layer, Color color, Rectangle area) {
+        Graphics2D g = layer.getImage().createGraphics();
+        g.setColor(color);
+        g.fill(area);
+        g.dispose();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ImageUtils.getPixelsAsArray;
+
+@DisplayName("CompositePyramid tests")
+class CompositePyramidTest {
+    // odd sizes, so that the edges are also tested
+    private static final int WIDTH = 301;
+    private static final int HEIGHT = 157;
+
+    @Test
+    void levelsAreAverages() {
+        BufferedImage img = new BufferedImage(4, 2, TYPE_INT_ARGB_PRE);
+        int[] pixels = getPixelsAsArray(img);
+        pixels[0] = 0xFF_00_00_00;
+        pixels[1] = 0xFF_FF_FF_FF;
+        pixels[4] = 0x00_00_00_00;
+        pixels[5] = 0x80_80_40_00;
+
+        BufferedImage level = new CompositePyramid().getLevel(1, img, null);
+
+        assertThat(level.getWidth()).isEqualTo(2);
+        assertThat(level.getHeight()).isEqualTo(1);
+        // (255 + 255 + 0 + 128) / 4 = 159.5 for the alpha
+        assertThat(getPixelsAsArray(level)[0]).isEqualTo(0xA0_60_50_40);
+    }
+
+    @Test
+    void levelSizes() {
+        var pyramid = new CompositePyramid();
+        BufferedImage img = createImage();
+
+        BufferedImage level3 = pyramid.getLevel(3, img, null);
+
+        // rounded up, so that no pixels are lost at the edges
+        assertThat(level3.getWidth()).isEqualTo(38);
+        assertThat(level3.getHeight()).isEqualTo(20);
+    }
+
+    @Test
+    void regionUpdateMatchesFullRecalculation() {
+        var pyramid = new CompositePyramid();
+        BufferedImage img = createImage();
+        pyramid.getLevel(3, img, null);
+
+        Rectangle region = new Rectangle(101, 33, 17, 9);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.YELLOW);
+        g.fill(region);
+        g.dispose();
+        pyramid.invalidateRegion(region);
+
+        for (int level = 1; level <= 3; level++) {
+            BufferedImage expected = new CompositePyramid().getLevel(level, img, null);
+            assertThat(getPixelsAsArray(pyramid.getLevel(level, img, null)))
+                .isEqualTo(getPixelsAsArray(expected));
+        }
+    }
+
+    @Test
+    void calcLevel() {
+        assertThat(CompositePyramid.calcLevel(1.0, WIDTH, HEIGHT)).isZero();
+        assertThat(CompositePyramid.calcLevel(0.6, WIDTH, HEIGHT)).isZero();
+        assertThat(CompositePyramid.calcLevel(0.5, WIDTH, HEIGHT)).isEqualTo(1);
+        assertThat(CompositePyramid.calcLevel(0.3, WIDTH, HEIGHT)).isEqualTo(1);
+        assertThat(CompositePyramid.calcLevel(0.125, WIDTH, HEIGHT)).isEqualTo(3);
+
+        // the levels don't get smaller than one pixel
+        assertThat(CompositePyramid.calcLevel(0.0001, WIDTH, HEIGHT)).isEqualTo(7);
+    }
+
+    private static BufferedImage createImage() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB_PRE);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(255, 0, 0, 200));
+        g.fillOval(10, 10, 200, 100);
+        g.setColor(Color.BLUE);
+        g.fillRect(150, 50, 151, 107);
+        g.dispose();
+        return img;
+    }
+}
@@ -23,14 +23,19 @@ import pixelitor.io.OpenRaster;
 import pixelitor.io.PXCFormat;
 import pixelitor.layers.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import static pixelitor.assertions.PixelitorAssertions.assertThat;
+import static pixelitor.utils.ImageUtils.getPixelsAsArray;
 
 @DisplayName("Composition I/O tests")
 @TestMethodOrder(MethodOrderer.Random.class)
@@ -154,6 +159,53 @@ class CompositionIOTest {
         }
     }
 
+    @Test
+    void lazyLayerSurvivesOverwritingTheFile() throws IOException {
+        var comp = createCompWithHiddenLayer();
+        File tmp = File.createTempFile("pix_tmp", ".pxc");
+        PXCFormat.write(comp, tmp);
+        var read = PXCFormat.read(tmp);
+
+        // the hidden layer wasn't read yet
+        PXCFormat.write(TestHelper.createComp(1, false), tmp);
+
+        assertSameFirstLayerPixels(read, comp);
+        tmp.delete();
+    }
+
+    @Test
+    void lazyLayerSurvivesRenamingTheFile() throws IOException {
+        var comp = createCompWithHiddenLayer();
+        File tmp = File.createTempFile("pix_tmp", ".pxc");
+        PXCFormat.write(comp, tmp);
+        var read = PXCFormat.read(tmp);
+
+        File renamed = new File(tmp.getParentFile(), "renamed_" + tmp.getName());
+        assertThat(tmp.renameTo(renamed)).isTrue();
+
+        assertSameFirstLayerPixels(read, comp);
+        renamed.delete();
+    }
+
+    @Test
+    void serializeOutsidePXC() throws IOException, ClassNotFoundException {
+        // copying a composition doesn't use the pxc chunks
+        var comp = TestHelper.createComp(2, true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(comp);
+        }
+
+        Composition copy;
+        try (ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (Composition) in.readObject();
+        }
+
+        assertThat(copy).numLayersIs(2);
+        assertSameFirstLayerPixels(copy, comp);
+    }
+
     @Test
     void readWriteORA() throws IOException {
         Consumer<Layer> extraCheck = secondLayer ->
@@ -210,4 +262,20 @@ class CompositionIOTest {
 
         return comp;
     }
-}
\ No newline at end of file
+
+    private static Composition createCompWithHiddenLayer() {
+        var comp = TestHelper.createComp(2, false);
+        var layer = (ImageLayer) comp.getLayer(0);
+        getPixelsAsArray(layer.getImage())[0] = 0xFF_12_34_56;
+        // the hidden layers are not prefetched
+        layer.setVisible(false, false);
+        return comp;
+    }
+
+    private static void assertSameFirstLayerPixels(Composition actual, Composition expected) {
+        var actualLayer = (ImageLayer) actual.getLayer(0);
+        var expectedLayer = (ImageLayer) expected.getLayer(0);
+        assertThat(getPixelsAsArray(actualLayer.getImage()))
+            .isEqualTo(getPixelsAsArray(expectedLayer.getImage()));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import pixelitor.utils.ProgressTracker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("ThreadPool tests")
+class ThreadPoolTest {
+    @ParameterizedTest
+    @CsvSource({"1, 1", "7, 3", "100, 10", "1000, 20000", "20000, 1000"})
+    void runInStripsVisitsEachLineOnce(int numLines, int lineLength) {
+        AtomicIntegerArray visits = new AtomicIntegerArray(numLines);
+        AtomicInteger unitsDone = new AtomicInteger();
+
+        ThreadPool.runInStrips(numLines, lineLength, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                visits.incrementAndGet(y);
+            }
+        }, new CountingTracker(unitsDone));
+
+        for (int y = 0; y < numLines; y++) {
+            assertThat(visits.get(y)).isEqualTo(1);
+        }
+        assertThat(unitsDone.get()).isEqualTo(numLines);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"1, 1", "10, 100000", "20000, 1", "20000, 20000"})
+    void stripHeightIsPositiveAndBounded(int numLines, int lineLength) {
+        int stripHeight = ThreadPool.calcStripHeight(numLines, lineLength);
+
+        assertThat(stripHeight).isBetween(1, numLines);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"8000, 8000", "20000, 20000", "100000, 1"})
+    void numberOfStripsIsBounded(int numLines, int lineLength) {
+        int stripHeight = ThreadPool.calcStripHeight(numLines, lineLength);
+        int numStrips = (numLines + stripHeight - 1) / stripHeight;
+
+        assertThat(stripHeight).isGreaterThanOrEqualTo(16);
+        assertThat(numStrips).isLessThanOrEqualTo(4 * ThreadPool.getNumCores());
+    }
+
+    private static class CountingTracker implements ProgressTracker {
+        private final AtomicInteger unitsDone;
+
+        CountingTracker(AtomicInteger unitsDone) {
+            this.unitsDone = unitsDone;
+        }
+
+        @Override
+        public void unitDone() {
+            unitsDone.incrementAndGet();
+        }
+
+        @Override
+        public void unitsDone(int units) {
+            unitsDone.addAndGet(units);
+        }
+
+        @Override
+        public void finished() {
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pixelitor.automate.BatchProcessor.FileResult;
+import pixelitor.automate.BatchProcessor.OverwritePolicy;
+import pixelitor.io.FileFormat;
+import pixelitor.utils.ImageUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.UnaryOperator;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.automate.BatchProcessor.Status.*;
+
+@DisplayName("BatchProcessor tests")
+class BatchProcessorTest {
+    @TempDir
+    Path inputDir;
+
+    @TempDir
+    Path outputDir;
+
+    private List<File> inputs;
+
+    @BeforeEach
+    void beforeEachTest() throws IOException {
+        inputs = List.of(
+            createInput("a.png", 20),
+            createInput("b.png", 30),
+            createInput("c.png", 40));
+    }
+
+    @Test
+    void processesAllFiles() throws IOException {
+        List<FileResult> results = createProcessor().process(inputs);
+
+        assertThat(results).extracting(FileResult::status).containsExactly(DONE, DONE, DONE);
+        assertThat(results).extracting(FileResult::input).containsExactlyElementsOf(inputs);
+        assertThat(ImageIO.read(outputDir.resolve("c.png").toFile()).getWidth()).isEqualTo(20);
+        assertThat(outputDir.toFile().list()).containsExactlyInAnyOrder("a.png", "b.png", "c.png");
+    }
+
+    @Test
+    void skipsExistingFiles() throws IOException {
+        File existing = outputDir.resolve("b.png").toFile();
+        ImageIO.write(new BufferedImage(5, 5, TYPE_INT_ARGB), "png", existing);
+
+        List<FileResult> results = createProcessor()
+            .overwritePolicy(OverwritePolicy.SKIP)
+            .process(inputs);
+
+        assertThat(results).extracting(FileResult::status).containsExactly(DONE, SKIPPED, DONE);
+        assertThat(ImageIO.read(existing).getWidth()).isEqualTo(5);
+    }
+
+    @Test
+    void renamesExistingFiles() throws IOException {
+        File existing = outputDir.resolve("b.png").toFile();
+        ImageIO.write(new BufferedImage(5, 5, TYPE_INT_ARGB), "png", existing);
+
+        List<FileResult> results = createProcessor()
+            .overwritePolicy(OverwritePolicy.RENAME)
+            .process(inputs);
+
+        assertThat(results).extracting(FileResult::status).containsExactly(DONE, DONE, DONE);
+        assertThat(results.get(1).output().getName()).isEqualTo("b-1.png");
+        assertThat(ImageIO.read(existing).getWidth()).isEqualTo(5);
+    }
+
+    @Test
+    void inputsWithTheSameNameAreNotOverwritten() throws IOException {
+        List<File> sameName = List.of(inputs.get(0), createInput("a.bmp", 50));
+
+        List<FileResult> results = createProcessor()
+            .overwritePolicy(OverwritePolicy.OVERWRITE)
+            .process(sameName);
+
+        assertThat(results).extracting(FileResult::status).containsExactly(DONE, DONE);
+        assertThat(outputDir.toFile().list()).containsExactlyInAnyOrder("a.png", "a-1.png");
+    }
+
+    @Test
+    void unreadableFilesFail() throws IOException {
+        File broken = inputDir.resolve("broken.png").toFile();
+        Files.write(broken.toPath(), new byte[]{1, 2, 3});
+
+        List<FileResult> results = createProcessor().process(List.of(broken, inputs.get(0)));
+
+        assertThat(results).extracting(FileResult::status).containsExactly(FAILED, DONE);
+        assertThat(results.get(0).error()).isNotNull();
+        // no partial or temporary files are left behind
+        assertThat(outputDir.toFile().list()).containsExactly("a.png");
+    }
+
+    @Test
+    void jpegInputsAreConverted() throws IOException {
+        File jpeg = createInput("d.jpg", 10);
+        List<BufferedImage> received = new CopyOnWriteArrayList<>();
+
+        List<FileResult> results = new BatchProcessor(() -> img -> {
+            received.add(img);
+            return img;
+        }, outputDir.toFile(), FileFormat.PNG).process(List.of(jpeg));
+
+        assertThat(results).extracting(FileResult::status).containsExactly(DONE);
+        int expectedType = ImageUtils.createSysCompatibleImage(1, 1).getType();
+        assertThat(received).extracting(BufferedImage::getType).containsExactly(expectedType);
+        assertThat(ImageIO.read(outputDir.resolve("d.png").toFile()).getHeight()).isEqualTo(10);
+    }
+
+    private BatchProcessor createProcessor() {
+        // halves the width, with a new action for each thread
+        return new BatchProcessor(() -> halveWidth(), outputDir.toFile(), FileFormat.PNG)
+            .numThreads(2);
+    }
+
+    private static UnaryOperator<BufferedImage> halveWidth() {
+        return img -> new BufferedImage(img.getWidth() / 2, img.getHeight(), TYPE_INT_ARGB);
+    }
+
+    private File createInput(String name, int height) throws IOException {
+        File file = inputDir.resolve(name).toFile();
+        String format = name.substring(name.lastIndexOf('.') + 1);
+        int type = format.equals("png") ? TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        ImageIO.write(new BufferedImage(40, height, type), format, file);
+        return file;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import pixelitor.TestHelper;
+import pixelitor.layers.Drawable;
+
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static pixelitor.FilterContext.PREVIEWING;
+
+@DisplayName("BackgroundPreview tests")
+class BackgroundPreviewTest {
+    private Drawable dr;
+    private ValueFilter filter;
+    private BackgroundPreview preview;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        dr = mock(Drawable.class);
+        when(dr.getFilterSourceImage()).thenReturn(new BufferedImage(20, 10, TYPE_INT_ARGB));
+        filter = new ValueFilter();
+        preview = new BackgroundPreview(filter, dr, mock(Component.class));
+    }
+
+    @Test
+    void finishShowsTheLastRequest() throws Exception {
+        EventQueue.invokeAndWait(() -> {
+            for (int value = 1; value <= 5; value++) {
+                filter.value = value;
+                preview.request();
+            }
+            preview.finish();
+        });
+        // the results of the superseded calculations arrive later
+        EventQueue.invokeAndWait(() -> {
+        });
+
+        var captor = ArgumentCaptor.forClass(BufferedImage.class);
+        verify(dr, atLeastOnce()).changePreviewImage(captor.capture(), anyString(), eq(PREVIEWING));
+        List<BufferedImage> shown = captor.getAllValues();
+        BufferedImage last = shown.get(shown.size() - 1);
+        assertThat(last.getRGB(0, 0)).isEqualTo(5);
+    }
+
+    @Test
+    void nothingIsShownAfterCancel() throws Exception {
+        EventQueue.invokeAndWait(() -> {
+            preview.request();
+            preview.cancel();
+        });
+        EventQueue.invokeAndWait(() -> {
+        });
+
+        verify(dr, never()).changePreviewImage(any(), anyString(), any());
+    }
+
+    @Test
+    void requestsAreCountedAsRuns() throws Exception {
+        long runCountBefore = Filter.runCount.get();
+        EventQueue.invokeAndWait(() -> {
+            preview.request();
+            preview.finish();
+        });
+
+        assertThat(Filter.runCount.get()).isEqualTo(runCountBefore + 1);
+    }
+
+    /**
+     * A test filter that fills the image with its current value
+     */
+    private static class ValueFilter extends Filter {
+        private volatile int value;
+
+        @Override
+        protected BufferedImage transform(BufferedImage src, BufferedImage dest) {
+            int[] pixels = new int[src.getWidth() * src.getHeight()];
+            Arrays.fill(pixels, value);
+            dest.setRGB(0, 0, src.getWidth(), src.getHeight(), pixels, 0, src.getWidth());
+            return dest;
+        }
+    }
+}
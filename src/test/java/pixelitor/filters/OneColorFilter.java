@@ -42,4 +42,9 @@ public class OneColorFilter extends Filter {
         g.dispose();
         return dest;
     }
+
+    @Override
+    public boolean isPointFilter() {
+        return true;
+    }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ImageUtils.getPixelsAsArray;
+
+@DisplayName("ImageBackup tests")
+class ImageBackupTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void compressedImage() {
+        BufferedImage img = createImage();
+        int[] expected = getPixelsAsArray(img).clone();
+
+        ImageBackup backup = ImageBackup.of(img, null);
+        backup.compress();
+
+        assertThat(backup.getMemoryBytes()).isLessThan(4L * WIDTH * HEIGHT);
+        assertThat(getPixelsAsArray(backup.getImage())).isEqualTo(expected);
+        backup.dispose();
+    }
+
+    @Test
+    void imageOnDisk() throws IOException {
+        BufferedImage img = createImage();
+        int[] expected = getPixelsAsArray(img).clone();
+
+        ImageBackup backup = ImageBackup.of(img, null);
+        backup.moveToDisk(tempDir);
+
+        assertThat(backup.isInMemory()).isFalse();
+        assertThat(backup.getMemoryBytes()).isZero();
+        assertThat(backup.getDiskBytes()).isPositive();
+        assertThat(getPixelsAsArray(backup.getImage())).isEqualTo(expected);
+
+        backup.dispose();
+        assertThat(tempDir).isEmptyDirectory();
+    }
+
+    @Test
+    void imageIsReadWhileItIsMovedToDisk() throws Exception {
+        BufferedImage img = createImage();
+        int[] expected = getPixelsAsArray(img).clone();
+
+        ImageBackup backup = ImageBackup.of(img, null);
+        CompletableFuture<Void> move = CompletableFuture.runAsync(() -> {
+            try {
+                backup.moveToDisk(tempDir);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        BufferedImage restored = backup.getImage();
+        move.get(30, TimeUnit.SECONDS);
+
+        assertThat(getPixelsAsArray(restored)).isEqualTo(expected);
+        assertThat(backup.isInMemory()).isFalse();
+        backup.dispose();
+    }
+
+    @Test
+    void disposedBackupIsNotMovedToDisk() throws IOException {
+        ImageBackup backup = ImageBackup.of(createImage(), null);
+        backup.dispose();
+
+        backup.moveToDisk(tempDir);
+
+        assertThat(backup.getDiskBytes()).isZero();
+        assertThat(tempDir).isEmptyDirectory();
+    }
+
+    @Test
+    void rasterOnDisk() throws IOException {
+        BufferedImage img = createImage();
+        Rectangle rect = new Rectangle(10, 20, 50, 60);
+
+        ImageBackup backup = ImageBackup.of(img.getData(rect));
+        backup.moveToDisk(tempDir);
+        Raster restored = backup.getRaster();
+
+        assertThat(restored.getBounds()).isEqualTo(rect);
+        BufferedImage copy = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        copy.setData(restored);
+        assertThat(copy.getRGB(30, 40)).isEqualTo(img.getRGB(30, 40));
+        backup.dispose();
+    }
+
+    private static BufferedImage createImage() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        int[] pixels = getPixelsAsArray(img);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | (i % WIDTH) * (i / WIDTH);
+        }
+        return img;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ImageUtils.copyImage;
+import static pixelitor.utils.ImageUtils.getPixelsAsArray;
+
+@DisplayName("TileDelta tests")
+class TileDeltaTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+
+    @Test
+    void swappingUndoesAndRedoes() {
+        BufferedImage before = createImage();
+        BufferedImage current = copyImage(before);
+        fill(current, new Rectangle(70, 70, 20, 100));
+        int[] beforePixels = getPixelsAsArray(before).clone();
+        int[] afterPixels = getPixelsAsArray(current).clone();
+
+        TileDelta delta = TileDelta.create(before.getRaster(), before.getType(), current);
+
+        assertThat(delta).isNotNull();
+        assertThat(delta.getNumChangedTiles()).isEqualTo(2);
+
+        delta.swapWith(current);
+        assertThat(getPixelsAsArray(current)).isEqualTo(beforePixels);
+
+        delta.swapWith(current);
+        assertThat(getPixelsAsArray(current)).isEqualTo(afterPixels);
+        delta.dispose();
+    }
+
+    @Test
+    void partialArea() {
+        BufferedImage before = createImage();
+        BufferedImage current = copyImage(before);
+        fill(current, new Rectangle(60, 65, 5, 5));
+        int[] beforePixels = getPixelsAsArray(before).clone();
+
+        var area = new Rectangle(50, 60, 150, 130);
+        TileDelta delta = TileDelta.create(before.getData(area), before.getType(), current);
+
+        assertThat(delta.getBounds()).isEqualTo(area);
+        assertThat(delta.getNumChangedTiles()).isEqualTo(1);
+
+        BufferedImage previous = copyImage(current);
+        delta.copyTo(previous);
+        assertThat(getPixelsAsArray(previous)).isEqualTo(beforePixels);
+        delta.dispose();
+    }
+
+    @Test
+    void asyncDeltaIgnoresLaterChanges() {
+        BufferedImage before = createImage();
+        BufferedImage current = copyImage(before);
+        fill(current, new Rectangle(70, 70, 20, 20));
+
+        var future = TileDelta.createAsync(before.getRaster(), before.getType(), current);
+        // changed by the next edit while the tiles are compared
+        fill(current, new Rectangle(200, 10, 20, 20));
+        TileDelta delta = future.join();
+
+        assertThat(delta).isNotNull();
+        assertThat(delta.getNumChangedTiles()).isEqualTo(1);
+        delta.dispose();
+    }
+
+    @Test
+    void noDeltaIfEverythingChanged() {
+        BufferedImage before = createImage();
+        BufferedImage current = copyImage(before);
+        fill(current, new Rectangle(0, 0, WIDTH, HEIGHT));
+
+        assertThat(TileDelta.create(before.getRaster(), before.getType(), current)).isNull();
+    }
+
+    private static BufferedImage createImage() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        int[] pixels = getPixelsAsArray(img);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | (i % WIDTH) * (i / WIDTH);
+        }
+        return img;
+    }
+
+    private static void fill(BufferedImage img, Rectangle area) {
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.RED);
+        g.fill(area);
+        g.dispose();
+    }
+}
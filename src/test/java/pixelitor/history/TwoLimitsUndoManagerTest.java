@@ -85,6 +85,25 @@ class TwoLimitsUndoManagerTest {
 
     }
 
+    @Test
+    void backupBytesLimit() {
+        undoManager.setBackupBytesLimit(250);
+        for (int i = 0; i < 3; i++) {
+            PixelitorEdit edit = createMockEdit(false);
+            when(edit.getBackupBytes()).thenReturn(100L);
+            undoManager.addEdit(edit);
+        }
+        assertThat(undoManager.getSize()).isEqualTo(2);
+        assertThat(undoManager.getBackupBytes()).isEqualTo(200);
+
+        // the last edit is kept even if it's bigger than the limit
+        PixelitorEdit bigEdit = createMockEdit(true);
+        when(bigEdit.getBackupBytes()).thenReturn(1000L);
+        undoManager.addEdit(bigEdit);
+        assertThat(undoManager.getSize()).isEqualTo(1);
+        assertThat(undoManager.getBackupBytes()).isEqualTo(1000);
+    }
+
     private void fillUpUM(int he, int le) {
         for (int i = 0; i < he; i++) {
             undoManager.addEdit(createMockEdit(true));
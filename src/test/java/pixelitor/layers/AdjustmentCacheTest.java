@@ -0,0 +1,195 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.TestHelper;
+import pixelitor.filters.Filter;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ImageUtils.getPixelsAsArray;
+
+@DisplayName("AdjustmentCache tests")
+class AdjustmentCacheTest {
+    // three by two tiles, the last ones are partial
+    private static final int WIDTH = 600;
+    private static final int HEIGHT = 300;
+
+    private AdjustmentCache cache;
+    private CountingFilter filter;
+    private BufferedImage input;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        cache = new AdjustmentCache();
+        filter = new CountingFilter();
+        input = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB_PRE);
+    }
+
+    @Test
+    void unchangedInputIsNotFilteredAgain() {
+        BufferedImage first = cache.apply(input, filter);
+        BufferedImage second = cache.apply(copy(input), filter);
+
+        assertThat(filter.filteredPixels).isEqualTo(WIDTH * HEIGHT);
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void onlyTheChangedRegionIsFilteredAgain() {
+        cache.apply(input, filter);
+
+        BufferedImage changed = copy(input);
+        getPixelsAsArray(changed)[WIDTH * 299 + 599] = 10;
+        getPixelsAsArray(changed)[WIDTH * 290 + 590] = 10;
+        cache.inputChanged(new Rectangle(599, 299, 1, 1));
+        cache.inputChanged(new Rectangle(590, 290, 1, 1));
+        BufferedImage result = cache.apply(changed, filter);
+
+        // the union of the two changed regions
+        assertThat(filter.filteredPixels).isEqualTo(WIDTH * HEIGHT + 10 * 10);
+        assertThat(getPixelsAsArray(result)[WIDTH * 299 + 599]).isEqualTo(11);
+        assertThat(getPixelsAsArray(result)[WIDTH * 290 + 590]).isEqualTo(11);
+        assertThat(getPixelsAsArray(result)[0]).isEqualTo(1);
+    }
+
+    @Test
+    void everythingIsFilteredAgainAfterAFullChange() {
+        cache.apply(input, filter);
+
+        cache.inputChanged(new Rectangle(0, 0, 1, 1));
+        cache.inputChanged(null);
+        cache.apply(input, filter);
+
+        assertThat(filter.filteredPixels).isEqualTo(2 * WIDTH * HEIGHT);
+    }
+
+    @Test
+    void tilesAreCachedByPosition() {
+        BufferedImage tile = new BufferedImage(256, 44, TYPE_INT_ARGB_PRE);
+        cache.prepareForTiles(filter, WIDTH, HEIGHT);
+        cache.applyOnTile(tile, 0, 256, filter);
+        cache.applyOnTile(tile, 256, 256, filter);
+
+        cache.prepareForTiles(filter, WIDTH, HEIGHT);
+        BufferedImage result = cache.applyOnTile(copy(tile), 0, 256, filter);
+
+        assertThat(filter.filteredPixels).isEqualTo(2 * 256 * 44);
+        assertThat(getPixelsAsArray(result)[0]).isEqualTo(1);
+    }
+
+    @Test
+    void changedTilesAreFilteredAgain() {
+        BufferedImage tile = new BufferedImage(256, 44, TYPE_INT_ARGB_PRE);
+        cache.prepareForTiles(filter, WIDTH, HEIGHT);
+        cache.applyOnTile(tile, 0, 256, filter);
+        cache.applyOnTile(tile, 256, 256, filter);
+
+        cache.inputChanged(new Rectangle(300, 260, 1, 1));
+
+        assertThat(cache.getNumCachedTiles()).isEqualTo(1);
+        cache.prepareForTiles(filter, WIDTH, HEIGHT);
+        cache.applyOnTile(tile, 256, 256, filter);
+        assertThat(filter.filteredPixels).isEqualTo(3 * 256 * 44);
+    }
+
+    @Test
+    void tilesAreDroppedWhenTheCanvasIsResized() {
+        BufferedImage tile = new BufferedImage(256, 44, TYPE_INT_ARGB_PRE);
+        cache.prepareForTiles(filter, WIDTH, HEIGHT);
+        cache.applyOnTile(tile, 0, 256, filter);
+        assertThat(cache.getNumCachedTiles()).isEqualTo(1);
+
+        cache.prepareForTiles(filter, WIDTH + 1, HEIGHT);
+
+        assertThat(cache.getNumCachedTiles()).isZero();
+    }
+
+    @Test
+    void outputsOverTheBudgetAreNotKept() {
+        // enough for the output of the whole canvas, but not for any tiles
+        cache = new AdjustmentCache(new CacheMemoryBudget(4L * WIDTH * HEIGHT));
+        cache.apply(input, filter);
+        assertThat(cache.hasOutput()).isTrue();
+
+        cache.prepareForTiles(filter, WIDTH, HEIGHT);
+        cache.applyOnTile(new BufferedImage(256, 44, TYPE_INT_ARGB_PRE), 0, 256, filter);
+        assertThat(cache.getNumCachedTiles()).isZero();
+
+        cache = new AdjustmentCache(new CacheMemoryBudget(4L * WIDTH * HEIGHT - 1));
+        BufferedImage result = cache.apply(input, filter);
+        assertThat(cache.hasOutput()).isFalse();
+        assertThat(getPixelsAsArray(result)[0]).isEqualTo(1);
+    }
+
+    @Test
+    void theBudgetIsSharedByTheCaches() {
+        // enough for the output of one cache
+        var budget = new CacheMemoryBudget(4L * WIDTH * HEIGHT);
+        AdjustmentCache first = new AdjustmentCache(budget);
+        AdjustmentCache second = new AdjustmentCache(budget);
+
+        first.apply(input, filter);
+        second.apply(input, filter);
+
+        // the least recently used output was dropped
+        assertThat(first.hasOutput()).isFalse();
+        assertThat(second.hasOutput()).isTrue();
+    }
+
+    private static BufferedImage copy(BufferedImage img) {
+        BufferedImage copy = new BufferedImage(img.getWidth(), img.getHeight(), TYPE_INT_ARGB_PRE);
+        copy.setData(img.getRaster());
+        return copy;
+    }
+
+    /**
+     * A point filter that adds one to the pixel values
+     */
+    private static class CountingFilter extends Filter {
+        private int filteredPixels;
+
+        @Override
+        protected BufferedImage transform(BufferedImage src, BufferedImage dest) {
+            int[] srcPixels = getPixelsAsArray(src);
+            int[] destPixels = getPixelsAsArray(dest);
+            for (int i = 0; i < srcPixels.length; i++) {
+                destPixels[i] = srcPixels[i] + 1;
+            }
+            filteredPixels += srcPixels.length;
+            return dest;
+        }
+
+        @Override
+        public boolean isPointFilter() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.TestHelper;
+import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.RangeParam;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ImageUtils.getPixelsAsArray;
+
+@DisplayName("SmartFilterCache tests")
+class SmartFilterCacheTest {
+    private static final int NUM_FILTERS = 5;
+
+    private SmartFilterCache cache;
+    private List<Filter> filters;
+    private BufferedImage content;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        cache = new SmartFilterCache();
+        filters = new ArrayList<>();
+        for (int i = 0; i < NUM_FILTERS; i++) {
+            filters.add(new AddingFilter());
+        }
+        content = new BufferedImage(20, 10, TYPE_INT_ARGB);
+        cache.setContent(content, 1);
+        cache.calc(filters, NUM_FILTERS);
+    }
+
+    @Test
+    void changingTheLastFilterRunsOnlyThatFilter() {
+        last().amount.setValue(5);
+        BufferedImage result = cache.calc(filters, NUM_FILTERS);
+
+        assertThat(runCounts()).containsExactly(1, 1, 1, 1, 2);
+        assertThat(result.getRGB(0, 0)).isEqualTo(4 + 5);
+    }
+
+    @Test
+    void unchangedContentReusesAllStages() {
+        BufferedImage before = cache.calc(filters, NUM_FILTERS);
+
+        // the same version in a different image
+        cache.setContent(new BufferedImage(20, 10, TYPE_INT_ARGB), 1);
+        BufferedImage after = cache.calc(filters, NUM_FILTERS);
+
+        assertThat(after).isSameAs(before);
+        assertThat(runCounts()).containsExactly(1, 1, 1, 1, 1);
+    }
+
+    @Test
+    void changedContentRunsAllFilters() {
+        getPixelsAsArray(content)[0] = 10;
+        cache.setContent(content, 2);
+        BufferedImage result = cache.calc(filters, NUM_FILTERS);
+
+        assertThat(runCounts()).containsExactly(2, 2, 2, 2, 2);
+        assertThat(result.getRGB(0, 0)).isEqualTo(10 + 5);
+    }
+
+    @Test
+    void earliestStagesAreEvicted() {
+        // the budget is enough for one output besides the last one
+        cache = new SmartFilterCache(new CacheMemoryBudget(4L * content.getWidth() * content.getHeight()));
+        cache.setContent(content, 1);
+        cache.calc(filters, NUM_FILTERS);
+        assertThat(cache.hasOutput(0)).isFalse();
+        assertThat(cache.hasOutput(NUM_FILTERS - 2)).isTrue();
+        assertThat(cache.hasOutput(NUM_FILTERS - 1)).isTrue();
+
+        last().amount.setValue(3);
+        BufferedImage result = cache.calc(filters, NUM_FILTERS);
+
+        assertThat(runCounts()).containsExactly(2, 2, 2, 2, 3);
+        assertThat(result.getRGB(0, 0)).isEqualTo(4 + 3);
+    }
+
+    @Test
+    void theBudgetIsSharedByTheCaches() {
+        // enough for the outputs of one cache besides the last ones
+        var budget = new CacheMemoryBudget(4L * (NUM_FILTERS - 1) * content.getWidth() * content.getHeight());
+        cache = new SmartFilterCache(budget);
+        cache.setContent(content, 1);
+        cache.calc(filters, NUM_FILTERS);
+        assertThat(cache.hasOutput(0)).isTrue();
+
+        var otherCache = new SmartFilterCache(budget);
+        otherCache.setContent(content, 2);
+        otherCache.calc(filters, NUM_FILTERS);
+
+        // the least recently used cache gave up its outputs
+        assertThat(cache.hasOutput(0)).isFalse();
+        assertThat(cache.hasOutput(NUM_FILTERS - 1)).isTrue();
+        assertThat(otherCache.hasOutput(0)).isTrue();
+    }
+
+    @Test
+    void removedFiltersAreDiscarded() {
+        cache.calc(filters.subList(0, 2), 2);
+
+        assertThat(cache.getNumStages()).isEqualTo(2);
+        assertThat(runCounts()).containsExactly(1, 1, 1, 1, 1);
+    }
+
+    @Test
+    void storedOutputIsReused() {
+        BufferedImage input = cache.calc(filters, NUM_FILTERS - 1);
+        last().amount.setValue(7);
+        BufferedImage output = last().transformImage(input);
+        cache.setOutput(NUM_FILTERS - 1, last(), output);
+
+        assertThat(cache.calc(filters, NUM_FILTERS)).isSameAs(output);
+        assertThat(runCounts()).containsExactly(1, 1, 1, 1, 2);
+    }
+
+    private AddingFilter last() {
+        return (AddingFilter) filters.get(NUM_FILTERS - 1);
+    }
+
+    private List<Integer> runCounts() {
+        return filters.stream()
+            .map(filter -> ((AddingFilter) filter).runs)
+            .toList();
+    }
+
+    /**
+     * A test filter that adds its amount to the blue channel
+     */
+    private static class AddingFilter extends ParametrizedFilter {
+        private final RangeParam amount = new RangeParam("Amount", 0, 1, 10);
+        private int runs;
+
+        AddingFilter() {
+            super(false);
+            setParams(amount);
+        }
+
+        @Override
+        public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
+            runs++;
+            int[] srcPixels = getPixelsAsArray(src);
+            int[] destPixels = getPixelsAsArray(dest);
+            for (int i = 0; i < srcPixels.length; i++) {
+                destPixels[i] = srcPixels[i] + amount.getValue();
+            }
+            return dest;
+        }
+    }
+}
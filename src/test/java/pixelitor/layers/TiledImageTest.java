@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.layers.TiledImage.TILE_SIZE;
+import static pixelitor.utils.ImageUtils.getPixelsAsArray;
+
+@DisplayName("TiledImage tests")
+class TiledImageTest {
+    // not a multiple of the tile size, so that there are partial tiles
+    private static final int WIDTH = 3 * TILE_SIZE + 17;
+    private static final int HEIGHT = 2 * TILE_SIZE + 5;
+
+    @Test
+    void sparseImageRoundTrip() {
+        BufferedImage img = createSparseImage();
+
+        TiledImage tiles = TiledImage.ofSparse(img, null);
+
+        assertThat(tiles).isNotNull();
+        assertThat(tiles.getPixelBytes()).isLessThan(4L * WIDTH * HEIGHT / 2);
+        assertThat(getPixelsAsArray(tiles.toImage())).isEqualTo(getPixelsAsArray(img));
+    }
+
+    @Test
+    void denseImageIsNotTiled() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        int[] pixels = getPixelsAsArray(img);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | i;
+        }
+
+        assertThat(TiledImage.ofSparse(img, null)).isNull();
+    }
+
+    @Test
+    void unchangedTilesAreShared() {
+        BufferedImage img = createSparseImage();
+        TiledImage first = TiledImage.ofSparse(img, null);
+
+        // change a pixel far from the existing pixel tile
+        img.setRGB(WIDTH - 1, HEIGHT - 1, 0xFF00FF00);
+        TiledImage second = TiledImage.ofSparse(img, first);
+
+        assertThat(second.getPixelBytes()).isGreaterThan(first.getPixelBytes());
+        assertThat(getPixelsAsArray(second.toImage())).isEqualTo(getPixelsAsArray(img));
+        // the first copy is not affected by the change
+        assertThat(first.toImage().getRGB(WIDTH - 1, HEIGHT - 1)).isZero();
+    }
+
+    @Test
+    void paintingTilesMatchesPaintingTheImage() {
+        BufferedImage img = createSparseImage();
+        TiledImage tiles = TiledImage.ofSparse(img, null);
+
+        BufferedImage expected = createBackground();
+        Graphics2D g = expected.createGraphics();
+        g.drawImage(img, 3, 4, null);
+        g.dispose();
+
+        BufferedImage actual = createBackground();
+        g = actual.createGraphics();
+        assertThat(tiles.paintOn(g, 3, 4)).isTrue();
+        g.dispose();
+
+        assertThat(getPixelsAsArray(actual)).isEqualTo(getPixelsAsArray(expected));
+    }
+
+    private static BufferedImage createSparseImage() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.RED);
+        g.fillOval(10, 10, 100, 50);
+        // a uniform, but not transparent tile
+        g.setColor(Color.BLUE);
+        g.fillRect(TILE_SIZE, 0, TILE_SIZE, TILE_SIZE);
+        g.dispose();
+        return img;
+    }
+
+    private static BufferedImage createBackground() {
+        BufferedImage img = new BufferedImage(WIDTH + 10, HEIGHT + 10, TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, img.getWidth(), img.getHeight());
+        g.dispose();
+        return img;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.selection;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ImageUtils.getGrayPixelsAsByteArray;
+
+@DisplayName("SelectionMask tests")
+class SelectionMaskTest {
+    private static final int SIZE = 60;
+
+    @Test
+    void fromShape() {
+        var mask = SelectionMask.fromShape(new Rectangle(2, 3, 4, 5));
+
+        assertThat(mask.getBounds()).isEqualTo(new Rectangle(2, 3, 4, 5));
+        assertThat(mask.contains(2, 3)).isTrue();
+        assertThat(mask.contains(5, 7)).isTrue();
+        assertThat(mask.contains(6, 7)).isFalse();
+        assertThat(mask.contains(5, 8)).isFalse();
+    }
+
+    @Test
+    void booleanOperations() {
+        var a = SelectionMask.fromShape(new Rectangle(10, 10, 20, 20));
+        var b = SelectionMask.fromShape(new Ellipse2D.Double(15, 5, 30, 30));
+
+        SelectionMask added = a.add(b);
+        SelectionMask subtracted = a.subtract(b);
+        SelectionMask intersected = a.intersect(b);
+
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                boolean inA = a.contains(x, y);
+                boolean inB = b.contains(x, y);
+                assertThat(added.contains(x, y)).isEqualTo(inA || inB);
+                assertThat(subtracted.contains(x, y)).isEqualTo(inA && !inB);
+                assertThat(intersected.contains(x, y)).isEqualTo(inA && inB);
+            }
+        }
+
+        assertThat(a.subtract(a).isEmpty()).isTrue();
+        assertThat(a.intersect(SelectionMask.empty()).isEmpty()).isTrue();
+    }
+
+    @Test
+    void growAndShrink() {
+        var mask = SelectionMask.fromShape(new Rectangle(20, 20, 10, 10));
+
+        // the diagonal neighbors of the corners are also within 1.5 pixels
+        assertThat(mask.grow(1).getBounds()).isEqualTo(new Rectangle(19, 19, 12, 12));
+        assertThat(mask.grow(1).contains(18, 25)).isFalse();
+        assertThat(mask.shrink(1).getBounds()).isEqualTo(new Rectangle(21, 21, 8, 8));
+        assertThat(mask.shrink(5).isEmpty()).isTrue();
+
+        // the corners are rounded when growing
+        SelectionMask grown = mask.grow(5);
+        assertThat(grown.contains(15, 25)).isTrue();
+        assertThat(grown.contains(15, 15)).isFalse();
+    }
+
+    @Test
+    void borderTypes() {
+        var mask = SelectionMask.fromShape(new Rectangle(20, 20, 10, 10));
+
+        SelectionMask border = SelectionModifyType.BORDER.modify(mask, 2);
+        assertThat(border.contains(25, 25)).isFalse();
+        assertThat(border.contains(20, 25)).isTrue();
+        assertThat(border.contains(19, 25)).isTrue();
+
+        SelectionMask borderIn = SelectionModifyType.BORDER_IN.modify(mask, 2);
+        assertThat(borderIn.contains(20, 25)).isTrue();
+        assertThat(borderIn.contains(19, 25)).isFalse();
+
+        SelectionMask borderOut = SelectionModifyType.BORDER_OUT.modify(mask, 2);
+        assertThat(borderOut.contains(20, 25)).isFalse();
+        assertThat(borderOut.contains(19, 25)).isTrue();
+    }
+
+    @Test
+    void toShapeFollowsThePixels() {
+        // a ring with a hole, and diagonally touching pixels
+        Area area = new Area(new Ellipse2D.Double(5, 5, 40, 30));
+        area.subtract(new Area(new Rectangle(15, 12, 10, 10)));
+        byte[] bitmap = new byte[SIZE * SIZE];
+        bitmap[50 * SIZE + 50] = 1;
+        bitmap[51 * SIZE + 51] = 1;
+        bitmap[52 * SIZE + 50] = 1;
+        var mask = SelectionMask.fromShape(area)
+            .add(SelectionMask.fromBitmap(bitmap, SIZE, SIZE));
+
+        Shape shape = mask.toShape();
+        // a copy, so that the pixels are really rasterized again
+        var rasterized = SelectionMask.fromShape(new Path2D.Float(shape));
+
+        assertThat(rasterized.getBounds()).isEqualTo(mask.getBounds());
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                assertThat(rasterized.contains(x, y)).isEqualTo(mask.contains(x, y));
+                assertThat(shape.contains(x + 0.5, y + 0.5)).isEqualTo(mask.contains(x, y));
+            }
+        }
+        assertThat(SelectionMask.isComplex(shape)).isTrue();
+        assertThat(SelectionMask.fromShape(shape)).isSameAs(mask);
+    }
+
+    @Test
+    void featheredImage() {
+        var mask = SelectionMask.fromShape(new Rectangle(20, 20, 20, 20));
+
+        BufferedImage hard = mask.createFeatheredImage(SIZE, SIZE, 0);
+        byte[] hardPixels = getGrayPixelsAsByteArray(hard);
+        assertThat(hardPixels[20 * SIZE + 20]).isEqualTo((byte) 255);
+        assertThat(hardPixels[20 * SIZE + 19]).isEqualTo((byte) 0);
+
+        BufferedImage soft = mask.createFeatheredImage(SIZE, SIZE, 4);
+        byte[] softPixels = getGrayPixelsAsByteArray(soft);
+        assertThat(softPixels[30 * SIZE + 30]).isEqualTo((byte) 255);
+        assertThat(softPixels[30 * SIZE + 10]).isEqualTo((byte) 0);
+        int edge = Byte.toUnsignedInt(softPixels[30 * SIZE + 20]);
+        int outside = Byte.toUnsignedInt(softPixels[30 * SIZE + 19]);
+        assertThat(edge).isBetween(128, 200);
+        assertThat(outside).isBetween(56, 128);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.tools.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.selection.SelectionMask;
+import pixelitor.tools.util.FloodFill.Region;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("FloodFill tests")
+class FloodFillTest {
+    private static final int WHITE = 0xFF_FF_FF_FF;
+    private static final int BLACK = 0xFF_00_00_00;
+    private static final int RED = 0xFF_FF_00_00;
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    @Test
+    void fillsOnlyTheConnectedPixels() {
+        int[] pixels = createPixels();
+
+        Region region = FloodFill.findConnected(pixels, WIDTH, HEIGHT, 1, 1, 0);
+        region.fill(pixels, RED);
+
+        // the outside of the black frame
+        assertThat(region.bounds()).isEqualTo(new Rectangle(0, 0, WIDTH, HEIGHT));
+        assertThat(pixels[0]).isEqualTo(RED);
+        assertThat(pixels[WIDTH * HEIGHT - 1]).isEqualTo(RED);
+        assertThat(pixels[25 * WIDTH + 15]).isEqualTo(RED);
+        // the frame and the inside are not changed
+        assertThat(pixels[10 * WIDTH + 10]).isEqualTo(BLACK);
+        assertThat(pixels[15 * WIDTH + 15]).isEqualTo(WHITE);
+        assertThat(region.contains(15, 15)).isFalse();
+    }
+
+    @Test
+    void fillsTheInside() {
+        int[] pixels = createPixels();
+
+        Region region = FloodFill.findConnected(pixels, WIDTH, HEIGHT, 15, 15, 0);
+        region.fill(pixels, RED);
+
+        assertThat(region.bounds()).isEqualTo(new Rectangle(11, 11, 18, 8));
+        assertThat(Arrays.stream(pixels).filter(p -> p == RED).count())
+            .isEqualTo(18L * 8);
+    }
+
+    @Test
+    void tolerance() {
+        int[] pixels = createPixels();
+        pixels[0] = 0xFF_F0_F0_F0;
+
+        assertThat(FloodFill.findConnected(pixels, WIDTH, HEIGHT, 1, 1, 10)
+            .contains(0, 0)).isFalse();
+        assertThat(FloodFill.findConnected(pixels, WIDTH, HEIGHT, 1, 1, 15)
+            .contains(0, 0)).isTrue();
+    }
+
+    @Test
+    void similarPixelsAnywhere() {
+        int[] pixels = createPixels();
+
+        Region region = FloodFill.findSimilar(pixels, WIDTH, HEIGHT, WHITE, 0);
+
+        assertThat(region.contains(1, 1)).isTrue();
+        assertThat(region.contains(15, 15)).isTrue();
+        assertThat(region.contains(10, 10)).isFalse();
+    }
+
+    @Test
+    void selectionMask() {
+        int[] pixels = createPixels();
+
+        Region region = FloodFill.findConnected(pixels, WIDTH, HEIGHT, 15, 15, 0);
+        SelectionMask mask = region.toSelectionMask(5, 7);
+
+        assertThat(mask.getBounds()).isEqualTo(new Rectangle(16, 18, 18, 8));
+        assertThat(mask.contains(20, 22)).isTrue();
+        assertThat(mask.contains(15, 15)).isFalse();
+    }
+
+    // a closed black rectangular frame on a white background
+    private static int[] createPixels() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, WHITE);
+        for (int x = 10; x < 30; x++) {
+            pixels[10 * WIDTH + x] = BLACK;
+            pixels[19 * WIDTH + x] = BLACK;
+        }
+        for (int y = 10; y < 20; y++) {
+            pixels[y * WIDTH + 10] = BLACK;
+            pixels[y * WIDTH + 29] = BLACK;
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.filters.levels.Channel.*;
+
+@DisplayName("Histograms tests")
+class HistogramsTest {
+    @Test
+    void statistics() {
+        BufferedImage img = new BufferedImage(10, 10, TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, 10, 5);
+        g.setColor(new Color(255, 100, 0));
+        g.fillRect(0, 5, 10, 4);
+        // the last row remains transparent
+        g.dispose();
+
+        Histograms histograms = Histograms.calculate(img);
+
+        assertThat(histograms.getNumPixels()).isEqualTo(90L);
+        assertThat(histograms.get(RED)[0]).isEqualTo(50);
+        assertThat(histograms.get(RED)[255]).isEqualTo(40);
+        assertThat(histograms.getMin(GREEN)).isZero();
+        assertThat(histograms.getMax(GREEN)).isEqualTo(100);
+        assertThat(histograms.getMean(BLUE)).isZero();
+        assertThat(histograms.getMean(RED)).isEqualTo(255 * 40 / 90.0);
+        assertThat(histograms.getClippedDark(RED)).isEqualTo(50);
+        assertThat(histograms.getClippedLight(RED)).isEqualTo(40);
+        assertThat(histograms.getPercentile(RED, 0.5)).isZero();
+        assertThat(histograms.getPercentile(RED, 0.6)).isEqualTo(255);
+        // 0.299 * 255 + 0.587 * 100 = 134.9
+        assertThat(histograms.getMax(RGB)).isEqualTo(135);
+    }
+
+    @Test
+    void premultipliedAndSubImages() {
+        BufferedImage img = new BufferedImage(20, 20, TYPE_INT_ARGB_PRE);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(200, 0, 0, 128));
+        g.fillRect(5, 5, 10, 10);
+        g.dispose();
+
+        Histograms histograms = Histograms.calculate(img.getSubimage(5, 5, 10, 10));
+
+        assertThat(histograms.getNumPixels()).isEqualTo(100L);
+        // the colors are not premultiplied in the histograms
+        assertThat(Math.abs(histograms.getMin(RED) - 200)).isLessThanOrEqualTo(2);
+        assertThat(histograms.getMax(RED)).isEqualTo(histograms.getMin(RED));
+    }
+
+    @Test
+    void parallelMatchesSerial() {
+        BufferedImage img = new BufferedImage(301, 157, TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.RED, 301, 157, Color.CYAN));
+        g.fillOval(0, 0, 301, 157);
+        g.dispose();
+
+        Histograms parallel = Histograms.calculate(img);
+        Histograms serial = Histograms.calculateSerially(img,
+            new Rectangle(0, 0, 301, 157));
+
+        for (var channel : values()) {
+            assertThat(parallel.get(channel)).isEqualTo(serial.get(channel));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("ReseedSupport tests")
+class ReseedSupportTest {
+    @Test
+    void interleavedRandomsGiveTheSameNumbers() {
+        Random first = ReseedSupport.getLastSeedRandom();
+        int a1 = first.nextInt();
+
+        // another filter run starts in the middle of the first one
+        Random second = ReseedSupport.getLastSeedRandom();
+        int b1 = second.nextInt();
+        int a2 = first.nextInt();
+        int b2 = second.nextInt();
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(b1).isEqualTo(a1);
+        assertThat(b2).isEqualTo(a2);
+    }
+}
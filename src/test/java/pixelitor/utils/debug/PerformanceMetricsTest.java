@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils.debug;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.utils.debug.PerformanceMetrics.Stats;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.debug.PerformanceMetrics.Phase.COMPOSITING;
+import static pixelitor.utils.debug.PerformanceMetrics.Phase.TRANSFORM;
+
+@DisplayName("PerformanceMetrics tests")
+class PerformanceMetricsTest {
+    private static final long MS = 1_000_000;
+
+    @BeforeEach
+    void beforeEachTest() {
+        PerformanceMetrics.setEnabled(true);
+        PerformanceMetrics.reset();
+    }
+
+    @AfterEach
+    void afterEachTest() {
+        PerformanceMetrics.setEnabled(false);
+    }
+
+    @Test
+    void measurementsAreAggregatedByPhaseAndName() {
+        PerformanceMetrics.record(TRANSFORM, "Blur", 10 * MS, 2_000_000, 1024 * 1024, 20 * MS, 40 * MS);
+        PerformanceMetrics.record(TRANSFORM, "Blur", 30 * MS, 2_000_000, -1, -1, 0);
+        PerformanceMetrics.record(COMPOSITING, "full composite", MS / 2, 100, 0, 0, MS);
+
+        List<Stats> stats = PerformanceMetrics.getStats();
+        assertThat(stats).hasSize(2);
+
+        Stats blur = stats.get(0);
+        assertThat(blur.getPhase()).isEqualTo(TRANSFORM);
+        assertThat(blur.getCount()).isEqualTo(2);
+        assertThat(blur.getTotalMillis()).isEqualTo(40.0);
+        assertThat(blur.getMeanMillis()).isEqualTo(20.0);
+        assertThat(blur.getMinMillis()).isEqualTo(10.0);
+        assertThat(blur.getMaxMillis()).isEqualTo(30.0);
+        assertThat(blur.getMegapixelsPerSecond()).isEqualTo(100.0);
+        // the second measurement had no allocation and CPU data
+        assertThat(blur.getAllocatedMegabytes()).isEqualTo(1.0);
+        assertThat(blur.getCpuUtilization()).isEqualTo(0.5);
+        assertThat(blur.getBucket(4)).isEqualTo(1); // 8-16 ms
+        assertThat(blur.getBucket(5)).isEqualTo(1); // 16-32 ms
+
+        assertThat(stats.get(1).getPhase()).isEqualTo(COMPOSITING);
+        assertThat(stats.get(1).getBucket(0)).isEqualTo(1);
+    }
+
+    @Test
+    void histogramBuckets() {
+        assertThat(PerformanceMetrics.bucketOf(0)).isEqualTo(0);
+        assertThat(PerformanceMetrics.bucketOf(MS)).isEqualTo(1);
+        assertThat(PerformanceMetrics.bucketOf(3 * MS)).isEqualTo(2);
+        assertThat(PerformanceMetrics.bucketOf(1_000_000 * MS)).isEqualTo(PerformanceMetrics.NUM_BUCKETS - 1);
+
+        assertThat(PerformanceMetrics.bucketName(0)).isEqualTo("< 1 ms");
+        assertThat(PerformanceMetrics.bucketName(2)).isEqualTo("2-4 ms");
+    }
+
+    @Test
+    void measurementIsRecorded() {
+        PerformanceMetrics.start(TRANSFORM, "Invert").finish(100);
+
+        List<Stats> stats = PerformanceMetrics.getStats();
+        assertThat(stats).hasSize(1);
+        assertThat(stats.get(0).getName()).isEqualTo("Invert");
+        assertThat(stats.get(0).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void nothingIsRecordedWhenDisabled() {
+        PerformanceMetrics.setEnabled(false);
+
+        PerformanceMetrics.start(TRANSFORM, "Invert").finish(100);
+
+        assertThat(PerformanceMetrics.getStats()).isEmpty();
+    }
+
+    @Test
+    void csvExport() {
+        PerformanceMetrics.record(TRANSFORM, "Twirl, \"fast\"", 2 * MS, 0, 0, 0, 0);
+
+        String[] lines = PerformanceMetrics.toCSV(PerformanceMetrics.getStats()).split("\n");
+
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).startsWith("phase,name,count,total ms");
+        // the missing values are empty
+        assertThat(lines[1]).startsWith("transform,\"Twirl, \"\"fast\"\"\",1,2.000,2.000,2.000,2.000,0.000,,0.000,,");
+    }
+
+    @Test
+    void jsonExport() {
+        PerformanceMetrics.record(TRANSFORM, "Twirl \"fast\"", 2 * MS, 0, 0, 0, 0);
+
+        String json = PerformanceMetrics.toJSON(PerformanceMetrics.getStats());
+
+        assertThat(json).startsWith("[\n  {\"phase\": \"transform\", \"name\": \"Twirl \\\"fast\\\"\"");
+        // JSON has no NaN
+        assertThat(json).contains("\"megapixelsPerSecond\": null");
+        assertThat(json).contains("\"2-4 ms\": 1");
+        assertThat(json).endsWith("}}\n]\n");
+        assertThat(PerformanceMetrics.toJSON(List.of())).isEqualTo("[]\n");
+    }
+}